@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,8 +17,12 @@
 package org.hawkular.dmr.api;
 
 import java.util.StringTokenizer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
 
 /**
  * @author <a href="https://github.com/ppalaga">Peter Palaga</a>
@@ -43,4 +47,46 @@ public class DmrUtils {
         }
         return result.toString();
     }
+
+    /**
+     * Adapts the future returned by {@code ModelControllerClient.executeAsync(...)} to a {@link CompletableFuture}.
+     * The returned future is completed from the thread that completes the given one; cancelling it cancels the
+     * given future as well.
+     *
+     * @param asyncFuture the future to adapt
+     * @return a future completed with the result or the failure of the given future
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(AsyncFuture<T> asyncFuture) {
+        CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                asyncFuture.asyncCancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        asyncFuture.addListener(new AsyncFuture.Listener<T, Void>() {
+            @Override
+            public void handleComplete(AsyncFuture<? extends T> completed, Void attachment) {
+                try {
+                    future.complete(completed.getUninterruptibly());
+                } catch (ExecutionException e) {
+                    future.completeExceptionally(e.getCause());
+                } catch (CancellationException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void handleFailed(AsyncFuture<? extends T> failed, Throwable cause, Void attachment) {
+                future.completeExceptionally(cause);
+            }
+
+            @Override
+            public void handleCancelled(AsyncFuture<? extends T> cancelled, Void attachment) {
+                // not cancel(), that would cancel the given future once more
+                future.completeExceptionally(new CancellationException());
+            }
+        }, null);
+        return future;
+    }
 }
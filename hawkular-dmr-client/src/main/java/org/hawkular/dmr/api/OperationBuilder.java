@@ -18,15 +18,19 @@ package org.hawkular.dmr.api;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 import org.jboss.as.controller.PathAddress;
 import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.OperationMessageHandler;
 import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
 import org.jboss.dmr.ModelNode;
 
@@ -78,15 +82,28 @@ public class OperationBuilder implements SubsystemDatasourceConstants, Subsystem
         }
 
         public R execute(ModelControllerClient client) {
-            ModelNode request = build();
-            ModelNode result;
-            try {
-                result = client.execute(request);
-            } catch (IOException e) {
-                throw new DmrApiException(e);
-            }
-            log.tracef("Executed [%s] built by [%s] with result [%s]", request, getClass().getName(), result);
-            return createResult(request, result);
+            return OperationBuilder.execute(client, build(), this::createResult, getClass().getName());
+        }
+
+        /**
+         * Like {@link #execute(ModelControllerClient)} but does not wait for the response.
+         *
+         * @param client the client to execute the operation with
+         * @return a future completed with the result, or with a {@link DmrApiException} if the operation could not
+         *         be executed
+         */
+        public CompletableFuture<R> executeAsync(ModelControllerClient client) {
+            return OperationBuilder.executeAsync(client, build(), this::createResult, getClass().getName());
+        }
+
+        /**
+         * Builds the operation once for executing it repeatedly, see {@link OperationTemplate}. Later changes to this
+         * builder do not affect the returned template.
+         *
+         * @return a template of the operation built so far
+         */
+        public OperationTemplate<R> template() {
+            return new OperationTemplate<>(build().clone(), this::createResult, getClass().getName());
         }
 
         @SuppressWarnings("unchecked")
@@ -286,7 +303,7 @@ public class OperationBuilder implements SubsystemDatasourceConstants, Subsystem
     }
 
     public static class CompositeOperationBuilder<T extends CompositeOperationBuilder<?>>
-            extends AbstractOperationBuilder<T, OperationResult<?>> {
+            extends AbstractOperationBuilder<T, CompositeOperationResult<?>> {
 
         private ModelNode steps;
 
@@ -296,6 +313,30 @@ public class OperationBuilder implements SubsystemDatasourceConstants, Subsystem
             this.steps = baseNode.get(ModelDescriptionConstants.STEPS);
         }
 
+        @Override
+        protected CompositeOperationResult<?> createResult(ModelNode request, ModelNode result) {
+            return new CompositeOperationResult<CompositeOperationResult<?>>(request, result);
+        }
+
+        /**
+         * @return the number of steps added so far
+         */
+        public int getStepCount() {
+            return steps.isDefined() ? steps.asList().size() : 0;
+        }
+
+        /**
+         * By default the steps that have already been executed are rolled back if any step fails at runtime.
+         * Passing {@code false} here keeps their effects in place. Note that failures while validating the steps
+         * (e.g. an unknown address) still fail the whole composite.
+         *
+         * @param rollback whether to roll back all steps if any of them fails at runtime
+         * @return this builder
+         */
+        public T rollbackOnRuntimeFailure(boolean rollback) {
+            return operationHeader(ModelDescriptionConstants.ROLLBACK_ON_RUNTIME_FAILURE, rollback);
+        }
+
         @SuppressWarnings("unchecked")
         public AddOperationBuilder<AddOperationBuilder<?>> add() {
             return new AddOperationBuilder<>((CompositeOperationBuilder<CompositeOperationBuilder<?>>) this);
@@ -353,6 +394,62 @@ public class OperationBuilder implements SubsystemDatasourceConstants, Subsystem
 
     }
 
+    /**
+     * A result of a composite DMR operation that also gives access to the results of the individual steps.
+     *
+     * @param <R> the current type to return from fluent methods
+     */
+    public static class CompositeOperationResult<R extends CompositeOperationResult<?>> extends OperationResult<R> {
+
+        private CompositeOperationResult(ModelNode requestNode, ModelNode responseNode) {
+            super(requestNode, responseNode);
+        }
+
+        /**
+         * @return the number of steps in the composite operation
+         */
+        public int getStepCount() {
+            return requestNode.hasDefined(ModelDescriptionConstants.STEPS)
+                    ? requestNode.get(ModelDescriptionConstants.STEPS).asList().size() : 0;
+        }
+
+        /**
+         * Returns the result of the given step. The step results are also available if the composite operation as a
+         * whole failed - the result of the step that caused the failure then carries the failure description.
+         * If the server did not report a result for the step, asserting its success fails.
+         *
+         * @param index the zero-based index of the step in the order the steps were added
+         * @return the result of the step
+         */
+        public OperationResult<?> getStepResult(int index) {
+            if (index < 0 || index >= getStepCount()) {
+                throw new IndexOutOfBoundsException("Step index [" + index + "] out of range [0.." + getStepCount()
+                        + ")");
+            }
+            ModelNode stepRequest = requestNode.get(ModelDescriptionConstants.STEPS).get(index);
+            ModelNode stepResponse = new ModelNode();
+            String stepKey = "step-" + (index + 1);
+            if (responseNode.hasDefined(ModelDescriptionConstants.RESULT)
+                    && responseNode.get(ModelDescriptionConstants.RESULT).hasDefined(stepKey)) {
+                stepResponse = responseNode.get(ModelDescriptionConstants.RESULT).get(stepKey);
+            }
+            return new OperationResult<OperationResult<?>>(stepRequest, stepResponse);
+        }
+
+        /**
+         * @return the results of all steps in the order the steps were added
+         * @see #getStepResult(int)
+         */
+        public List<OperationResult<?>> getStepResults() {
+            int count = getStepCount();
+            List<OperationResult<?>> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(getStepResult(i));
+            }
+            return results;
+        }
+    }
+
     public static class MapPutOperationBuilder<T extends MapPutOperationBuilder<?>>
             extends AbstractSingleOperationBuilder<T, OperationResult<?>> {
 
@@ -507,6 +604,74 @@ public class OperationBuilder implements SubsystemDatasourceConstants, Subsystem
         }
     }
 
+    /**
+     * A DMR operation built once and executed any number of times, so that an operation executed periodically (e.g.
+     * reading the value of a metric) is not built again for every execution. Each execution sends a copy of the
+     * request so that the template stays intact whatever the client does with the request.
+     * <p>
+     * A template can have parameter slots: {@link #with(String, ModelNode)} returns a template with one parameter set
+     * differently, leaving this template as it is.
+     *
+     * @param <R> the type of the results
+     */
+    public static class OperationTemplate<R extends OperationResult<?>> {
+        private final ModelNode request;
+        private final BiFunction<ModelNode, ModelNode, R> resultFactory;
+        private final String builtBy;
+
+        private OperationTemplate(ModelNode request, BiFunction<ModelNode, ModelNode, R> resultFactory,
+                String builtBy) {
+            this.request = request;
+            this.resultFactory = resultFactory;
+            this.builtBy = builtBy;
+        }
+
+        /**
+         * @return a copy of the request this template sends
+         */
+        public ModelNode getRequestNode() {
+            return request.clone();
+        }
+
+        public R execute(ModelControllerClient client) {
+            return OperationBuilder.execute(client, request.clone(), resultFactory, builtBy);
+        }
+
+        /**
+         * Like {@link #execute(ModelControllerClient)} but does not wait for the response.
+         *
+         * @param client the client to execute the operation with
+         * @return a future completed with the result, or with a {@link DmrApiException} if the operation could not
+         *         be executed
+         */
+        public CompletableFuture<R> executeAsync(ModelControllerClient client) {
+            return OperationBuilder.executeAsync(client, request.clone(), resultFactory, builtBy);
+        }
+
+        /**
+         * @param name the name of the parameter
+         * @param value the value of the parameter; if {@code null}, the parameter is removed
+         * @return a new template that sends the request of this template with the given parameter set to
+         *         {@code value}
+         */
+        public OperationTemplate<R> with(String name, ModelNode value) {
+            ModelNode newRequest = request.clone();
+            if (value == null) {
+                newRequest.remove(name);
+            } else {
+                newRequest.get(name).set(value);
+            }
+            return new OperationTemplate<>(newRequest, resultFactory, builtBy);
+        }
+
+        /**
+         * @see #with(String, ModelNode)
+         */
+        public OperationTemplate<R> with(String name, String value) {
+            return with(name, value == null ? null : new ModelNode(value));
+        }
+    }
+
     public static class ReadAttributeOperationBuilder<T extends ReadAttributeOperationBuilder<?>>
             extends AbstractSingleOperationBuilder<T, OperationResult<?>> {
 
@@ -830,6 +995,31 @@ public class OperationBuilder implements SubsystemDatasourceConstants, Subsystem
 
     private static final MsgLogger log = DmrApiLoggers.getLogger(OperationBuilder.class);
 
+    private static <R> R execute(ModelControllerClient client, ModelNode request,
+            BiFunction<ModelNode, ModelNode, R> resultFactory, String builtBy) {
+        ModelNode result;
+        try {
+            result = client.execute(request);
+        } catch (IOException e) {
+            throw new DmrApiException(e);
+        }
+        log.tracef("Executed [%s] built by [%s] with result [%s]", request, builtBy, result);
+        return resultFactory.apply(request, result);
+    }
+
+    private static <R> CompletableFuture<R> executeAsync(ModelControllerClient client, ModelNode request,
+            BiFunction<ModelNode, ModelNode, R> resultFactory, String builtBy) {
+        return DmrUtils.toCompletableFuture(client.executeAsync(request, OperationMessageHandler.DISCARD))
+                .handle((result, failure) -> {
+                    if (failure != null) {
+                        throw (failure instanceof DmrApiException) ? (DmrApiException) failure
+                                : new DmrApiException(failure);
+                    }
+                    log.tracef("Executed [%s] built by [%s] with result [%s]", request, builtBy, result);
+                    return resultFactory.apply(request, result);
+                });
+    }
+
     public static AddOperationBuilder<AddOperationBuilder<?>> add() {
         return new AddOperationBuilder<>(null);
     }
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.dmrclient;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.as.controller.client.OperationResponse;
+import org.jboss.dmr.ModelNode;
+import org.jboss.logging.Logger;
+import org.jboss.threads.AsyncFuture;
+import org.jboss.threads.AsyncFutureTask;
+
+/**
+ * A client that merges read operations submitted concurrently into one composite operation, so that many threads
+ * reading from the same endpoint (e.g. collecting metrics) share a round trip instead of each making their own.
+ *
+ * A read is held back for at most the configured window; all reads that arrive during the window are sent as the
+ * steps of one {@value JBossASClient#BATCH} operation and each caller gets the response of its own step. If the
+ * composite fails as a whole (e.g. one of the reads addresses a resource that does not exist) the reads are sent
+ * again one by one so that each caller gets the outcome of its own read. Other operations, reads with operation
+ * headers and operations with attachments are passed to the wrapped client right away.
+ *
+ * Closing this client closes the wrapped client.
+ */
+public class BatchingModelControllerClient implements ModelControllerClient {
+    private final Logger log = Logger.getLogger(this.getClass());
+
+    private static final Set<String> BATCHABLE_OPERATIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            JBossASClient.READ_ATTRIBUTE,
+            JBossASClient.READ_RESOURCE,
+            "read-children-names",
+            "read-children-resources",
+            "read-children-types",
+            "read-resource-description")));
+    private static final String OPERATION_HEADERS = "operation-headers";
+
+    /**
+     * The future of a read waiting to be sent.
+     */
+    private static class PendingRead extends AsyncFutureTask<ModelNode> {
+        private final ModelNode request;
+
+        PendingRead(ModelNode request) {
+            super(Runnable::run);
+            this.request = request;
+        }
+
+        void complete(ModelNode response) {
+            setResult(response);
+        }
+
+        void fail(Throwable cause) {
+            setFailed(cause);
+        }
+
+        @Override
+        public void asyncCancel(boolean interruptionDesired) {
+            // a read that was already sent cannot be taken back, but its caller is no longer waiting for it
+            setCancelled();
+        }
+    }
+
+    private final ModelControllerClient client;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private List<PendingRead> pending = new ArrayList<>();
+
+    /**
+     * @param client the client to send the operations with
+     * @param windowMillis how long a read waits for other reads to be sent with
+     * @param maxBatchSize the maximum number of reads sent in one composite; the reads are sent right away once
+     *        that many are waiting
+     */
+    public BatchingModelControllerClient(ModelControllerClient client, long windowMillis, int maxBatchSize) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis must not be negative: " + windowMillis);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1: " + maxBatchSize);
+        }
+        this.client = client;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Hawkular-DMR-Batching");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param request an operation
+     * @return true if the operation can be sent as a step of a composite along with unrelated reads
+     */
+    public static boolean isBatchable(ModelNode request) {
+        return request.hasDefined(JBossASClient.OPERATION)
+                && BATCHABLE_OPERATIONS.contains(request.get(JBossASClient.OPERATION).asString())
+                && !request.hasDefined(OPERATION_HEADERS);
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+        if (!isBatchable(operation)) {
+            return client.executeAsync(operation, messageHandler);
+        }
+        PendingRead read = new PendingRead(operation);
+        List<PendingRead> full = null;
+        synchronized (this) {
+            if (scheduler.isShutdown()) {
+                throw new IllegalStateException("The client is closed");
+            }
+            pending.add(read);
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = new ArrayList<>();
+            } else if (pending.size() == 1) {
+                scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return read;
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation, OperationMessageHandler messageHandler) throws IOException {
+        return await(executeAsync(operation, messageHandler));
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation) throws IOException {
+        return execute(operation, OperationMessageHandler.DISCARD);
+    }
+
+    @Override
+    public ModelNode execute(Operation operation) throws IOException {
+        return client.execute(operation);
+    }
+
+    @Override
+    public ModelNode execute(Operation operation, OperationMessageHandler messageHandler) throws IOException {
+        return client.execute(operation, messageHandler);
+    }
+
+    @Override
+    public OperationResponse executeOperation(Operation operation, OperationMessageHandler messageHandler)
+            throws IOException {
+        return client.executeOperation(operation, messageHandler);
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+        return client.executeAsync(operation, messageHandler);
+    }
+
+    @Override
+    public AsyncFuture<OperationResponse> executeOperationAsync(Operation operation,
+            OperationMessageHandler messageHandler) {
+        return client.executeOperationAsync(operation, messageHandler);
+    }
+
+    /**
+     * Sends the waiting reads and closes the wrapped client.
+     */
+    @Override
+    public void close() throws IOException {
+        List<PendingRead> reads;
+        synchronized (this) {
+            scheduler.shutdownNow();
+            reads = pending;
+            pending = new ArrayList<>();
+        }
+        send(reads);
+        client.close();
+    }
+
+    private void flush() {
+        List<PendingRead> reads;
+        synchronized (this) {
+            reads = pending;
+            pending = new ArrayList<>();
+        }
+        send(reads);
+    }
+
+    private void send(List<PendingRead> reads) {
+        if (reads.isEmpty()) {
+            return;
+        } else if (reads.size() == 1) {
+            sendAlone(reads.get(0));
+            return;
+        }
+
+        ModelNode[] steps = new ModelNode[reads.size()];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = reads.get(i).request;
+        }
+        ModelNode composite = JBossASClient.createBatchRequest(steps);
+        client.executeAsync(composite, OperationMessageHandler.DISCARD).addListener(
+                new AsyncFuture.Listener<ModelNode, Void>() {
+                    @Override
+                    public void handleComplete(AsyncFuture<? extends ModelNode> future, Void attachment) {
+                        ModelNode response;
+                        try {
+                            response = future.getUninterruptibly();
+                        } catch (ExecutionException e) {
+                            handleFailed(future, e.getCause(), attachment);
+                            return;
+                        } catch (Exception e) {
+                            handleFailed(future, e, attachment);
+                            return;
+                        }
+                        if (!JBossASClient.isSuccess(response)) {
+                            log.debugf("Composite of %d reads failed, sending them one by one: %s", reads.size(),
+                                    JBossASClient.getFailureDescription(response));
+                            for (PendingRead read : reads) {
+                                sendAlone(read);
+                            }
+                            return;
+                        }
+                        ModelNode results = JBossASClient.getResults(response);
+                        for (int i = 0; i < reads.size(); i++) {
+                            String step = "step-" + (i + 1);
+                            if (results.hasDefined(step)) {
+                                reads.get(i).complete(results.get(step));
+                            } else {
+                                sendAlone(reads.get(i));
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void handleFailed(AsyncFuture<? extends ModelNode> future, Throwable cause,
+                            Void attachment) {
+                        for (PendingRead read : reads) {
+                            read.fail(cause);
+                        }
+                    }
+
+                    @Override
+                    public void handleCancelled(AsyncFuture<? extends ModelNode> future, Void attachment) {
+                        handleFailed(future, new IOException("Composite of reads was cancelled"), attachment);
+                    }
+                }, null);
+    }
+
+    private void sendAlone(PendingRead read) {
+        client.executeAsync(read.request, OperationMessageHandler.DISCARD).addListener(
+                new AsyncFuture.Listener<ModelNode, PendingRead>() {
+                    @Override
+                    public void handleComplete(AsyncFuture<? extends ModelNode> future, PendingRead attachment) {
+                        try {
+                            attachment.complete(future.getUninterruptibly());
+                        } catch (ExecutionException e) {
+                            attachment.fail(e.getCause());
+                        } catch (Exception e) {
+                            attachment.fail(e);
+                        }
+                    }
+
+                    @Override
+                    public void handleFailed(AsyncFuture<? extends ModelNode> future, Throwable cause,
+                            PendingRead attachment) {
+                        attachment.fail(cause);
+                    }
+
+                    @Override
+                    public void handleCancelled(AsyncFuture<? extends ModelNode> future, PendingRead attachment) {
+                        attachment.fail(new IOException("Read was cancelled"));
+                    }
+                }, read);
+    }
+
+    private static ModelNode await(AsyncFuture<ModelNode> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.asyncCancel(true);
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
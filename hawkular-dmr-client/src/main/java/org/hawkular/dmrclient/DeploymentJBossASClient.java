@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,11 +16,14 @@
  */
 package org.hawkular.dmrclient;
 
+import java.io.File;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 
 import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.dmr.ModelNode;
 import org.wildfly.plugin.core.Deployment;
 import org.wildfly.plugin.core.DeploymentManager;
 import org.wildfly.plugin.core.DeploymentResult;
@@ -89,6 +92,57 @@ public class DeploymentJBossASClient extends JBossASClient {
         return; // everything is OK
     }
 
+    /**
+     * Determines if the deployment already exists with the given content and is enabled or disabled as requested.
+     * If an empty set of server groups is passed in, this will assume we are operating on a standalone server,
+     * otherwise the deployment must be assigned to all the given server groups.
+     *
+     * @param deploymentName name that the content is known as
+     * @param contentHash the SHA-1 hash of the content, which is how the app server identifies deployment content
+     * @param enabled whether the deployment is expected to be enabled or disabled
+     * @param serverGroups the server groups where the application is expected to be deployed if in domain mode
+     * @return true if the deployment has the given content and is in the expected state
+     * @throws Exception if some error prevented the lookup from even happening
+     */
+    public boolean isDeployed(String deploymentName, byte[] contentHash, boolean enabled, Set<String> serverGroups)
+            throws Exception {
+        if (serverGroups == null) {
+            serverGroups = Collections.emptySet();
+        }
+
+        ModelNode deployment = readResource(Address.root().add("deployment", deploymentName));
+        if (deployment == null) {
+            return false;
+        }
+
+        boolean sameContent = false;
+        if (deployment.hasDefined("content")) {
+            for (ModelNode content : deployment.get("content").asList()) {
+                if (content.hasDefined("hash") && Arrays.equals(contentHash, content.get("hash").asBytes())) {
+                    sameContent = true;
+                    break;
+                }
+            }
+        }
+        if (!sameContent) {
+            return false;
+        }
+
+        if (serverGroups.isEmpty()) {
+            return deployment.get("enabled").asBoolean(false) == enabled;
+        }
+
+        for (String serverGroup : serverGroups) {
+            ModelNode groupDeployment = readResource(
+                    Address.root().add("server-group", serverGroup).add("deployment", deploymentName));
+            if (groupDeployment == null || groupDeployment.get("enabled").asBoolean(false) != enabled) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Uploads the content to the app server's content repository and then deploys the content.
      * If this is to be used for app servers in "domain" mode you have to pass in one or more
@@ -106,6 +160,29 @@ public class DeploymentJBossASClient extends JBossASClient {
      */
     public void deploy(String deploymentName, InputStream content, boolean enabled, Set<String> serverGroups,
             boolean forceDeploy) {
+        deploy(deploymentName, Deployment.of(content, deploymentName), enabled, serverGroups, forceDeploy);
+    }
+
+    /**
+     * Same as {@link #deploy(String, InputStream, boolean, Set, boolean)} except the content is read from a file.
+     * Prefer this for large content since the content is streamed from the file when uploaded.
+     *
+     * @param deploymentName name that the content will be known as
+     * @param content file containing the actual content data
+     * @param enabled if true, the content will be uploaded and actually deployed;
+     *                if false, content will be uploaded to the server, but it won't be deployed in the server runtime
+     * @param serverGroups the server groups where the application will be deployed if in domain mode
+     * @param forceDeploy if true the deployment content is uploaded even if that deployment name already has content
+     *                    (in other words, the new content will overwrite the old). If false, an error will occur if
+     *                    there is already content associated with the deployment name.
+     */
+    public void deploy(String deploymentName, File content, boolean enabled, Set<String> serverGroups,
+            boolean forceDeploy) {
+        deploy(deploymentName, Deployment.of(content).setName(deploymentName), enabled, serverGroups, forceDeploy);
+    }
+
+    private void deploy(String deploymentName, Deployment deployment, boolean enabled, Set<String> serverGroups,
+            boolean forceDeploy) {
         if (serverGroups == null) {
             serverGroups = Collections.emptySet();
         }
@@ -114,8 +191,7 @@ public class DeploymentJBossASClient extends JBossASClient {
 
         try {
             DeploymentManager dm = DeploymentManager.Factory.create(getModelControllerClient());
-            Deployment deployment = Deployment.of(content, deploymentName)
-                    .addServerGroups(serverGroups)
+            deployment.addServerGroups(serverGroups)
                     .setEnabled(enabled);
             if (forceDeploy) {
                 result = dm.forceDeploy(deployment);
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -19,7 +19,9 @@ package org.hawkular.dmrclient;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.hawkular.dmr.api.DmrUtils;
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.as.controller.client.OperationMessageHandler;
 import org.jboss.dmr.ModelNode;
@@ -284,6 +286,17 @@ public class JBossASClient implements AutoCloseable {
         return mcc.execute(request, OperationMessageHandler.logging);
     }
 
+    /**
+     * Executes the request without waiting for the response.
+     *
+     * @param request request to execute
+     * @return a future completed with the results of execution, or with the error that prevented the execution
+     */
+    public CompletableFuture<ModelNode> executeAsync(ModelNode request) {
+        ModelControllerClient mcc = getModelControllerClient();
+        return DmrUtils.toCompletableFuture(mcc.executeAsync(request, OperationMessageHandler.logging));
+    }
+
     /**
      * This returns information on the resource at the given address.
      * This will not return an exception if the address points to a non-existent resource, rather,
@@ -320,6 +333,19 @@ public class JBossASClient implements AutoCloseable {
         }
     }
 
+    /**
+     * The asynchronous version of {@link #readResource(Address, boolean)}.
+     *
+     * @param addr the address of the resource
+     * @param recursive if true, return all child data within the resource node
+     * @return a future completed with the found item or null if not found
+     */
+    public CompletableFuture<ModelNode> readResourceAsync(Address addr, boolean recursive) {
+        final ModelNode request = createRequest(READ_RESOURCE, addr);
+        request.get("recursive").set(recursive);
+        return executeAsync(request).thenApply(results -> isSuccess(results) ? getResults(results) : null);
+    }
+
     /**
      * Removes the resource at the given address.
      *
@@ -335,6 +361,21 @@ public class JBossASClient implements AutoCloseable {
         return;
     }
 
+    /**
+     * The asynchronous version of {@link #remove(Address)}.
+     *
+     * @param doomedAddr the address of the resource to remove
+     * @return a future completed when the resource was removed, or with a {@link FailureException}
+     */
+    public CompletableFuture<Void> removeAsync(Address doomedAddr) {
+        final ModelNode request = createRequest(REMOVE, doomedAddr);
+        return executeAsync(request).thenAccept(response -> {
+            if (!isSuccess(response)) {
+                throw new FailureException(response, "Failed to remove resource at address [" + doomedAddr + "]");
+            }
+        });
+    }
+
     /**
      * Convienence method that allows you to obtain a single attribute's value from a resource.
      *
@@ -369,6 +410,26 @@ public class JBossASClient implements AutoCloseable {
         }
     }
 
+    /**
+     * The asynchronous version of {@link #getAttribute(boolean, String, Address)}.
+     *
+     * @param runtime if <code>true</code>, the attribute to be retrieved is a runtime attribute
+     * @param attributeName the attribute whose value is to be returned
+     * @param address identifies the resource
+     * @return a future completed with the attribute value, or with a {@link FailureException}
+     */
+    public CompletableFuture<ModelNode> getAttributeAsync(boolean runtime, String attributeName, Address address) {
+        final ModelNode op = createReadAttributeRequest(runtime, attributeName, address);
+        return executeAsync(op).thenApply(results -> {
+            if (isSuccess(results)) {
+                return getResults(results);
+            } else {
+                throw new FailureException(results, "Failed to get attribute [" + attributeName + "] from ["
+                        + address + "]");
+            }
+        });
+    }
+
     /**
      * Convienence method that allows you to obtain a single attribute's string value from
      * a resource.
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.dmrclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.as.controller.client.OperationResponse;
+import org.jboss.dmr.ModelNode;
+import org.jboss.logging.Logger;
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * Keeps one {@link ModelControllerClient} per endpoint so that the connection to the endpoint is reused rather than
+ * opened for every session. A client executes concurrent requests over the same connection, so the users of an
+ * endpoint share its client.
+ *
+ * Clients are obtained with {@link #acquire(Object)}. Closing an acquired client only releases it; the underlying
+ * client stays open until it is {@link #invalidate(Object) invalidated} (e.g. after a connection failure) or the
+ * pool is closed, and then is closed once the last user released it.
+ *
+ * @param <K> the type identifying an endpoint
+ */
+public class ModelControllerClientPool<K> implements AutoCloseable {
+    private final Logger log = Logger.getLogger(this.getClass());
+
+    private static class SharedClient {
+        private final ModelControllerClient client;
+        private int leases;
+        private boolean retired;
+
+        SharedClient(ModelControllerClient client) {
+            this.client = client;
+        }
+    }
+
+    private final Function<K, ModelControllerClient> clientFactory;
+    private final Map<K, SharedClient> clients = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * @param clientFactory creates the client of an endpoint the first time the endpoint is asked for
+     */
+    public ModelControllerClientPool(Function<K, ModelControllerClient> clientFactory) {
+        this.clientFactory = clientFactory;
+    }
+
+    /**
+     * Returns a client for the endpoint, which the caller must close when done with it.
+     *
+     * @param endpoint identifies the endpoint
+     * @return a client sharing the connection to the endpoint
+     */
+    public ModelControllerClient acquire(K endpoint) {
+        SharedClient shared;
+        synchronized (clients) {
+            if (closed) {
+                throw new IllegalStateException("The client pool is closed");
+            }
+            shared = clients.get(endpoint);
+            if (shared == null) {
+                shared = new SharedClient(clientFactory.apply(endpoint));
+                clients.put(endpoint, shared);
+            }
+            shared.leases++;
+        }
+        return new PooledClient(shared);
+    }
+
+    /**
+     * Stops handing out the current client of the endpoint; the next {@link #acquire(Object)} creates a new one.
+     * The current client is closed as soon as nobody uses it anymore.
+     *
+     * @param endpoint identifies the endpoint
+     */
+    public void invalidate(K endpoint) {
+        SharedClient shared;
+        synchronized (clients) {
+            shared = clients.remove(endpoint);
+            if (shared == null) {
+                return;
+            }
+            shared.retired = true;
+            if (shared.leases > 0) {
+                shared = null;
+            }
+        }
+        if (shared != null) {
+            closeQuietly(shared);
+        }
+    }
+
+    /**
+     * Closes the clients nobody uses; the others are closed when they are released.
+     */
+    @Override
+    public void close() {
+        List<SharedClient> unused = new ArrayList<>();
+        synchronized (clients) {
+            closed = true;
+            for (SharedClient shared : clients.values()) {
+                shared.retired = true;
+                if (shared.leases == 0) {
+                    unused.add(shared);
+                }
+            }
+            clients.clear();
+        }
+        for (SharedClient shared : unused) {
+            closeQuietly(shared);
+        }
+    }
+
+    private void release(SharedClient shared) {
+        synchronized (clients) {
+            if (--shared.leases > 0 || !shared.retired) {
+                return;
+            }
+        }
+        closeQuietly(shared);
+    }
+
+    private void closeQuietly(SharedClient shared) {
+        try {
+            shared.client.close();
+        } catch (Exception e) {
+            log.debugf(e, "Failed to close management client");
+        }
+    }
+
+    /**
+     * A client acquired from the pool. Closing it releases the shared client.
+     */
+    private class PooledClient implements ModelControllerClient {
+        private final SharedClient shared;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PooledClient(SharedClient shared) {
+            this.shared = shared;
+        }
+
+        @Override
+        public ModelNode execute(ModelNode operation) throws IOException {
+            return shared.client.execute(operation);
+        }
+
+        @Override
+        public ModelNode execute(Operation operation) throws IOException {
+            return shared.client.execute(operation);
+        }
+
+        @Override
+        public ModelNode execute(ModelNode operation, OperationMessageHandler messageHandler) throws IOException {
+            return shared.client.execute(operation, messageHandler);
+        }
+
+        @Override
+        public ModelNode execute(Operation operation, OperationMessageHandler messageHandler) throws IOException {
+            return shared.client.execute(operation, messageHandler);
+        }
+
+        @Override
+        public OperationResponse executeOperation(Operation operation, OperationMessageHandler messageHandler)
+                throws IOException {
+            return shared.client.executeOperation(operation, messageHandler);
+        }
+
+        @Override
+        public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+            return shared.client.executeAsync(operation, messageHandler);
+        }
+
+        @Override
+        public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+            return shared.client.executeAsync(operation, messageHandler);
+        }
+
+        @Override
+        public AsyncFuture<OperationResponse> executeOperationAsync(Operation operation,
+                OperationMessageHandler messageHandler) {
+            return shared.client.executeOperationAsync(operation, messageHandler);
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(shared);
+            }
+        }
+    }
+}
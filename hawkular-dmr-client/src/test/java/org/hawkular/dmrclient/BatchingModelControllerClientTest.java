@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.dmrclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.as.controller.client.OperationResponse;
+import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
+import org.jboss.threads.AsyncFutureTask;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchingModelControllerClientTest {
+
+    private static class Response extends AsyncFutureTask<ModelNode> {
+        Response(ModelNode response) {
+            super(Runnable::run);
+            setResult(response);
+        }
+    }
+
+    /**
+     * Answers a read-attribute with the name of the attribute, fails reading the attribute "bogus" and fails a
+     * composite that has such a step.
+     */
+    private static class ReadingClient implements ModelControllerClient {
+        private final List<ModelNode> requests = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+            requests.add(operation);
+            return new Response(respond(operation));
+        }
+
+        private ModelNode respond(ModelNode operation) {
+            ModelNode response = new ModelNode();
+            if (JBossASClient.BATCH.equals(operation.get(JBossASClient.OPERATION).asString())) {
+                List<ModelNode> steps = operation.get(JBossASClient.BATCH_STEPS).asList();
+                boolean success = true;
+                for (int i = 0; i < steps.size(); i++) {
+                    ModelNode stepResponse = respond(steps.get(i));
+                    success &= JBossASClient.isSuccess(stepResponse);
+                    response.get(JBossASClient.RESULT, "step-" + (i + 1)).set(stepResponse);
+                }
+                response.get(JBossASClient.OUTCOME).set(success ? JBossASClient.OUTCOME_SUCCESS : "failed");
+            } else if ("bogus".equals(operation.get(JBossASClient.NAME).asString())) {
+                response.get(JBossASClient.OUTCOME).set("failed");
+                response.get(JBossASClient.FAILURE_DESCRIPTION).set("no such attribute");
+            } else {
+                response.get(JBossASClient.OUTCOME).set(JBossASClient.OUTCOME_SUCCESS);
+                response.get(JBossASClient.RESULT).set(operation.get(JBossASClient.NAME));
+            }
+            return response;
+        }
+
+        @Override
+        public ModelNode execute(ModelNode operation) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ModelNode execute(Operation operation) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ModelNode execute(ModelNode operation, OperationMessageHandler messageHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ModelNode execute(Operation operation, OperationMessageHandler messageHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public OperationResponse executeOperation(Operation operation, OperationMessageHandler messageHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AsyncFuture<OperationResponse> executeOperationAsync(Operation operation,
+                OperationMessageHandler messageHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static ModelNode readAttribute(String name) {
+        return JBossASClient.createReadAttributeRequest(name, Address.parse("/subsystem=datasources"));
+    }
+
+    @Test
+    public void testReadsSentAsOneComposite() throws Exception {
+        ReadingClient client = new ReadingClient();
+        try (BatchingModelControllerClient batching = new BatchingModelControllerClient(client, 60000, 3)) {
+            AsyncFuture<ModelNode> a = batching.executeAsync(readAttribute("a"), null);
+            AsyncFuture<ModelNode> b = batching.executeAsync(readAttribute("b"), null);
+            Assert.assertTrue("Nothing is sent before the batch is full", client.requests.isEmpty());
+            AsyncFuture<ModelNode> c = batching.executeAsync(readAttribute("c"), null);
+
+            Assert.assertEquals(1, client.requests.size());
+            Assert.assertEquals(3, client.requests.get(0).get(JBossASClient.BATCH_STEPS).asList().size());
+            Assert.assertEquals("a", JBossASClient.getResults(a.get(1, TimeUnit.SECONDS)).asString());
+            Assert.assertEquals("b", JBossASClient.getResults(b.get(1, TimeUnit.SECONDS)).asString());
+            Assert.assertEquals("c", JBossASClient.getResults(c.get(1, TimeUnit.SECONDS)).asString());
+        }
+    }
+
+    @Test
+    public void testReadsSentAfterWindow() throws Exception {
+        ReadingClient client = new ReadingClient();
+        try (BatchingModelControllerClient batching = new BatchingModelControllerClient(client, 10, 100)) {
+            AsyncFuture<ModelNode> a = batching.executeAsync(readAttribute("a"), null);
+            ModelNode b = batching.execute(readAttribute("b"));
+
+            Assert.assertEquals("b", JBossASClient.getResults(b).asString());
+            Assert.assertEquals("a", JBossASClient.getResults(a.get(1, TimeUnit.SECONDS)).asString());
+            Assert.assertEquals(1, client.requests.size());
+        }
+    }
+
+    @Test
+    public void testFailedCompositeSentOneByOne() throws Exception {
+        ReadingClient client = new ReadingClient();
+        try (BatchingModelControllerClient batching = new BatchingModelControllerClient(client, 60000, 2)) {
+            AsyncFuture<ModelNode> a = batching.executeAsync(readAttribute("a"), null);
+            AsyncFuture<ModelNode> bogus = batching.executeAsync(readAttribute("bogus"), null);
+
+            Assert.assertEquals(3, client.requests.size());
+            Assert.assertTrue(JBossASClient.isSuccess(a.get(1, TimeUnit.SECONDS)));
+            Assert.assertEquals("no such attribute",
+                    JBossASClient.getFailureDescription(bogus.get(1, TimeUnit.SECONDS)));
+        }
+    }
+
+    @Test
+    public void testWritesNotBatched() throws Exception {
+        ReadingClient client = new ReadingClient();
+        try (BatchingModelControllerClient batching = new BatchingModelControllerClient(client, 60000, 100)) {
+            ModelNode write = JBossASClient.createWriteAttributeRequest("a", "1",
+                    Address.parse("/subsystem=datasources"));
+            batching.executeAsync(write, null);
+            Assert.assertEquals(1, client.requests.size());
+            Assert.assertEquals(JBossASClient.WRITE_ATTRIBUTE,
+                    client.requests.get(0).get(JBossASClient.OPERATION).asString());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.dmrclient;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.dmr.ModelNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ModelControllerClientPoolTest {
+
+    private final Map<String, AtomicInteger> created = new HashMap<>();
+    private final Map<String, AtomicInteger> closed = new HashMap<>();
+
+    /**
+     * @return a client that answers every request with the endpoint name and counts how often it is closed
+     */
+    private ModelControllerClient createClient(String endpoint) {
+        created.computeIfAbsent(endpoint, e -> new AtomicInteger()).incrementAndGet();
+        AtomicInteger closeCount = closed.computeIfAbsent(endpoint, e -> new AtomicInteger());
+        return (ModelControllerClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ModelControllerClient.class }, (proxy, method, args) -> {
+                    if ("close".equals(method.getName())) {
+                        closeCount.incrementAndGet();
+                        return null;
+                    }
+                    return new ModelNode(endpoint);
+                });
+    }
+
+    @Test
+    public void testClientSharedPerEndpoint() throws Exception {
+        try (ModelControllerClientPool<String> pool = new ModelControllerClientPool<>(this::createClient)) {
+            ModelControllerClient a1 = pool.acquire("a");
+            ModelControllerClient a2 = pool.acquire("a");
+            ModelControllerClient b = pool.acquire("b");
+            Assert.assertEquals("a", a2.execute(new ModelNode()).asString());
+            Assert.assertEquals("b", b.execute(new ModelNode()).asString());
+            Assert.assertEquals(1, created.get("a").get());
+
+            a1.close();
+            a2.close();
+            a2.close();
+            Assert.assertEquals("Released clients stay open for the next user", 0, closed.get("a").get());
+            pool.acquire("a").close();
+            Assert.assertEquals(1, created.get("a").get());
+
+            pool.close();
+            Assert.assertEquals(1, closed.get("a").get());
+            Assert.assertEquals("A client in use is closed when released", 0, closed.get("b").get());
+            b.close();
+            Assert.assertEquals(1, closed.get("b").get());
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        try (ModelControllerClientPool<String> pool = new ModelControllerClientPool<>(this::createClient)) {
+            ModelControllerClient a1 = pool.acquire("a");
+            pool.invalidate("a");
+            ModelControllerClient a2 = pool.acquire("a");
+            Assert.assertEquals(2, created.get("a").get());
+            Assert.assertEquals(0, closed.get("a").get());
+            a1.close();
+            Assert.assertEquals(1, closed.get("a").get());
+            a2.close();
+            Assert.assertEquals(1, closed.get("a").get());
+        }
+        Assert.assertEquals(2, closed.get("a").get());
+    }
+}
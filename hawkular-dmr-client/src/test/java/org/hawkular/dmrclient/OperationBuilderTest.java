@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,8 +16,20 @@
  */
 package org.hawkular.dmrclient;
 
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.hawkular.dmr.api.OperationBuilder;
+import org.hawkular.dmr.api.OperationBuilder.CompositeOperationResult;
+import org.hawkular.dmr.api.OperationBuilder.OperationResult;
+import org.hawkular.dmr.api.OperationBuilder.OperationTemplate;
+import org.hawkular.dmr.api.OperationBuilder.ReadAttributeOperationBuilder;
+import org.hawkular.dmr.api.OperationFailureException;
+import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFutureTask;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -120,4 +132,97 @@ public class OperationBuilderTest {
         Assert.assertEquals(expected, actual.toString());
     }
 
+    @Test
+    public void testCompositeStepResults() {
+        ModelNode response = new ModelNode();
+        response.get("outcome").set("failed");
+        response.get("failure-description").set("step 2 failed");
+        response.get("result", "step-1", "outcome").set("success");
+        response.get("result", "step-1", "result").set(true);
+        response.get("result", "step-2", "outcome").set("failed");
+        response.get("result", "step-2", "failure-description").set("no such attribute");
+
+        // a client that answers every request with the canned response above
+        ModelControllerClient client = (ModelControllerClient) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { ModelControllerClient.class },
+                (proxy, method, args) -> response);
+
+        CompositeOperationResult<?> result = OperationBuilder.composite()
+                .rollbackOnRuntimeFailure(false)
+                .readAttribute().address().subsystemDatasources().datasource(DATASOURCE_NAME).parentBuilder()
+                .name("enabled").parentBuilder()
+                .readAttribute().address().subsystemDatasources().datasource(DATASOURCE_NAME).parentBuilder()
+                .name("bogus").parentBuilder()
+                .execute(client);
+
+        Assert.assertFalse(result.getRequestNode().get("operation-headers", "rollback-on-runtime-failure")
+                .asBoolean());
+        Assert.assertEquals(2, result.getStepCount());
+        Assert.assertTrue(result.getStepResult(0).assertSuccess().getResultNode().asBoolean());
+        Assert.assertEquals("bogus", result.getStepResult(1).getRequestNode().get("name").asString());
+        try {
+            result.getStepResult(1).assertSuccess();
+            Assert.fail("The second step should have failed");
+        } catch (OperationFailureException expected) {
+        }
+    }
+
+    @Test
+    public void testExecuteAsync() throws Exception {
+        ModelNode response = new ModelNode();
+        response.get("outcome").set("success");
+        response.get("result").set(true);
+
+        // a client that answers asynchronous requests with the response above
+        ModelControllerClient client = (ModelControllerClient) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { ModelControllerClient.class },
+                (proxy, method, args) -> new AsyncFutureTask<ModelNode>(Runnable::run) {
+                    {
+                        setResult(response);
+                    }
+                });
+
+        ModelNode result = OperationBuilder.readAttribute()
+                .address().subsystemDatasources().datasource(DATASOURCE_NAME).parentBuilder()
+                .name("enabled")
+                .executeAsync(client)
+                .get(1, TimeUnit.SECONDS)
+                .assertSuccess()
+                .getResultNode();
+        Assert.assertTrue(result.asBoolean());
+    }
+
+    @Test
+    public void testTemplate() throws Exception {
+        List<ModelNode> requests = new ArrayList<>();
+        // a client that answers with the name of the attribute it is asked for and tampers with the request
+        ModelControllerClient client = (ModelControllerClient) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { ModelControllerClient.class },
+                (proxy, method, args) -> {
+                    ModelNode request = (ModelNode) args[0];
+                    requests.add(request.clone());
+                    ModelNode response = new ModelNode();
+                    response.get("outcome").set("success");
+                    response.get("result").set(request.get("name"));
+                    request.get("operation-headers", "tampered").set(true);
+                    return response;
+                });
+
+        ReadAttributeOperationBuilder<?> builder = OperationBuilder.readAttribute()
+                .address().subsystemDatasources().datasource(DATASOURCE_NAME).parentBuilder()
+                .name("enabled");
+        OperationTemplate<OperationResult<?>> template = builder.template();
+        builder.name("changed");
+
+        Assert.assertEquals("enabled", template.execute(client).assertSuccess().getResultNode().asString());
+        Assert.assertEquals("enabled", template.execute(client).assertSuccess().getResultNode().asString());
+        Assert.assertEquals(requests.get(0), requests.get(1));
+        Assert.assertFalse(template.getRequestNode().has("operation-headers"));
+
+        OperationTemplate<OperationResult<?>> jta = template.with("name", "jta");
+        Assert.assertEquals("jta", jta.execute(client).assertSuccess().getResultNode().asString());
+        Assert.assertEquals("enabled", template.execute(client).assertSuccess().getResultNode().asString());
+        Assert.assertEquals(requests.get(0).get("address"), requests.get(2).get("address"));
+    }
+
 }
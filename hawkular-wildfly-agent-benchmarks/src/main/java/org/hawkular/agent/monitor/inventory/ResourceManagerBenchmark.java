@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.inventory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.agent.monitor.protocol.dmr.DMRLocationResolver;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds and queries the resource graph of a synthetic inventory: a host with servers, each of which has data
+ * sources and queues as children. {@link #addResource()} adds the whole inventory to an empty manager, parents
+ * first, the way a full discovery fills it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourceManagerBenchmark {
+
+    private static final int CHILDREN_PER_SERVER = 100;
+
+    @Param({ "1000", "10000", "100000" })
+    private int resources;
+
+    private final DMRLocationResolver resolver = new DMRLocationResolver();
+    private List<Resource<DMRNodeLocation>> inventory;
+    private ResourceManager<DMRNodeLocation> resourceManager;
+    private DMRNodeLocation query;
+
+    private static ResourceType<DMRNodeLocation> createType(String name, String location) {
+        return ResourceType.<DMRNodeLocation> builder()
+                .id(new ID(name))
+                .name(new Name(name))
+                .location(DMRNodeLocation.of(location))
+                .build();
+    }
+
+    private static Resource<DMRNodeLocation> createResource(ResourceType<DMRNodeLocation> type, String name,
+            String location, Resource<DMRNodeLocation> parent) {
+        return Resource.<DMRNodeLocation> builder()
+                .id(new ID(location))
+                .name(new Name(name))
+                .location(DMRNodeLocation.of(location))
+                .type(type)
+                .parent(parent)
+                .build();
+    }
+
+    @Setup
+    public void setUp() {
+        ResourceType<DMRNodeLocation> hostType = createType("Host", "/host=*");
+        ResourceType<DMRNodeLocation> serverType = createType("Server", "/server=*");
+        ResourceType<DMRNodeLocation> dataSourceType = createType("Datasource", "/subsystem=datasources/data-source=*");
+        ResourceType<DMRNodeLocation> queueType = createType("JMS Queue",
+                "/subsystem=messaging-activemq/server=default/jms-queue=*");
+
+        inventory = new ArrayList<>(resources);
+        Resource<DMRNodeLocation> host = createResource(hostType, "master", "/host=master", null);
+        inventory.add(host);
+        Resource<DMRNodeLocation> server = null;
+        String serverLocation = null;
+        for (int i = 1; i < resources; i++) {
+            if (server == null || i % CHILDREN_PER_SERVER == 0) {
+                String name = "server-" + (i / CHILDREN_PER_SERVER);
+                serverLocation = "/host=master/server=" + name;
+                server = createResource(serverType, name, serverLocation, host);
+                inventory.add(server);
+            } else if (i % 2 == 0) {
+                inventory.add(createResource(dataSourceType, "DS" + i,
+                        serverLocation + "/subsystem=datasources/data-source=DS" + i, server));
+            } else {
+                inventory.add(createResource(queueType, "Q" + i,
+                        serverLocation + "/subsystem=messaging-activemq/server=default/jms-queue=Q" + i,
+                        server));
+            }
+        }
+
+        resourceManager = new ResourceManager<>();
+        inventory.forEach(resourceManager::addResource);
+        query = DMRNodeLocation.of("/host=master/server=*/subsystem=datasources/data-source=*");
+    }
+
+    @Benchmark
+    public int addResource() {
+        ResourceManager<DMRNodeLocation> manager = new ResourceManager<>();
+        for (Resource<DMRNodeLocation> resource : inventory) {
+            manager.addResource(resource);
+        }
+        return manager.size();
+    }
+
+    @Benchmark
+    public List<Resource<DMRNodeLocation>> findResources() {
+        return resourceManager.findResources(query, resolver);
+    }
+}
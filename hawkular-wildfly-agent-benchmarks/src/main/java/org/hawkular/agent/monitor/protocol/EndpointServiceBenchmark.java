@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
+import org.hawkular.agent.monitor.inventory.MeasurementInstance;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.dmr.DMRLocationResolver;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.agent.monitor.protocol.dmr.DMRSession;
+import org.jboss.as.controller.client.helpers.MeasurementUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+/**
+ * Generates the metric IDs of all metrics of a synthetic inventory from the metric ID template configured on the
+ * endpoint, as done for every collected data point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndpointServiceBenchmark {
+
+    private static final int METRICS_PER_RESOURCE = 10;
+
+    @Param({ "1000", "10000" })
+    private int metrics;
+
+    @Param({ "%MetricInstanceID", "%FeedId.%ManagedServerName.%ResourceName.%MetricTypeName" })
+    private String metricIdTemplate;
+
+    private EndpointService<DMRNodeLocation, DMRSession> endpointService;
+    private List<MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>>> instances;
+
+    @Setup
+    public void setUp() {
+        EndpointConfiguration config = new EndpointConfiguration("benchmark", true, Collections.emptyList(), null,
+                null, null, null, metricIdTemplate, null, null);
+        endpointService = new EndpointService<DMRNodeLocation, DMRSession>("feed",
+                MonitoredEndpoint.of(config, null), new ResourceTypeManager<>(Collections.emptyList()),
+                new DMRLocationResolver(), new ProtocolDiagnostics(new Timer(), new Meter(), new Timer())) {
+            @Override
+            public DMRSession openSession() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        ResourceType<DMRNodeLocation> resourceType = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("Datasource"))
+                .name(new Name("Datasource"))
+                .location(DMRNodeLocation.of("/subsystem=datasources/data-source=*"))
+                .build();
+        List<MetricType<DMRNodeLocation>> metricTypes = new ArrayList<>(METRICS_PER_RESOURCE);
+        for (int i = 0; i < METRICS_PER_RESOURCE; i++) {
+            metricTypes.add(new MetricType<DMRNodeLocation>(new ID("metricType" + i), new Name("Metric Type " + i),
+                    new AttributeLocation<>(DMRNodeLocation.empty(), "attrib" + i),
+                    new Interval(30, TimeUnit.SECONDS), MeasurementUnit.NONE,
+                    org.hawkular.metrics.client.common.MetricType.GAUGE, null, null));
+        }
+
+        instances = new ArrayList<>(metrics);
+        for (int r = 0; instances.size() < metrics; r++) {
+            Resource.Builder<DMRNodeLocation> builder = Resource.<DMRNodeLocation> builder()
+                    .id(new ID("/subsystem=datasources/data-source=DS" + r))
+                    .name(new Name("Datasource [DS" + r + "]"))
+                    .location(DMRNodeLocation.of("/subsystem=datasources/data-source=DS" + r))
+                    .type(resourceType);
+            for (MetricType<DMRNodeLocation> metricType : metricTypes) {
+                String metricName = "DS" + r + "-" + metricType.getID().getIDString();
+                builder.metric(new MeasurementInstance<>(new ID(metricName), new Name(metricName),
+                        metricType.getAttributeLocation(), metricType));
+            }
+            for (MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> metric : builder.build()
+                    .getMetrics()) {
+                if (instances.size() < metrics) {
+                    instances.add(metric);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int generateAssociatedMetricId() {
+        int length = 0;
+        for (MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> instance : instances) {
+            length += endpointService.generateAssociatedMetricId(instance).length();
+        }
+        return length;
+    }
+}
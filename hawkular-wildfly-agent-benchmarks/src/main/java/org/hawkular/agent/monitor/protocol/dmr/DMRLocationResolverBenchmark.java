@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol.dmr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.as.controller.PathAddress;
+import org.jboss.as.controller.PathElement;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matches a query and a parent location against all locations of a synthetic inventory the way
+ * {@link org.hawkular.agent.monitor.inventory.ResourceManager} does when looking for resources. The
+ * {@code *WithPathElement} benchmarks run the matching {@link DMRLocationResolver} did before it compared interned
+ * segments, as the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DMRLocationResolverBenchmark {
+
+    private static boolean matchesWithPathElement(int length, PathAddress pattern, PathAddress address) {
+        for (int i = 0; i < length; i++) {
+            PathElement otherElem = address.getElement(i);
+            Property prop = new Property(otherElem.getKey(), new ModelNode(otherElem.getValue()));
+            if (!pattern.getElement(i).matches(prop)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Param({ "1000", "10000" })
+    private int resources;
+
+    private final DMRLocationResolver resolver = new DMRLocationResolver();
+    private List<DMRNodeLocation> locations;
+    private DMRNodeLocation query;
+    private DMRNodeLocation parent;
+
+    @Setup
+    public void setUp() {
+        locations = new ArrayList<>(resources);
+        // half of the resources are data sources and half are queues, spread over a few servers
+        for (int i = 0; i < resources; i++) {
+            String server = String.format("/host=master/server=server-%d", i % 4);
+            if (i % 2 == 0) {
+                locations.add(DMRNodeLocation.of(server + "/subsystem=datasources/data-source=DS" + i));
+            } else {
+                locations.add(DMRNodeLocation.of(server + "/subsystem=messaging-activemq/server=default/jms-queue=Q"
+                        + i));
+            }
+        }
+        query = DMRNodeLocation.of("/host=master/server=*/subsystem=datasources/data-source=*");
+        parent = DMRNodeLocation.of("/host=master/server=server-1");
+    }
+
+    @Benchmark
+    public int matches() {
+        int matches = 0;
+        for (DMRNodeLocation location : locations) {
+            if (resolver.matches(query, location)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int matchesWithPathElement() {
+        PathAddress queryPath = query.getPathAddress();
+        int matches = 0;
+        for (DMRNodeLocation location : locations) {
+            PathAddress path = location.getPathAddress();
+            if (queryPath.size() == path.size() && matchesWithPathElement(queryPath.size(), queryPath, path)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int isParent() {
+        int children = 0;
+        for (DMRNodeLocation location : locations) {
+            if (resolver.isParent(parent, location)) {
+                children++;
+            }
+        }
+        return children;
+    }
+
+    @Benchmark
+    public int isParentWithPathElement() {
+        PathAddress parentPath = parent.getPathAddress();
+        int children = 0;
+        for (DMRNodeLocation location : locations) {
+            PathAddress path = location.getPathAddress();
+            if (parentPath.size() < path.size() && matchesWithPathElement(parentPath.size(), parentPath, path)) {
+                children++;
+            }
+        }
+        return children;
+    }
+}
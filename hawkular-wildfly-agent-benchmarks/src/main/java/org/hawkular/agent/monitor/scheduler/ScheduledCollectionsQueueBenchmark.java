@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
+import org.hawkular.agent.monitor.inventory.MeasurementInstance;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.jboss.as.controller.client.helpers.MeasurementUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drains the collections that are due from a queue holding the schedules of a synthetic inventory. Popping
+ * reschedules the collections into the future, so every iteration starts from a freshly filled queue whose
+ * schedules are all overdue, spread over a few collection times like after the agent fell behind.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScheduledCollectionsQueueBenchmark {
+
+    private static final int METRICS_PER_RESOURCE = 10;
+    private static final int DUE_TIMES = 10;
+
+    @Param({ "10000", "100000", "1000000" })
+    private int schedules;
+
+    private List<ScheduledMeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>>> allSchedules;
+    private ScheduledCollectionsQueue<DMRNodeLocation, MetricType<DMRNodeLocation>> queue;
+
+    @Setup
+    public void setUp() {
+        ResourceType<DMRNodeLocation> resourceType = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("resType"))
+                .name(new Name("resTypeName"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        List<MetricType<DMRNodeLocation>> metricTypes = new ArrayList<>(METRICS_PER_RESOURCE);
+        for (int i = 0; i < METRICS_PER_RESOURCE; i++) {
+            metricTypes.add(new MetricType<DMRNodeLocation>(new ID("metricType" + i), new Name("metricType" + i),
+                    new AttributeLocation<>(DMRNodeLocation.empty(), "attrib" + i),
+                    new Interval(30 + i, TimeUnit.SECONDS), MeasurementUnit.NONE,
+                    org.hawkular.metrics.client.common.MetricType.GAUGE, null, null));
+        }
+
+        allSchedules = new ArrayList<>(schedules);
+        for (int r = 0; allSchedules.size() < schedules; r++) {
+            Resource.Builder<DMRNodeLocation> builder = Resource.<DMRNodeLocation> builder()
+                    .id(new ID("resource" + r))
+                    .name(new Name("resource" + r))
+                    .location(DMRNodeLocation.of("/subsystem=datasources/data-source=DS" + r))
+                    .type(resourceType);
+            for (MetricType<DMRNodeLocation> metricType : metricTypes) {
+                String metricName = "resource" + r + "-" + metricType.getID().getIDString();
+                builder.metric(new MeasurementInstance<>(new ID(metricName), new Name(metricName),
+                        metricType.getAttributeLocation(), metricType));
+            }
+            Resource<DMRNodeLocation> resource = builder.build();
+            for (MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> metric : resource.getMetrics()) {
+                if (allSchedules.size() < schedules) {
+                    allSchedules.add(new ScheduledMeasurementInstance<>(resource, metric));
+                }
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fillQueue() {
+        long overdue = System.currentTimeMillis() - 60000L;
+        for (int i = 0; i < allSchedules.size(); i++) {
+            allSchedules.get(i).setNextCollectionTime(overdue - (i % DUE_TIMES) * 1000L);
+        }
+        queue = new ScheduledCollectionsQueue<>();
+        queue.schedule(allSchedules);
+    }
+
+    @Benchmark
+    public int popNextScheduledSet() {
+        int collected = 0;
+        for (Set<MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>>> next = queue
+                .popNextScheduledSet(); !next.isEmpty(); next = queue.popNextScheduledSet()) {
+            collected += next.size();
+        }
+        return collected;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.client.common.MetricType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializes the data points collected from a synthetic inventory into the JSON sent to metric storage. Each metric
+ * has a few data points; most metrics are gauges, the rest are counters and strings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricDataPayloadBuilderBenchmark {
+
+    private static final int DATA_POINTS_PER_METRIC = 5;
+
+    @Param({ "1000", "10000", "100000" })
+    private int dataPoints;
+
+    private MetricDataPayloadBuilderImpl builder;
+
+    @Setup
+    public void setUp() {
+        builder = new MetricDataPayloadBuilderImpl();
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < dataPoints; i++) {
+            int metric = i / DATA_POINTS_PER_METRIC;
+            long pointTimestamp = timestamp + (i % DATA_POINTS_PER_METRIC) * 30000L;
+            switch (metric % 10) {
+                case 0:
+                    builder.addDataPoint("counter-" + metric, pointTimestamp, i, MetricType.COUNTER);
+                    break;
+                case 1:
+                    builder.addDataPoint("string-" + metric, pointTimestamp, "value-" + i);
+                    break;
+                default:
+                    builder.addDataPoint("gauge-" + metric, pointTimestamp, i * 1.5d, MetricType.GAUGE);
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public String toPayload() {
+        return builder.toPayload();
+    }
+}
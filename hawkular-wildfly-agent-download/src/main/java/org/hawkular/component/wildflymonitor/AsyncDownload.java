@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.component.wildflymonitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Sends {@link DownloadContent} to the client with non-blocking writes. The container calls
+ * {@link #onWritePossible()} whenever the client can take more data, so no request thread waits on a slow client.
+ * The file regions are read chunk by chunk with positional reads into a single buffer.
+ *
+ * A client that takes no data for longer than the idle timeout ends the download, so a stalled client cannot hold
+ * on to its download slot forever. So do errors and timeouts the container reports for the async request.
+ */
+final class AsyncDownload implements WriteListener, AsyncListener {
+    private static final int CHUNK_SIZE = 32768;
+
+    private final AsyncContext asyncContext;
+    private final DownloadContent content;
+    private final long idleTimeoutMillis;
+    private final Consumer<Throwable> onDone;
+    private final AtomicBoolean done = new AtomicBoolean(false);
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+
+    private ServletOutputStream output;
+    private FileChannel channel;
+    private ScheduledFuture<?> idleCheck;
+    private volatile long lastProgressNanos;
+    private int nextRegion = 0;
+    private long regionOffset = 0;
+    private boolean tailSent = false;
+
+    /**
+     * @param asyncContext the context of the download request
+     * @param content what to send
+     * @param idleTimeoutMillis how long the client may take no data before the download is ended (0 for no limit)
+     * @param onDone called once the download is over - with the error that ended it early or null if it completed
+     */
+    AsyncDownload(AsyncContext asyncContext, DownloadContent content, long idleTimeoutMillis,
+            Consumer<Throwable> onDone) {
+        this.asyncContext = asyncContext;
+        this.content = content;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.onDone = onDone;
+    }
+
+    /**
+     * Starts sending the content. Once started, the download completes the async context when it is over.
+     *
+     * @param timer checks if the client stopped taking data
+     */
+    void start(ScheduledExecutorService timer) throws IOException {
+        channel = FileChannel.open(content.getFile().toPath(), StandardOpenOption.READ);
+        try {
+            lastProgressNanos = System.nanoTime();
+            asyncContext.addListener(this);
+            if (idleTimeoutMillis > 0) {
+                idleCheck = timer.scheduleWithFixedDelay(this::checkIdle, idleTimeoutMillis, idleTimeoutMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+            output = asyncContext.getResponse().getOutputStream();
+            output.setWriteListener(this);
+        } catch (IOException | RuntimeException e) {
+            if (idleCheck != null) {
+                idleCheck.cancel(false);
+            }
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (output.isReady() && !done.get()) {
+            lastProgressNanos = System.nanoTime();
+            if (nextRegion < content.getRegions().size()) {
+                output.write(buffer, 0, readChunk());
+            } else if (!tailSent) {
+                tailSent = true;
+                output.write(content.getTail());
+            } else {
+                finish(null);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        finish(t);
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        Throwable t = event.getThrowable();
+        finish((t != null) ? t : new IOException("The download failed"));
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        finish(new TimeoutException("The download timed out"));
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    /**
+     * Reads the next chunk of the current file region into the buffer.
+     *
+     * @return the number of bytes read
+     */
+    private int readChunk() throws IOException {
+        long[] region = content.getRegions().get(nextRegion);
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) Math.min(region[1] - regionOffset, buffer.length));
+        int read = channel.read(target, region[0] + regionOffset);
+        if (read < 0) {
+            throw content.truncated(region[0] + region[1]);
+        }
+        regionOffset += read;
+        if (regionOffset >= region[1]) {
+            nextRegion++;
+            regionOffset = 0;
+        }
+        return read;
+    }
+
+    private void checkIdle() {
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastProgressNanos);
+        if (idleMillis >= idleTimeoutMillis) {
+            finish(new TimeoutException("The client did not take any data for [" + idleMillis + "] ms"));
+        }
+    }
+
+    private void finish(Throwable error) {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+        }
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+        try {
+            asyncContext.complete();
+        } finally {
+            onDone.accept(error);
+        }
+    }
+}
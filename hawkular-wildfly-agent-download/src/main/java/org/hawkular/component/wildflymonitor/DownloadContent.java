@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.component.wildflymonitor;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a download sends to the client: regions of a file followed by some bytes that are not in the file.
+ */
+final class DownloadContent {
+    private static final byte[] NO_TAIL = new byte[0];
+
+    private final File file;
+    private final List<long[]> regions;
+    private final byte[] tail;
+
+    /**
+     * @param file the file the regions are in
+     * @param regions the regions of the file to send - each is a {position, count} pair
+     * @param tail what to send after the regions (may be null)
+     */
+    DownloadContent(File file, List<long[]> regions, byte[] tail) {
+        this.file = file;
+        this.regions = Collections.unmodifiableList(regions);
+        this.tail = (tail != null) ? tail : NO_TAIL;
+    }
+
+    /**
+     * @return the content that is the given region of the given file
+     */
+    static DownloadContent ofFile(File file, long position, long count) {
+        return new DownloadContent(file, Collections.singletonList(new long[] { position, count }), null);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    List<long[]> getRegions() {
+        return regions;
+    }
+
+    byte[] getTail() {
+        return tail;
+    }
+
+    /**
+     * @return the number of bytes the content consists of
+     */
+    long getLength() {
+        long length = tail.length;
+        for (long[] region : regions) {
+            length += region[1];
+        }
+        return length;
+    }
+
+    /**
+     * Writes the content in the caller thread. The file regions are transferred straight from the file.
+     *
+     * @throws EOFException if the file was truncated before all of its regions were sent
+     */
+    void writeTo(OutputStream output) throws IOException {
+        WritableByteChannel target = Channels.newChannel(output);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (long[] region : regions) {
+                long position = region[0];
+                long end = region[0] + region[1];
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, target);
+                    if (transferred == 0 && position >= channel.size()) {
+                        throw truncated(position);
+                    }
+                    position += transferred;
+                }
+            }
+        }
+        output.write(tail);
+        output.flush();
+    }
+
+    /**
+     * @return the error that ends a download whose file ends before the given position
+     */
+    EOFException truncated(long position) {
+        return new EOFException("File [" + file + "] was truncated to less than [" + position
+                + "] bytes while it was being downloaded");
+    }
+}
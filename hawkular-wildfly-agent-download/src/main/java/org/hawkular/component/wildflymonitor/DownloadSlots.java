@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.component.wildflymonitor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Limits how many downloads run at the same time. Downloads that do not get a slot can wait for one in a queue;
+ * when a running download releases its slot, the slot is handed to the download that has waited longest.
+ */
+final class DownloadSlots {
+
+    enum Admission {
+        /** the download got a slot and can run now */
+        STARTED,
+        /** the download waits for a slot - it is run when it gets one */
+        QUEUED,
+        /** there is neither a free slot nor room in the queue */
+        REJECTED
+    }
+
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private int active = 0;
+
+    /**
+     * Takes a slot if one is free.
+     *
+     * @param limit the maximum number of downloads that can run at the same time
+     * @return true if the caller got a slot and must {@link #release()} it when done
+     */
+    synchronized boolean tryAcquire(int limit) {
+        if (active < limit) {
+            active++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a slot for the download if one is free, otherwise queues the download if the queue is not full.
+     *
+     * @param download what is run once a queued download gets its slot - it must {@link #release()} the slot
+     * @param limit the maximum number of downloads that can run at the same time
+     * @param queueLimit the maximum number of downloads that can wait for a slot
+     * @return whether the download can run now, was queued or was rejected
+     */
+    synchronized Admission admit(Runnable download, int limit, int queueLimit) {
+        if (active < limit && waiting.isEmpty()) {
+            active++;
+            return Admission.STARTED;
+        } else if (waiting.size() < queueLimit) {
+            waiting.addLast(download);
+            return Admission.QUEUED;
+        } else {
+            return Admission.REJECTED;
+        }
+    }
+
+    /**
+     * Removes a download from the queue.
+     *
+     * @return true if the download was still waiting for a slot; false if it already got one
+     */
+    synchronized boolean cancel(Runnable download) {
+        return waiting.remove(download);
+    }
+
+    /**
+     * Releases a slot. If a download is waiting, it gets the slot and is run in the caller thread.
+     */
+    void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.pollFirst();
+            if (next == null) {
+                active--;
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    synchronized int getActive() {
+        return active;
+    }
+
+    synchronized int getWaiting() {
+        return waiting.size();
+    }
+}
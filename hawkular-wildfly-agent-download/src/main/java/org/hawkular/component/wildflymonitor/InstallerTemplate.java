@@ -0,0 +1,408 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.component.wildflymonitor;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The agent installer jar prepared for rendering installers that differ from it only in their properties file.
+ *
+ * The entries other than the properties file are copied to the rendered installer as they are stored in the jar -
+ * still compressed, without inflating and deflating them again. Only the properties file entry and the central
+ * directory at the end of the zip are generated for each rendered installer - that part is called the tail here.
+ * Tails are small, so the most recently rendered ones are cached by a hash of what they were rendered from.
+ */
+final class InstallerTemplate {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int VERSION = 20;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    // how many rendered tails are kept
+    private static final int MAX_CACHED_TAILS = 16;
+
+    private static class CentralEntry {
+        private final byte[] header;
+        private final String name;
+        private final long localHeaderOffset;
+
+        private CentralEntry(byte[] header, String name, long localHeaderOffset) {
+            this.header = header;
+            this.name = name;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        private int getShort(int offset) {
+            return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getShort(offset) & 0xffff;
+        }
+
+        private long getInt(int offset) {
+            return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(offset) & 0xffffffffL;
+        }
+    }
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final String propertiesFileName;
+
+    // the regions of the jar that are copied as-is - each is a {position, count} pair
+    private final List<long[]> copiedRegions = new ArrayList<>();
+    private final long copiedLength;
+
+    // the central directory headers of the copied entries with their offsets adjusted to the rendered installer
+    private final byte[] copiedCentralDirectory;
+    private final int copiedEntryCount;
+
+    private final List<String> propertiesLines;
+    private final int propertiesTime;
+    private final int propertiesDate;
+
+    private final Map<String, byte[]> tails = Collections.synchronizedMap(
+            new LinkedHashMap<String, byte[]>(MAX_CACHED_TAILS, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    return size() > MAX_CACHED_TAILS;
+                }
+            });
+
+    /**
+     * Reads the zip structure of the given installer jar.
+     *
+     * @param file the installer jar
+     * @param propertiesFileName the name of the properties file entry that is rendered for each installer
+     * @throws IOException if the jar cannot be read, is not a zip file or does not contain the properties file
+     */
+    InstallerTemplate(File file, String propertiesFileName) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.propertiesFileName = propertiesFileName;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.length = channel.size();
+
+            // the end of central directory record is at the very end unless the zip has a comment
+            int tailSize = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + 0xffff);
+            ByteBuffer end = read(channel, length - tailSize, tailSize);
+            int endPosition = -1;
+            for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+                if (end.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    endPosition = i;
+                    break;
+                }
+            }
+            if (endPosition < 0) {
+                throw new ZipException("Not a zip file: " + file);
+            }
+            int entryCount = end.getShort(endPosition + 10) & 0xffff;
+            long centralDirectorySize = end.getInt(endPosition + 12) & 0xffffffffL;
+            long centralDirectoryOffset = end.getInt(endPosition + 16) & 0xffffffffL;
+            if (entryCount == 0xffff || centralDirectoryOffset == 0xffffffffL) {
+                throw new ZipException("ZIP64 is not supported: " + file);
+            }
+
+            List<CentralEntry> entries = new ArrayList<>(entryCount);
+            ByteBuffer directory = read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+            for (int i = 0; i < entryCount; i++) {
+                if (directory.getInt() != CENTRAL_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid central directory in: " + file);
+                }
+                int start = directory.position() - 4;
+                int nameLength = directory.getShort(start + 28) & 0xffff;
+                int extraLength = directory.getShort(start + 30) & 0xffff;
+                int commentLength = directory.getShort(start + 32) & 0xffff;
+                byte[] header = new byte[CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength];
+                directory.position(start);
+                directory.get(header);
+                String name = new String(header, CENTRAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+                long offset = directory.getInt(start + 42) & 0xffffffffL;
+                entries.add(new CentralEntry(header, name, offset));
+            }
+
+            // each entry's local header and data run up to the next entry (or the central directory)
+            List<CentralEntry> byOffset = new ArrayList<>(entries);
+            byOffset.sort(Comparator.comparingLong(e -> e.localHeaderOffset));
+            Map<CentralEntry, Long> newOffsets = new IdentityHashMap<>();
+            CentralEntry properties = null;
+            long copied = 0;
+            for (int i = 0; i < byOffset.size(); i++) {
+                CentralEntry entry = byOffset.get(i);
+                long next = (i + 1 < byOffset.size()) ? byOffset.get(i + 1).localHeaderOffset
+                        : centralDirectoryOffset;
+                if (properties == null && entry.name.equalsIgnoreCase(propertiesFileName)) {
+                    properties = entry;
+                    continue;
+                }
+                newOffsets.put(entry, copied);
+                long[] last = copiedRegions.isEmpty() ? null : copiedRegions.get(copiedRegions.size() - 1);
+                if (last != null && last[0] + last[1] == entry.localHeaderOffset) {
+                    last[1] += next - entry.localHeaderOffset;
+                } else {
+                    copiedRegions.add(new long[] { entry.localHeaderOffset, next - entry.localHeaderOffset });
+                }
+                copied += next - entry.localHeaderOffset;
+            }
+            if (properties == null) {
+                throw new ZipException("Missing [" + propertiesFileName + "] in: " + file);
+            }
+            this.copiedLength = copied;
+
+            ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream((int) centralDirectorySize);
+            for (CentralEntry entry : entries) {
+                if (entry != properties) {
+                    byte[] header = entry.header.clone();
+                    ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).putInt(42,
+                            newOffsets.get(entry).intValue());
+                    centralDirectory.write(header);
+                }
+            }
+            this.copiedCentralDirectory = centralDirectory.toByteArray();
+            this.copiedEntryCount = entries.size() - 1;
+
+            this.propertiesTime = properties.getShort(12);
+            this.propertiesDate = properties.getShort(14);
+            this.propertiesLines = readLines(channel, properties);
+        }
+    }
+
+    /**
+     * @return true if the installer jar has not changed since this template was read from it
+     */
+    boolean isCurrent(File installerFile) {
+        return file.equals(installerFile) && lastModified == installerFile.lastModified()
+                && length == installerFile.length();
+    }
+
+    /**
+     * Computes the key rendered tails are cached with.
+     *
+     * @param values everything the tail is rendered from
+     * @return a hash of the given values
+     */
+    static String cacheKey(Map<String, String> values) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> entry : new TreeMap<>(values).entrySet()) {
+                digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                if (entry.getValue() != null) {
+                    digest.update((byte) 1);
+                    digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte) 0);
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot compute installer cache key", e);
+        }
+    }
+
+    /**
+     * @param cacheKey see {@link #cacheKey(Map)}
+     * @return the tail rendered for the given key or null if it is not cached
+     */
+    byte[] getCachedTail(String cacheKey) {
+        return tails.get(cacheKey);
+    }
+
+    void cacheTail(String cacheKey, byte[] tail) {
+        tails.put(cacheKey, tail);
+    }
+
+    /**
+     * Renders the properties file entry and the central directory of an installer.
+     *
+     * @param lineEditor given each line of the original properties file, returns the line to write instead
+     * @return the tail of the rendered installer
+     */
+    byte[] renderTail(UnaryOperator<String> lineEditor) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (String line : propertiesLines) {
+            content.write((lineEditor.apply(line) + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] uncompressed = content.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(uncompressed);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream compressedOut = new ByteArrayOutputStream(uncompressed.length);
+        try {
+            deflater.setInput(uncompressed);
+            deflater.finish();
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buf);
+                compressedOut.write(buf, 0, len);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] compressed = compressedOut.toByteArray();
+        byte[] name = propertiesFileName.getBytes(StandardCharsets.UTF_8);
+
+        int size = LOCAL_HEADER_SIZE + name.length + compressed.length + copiedCentralDirectory.length
+                + CENTRAL_HEADER_SIZE + name.length + END_OF_CENTRAL_DIRECTORY_SIZE;
+        ByteBuffer tail = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+
+        tail.putInt(LOCAL_HEADER_SIGNATURE);
+        putEntryHeader(tail, crc.getValue(), compressed.length, uncompressed.length, name.length);
+        tail.putShort((short) 0); // extra field length
+        tail.put(name);
+        tail.put(compressed);
+
+        long centralDirectoryOffset = copiedLength + tail.position();
+        tail.put(copiedCentralDirectory);
+        tail.putInt(CENTRAL_HEADER_SIGNATURE);
+        tail.putShort((short) VERSION); // version made by
+        putEntryHeader(tail, crc.getValue(), compressed.length, uncompressed.length, name.length);
+        tail.putShort((short) 0); // extra field length
+        tail.putShort((short) 0); // comment length
+        tail.putShort((short) 0); // disk number
+        tail.putShort((short) 0); // internal attributes
+        tail.putInt(0); // external attributes
+        tail.putInt((int) copiedLength); // the properties entry follows the copied entries
+        tail.put(name);
+
+        int centralDirectorySize = copiedCentralDirectory.length + CENTRAL_HEADER_SIZE + name.length;
+        tail.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        tail.putShort((short) 0); // disk number
+        tail.putShort((short) 0); // disk with the central directory
+        tail.putShort((short) (copiedEntryCount + 1));
+        tail.putShort((short) (copiedEntryCount + 1));
+        tail.putInt(centralDirectorySize);
+        tail.putInt((int) centralDirectoryOffset);
+        tail.putShort((short) 0); // comment length
+
+        return tail.array();
+    }
+
+    /**
+     * @return the installer with the given tail - the copied entries are sent straight from the jar file
+     */
+    DownloadContent getContent(byte[] tail) {
+        return new DownloadContent(file, copiedRegions, tail);
+    }
+
+    private void putEntryHeader(ByteBuffer buffer, long crc, int compressedSize, int size, int nameLength) {
+        buffer.putShort((short) VERSION); // version needed to extract
+        buffer.putShort((short) FLAG_UTF8);
+        buffer.putShort((short) METHOD_DEFLATED);
+        buffer.putShort((short) propertiesTime);
+        buffer.putShort((short) propertiesDate);
+        buffer.putInt((int) crc);
+        buffer.putInt(compressedSize);
+        buffer.putInt(size);
+        buffer.putShort((short) nameLength);
+    }
+
+    private List<String> readLines(FileChannel channel, CentralEntry entry) throws IOException {
+        int method = entry.getShort(10);
+        int compressedSize = (int) entry.getInt(20);
+        ByteBuffer local = read(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for [" + entry.name + "] in: " + file);
+        }
+        long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + (local.getShort(26) & 0xffff)
+                + (local.getShort(28) & 0xffff);
+        ByteBuffer data = read(channel, dataOffset, compressedSize);
+        byte[] bytes = new byte[compressedSize];
+        data.get(bytes);
+
+        if (method == METHOD_DEFLATED) {
+            Inflater inflater = new Inflater(true);
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream((int) entry.getInt(24));
+            try {
+                inflater.setInput(bytes);
+                byte[] buf = new byte[4096];
+                while (!inflater.finished()) {
+                    int len = inflater.inflate(buf);
+                    if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new ZipException("Truncated [" + entry.name + "] in: " + file);
+                    }
+                    inflated.write(buf, 0, len);
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid [" + entry.name + "] in: " + file + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+            bytes = inflated.toByteArray();
+        } else if (method != METHOD_STORED) {
+            throw new ZipException("Unsupported compression method [" + method + "] of [" + entry.name + "]");
+        }
+
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return Collections.unmodifiableList(lines);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -16,34 +16,33 @@
  */
 package org.hawkular.component.wildflymonitor;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.spec.KeySpec;
 import java.util.Base64;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -53,7 +52,7 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * Serves the Hawkular WildFly Agent download that is stored in the server's download area.
  */
-@WebServlet(urlPatterns = { "/download", "/installer" }, loadOnStartup = 1)
+@WebServlet(urlPatterns = { "/download", "/installer" }, loadOnStartup = 1, asyncSupported = true)
 public class WildFlyAgentServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
@@ -64,6 +63,19 @@ public class WildFlyAgentServlet extends HttpServlet {
     // if the system property is not set or invalid, this is the default limit for number of concurrent downloads
     private static final int DEFAULT_AGENT_DOWNLOADS_LIMIT = 100;
 
+    // the system property that defines how many downloads can wait for one of the concurrent downloads to finish
+    private static final String SYSPROP_AGENT_DOWNLOADS_QUEUE = "hawkular.wildfly.agent.downloads.queue";
+    private static final int DEFAULT_AGENT_DOWNLOADS_QUEUE = 100;
+
+    // the system property that defines how many seconds a download waits in the queue before it is rejected
+    private static final String SYSPROP_AGENT_DOWNLOADS_QUEUE_TIMEOUT =
+            "hawkular.wildfly.agent.downloads.queue.timeout";
+    private static final int DEFAULT_AGENT_DOWNLOADS_QUEUE_TIMEOUT = 60;
+
+    // the system property that defines how many seconds a client may take no data before its download is ended
+    private static final String SYSPROP_AGENT_DOWNLOADS_IDLE_TIMEOUT = "hawkular.wildfly.agent.downloads.idle.timeout";
+    private static final int DEFAULT_AGENT_DOWNLOADS_IDLE_TIMEOUT = 60;
+
     // name of the property file stored in the root of the installer jar file
     private static final String AGENT_INSTALLER_PROPERTIES_FILE_NAME = "hawkular-wildfly-agent-installer.properties";
 
@@ -91,18 +103,43 @@ public class WildFlyAgentServlet extends HttpServlet {
     // the error code that will be returned if the server has too many agents downloading the agent update binary
     private static final int ERROR_CODE_TOO_MANY_DOWNLOADS = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
 
-    private static AtomicInteger numActiveDownloads = null;
+    // returned by getRange when the requested range cannot be served
+    private static final long[] RANGE_NOT_SATISFIABLE = new long[0];
+
+    private transient DownloadSlots downloadSlots = null;
+    private transient ScheduledExecutorService downloadTimeouts = null;
 
     // there are several modules extensions the download can serve - you ask for one via the appserver query property
     private static final String APPSERVER_PARAM = "appserver";
     private static final String LATEST = "latest";
     private Map<String, File> moduleDownloadFile = new HashMap<String, File>(2);
     private File installerDownloadFile = null;
+    private transient InstallerTemplate installerTemplate = null;
+    private transient Map<File, ModuleChecksum> moduleChecksums = new ConcurrentHashMap<>(2);
+    // guards computing the checksums only - so hashing a large module does not hold up the other downloads
+    private final transient Object moduleChecksumLock = new Object();
+
+    private static final class ModuleChecksum {
+        private final long lastModified;
+        private final long length;
+        private final byte[] sha256;
+
+        ModuleChecksum(long lastModified, long length, byte[] sha256) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.sha256 = sha256;
+        }
+    }
 
     @Override
     public void init() throws ServletException {
         log("Starting the WildFly Agent download servlet");
-        numActiveDownloads = new AtomicInteger(0);
+        downloadSlots = new DownloadSlots();
+        downloadTimeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Hawkular-WildFly-Agent-Download-Timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
             log("Latest Agent Module File: " + getAgentModuleDownloadFile(LATEST));
             log("EAP6 Agent Module File: " + getAgentModuleDownloadFile("eap6"));
@@ -116,6 +153,14 @@ public class WildFlyAgentServlet extends HttpServlet {
         }
     }
 
+    @Override
+    public void destroy() {
+        if (downloadTimeouts != null) {
+            downloadTimeouts.shutdownNow();
+        }
+        super.destroy();
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         doIt(req, resp);
@@ -133,12 +178,7 @@ public class WildFlyAgentServlet extends HttpServlet {
         String servletPath = req.getServletPath();
         if (servletPath != null) {
             if (servletPath.endsWith("download") || servletPath.endsWith("installer")) {
-                try {
-                    numActiveDownloads.incrementAndGet();
-                    getDownload(req, resp);
-                } finally {
-                    numActiveDownloads.decrementAndGet();
-                }
+                getDownload(req, resp);
             } else {
                 resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid servlet path [" + servletPath
                         + "] - please contact administrator");
@@ -148,26 +188,71 @@ public class WildFlyAgentServlet extends HttpServlet {
         }
     }
 
-    private void downloadAgentModule(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    /**
+     * Sets the response headers of a module download.
+     *
+     * @return what to send to the client or null if the response is already complete
+     */
+    private DownloadContent downloadAgentModule(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         try {
             File agentModuleZip = getAgentModuleDownloadFile(getValueFromRequestParam(req, APPSERVER_PARAM, LATEST));
+            long length = agentModuleZip.length();
+            long lastModified = agentModuleZip.lastModified();
+            byte[] sha256 = getAgentModuleChecksum(agentModuleZip, lastModified, length);
+            String etag = "\"" + toHex(sha256) + "\"";
+
+            // clients may keep the module and revalidate it with the ETag or resume an interrupted download;
+            // the ETag and the Digest are the checksum of the whole module, so clients can verify what they got
+            resp.setHeader("Cache-Control", "no-cache");
+            resp.setHeader("ETag", etag);
+            resp.setHeader("Digest", "SHA-256=" + Base64.getEncoder().encodeToString(sha256));
+            resp.setHeader("Accept-Ranges", "bytes");
+            resp.setDateHeader("Last-Modified", lastModified);
+
+            if (matchesETag(req.getHeader("If-None-Match"), etag)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return null;
+            }
+
+            long start = 0;
+            long count = length;
+            String ifRange = req.getHeader("If-Range");
+            // a range of an older version of the file would be useless, so the whole file is sent in that case
+            long[] range = (ifRange == null || ifRange.equals(etag)) ? getRange(req.getHeader("Range"), length)
+                    : null;
+            if (range == RANGE_NOT_SATISFIABLE) {
+                resp.setHeader("Content-Range", "bytes */" + length);
+                resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return null;
+            } else if (range != null) {
+                start = range[0];
+                count = range[1] - range[0] + 1;
+                resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                resp.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+            }
+
             resp.setContentType("application/octet-stream");
             resp.setHeader("Content-Disposition", "attachment; filename=" + agentModuleZip.getName());
-            resp.setContentLength((int) agentModuleZip.length());
-            resp.setDateHeader("Last-Modified", agentModuleZip.lastModified());
-            try (FileInputStream agentModuleZipStream = new FileInputStream(agentModuleZip)) {
-                copy(agentModuleZipStream, resp.getOutputStream());
-            }
+            resp.setContentLengthLong(count);
+            return DownloadContent.ofFile(agentModuleZip, start, count);
         } catch (Throwable t) {
             String clientAddr = getClientAddress(req);
             log("Failed to stream file to remote client [" + clientAddr + "]", t);
             disableBrowserCache(resp);
             resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to stream file");
+            return null;
         }
     }
 
-    private void downloadAgentInstaller(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    /**
+     * Renders the installer requested by the client and sets the response headers of its download.
+     *
+     * @return what to send to the client or null if the response is already complete
+     */
+    private DownloadContent downloadAgentInstaller(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
         try {
+            InstallerTemplate agentInstallerTemplate = getAgentInstallerTemplate();
             File agentInstallerJar = getAgentInstallerDownloadFile();
             resp.setContentType("application/octet-stream");
             resp.setHeader("Content-Disposition", "attachment; filename=" + agentInstallerJar.getName());
@@ -209,79 +294,61 @@ public class WildFlyAgentServlet extends HttpServlet {
             newProperties.put(AGENT_INSTALLER_PROPERTY_KEY_PASSWORD,
                     getValueFromRequestParam(req, AGENT_INSTALLER_PROPERTY_KEY_PASSWORD, null));
 
-            // If an encryption key was provided, encode the passwords in the .properties file.
-            // The installer must be given this encryption key by the user in order to install the agent.
             String encryptionKey = getValueFromRequestParam(req, AGENT_INSTALLER_ENCRYPTION_KEY, null);
             String encryptionSalt = getValueFromRequestParam(req, AGENT_INSTALLER_ENCRYPTION_SALT, null);
             String encryptionWeak = getValueFromRequestParam(req, AGENT_INSTALLER_ENCRYPTION_WEAK, null);
             boolean useWeakEncryption = "true".equalsIgnoreCase(encryptionWeak);
 
-            if (encryptionKey != null) {
-                if (encryptionSalt == null) {
-                    encryptionSalt = encryptionKey;
-                }
+            // installers rendered from the same values are the same - many agents are usually installed with the
+            // same parameters, so reuse the properties file rendered for them (and skip encoding their passwords)
+            HashMap<String, String> renderedFrom = new HashMap<>(newProperties);
+            renderedFrom.put(AGENT_INSTALLER_ENCRYPTION_KEY, encryptionKey);
+            renderedFrom.put(AGENT_INSTALLER_ENCRYPTION_SALT, encryptionSalt);
+            renderedFrom.put(AGENT_INSTALLER_ENCRYPTION_WEAK, String.valueOf(useWeakEncryption));
+            String cacheKey = InstallerTemplate.cacheKey(renderedFrom);
+
+            byte[] installerTail = agentInstallerTemplate.getCachedTail(cacheKey);
+            if (installerTail == null) {
+                // If an encryption key was provided, encode the passwords in the .properties file.
+                // The installer must be given this encryption key by the user in order to install the agent.
+                if (encryptionKey != null) {
+                    if (encryptionSalt == null) {
+                        encryptionSalt = encryptionKey;
+                    }
 
-                encode(newProperties, AGENT_INSTALLER_PROPERTY_KEYSTORE_PASSWORD,
-                        encryptionKey, encryptionSalt, useWeakEncryption);
-                encode(newProperties, AGENT_INSTALLER_PROPERTY_KEY_PASSWORD,
-                        encryptionKey, encryptionSalt, useWeakEncryption);
-                encode(newProperties, AGENT_INSTALLER_PROPERTY_PASSWORD,
-                        encryptionKey, encryptionSalt, useWeakEncryption);
-            }
+                    encode(newProperties, AGENT_INSTALLER_PROPERTY_KEYSTORE_PASSWORD,
+                            encryptionKey, encryptionSalt, useWeakEncryption);
+                    encode(newProperties, AGENT_INSTALLER_PROPERTY_KEY_PASSWORD,
+                            encryptionKey, encryptionSalt, useWeakEncryption);
+                    encode(newProperties, AGENT_INSTALLER_PROPERTY_PASSWORD,
+                            encryptionKey, encryptionSalt, useWeakEncryption);
+                }
 
-            int contentLength = 0;
-
-            try (ZipFile agentInstallerZip = new ZipFile(agentInstallerJar);
-                    ZipOutputStream zos = new ZipOutputStream(resp.getOutputStream(), StandardCharsets.UTF_8)) {
-
-                for (Enumeration<? extends ZipEntry> e = agentInstallerZip.entries(); e.hasMoreElements();) {
-                    ZipEntry entryIn = e.nextElement();
-                    if (!entryIn.getName().equalsIgnoreCase(AGENT_INSTALLER_PROPERTIES_FILE_NAME)) {
-                        // skip everything else
-                        zos.putNextEntry(entryIn);
-                        try (InputStream is = agentInstallerZip.getInputStream(entryIn)) {
-                            byte[] buf = new byte[4096];
-                            int len;
-                            while ((len = (is.read(buf))) > 0) {
-                                zos.write(buf, 0, len);
-                                contentLength += len;
-                            }
-                        }
-                    } else {
-                        zos.putNextEntry(new ZipEntry(AGENT_INSTALLER_PROPERTIES_FILE_NAME));
-                        try (BufferedReader br = new BufferedReader(
-                                new InputStreamReader(agentInstallerZip.getInputStream(entryIn),
-                                        StandardCharsets.UTF_8))) {
-                            String line;
-                            while ((line = br.readLine()) != null) {
-                                // for each new prop, see if current line sets it; if so, set the prop to our new value
-                                for (Map.Entry<String, String> entry : newProperties.entrySet()) {
-                                    String newLine = getNewPropertyLine(line, entry.getKey(), entry.getValue());
-                                    if (!line.equals(newLine)) {
-                                        line = newLine;
-                                        break; // found the property, no need to keep going; go write the new line now
-                                    }
-                                }
-                                byte[] buf = (line + '\n').getBytes(StandardCharsets.UTF_8);
-                                zos.write(buf);
-                                contentLength += buf.length;
-                            }
+                installerTail = agentInstallerTemplate.renderTail(line -> {
+                    // for each new prop, see if current line sets it; if so, set the prop to our new value
+                    for (Map.Entry<String, String> entry : newProperties.entrySet()) {
+                        String newLine = getNewPropertyLine(line, entry.getKey(), entry.getValue());
+                        if (!line.equals(newLine)) {
+                            return newLine; // found the property, no need to keep going
                         }
                     }
-                    zos.closeEntry();
-                }
+                    return line;
+                });
+                agentInstallerTemplate.cacheTail(cacheKey, installerTail);
             }
 
-            // I don't think this will work, because if the content is large enough, we will have flushed
-            // the resp outputStream, at which time you can no longer send headers such as content length
-            // resp.setContentLength(contentLength);
-            log("Sending Hawkular WildFly Agent installer with content length of: " + contentLength);
+            // all entries but the properties file are copied from the installer jar as they are (still compressed)
+            DownloadContent content = agentInstallerTemplate.getContent(installerTail);
+            resp.setContentLengthLong(content.getLength());
+            log("Sending Hawkular WildFly Agent installer with content length of: " + content.getLength());
+            return content;
 
         } catch (Throwable t) {
             String clientAddr = getClientAddress(req);
             log("Failed to stream file to remote client [" + clientAddr + "]", t);
             disableBrowserCache(resp);
             resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to stream file: " + t);
+            return null;
         }
     }
 
@@ -409,30 +476,158 @@ public class WildFlyAgentServlet extends HttpServlet {
         if (limit <= 0) {
             sendErrorDownloadsDisabled(resp);
             return;
-        } else if (limit < numActiveDownloads.get()) {
-            sendErrorTooManyDownloads(resp);
+        }
+
+        if (!req.isAsyncSupported()) {
+            // something in front of this servlet does not support async requests - send it from this thread
+            if (!downloadSlots.tryAcquire(limit)) {
+                sendErrorTooManyDownloads(resp);
+                return;
+            }
+            try {
+                DownloadContent content = prepareDownload(req, resp);
+                if (content != null) {
+                    content.writeTo(resp.getOutputStream());
+                }
+            } finally {
+                downloadSlots.release();
+            }
             return;
         }
+
+        // the request thread is given back to the container - the download is sent by non-blocking writes and
+        // downloads that have to wait for a free slot do not hold on to a thread either
+        AsyncContext asyncContext = req.startAsync();
+        // sending a large file to a slow client takes as long as it takes - a client that stops taking data is
+        // caught by the idle timeout of the download instead
+        asyncContext.setTimeout(0);
+        Runnable download = () -> asyncContext.start(() -> startDownload(asyncContext));
+
+        switch (downloadSlots.admit(download, limit, getIntSystemProperty(SYSPROP_AGENT_DOWNLOADS_QUEUE,
+                DEFAULT_AGENT_DOWNLOADS_QUEUE))) {
+            case STARTED:
+                download.run();
+                break;
+            case QUEUED:
+                asyncContext.addListener(new AsyncListener() {
+                    @Override
+                    public void onError(AsyncEvent event) throws IOException {
+                        // the client went away while waiting
+                        if (downloadSlots.cancel(download)) {
+                            asyncContext.complete();
+                        }
+                    }
+
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        if (downloadSlots.cancel(download)) {
+                            asyncContext.complete();
+                        }
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+                int timeout = getIntSystemProperty(SYSPROP_AGENT_DOWNLOADS_QUEUE_TIMEOUT,
+                        DEFAULT_AGENT_DOWNLOADS_QUEUE_TIMEOUT);
+                downloadTimeouts.schedule(() -> {
+                    if (downloadSlots.cancel(download)) {
+                        asyncContext.start(() -> {
+                            try {
+                                sendErrorTooManyDownloads((HttpServletResponse) asyncContext.getResponse());
+                            } catch (Throwable t) {
+                                log("Cannot reject queued download", t);
+                            } finally {
+                                asyncContext.complete();
+                            }
+                        });
+                    }
+                }, timeout, TimeUnit.SECONDS);
+                break;
+            default:
+                try {
+                    sendErrorTooManyDownloads(resp);
+                } finally {
+                    asyncContext.complete();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Prepares and starts an async download that holds a download slot. The slot is released when the download
+     * is over.
+     */
+    private void startDownload(AsyncContext asyncContext) {
+        HttpServletRequest req = (HttpServletRequest) asyncContext.getRequest();
+        HttpServletResponse resp = (HttpServletResponse) asyncContext.getResponse();
+        boolean started = false;
+        try {
+            DownloadContent content = prepareDownload(req, resp);
+            if (content != null) {
+                long idleTimeout = TimeUnit.SECONDS.toMillis(getIntSystemProperty(SYSPROP_AGENT_DOWNLOADS_IDLE_TIMEOUT,
+                        DEFAULT_AGENT_DOWNLOADS_IDLE_TIMEOUT));
+                new AsyncDownload(asyncContext, content, idleTimeout, error -> {
+                    if (error != null) {
+                        log("Failed to stream file to remote client [" + getClientAddress(req) + "]", error);
+                    }
+                    downloadSlots.release();
+                }).start(downloadTimeouts);
+                started = true;
+            }
+        } catch (Throwable t) {
+            log("Failed to stream file to remote client [" + getClientAddress(req) + "]", t);
+            if (!resp.isCommitted()) {
+                try {
+                    disableBrowserCache(resp);
+                    resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to stream file");
+                } catch (Throwable ignore) {
+                }
+            }
+        } finally {
+            if (!started) {
+                try {
+                    asyncContext.complete();
+                } finally {
+                    downloadSlots.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the response headers for the requested download.
+     *
+     * @return what to send to the client or null if the response is already complete
+     */
+    private DownloadContent prepareDownload(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         if (req.getServletPath().endsWith("installer")) {
-            downloadAgentInstaller(req, resp);
+            return downloadAgentInstaller(req, resp);
         } else {
-            downloadAgentModule(req, resp);
+            return downloadAgentModule(req, resp);
         }
     }
 
     private int getDownloadLimit() {
-        String limitStr = System.getProperty(SYSPROP_AGENT_DOWNLOADS_LIMIT,
-                String.valueOf(DEFAULT_AGENT_DOWNLOADS_LIMIT));
-        int limit;
+        return getIntSystemProperty(SYSPROP_AGENT_DOWNLOADS_LIMIT, DEFAULT_AGENT_DOWNLOADS_LIMIT);
+    }
+
+    private int getIntSystemProperty(String name, int defaultValue) {
+        String valueStr = System.getProperty(name, String.valueOf(defaultValue));
+        int value;
         try {
-            limit = Integer.parseInt(limitStr);
+            value = Integer.parseInt(valueStr);
         } catch (Exception e) {
-            limit = DEFAULT_AGENT_DOWNLOADS_LIMIT;
-            log("Agent downloads limit system property [" + SYSPROP_AGENT_DOWNLOADS_LIMIT
-                    + "] is invalid [" + limitStr + "] - limit will be [" + limit + "].");
+            value = defaultValue;
+            log("System property [" + name + "] is invalid [" + valueStr + "] - value will be [" + value + "].");
         }
 
-        return limit;
+        return value;
     }
 
     private void disableBrowserCache(HttpServletResponse resp) {
@@ -463,13 +658,63 @@ public class WildFlyAgentServlet extends HttpServlet {
         return ip;
     }
 
-    private void copy(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[32768];
-        input = new BufferedInputStream(input, buffer.length);
-        for (int bytesRead = input.read(buffer); bytesRead != -1; bytesRead = input.read(buffer)) {
-            output.write(buffer, 0, bytesRead);
+    private boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the Range header of a request. Only a single byte range is supported - requests for several ranges
+     * get the whole content.
+     *
+     * @param rangeHeader the Range request header
+     * @param length the length of the content
+     * @return the first and last byte of the requested range, {@link #RANGE_NOT_SATISFIABLE} if the range lies
+     *         outside the content or null if the whole content is to be sent
+     */
+    private long[] getRange(String rangeHeader, long length) {
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=") || rangeHeader.contains(",")) {
+            return null;
+        }
+        String spec = rangeHeader.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                // suffix range - the last N bytes
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return RANGE_NOT_SATISFIABLE;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = (dash == spec.length() - 1) ? length - 1
+                        : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+            }
+            if (first >= length || first > last) {
+                return RANGE_NOT_SATISFIABLE;
+            }
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return null;
         }
-        output.flush();
     }
 
     private File getAgentModuleDownloadFile(String appserver) throws Exception {
@@ -503,6 +748,57 @@ public class WildFlyAgentServlet extends HttpServlet {
         throw new FileNotFoundException("Cannot find agent download file [" + fileToFind + "] in: " + configDir);
     }
 
+    /**
+     * @return the SHA-256 checksum of the module file - computed once per version of the file
+     */
+    private byte[] getAgentModuleChecksum(File agentModuleZip, long lastModified, long length) throws IOException {
+        ModuleChecksum checksum = moduleChecksums.get(agentModuleZip);
+        if (checksum != null && checksum.lastModified == lastModified && checksum.length == length) {
+            return checksum.sha256;
+        }
+
+        synchronized (moduleChecksumLock) {
+            // another request may have computed it while we waited
+            checksum = moduleChecksums.get(agentModuleZip);
+            if (checksum != null && checksum.lastModified == lastModified && checksum.length == length) {
+                return checksum.sha256;
+            }
+
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not supported", e);
+            }
+            try (InputStream in = new FileInputStream(agentModuleZip)) {
+                byte[] buffer = new byte[32768];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, len);
+                }
+            }
+            checksum = new ModuleChecksum(lastModified, length, digest.digest());
+            moduleChecksums.put(agentModuleZip, checksum);
+            return checksum.sha256;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private synchronized InstallerTemplate getAgentInstallerTemplate() throws Exception {
+        File agentInstallerJar = getAgentInstallerDownloadFile();
+        if (installerTemplate == null || !installerTemplate.isCurrent(agentInstallerJar)) {
+            installerTemplate = new InstallerTemplate(agentInstallerJar, AGENT_INSTALLER_PROPERTIES_FILE_NAME);
+        }
+        return installerTemplate;
+    }
+
     private File getAgentInstallerDownloadFile() throws Exception {
         if (installerDownloadFile != null) {
             if (installerDownloadFile.exists()) {
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.component.wildflymonitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncDownloadTest {
+
+    /**
+     * Collects what is written and is only ready for as many writes as the test allows.
+     */
+    private static class TestOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private int readyWrites;
+        private WriteListener listener;
+
+        @Override
+        public boolean isReady() {
+            return readyWrites > 0;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.listener = writeListener;
+        }
+
+        @Override
+        public void write(int b) {
+            written.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (readyWrites-- <= 0) {
+                throw new IllegalStateException("Not ready for writing");
+            }
+            written.write(b, off, len);
+        }
+    }
+
+    private File file;
+    private byte[] fileContent;
+    private ScheduledExecutorService timer;
+    private TestOutputStream output;
+    private AtomicBoolean completed;
+    private AsyncContext asyncContext;
+
+    @Before
+    public void setup() throws Exception {
+        fileContent = new byte[100_000];
+        for (int i = 0; i < fileContent.length; i++) {
+            fileContent[i] = (byte) (i % 253);
+        }
+        file = File.createTempFile("async-download", ".zip");
+        Files.write(file.toPath(), fileContent);
+        timer = Executors.newSingleThreadScheduledExecutor();
+
+        output = new TestOutputStream();
+        completed = new AtomicBoolean(false);
+        ServletResponse response = (ServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ServletResponse.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("getOutputStream")) {
+                        return output;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { AsyncContext.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getResponse":
+                            return response;
+                        case "complete":
+                            Assert.assertTrue("Completed twice", completed.compareAndSet(false, true));
+                            return null;
+                        case "addListener":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @After
+    public void cleanup() {
+        timer.shutdownNow();
+        file.delete();
+    }
+
+    @Test
+    public void testSendsRegionsAndTail() throws Exception {
+        byte[] tail = "tail".getBytes();
+        DownloadContent content = new DownloadContent(file,
+                Arrays.asList(new long[] { 50_000, 50_000 }, new long[] { 0, 10 }), tail);
+        CompletableFuture<Throwable> done = new CompletableFuture<>();
+        AsyncDownload download = new AsyncDownload(asyncContext, content, 60_000, done::complete);
+        download.start(timer);
+
+        // the client takes the data a few chunks at a time
+        while (!done.isDone()) {
+            output.readyWrites = 2;
+            output.listener.onWritePossible();
+        }
+
+        Assert.assertNull(done.get());
+        Assert.assertTrue(completed.get());
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(fileContent, 50_000, 50_000);
+        expected.write(fileContent, 0, 10);
+        expected.write(tail);
+        Assert.assertArrayEquals(expected.toByteArray(), output.written.toByteArray());
+    }
+
+    @Test
+    public void testStalledClientIsEnded() throws Exception {
+        DownloadContent content = DownloadContent.ofFile(file, 0, fileContent.length);
+        CompletableFuture<Throwable> done = new CompletableFuture<>();
+        AsyncDownload download = new AsyncDownload(asyncContext, content, 100, done::complete);
+        download.start(timer);
+
+        // the client takes one chunk and then nothing
+        output.readyWrites = 1;
+        output.listener.onWritePossible();
+
+        Throwable error = done.get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(String.valueOf(error), error instanceof TimeoutException);
+        Assert.assertTrue(completed.get());
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        DownloadContent content = DownloadContent.ofFile(file, 0, fileContent.length + 10);
+        CompletableFuture<Throwable> done = new CompletableFuture<>();
+        AsyncDownload download = new AsyncDownload(asyncContext, content, 60_000, done::complete);
+        download.start(timer);
+
+        output.readyWrites = Integer.MAX_VALUE;
+        try {
+            output.listener.onWritePossible();
+            Assert.fail("A file shorter than its regions must fail the download");
+        } catch (EOFException expected) {
+        }
+
+        // the container reports the failure to the listener, which ends the download
+        output.listener.onError(new EOFException());
+        Assert.assertTrue(done.get() instanceof EOFException);
+        Assert.assertTrue(completed.get());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.component.wildflymonitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hawkular.component.wildflymonitor.DownloadSlots.Admission;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DownloadSlotsTest {
+
+    @Test
+    public void testLimit() {
+        DownloadSlots slots = new DownloadSlots();
+        Assert.assertTrue(slots.tryAcquire(2));
+        Assert.assertTrue(slots.tryAcquire(2));
+        Assert.assertFalse(slots.tryAcquire(2));
+        Assert.assertEquals(2, slots.getActive());
+
+        slots.release();
+        Assert.assertEquals(1, slots.getActive());
+        Assert.assertTrue(slots.tryAcquire(2));
+    }
+
+    @Test
+    public void testQueueHandoff() {
+        DownloadSlots slots = new DownloadSlots();
+        List<String> ran = new ArrayList<>();
+        Assert.assertEquals(Admission.STARTED, slots.admit(() -> ran.add("first"), 1, 10));
+        Assert.assertEquals(Admission.QUEUED, slots.admit(() -> ran.add("second"), 1, 10));
+        Assert.assertEquals(Admission.QUEUED, slots.admit(() -> ran.add("third"), 1, 10));
+        Assert.assertTrue(ran.isEmpty()); // a started download is run by the caller
+        Assert.assertEquals(2, slots.getWaiting());
+
+        // the released slot goes straight to the download that waited longest
+        slots.release();
+        Assert.assertEquals(1, slots.getActive());
+        Assert.assertEquals(1, slots.getWaiting());
+        slots.release();
+        Assert.assertEquals(1, slots.getActive());
+        Assert.assertEquals(0, slots.getWaiting());
+        Assert.assertEquals(Arrays.asList("second", "third"), ran);
+
+        slots.release();
+        Assert.assertEquals(0, slots.getActive());
+    }
+
+    @Test
+    public void testFreeSlotDoesNotJumpTheQueue() {
+        DownloadSlots slots = new DownloadSlots();
+        Assert.assertEquals(Admission.STARTED, slots.admit(() -> {
+        }, 1, 10));
+        Assert.assertEquals(Admission.QUEUED, slots.admit(() -> {
+        }, 1, 10));
+
+        // a higher limit frees a slot, but downloads that already wait come first
+        Assert.assertEquals(Admission.QUEUED, slots.admit(() -> {
+        }, 5, 10));
+        Assert.assertEquals(2, slots.getWaiting());
+    }
+
+    @Test
+    public void testQueueFull() {
+        DownloadSlots slots = new DownloadSlots();
+        Assert.assertEquals(Admission.STARTED, slots.admit(() -> {
+        }, 1, 1));
+        Assert.assertEquals(Admission.QUEUED, slots.admit(() -> {
+        }, 1, 1));
+        Assert.assertEquals(Admission.REJECTED, slots.admit(() -> {
+        }, 1, 1));
+        Assert.assertEquals(1, slots.getActive());
+        Assert.assertEquals(1, slots.getWaiting());
+    }
+
+    @Test
+    public void testCancel() {
+        DownloadSlots slots = new DownloadSlots();
+        List<String> ran = new ArrayList<>();
+        Runnable queued = () -> ran.add("queued");
+        Assert.assertEquals(Admission.STARTED, slots.admit(() -> {
+        }, 1, 10));
+        Assert.assertEquals(Admission.QUEUED, slots.admit(queued, 1, 10));
+
+        // a download that timed out in the queue or whose client went away is cancelled only once
+        Assert.assertTrue(slots.cancel(queued));
+        Assert.assertFalse(slots.cancel(queued));
+
+        slots.release();
+        Assert.assertTrue(ran.isEmpty());
+        Assert.assertEquals(0, slots.getActive());
+    }
+
+    @Test
+    public void testCancelAfterHandoff() {
+        DownloadSlots slots = new DownloadSlots();
+        Runnable queued = () -> {
+        };
+        slots.admit(() -> {
+        }, 1, 10);
+        slots.admit(queued, 1, 10);
+        slots.release();
+
+        // the download already got its slot, so the queue timeout must leave it alone
+        Assert.assertFalse(slots.cancel(queued));
+        Assert.assertEquals(1, slots.getActive());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.component.wildflymonitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InstallerTemplateTest {
+
+    private static final String PROPERTIES_FILE_NAME = "hawkular-wildfly-agent-installer.properties";
+
+    @Test
+    public void testRenderedInstallerIsValidJar() throws Exception {
+        Map<String, byte[]> entries = new HashMap<>();
+        entries.put("org/hawkular/Installer.class", repeat("class bytes ", 500));
+        entries.put("stored.txt", "stored without compression".getBytes(StandardCharsets.UTF_8));
+        entries.put(PROPERTIES_FILE_NAME, ("# installer defaults\n"
+                + "server-url=http://localhost:8080\n"
+                + "username=\n").getBytes(StandardCharsets.UTF_8));
+        entries.put("module.zip", repeat("module bytes ", 2000));
+
+        // the properties file is in the middle so the copied entries are split into two regions
+        File jar = createJar(entries, Arrays.asList("org/hawkular/Installer.class", "stored.txt",
+                PROPERTIES_FILE_NAME, "module.zip"));
+        try {
+            InstallerTemplate template = new InstallerTemplate(jar, PROPERTIES_FILE_NAME);
+            Assert.assertTrue(template.isCurrent(jar));
+
+            byte[] tail = template.renderTail(line -> line.startsWith("username=") ? "username=jdoe" : line);
+            File rendered = render(template.getContent(tail));
+            try (JarFile renderedJar = new JarFile(rendered)) {
+                List<String> names = new ArrayList<>();
+                Collections.list(renderedJar.entries()).forEach(e -> names.add(e.getName()));
+                Collections.sort(names);
+                List<String> expectedNames = new ArrayList<>(entries.keySet());
+                expectedNames.add(JarFile.MANIFEST_NAME);
+                Collections.sort(expectedNames);
+                Assert.assertEquals(expectedNames, names);
+
+                for (String name : names) {
+                    ZipEntry entry = renderedJar.getEntry(name);
+                    byte[] content = read(renderedJar, entry);
+                    Assert.assertEquals("Wrong size of " + name, entry.getSize(), content.length);
+                    Assert.assertEquals("Wrong CRC of " + name, entry.getCrc(), crc(content));
+                    if (!name.equals(PROPERTIES_FILE_NAME) && !name.equals(JarFile.MANIFEST_NAME)) {
+                        Assert.assertArrayEquals("Wrong content of " + name, entries.get(name), content);
+                    }
+                }
+
+                Properties properties = new Properties();
+                try (InputStream in = renderedJar.getInputStream(renderedJar.getEntry(PROPERTIES_FILE_NAME))) {
+                    properties.load(in);
+                }
+                Assert.assertEquals("http://localhost:8080", properties.getProperty("server-url"));
+                Assert.assertEquals("jdoe", properties.getProperty("username"));
+                Assert.assertEquals(2, properties.size());
+            } finally {
+                rendered.delete();
+            }
+        } finally {
+            jar.delete();
+        }
+    }
+
+    @Test
+    public void testMissingPropertiesFile() throws Exception {
+        File jar = createJar(Collections.singletonMap("a.txt", new byte[] { 1 }), Collections.singletonList("a.txt"));
+        try {
+            new InstallerTemplate(jar, PROPERTIES_FILE_NAME);
+            Assert.fail("The properties file is missing");
+        } catch (IOException expected) {
+        } finally {
+            jar.delete();
+        }
+    }
+
+    @Test
+    public void testDownloadOfTruncatedFileFails() throws Exception {
+        File file = File.createTempFile("installer-template-test", ".jar");
+        try {
+            Files.write(file.toPath(), repeat("x", 1000));
+            DownloadContent content = DownloadContent.ofFile(file, 0, 2000);
+            try {
+                content.writeTo(new ByteArrayOutputStream());
+                Assert.fail("The file is shorter than the content");
+            } catch (EOFException expected) {
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File createJar(Map<String, byte[]> entries, List<String> order) throws IOException {
+        File file = File.createTempFile("installer-template-test", ".jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), new Manifest())) {
+            for (String name : order) {
+                byte[] content = entries.get(name);
+                ZipEntry entry = new ZipEntry(name);
+                if (name.endsWith(".txt")) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCrc(crc(content));
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static File render(DownloadContent content) throws IOException {
+        File file = File.createTempFile("installer-template-test", ".jar");
+        try (OutputStream out = new FileOutputStream(file)) {
+            content.writeTo(out);
+        }
+        Assert.assertEquals(content.getLength(), file.length());
+        return file;
+    }
+
+    private static byte[] read(JarFile jar, ZipEntry entry) throws IOException {
+        try (InputStream in = jar.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static byte[] repeat(String s, int times) {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            str.append(s);
+        }
+        return str.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -20,7 +20,6 @@ import java.io.Console;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -33,7 +32,6 @@ import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.IOUtils;
 import org.hawkular.wildfly.module.installer.DeploymentConfiguration;
 import org.hawkular.wildfly.module.installer.DeploymentConfiguration.Builder;
 import org.hawkular.wildfly.module.installer.ExtensionDeployer;
@@ -156,16 +154,21 @@ public class AgentInstaller {
             String moduleZip = installerConfig.getModuleDistribution();
 
             URL moduleZipUrl;
+            ModuleDownloader downloader = new ModuleDownloader(installerConfig.getModuleDistributionCache(),
+                    installerConfig.getModuleDistributionConnections());
 
             if (moduleZip == null) {
                 // --module-dist is not supplied so try to download agent module from server
-                File moduleTempFile = downloadModuleZip(getHawkularServerAgentDownloadUrl(installerConfig), jbossHome);
+                File moduleTempFile = downloadModuleZip(getHawkularServerAgentDownloadUrl(installerConfig), jbossHome,
+                        downloader);
                 if (moduleTempFile == null) {
                     throw new IOException("Failed to retrieve module dist from server, You can use option ["
                             + InstallerConfiguration.OPTION_MODULE_DISTRIBUTION
                             + "] to supply your own");
                 }
-                filesToDelete.add(moduleTempFile);
+                if (downloader.isTemporary(moduleTempFile)) {
+                    filesToDelete.add(moduleTempFile);
+                }
                 moduleZipUrl = moduleTempFile.toURI().toURL();
             } else if (moduleZip.startsWith("classpath:")) {
                 // This special protocol tells us to read module zip as resource from classpath.
@@ -190,13 +193,15 @@ public class AgentInstaller {
                 }
             } else if (moduleZip.matches("(http|https|file):.*")) {
                 // the module is specified as a URL - we'll download it
-                File moduleTempFile = downloadModuleZip(new URL(moduleZip), jbossHome);
+                File moduleTempFile = downloadModuleZip(new URL(moduleZip), jbossHome, downloader);
                 if (moduleTempFile == null) {
                     throw new IOException("Failed to retrieve agent module from server, option ["
                             + InstallerConfiguration.OPTION_MODULE_DISTRIBUTION
                             + "] is now required but it was not supplied");
                 }
-                filesToDelete.add(moduleTempFile);
+                if (downloader.isTemporary(moduleTempFile)) {
+                    filesToDelete.add(moduleTempFile);
+                }
                 moduleZipUrl = moduleTempFile.toURI().toURL();
             } else {
                 // the module is specified as a file path
@@ -523,18 +528,11 @@ public class AgentInstaller {
      *
      * @param url where the agent zip is
      * @param jbossHome used to determine what kind of agent we need
+     * @param downloader does the download
      * @return absolute path to module downloaded locally or null if it could not be retrieved;
-     *         this is a temporary file that should be cleaned once it is used
+     *         unless it is in the download cache, this is a temporary file that should be cleaned once it is used
      */
-    private static File downloadModuleZip(URL url, String jbossHome) {
-        File tempFile;
-
-        try {
-            tempFile = File.createTempFile("hawkular-wildfly-agent", ".zip");
-        } catch (Exception e) {
-            throw new RuntimeException("Cannot create temp file to hold module zip", e);
-        }
-
+    private static File downloadModuleZip(URL url, String jbossHome, ModuleDownloader downloader) {
         if (isEAP6(jbossHome) && url.getProtocol().startsWith("http")) {
             String param = "appserver=eap6";
             if (url.getQuery() == null || !url.getQuery().contains(param)) {
@@ -549,13 +547,10 @@ public class AgentInstaller {
 
         log.info("Downloading agent module extension from: " + url);
 
-        try (FileOutputStream fos = new FileOutputStream(tempFile);
-                InputStream ios = url.openStream()) {
-            IOUtils.copyLarge(ios, fos);
-            return tempFile;
+        try {
+            return downloader.download(url);
         } catch (Exception e) {
             log.warn("Unable to download hawkular wildfly agent module extension: " + url, e);
-            tempFile.delete();
         }
         return null;
     }
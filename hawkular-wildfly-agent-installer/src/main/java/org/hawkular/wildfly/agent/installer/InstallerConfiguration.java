@@ -48,6 +48,8 @@ public class InstallerConfiguration {
     static final String OPTION_ENABLED = "enabled";
     static final String OPTION_TARGET_LOCATION = "target-location";
     static final String OPTION_MODULE_DISTRIBUTION = "module-dist";
+    static final String OPTION_MODULE_DISTRIBUTION_CACHE = "module-dist-cache";
+    static final String OPTION_MODULE_DISTRIBUTION_CONNECTIONS = "module-dist-connections";
     static final String OPTION_TARGET_CONFIG = "target-config";
     static final String OPTION_SUBSYSTEM_SNIPPET = "subsystem-snippet";
     static final String OPTION_SERVER_URL = "server-url";
@@ -120,6 +122,19 @@ public class InstallerConfiguration {
                 .type(String.class)
                 .description("Hawkular WildFly Agent Module distribution zip file - can be a file path or URL")
                 .create());
+        cmd.addOption(new ProcessedOptionBuilder()
+                .name(InstallerConfiguration.OPTION_MODULE_DISTRIBUTION_CACHE)
+                .optionType(OptionType.NORMAL)
+                .type(String.class)
+                .description("Directory where module distributions downloaded from an http(s) URL are cached. "
+                        + "Use 'none' to disable the cache.")
+                .create());
+        cmd.addOption(new ProcessedOptionBuilder()
+                .name(InstallerConfiguration.OPTION_MODULE_DISTRIBUTION_CONNECTIONS)
+                .optionType(OptionType.NORMAL)
+                .type(String.class)
+                .description("Number of connections a module distribution can be downloaded over in parallel")
+                .create());
         cmd.addOption(new ProcessedOptionBuilder()
                 .name(InstallerConfiguration.OPTION_SERVER_URL)
                 .optionType(OptionType.NORMAL)
@@ -273,6 +288,8 @@ public class InstallerConfiguration {
         setProperty(properties, commandLine, OPTION_ENABLED);
         setProperty(properties, commandLine, OPTION_TARGET_LOCATION);
         setProperty(properties, commandLine, OPTION_MODULE_DISTRIBUTION);
+        setProperty(properties, commandLine, OPTION_MODULE_DISTRIBUTION_CACHE);
+        setProperty(properties, commandLine, OPTION_MODULE_DISTRIBUTION_CONNECTIONS);
         setProperty(properties, commandLine, OPTION_TARGET_CONFIG);
         setProperty(properties, commandLine, OPTION_SUBSYSTEM_SNIPPET);
         setProperty(properties, commandLine, OPTION_MANAGED_SERVER_NAME);
@@ -327,6 +344,21 @@ public class InstallerConfiguration {
         return properties.getProperty(OPTION_MODULE_DISTRIBUTION);
     }
 
+    /**
+     * @return the directory where downloaded module distributions are cached or null if the cache is disabled
+     */
+    public File getModuleDistributionCache() {
+        String dir = properties.getProperty(OPTION_MODULE_DISTRIBUTION_CACHE);
+        if (dir == null || dir.trim().isEmpty()) {
+            return new File(System.getProperty("user.home"), ".hawkular-wildfly-agent-installer/cache");
+        }
+        return "none".equalsIgnoreCase(dir.trim()) ? null : new File(dir.trim());
+    }
+
+    public int getModuleDistributionConnections() {
+        return Integer.parseInt(properties.getProperty(OPTION_MODULE_DISTRIBUTION_CONNECTIONS, "1").trim());
+    }
+
     public String getTargetConfig() {
         return properties.getProperty(OPTION_TARGET_CONFIG);
     }
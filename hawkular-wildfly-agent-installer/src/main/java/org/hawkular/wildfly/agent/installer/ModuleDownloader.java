@@ -0,0 +1,428 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.wildfly.agent.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.jboss.logging.Logger;
+
+/**
+ * Downloads the agent module distribution, keeping the downloaded files in a local cache.
+ *
+ * Cached files are named after the SHA-256 checksum of their content. For each URL, the cache remembers the ETag
+ * the server sent along with the checksum of the content, so the next download of the same URL is a conditional
+ * request that the server answers with "304 Not Modified" if the cached file is still current. If the server
+ * provides the checksum of the content (the Hawkular Server sends it in a "Digest" header), a download is verified
+ * against it, and content already cached under another URL is not downloaded again.
+ *
+ * An interrupted download is resumed with a Range request. A large download can optionally be split into several
+ * ranges that are fetched in parallel.
+ */
+class ModuleDownloader {
+    private static final Logger log = Logger.getLogger(ModuleDownloader.class);
+
+    private static final String INDEX_ETAG = "etag";
+    private static final String INDEX_SHA256 = "sha256";
+    private static final String INDEX_PARTIAL_ETAG = "partial-etag";
+
+    // a download is not split into ranges smaller than this
+    private static final long MIN_RANGE_SIZE = 1024 * 1024;
+
+    // how many times an interrupted download is resumed before giving up
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int CONNECT_TIMEOUT = 30_000;
+    private static final int READ_TIMEOUT = 60_000;
+
+    private final File cacheDirectory;
+    private final int connections;
+
+    /**
+     * @param cacheDirectory where the downloads are cached; if null, every download is a new temporary file
+     * @param connections how many connections a single download can be fetched over
+     */
+    ModuleDownloader(File cacheDirectory, int connections) {
+        this.cacheDirectory = cacheDirectory;
+        this.connections = Math.max(1, connections);
+    }
+
+    /**
+     * @param file a file returned by {@link #download(URL)}
+     * @return true if the file is a temporary file that should be deleted once used; false if it is in the cache
+     */
+    boolean isTemporary(File file) {
+        return cacheDirectory == null || !cacheDirectory.equals(file.getParentFile());
+    }
+
+    /**
+     * Downloads the content of the given URL.
+     *
+     * @param url where the module distribution is
+     * @return the downloaded file - see {@link #isTemporary(File)}
+     * @throws IOException if the content cannot be downloaded
+     */
+    File download(URL url) throws IOException {
+        if (cacheDirectory == null || !url.getProtocol().startsWith("http")) {
+            return downloadToTempFile(url);
+        }
+
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            log.warnf("Cannot create download cache directory [%s] - the download will not be cached",
+                    cacheDirectory);
+            return downloadToTempFile(url);
+        }
+
+        String key = sha256Hex(url.toExternalForm().getBytes(StandardCharsets.UTF_8));
+        File lockFile = new File(cacheDirectory, key + ".lock");
+
+        // other installers on this host may be downloading the same thing right now
+        try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+                FileLock lock = lockChannel.lock()) {
+            IOException failure = null;
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                try {
+                    return downloadToCache(url, key);
+                } catch (IOException e) {
+                    failure = e;
+                    log.warnf("Download attempt [%d] of [%s] failed: %s", attempt, url, e.toString());
+                }
+            }
+            throw failure;
+        }
+    }
+
+    private File downloadToCache(URL url, String key) throws IOException {
+        File indexFile = new File(cacheDirectory, key + ".properties");
+        File partFile = new File(cacheDirectory, key + ".part");
+        Properties index = loadIndex(indexFile);
+
+        String etag = index.getProperty(INDEX_ETAG);
+        String sha256 = index.getProperty(INDEX_SHA256);
+        File cached = (sha256 != null) ? getContentFile(sha256) : null;
+        String partialEtag = index.getProperty(INDEX_PARTIAL_ETAG);
+
+        HttpURLConnection conn = openConnection(url);
+        long resumeFrom = 0;
+        if (cached != null && cached.isFile() && etag != null) {
+            conn.setRequestProperty("If-None-Match", etag);
+        } else if (partialEtag != null && partFile.length() > 0) {
+            resumeFrom = partFile.length();
+            conn.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+            conn.setRequestProperty("If-Range", partialEtag);
+        }
+
+        String newEtag;
+        String expectedSha256;
+        try {
+            int status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                log.infof("Agent module at [%s] has not changed - using the cached copy [%s]", url, cached);
+                return cached;
+            }
+
+            newEtag = conn.getHeaderField("ETag");
+            expectedSha256 = getDigest(conn);
+            if (expectedSha256 != null && getContentFile(expectedSha256).isFile()) {
+                log.infof("Agent module at [%s] is already cached as [%s]", url, getContentFile(expectedSha256));
+                saveIndex(indexFile, newEtag, expectedSha256, null);
+                return getContentFile(expectedSha256);
+            }
+
+            if (status == HttpURLConnection.HTTP_PARTIAL && resumeFrom > 0) {
+                log.infof("Resuming download of [%s] at byte [%d]", url, resumeFrom);
+                try (InputStream in = conn.getInputStream();
+                        OutputStream out = new FileOutputStream(partFile, true)) {
+                    checkComplete(url, IOUtils.copyLarge(in, out), conn.getContentLengthLong());
+                }
+            } else if (status == HttpURLConnection.HTTP_OK) {
+                long length = conn.getContentLengthLong();
+                int ranges = (int) Math.min(connections, length / MIN_RANGE_SIZE);
+                if (ranges > 1 && newEtag != null && "bytes".equals(conn.getHeaderField("Accept-Ranges"))) {
+                    conn.disconnect();
+                    saveIndex(indexFile, etag, sha256, null);
+                    fetchRanges(url, newEtag, length, ranges, partFile);
+                } else {
+                    // remember what is being downloaded so it can be resumed if the download gets interrupted
+                    saveIndex(indexFile, etag, sha256, newEtag);
+                    try (InputStream in = conn.getInputStream();
+                            OutputStream out = new FileOutputStream(partFile, false)) {
+                        checkComplete(url, IOUtils.copyLarge(in, out), length);
+                    }
+                }
+            } else {
+                throw new IOException("Unexpected response [" + status + " " + conn.getResponseMessage()
+                        + "] from: " + url);
+            }
+        } finally {
+            conn.disconnect();
+        }
+
+        String actualSha256 = sha256Hex(partFile);
+        if (expectedSha256 != null && !expectedSha256.equals(actualSha256)) {
+            Files.deleteIfExists(partFile.toPath());
+            saveIndex(indexFile, etag, sha256, null);
+            throw new IOException("Checksum of the download [" + actualSha256 + "] does not match the checksum ["
+                    + expectedSha256 + "] provided by: " + url);
+        }
+
+        File content = getContentFile(actualSha256);
+        Files.move(partFile.toPath(), content.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        saveIndex(indexFile, newEtag, actualSha256, null);
+        if (cached != null && !cached.equals(content) && !isReferenced(sha256)) {
+            // the previous version of the module is not needed anymore
+            Files.deleteIfExists(cached.toPath());
+        }
+        log.infof("Agent module at [%s] has been downloaded to [%s]", url, content);
+        return content;
+    }
+
+    /**
+     * Fails if the connection ended before all the content the server announced was received. What was received
+     * is kept, so the next attempt resumes from there.
+     */
+    private static void checkComplete(URL url, long received, long expected) throws IOException {
+        if (expected >= 0 && received != expected) {
+            throw new IOException("Received [" + received + "] of [" + expected + "] bytes from: " + url);
+        }
+    }
+
+    /**
+     * Fetches the content in several ranges at the same time. If the content changes on the server while it is
+     * being fetched, the server answers with the whole content instead of a range and the download fails.
+     */
+    private void fetchRanges(URL url, String etag, long length, int ranges, File partFile) throws IOException {
+        log.infof("Downloading [%s] in [%d] parallel ranges", url, ranges);
+        long rangeSize = (length + ranges - 1) / ranges;
+        boolean complete = false;
+        ExecutorService executor = Executors.newFixedThreadPool(ranges);
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(length);
+            FileChannel channel = file.getChannel();
+            List<Future<Void>> futures = new ArrayList<>(ranges);
+            for (int i = 0; i < ranges; i++) {
+                long first = i * rangeSize;
+                long last = Math.min(length, first + rangeSize) - 1;
+                futures.add(executor.submit(() -> {
+                    fetchRange(url, etag, first, last, channel);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+                            : new IOException("Failed to download range of: " + url, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading: " + url, e);
+                }
+            }
+            complete = true;
+        } finally {
+            executor.shutdownNow();
+            if (!complete) {
+                // a partly fetched file has holes, so it cannot be resumed
+                Files.deleteIfExists(partFile.toPath());
+            }
+        }
+    }
+
+    private void fetchRange(URL url, String etag, long first, long last, FileChannel channel) throws IOException {
+        HttpURLConnection conn = openConnection(url);
+        conn.setRequestProperty("Range", "bytes=" + first + "-" + last);
+        conn.setRequestProperty("If-Range", etag);
+        try {
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server did not return the requested range of [" + url
+                        + "] - its content may have changed during the download");
+            }
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buffer = new byte[32768];
+                long position = first;
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, len);
+                    while (data.hasRemaining()) {
+                        position += channel.write(data, position);
+                    }
+                }
+                if (position != last + 1) {
+                    throw new IOException("Incomplete range [" + first + "-" + last + "] of: " + url);
+                }
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private File downloadToTempFile(URL url) throws IOException {
+        File tempFile = File.createTempFile("hawkular-wildfly-agent", ".zip");
+        URLConnection conn = url.openConnection();
+        try (FileOutputStream fos = new FileOutputStream(tempFile);
+                InputStream ios = conn.getInputStream()) {
+            IOUtils.copyLarge(ios, fos);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        // verify the checksum if the server provided one
+        String expectedSha256 = getDigest(conn);
+        if (expectedSha256 != null && !expectedSha256.equals(sha256Hex(tempFile))) {
+            tempFile.delete();
+            throw new IOException("Checksum of the download does not match the checksum provided by: " + url);
+        }
+        return tempFile;
+    }
+
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        return conn;
+    }
+
+    private File getContentFile(String sha256) {
+        return new File(cacheDirectory, sha256 + ".zip");
+    }
+
+    /**
+     * @return the SHA-256 checksum (in hex) found in the Digest header of the response or null if there is none
+     */
+    static String getDigest(URLConnection conn) {
+        String digest = conn.getHeaderField("Digest");
+        if (digest == null) {
+            return null;
+        }
+        for (String instance : digest.split(",")) {
+            int eq = instance.indexOf('=');
+            if (eq > 0 && instance.substring(0, eq).trim().equalsIgnoreCase("SHA-256")) {
+                try {
+                    return toHex(Base64.getDecoder().decode(instance.substring(eq + 1).trim()));
+                } catch (IllegalArgumentException e) {
+                    log.debugf("Ignoring invalid digest [%s]", instance);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the index of any URL still refers to the cached content with the given checksum
+     */
+    private boolean isReferenced(String sha256) {
+        File[] indexFiles = cacheDirectory.listFiles((dir, name) -> name.endsWith(".properties"));
+        if (indexFiles != null) {
+            for (File indexFile : indexFiles) {
+                if (sha256.equals(loadIndex(indexFile).getProperty(INDEX_SHA256))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Properties loadIndex(File indexFile) {
+        Properties index = new Properties();
+        if (indexFile.isFile()) {
+            try (InputStream in = new FileInputStream(indexFile)) {
+                index.load(in);
+            } catch (IOException e) {
+                log.debugf("Ignoring unreadable download cache index [%s]: %s", indexFile, e);
+            }
+        }
+        return index;
+    }
+
+    private static void saveIndex(File indexFile, String etag, String sha256, String partialEtag)
+            throws IOException {
+        Properties index = new Properties();
+        if (etag != null && sha256 != null) {
+            index.setProperty(INDEX_ETAG, etag);
+        }
+        if (sha256 != null) {
+            index.setProperty(INDEX_SHA256, sha256);
+        }
+        if (partialEtag != null) {
+            index.setProperty(INDEX_PARTIAL_ETAG, partialEtag);
+        }
+        try (OutputStream out = new FileOutputStream(indexFile)) {
+            index.store(out, "Hawkular WildFly Agent installer download cache");
+        }
+    }
+
+    static String sha256Hex(File file) throws IOException {
+        MessageDigest digest = newSha256();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[32768];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, len);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String sha256Hex(byte[] data) {
+        return toHex(newSha256().digest(data));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -118,6 +118,8 @@ public class InstallerConfigurationTest {
                         "--username", "OVERRIDE-username",
                         "--password", "OVERRIDE-password",
                         "--module-dist", "/OVERRIDE/dist.zip",
+                        "--module-dist-cache", "/OVERRIDE/cache",
+                        "--module-dist-connections", "4",
                         "--managed-server-resource-type-sets", "\"OVERRIDE First Type,Second Type\""));
         InstallerConfiguration installerConfig = new InstallerConfiguration(commandLine);
         Assert.assertFalse(installerConfig.isEnabled());
@@ -134,6 +136,8 @@ public class InstallerConfigurationTest {
         Assert.assertEquals("OVERRIDE-username", installerConfig.getUsername());
         Assert.assertEquals("OVERRIDE-password", installerConfig.getPassword());
         Assert.assertEquals("/OVERRIDE/dist.zip", installerConfig.getModuleDistribution());
+        Assert.assertEquals(new File("/OVERRIDE/cache"), installerConfig.getModuleDistributionCache());
+        Assert.assertEquals(4, installerConfig.getModuleDistributionConnections());
         Assert.assertEquals("OVERRIDE-feed-id", installerConfig.getFeedId());
         Assert.assertEquals("OVERRIDE-tenant-id", installerConfig.getTenantId());
         Assert.assertEquals("OVERRIDE First Type,Second Type", installerConfig.getManagedResourceTypeSets());
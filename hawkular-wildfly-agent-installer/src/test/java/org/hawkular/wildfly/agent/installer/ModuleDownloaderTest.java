@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.wildfly.agent.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class ModuleDownloaderTest {
+
+    /**
+     * Serves {@link #content} with an ETag and a Digest header, answering conditional and range requests.
+     */
+    private HttpServer server;
+    private String etag = "\"module-v1\"";
+    private byte[] content;
+    private String digest;
+    private int truncateNextResponseAt = -1;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private File cacheDirectory;
+
+    @Before
+    public void start() throws Exception {
+        content = new byte[100_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        digest = "SHA-256=" + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+                .digest(content));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/module.zip", this::handle);
+        server.createContext("/mirror/module.zip", this::handle);
+        server.start();
+
+        cacheDirectory = Files.createTempDirectory("module-downloader").toFile();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+        for (File file : cacheDirectory.listFiles()) {
+            file.delete();
+        }
+        cacheDirectory.delete();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Digest", digest);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (etag.equals(ifNoneMatch)) {
+                requests.add("304");
+                exchange.sendResponseHeaders(304, -1);
+            } else if (range != null && etag.equals(ifRange)) {
+                int first = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                requests.add("206 " + range);
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + first + "-" + (content.length - 1) + "/" + content.length);
+                exchange.sendResponseHeaders(206, content.length - first);
+                out.write(content, first, content.length - first);
+            } else if (truncateNextResponseAt >= 0) {
+                // announce everything but send only part of it, as if the connection dropped
+                requests.add("200 truncated");
+                exchange.sendResponseHeaders(200, content.length);
+                out.write(content, 0, truncateNextResponseAt);
+                out.flush();
+                truncateNextResponseAt = -1;
+                throw new IOException("connection dropped");
+            } else {
+                requests.add("200");
+                exchange.sendResponseHeaders(200, content.length);
+                out.write(content);
+            }
+        }
+    }
+
+    private URL url() throws Exception {
+        return url("/module.zip");
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        ModuleDownloader downloader = new ModuleDownloader(cacheDirectory, 1);
+        File first = downloader.download(url());
+        Assert.assertFalse(downloader.isTemporary(first));
+        Assert.assertArrayEquals(content, Files.readAllBytes(first.toPath()));
+
+        // the cached copy is revalidated rather than downloaded again
+        File second = new ModuleDownloader(cacheDirectory, 1).download(url());
+        Assert.assertEquals(first, second);
+        Assert.assertArrayEquals(content, Files.readAllBytes(second.toPath()));
+        Assert.assertEquals(Arrays.asList("200", "304"), requests);
+    }
+
+    @Test
+    public void testResumeInterruptedDownload() throws Exception {
+        truncateNextResponseAt = 40_000;
+        File downloaded = new ModuleDownloader(cacheDirectory, 1).download(url());
+
+        // the second attempt only asks for what the first one did not get
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals("200 truncated", requests.get(0));
+        Assert.assertTrue(requests.get(1), requests.get(1).startsWith("206 bytes="));
+        int resumedAt = Integer.parseInt(requests.get(1).substring("206 bytes=".length(),
+                requests.get(1).indexOf('-')));
+        Assert.assertTrue(String.valueOf(resumedAt), resumedAt > 0 && resumedAt <= 40_000);
+        Assert.assertArrayEquals(content, Files.readAllBytes(downloaded.toPath()));
+    }
+
+    @Test
+    public void testSharedContentKeptWhenReplaced() throws Exception {
+        File original = new ModuleDownloader(cacheDirectory, 1).download(url());
+        File mirrored = new ModuleDownloader(cacheDirectory, 1).download(url("/mirror/module.zip"));
+        Assert.assertEquals(original, mirrored);
+        Assert.assertEquals(Arrays.asList("200", "200"), requests);
+
+        // a new version of the module replaces the old one at the first URL only
+        byte[] oldContent = content;
+        content = Arrays.copyOf(content, content.length + 1);
+        etag = "\"module-v2\"";
+        digest = "SHA-256=" + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+                .digest(content));
+        File replaced = new ModuleDownloader(cacheDirectory, 1).download(url());
+        Assert.assertNotEquals(original, replaced);
+        Assert.assertArrayEquals(content, Files.readAllBytes(replaced.toPath()));
+
+        // the old version is still cached for the other URL
+        Assert.assertArrayEquals(oldContent, Files.readAllBytes(original.toPath()));
+    }
+
+    @Test
+    public void testDigestMismatch() throws Exception {
+        digest = "SHA-256=" + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+                .digest(new byte[] { 1, 2, 3 }));
+        try {
+            new ModuleDownloader(cacheDirectory, 1).download(url());
+            Assert.fail("A download that does not match its digest must fail");
+        } catch (IOException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("does not match"));
+        }
+
+        // every attempt downloaded everything again and nothing was kept
+        Assert.assertEquals(Arrays.asList("200", "200", "200"), requests);
+        for (File file : cacheDirectory.listFiles()) {
+            Assert.assertFalse(file.getName(), file.getName().endsWith(".zip") || file.getName().endsWith(".part"));
+        }
+    }
+}
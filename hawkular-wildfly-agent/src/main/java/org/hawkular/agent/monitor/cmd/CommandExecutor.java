@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.cmd;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
+
+/**
+ * Executes commands received over the feed comm channel so the WebSocket reader thread is never blocked by them.
+ *
+ * At most {@code maxConcurrent} commands run at the same time and at most {@code maxPending} commands are accepted
+ * (running or waiting) at any one time - anything beyond that is rejected. Commands submitted with the same
+ * non-null serialization key (typically the resource path the command targets) are executed one after the other
+ * in the order they were submitted, so two commands never modify the same resource concurrently.
+ */
+class CommandExecutor {
+    private static final MsgLogger log = AgentLoggers.getLogger(CommandExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    // keyed on serialization key; the value holds the tasks waiting for the currently running task with that key
+    private final Map<String, Deque<Runnable>> serialQueues = new HashMap<>();
+
+    CommandExecutor(int maxConcurrent, int maxPending) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1: " + maxConcurrent);
+        }
+        if (maxPending < maxConcurrent) {
+            throw new IllegalArgumentException("maxPending [" + maxPending + "] must not be less than maxConcurrent ["
+                    + maxConcurrent + "]");
+        }
+        this.maxPending = maxPending;
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                ThreadFactoryGenerator.generateFactory(true, "Hawkular WildFly Agent Command Executor"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits the given task for execution.
+     *
+     * @param serializationKey if not null, the task will not run concurrently with other tasks of the same key
+     * @param task the task to execute
+     * @throws RejectedExecutionException if too many commands are already pending or the executor has been shut down
+     */
+    public void execute(String serializationKey, Runnable task) throws RejectedExecutionException {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Command executor has been shut down");
+        }
+
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("Too many commands are pending execution: " + maxPending);
+        }
+
+        try {
+            if (serializationKey == null) {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                });
+            } else {
+                Runnable serialTask = () -> {
+                    try {
+                        task.run();
+                    } finally {
+                        pending.decrementAndGet();
+                        runNext(serializationKey);
+                    }
+                };
+
+                synchronized (serialQueues) {
+                    Deque<Runnable> waiting = serialQueues.get(serializationKey);
+                    if (waiting != null) {
+                        // another task with the same key is running - this one will be submitted once that one is done
+                        log.debugf("Command on [%s] will wait for %d earlier command(s) on it", serializationKey,
+                                waiting.size() + 1);
+                        waiting.addLast(serialTask);
+                        return;
+                    }
+                    serialQueues.put(serializationKey, new ArrayDeque<>());
+                }
+
+                executor.execute(serialTask);
+            }
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void runNext(String serializationKey) {
+        Runnable next;
+        synchronized (serialQueues) {
+            Deque<Runnable> waiting = serialQueues.get(serializationKey);
+            next = (waiting != null) ? waiting.pollFirst() : null;
+            if (next == null) {
+                serialQueues.remove(serializationKey);
+                return;
+            }
+        }
+
+        try {
+            executor.execute(next);
+        } catch (RejectedExecutionException e) {
+            // we are shutting down - nothing else with this key will run
+            log.debugf("Dropping commands waiting on [%s] because the command executor has been shut down",
+                    serializationKey);
+            synchronized (serialQueues) {
+                Deque<Runnable> waiting = serialQueues.remove(serializationKey);
+                pending.addAndGet(-1 - (waiting != null ? waiting.size() : 0));
+            }
+        }
+    }
+
+    /**
+     * @return the number of commands that have been accepted but have not yet finished
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Stops accepting new commands and waits a short time for the running ones to finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
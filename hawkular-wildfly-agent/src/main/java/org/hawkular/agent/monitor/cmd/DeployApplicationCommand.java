@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -104,14 +104,61 @@ public class DeployApplicationCommand
         MessageUtils.prepareResourcePathResponse(request, response);
         response.setDestinationFileName(request.getDestinationFileName());
 
+        BinaryData content = envelope.getBinaryData();
+        if (content == null) {
+            throw new IllegalArgumentException(
+                    String.format("Cannot deploy application [%s]: no content was sent", destFileName));
+        }
+
+        DeploymentStaging staging = context.getFeedCommProcessor().getDeploymentStaging();
         DeploymentJBossASClient client = new DeploymentJBossASClient(dmrContext.getClient());
-        client.deploy(destFileName, envelope.getBinaryData(), enabled, serverGroups, forceDeploy);
+        if (!stageAndDeploy(staging, content, client, destFileName, enabled, serverGroups, forceDeploy)) {
+            // reported by success() instead of its usual message
+            response.setMessage(String.format("Application [%s] with the same content is already deployed on [%s]",
+                    destFileName, resourcePath));
+            return null;
+        }
 
         // run discovery now so we can quickly get the new app in inventory
         endpointService.discoverAll();
         return null;
     }
 
+    /**
+     * Stages the content in a file (if it isn't in one already) so it is streamed to the server when uploaded.
+     * Staging also gives us the content hash so, unless the deployment is forced, we can skip the deployment if the
+     * content is already deployed.
+     *
+     * @return true if the content was deployed, false if the same content was already deployed
+     */
+    private boolean stageAndDeploy(DeploymentStaging staging, BinaryData content, DeploymentJBossASClient client,
+            String destFileName, boolean enabled, Set<String> serverGroups, boolean forceDeploy) throws Exception {
+        DeploymentStaging.Staged staged = staging.stage(content);
+        try {
+            // a forced deployment is also used to restart an application, so it is never skipped
+            if (!forceDeploy && client.isDeployed(destFileName, staged.getHash(), enabled, serverGroups)) {
+                log.debugf("Content [%s] of [%s] is already deployed - skipping the deployment",
+                        staged.getHashString(), destFileName);
+                return false;
+            }
+            client.deploy(destFileName, staged.getFile(), enabled, serverGroups, forceDeploy);
+            return true;
+        } finally {
+            staging.release(staged);
+        }
+    }
+
+    @Override
+    protected void success(BasicMessageWithExtraData<DeployApplicationRequest> envelope,
+            DeployApplicationResponse response) {
+        // execute() only sets a message if the content was already deployed
+        String alreadyDeployedMessage = response.getMessage();
+        super.success(envelope, response);
+        if (alreadyDeployedMessage != null) {
+            response.setMessage(alreadyDeployedMessage);
+        }
+    }
+
     private Set<String> convertCsvToSet(String serverGroups) {
         if (serverGroups == null || serverGroups.isEmpty()) {
             return Collections.emptySet();
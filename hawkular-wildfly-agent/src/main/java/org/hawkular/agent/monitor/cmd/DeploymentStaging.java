@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.cmd;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.bus.common.BinaryData;
+
+/**
+ * Stages deployment content in a directory (typically under the agent's data directory) and computes the content
+ * hash while doing so. The hash is the SHA-1 of the content, which is the same hash the app server uses to identify
+ * its deployment content, so it can be used to tell if the content is already deployed.
+ *
+ * Content that is already in a local file (see {@link FileBinaryData}) is not copied; it is hashed in place unless its
+ * hash is already known. Content that is only available for a short time can be {@link #spool(InputStream) spooled}
+ * to the staging directory first, which computes its hash on the way.
+ */
+public class DeploymentStaging {
+    private static final MsgLogger log = AgentLoggers.getLogger(DeploymentStaging.class);
+
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String CONTENT_SUFFIX = ".content";
+    private static final String SPOOL_SUFFIX = ".spool";
+
+    /**
+     * Content ready to be deployed. Once it is no longer needed, it must be {@link DeploymentStaging#release(Staged)
+     * released}.
+     */
+    public static class Staged {
+        private final File file;
+        private final byte[] hash;
+        private final boolean owned;
+
+        private Staged(File file, byte[] hash, boolean owned) {
+            this.file = file;
+            this.hash = hash;
+            this.owned = owned;
+        }
+
+        /**
+         * @return the file with the content
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the SHA-1 hash of the content
+         */
+        public byte[] getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the SHA-1 hash of the content as a hex string
+         */
+        public String getHashString() {
+            return toHex(hash);
+        }
+    }
+
+    private final File stagingDirectory;
+
+    public DeploymentStaging(File stagingDirectory) {
+        this.stagingDirectory = stagingDirectory;
+        purge();
+    }
+
+    /**
+     * Stages the given content. If the content is a {@link FileBinaryData} it is only hashed (if its hash is not known
+     * yet), otherwise it is copied to the staging directory. The given content is closed when this returns.
+     *
+     * @param content the content to stage
+     * @return the staged content
+     * @throws IOException if the content could not be read or staged
+     */
+    public Staged stage(BinaryData content) throws IOException {
+        if (content instanceof FileBinaryData) {
+            File file = ((FileBinaryData) content).getFile();
+            byte[] hash = ((FileBinaryData) content).getHash();
+            content.close();
+            if (hash != null) {
+                return new Staged(file, hash, false);
+            }
+            MessageDigest digest = newDigest();
+            try (InputStream input = new DigestInputStream(new FileInputStream(file), digest)) {
+                byte[] buffer = new byte[32768];
+                while (input.read(buffer) != -1) {
+                    // just reading the file computes the hash
+                }
+            }
+            return new Staged(file, digest.digest(), false);
+        }
+
+        createStagingDirectory();
+        File partialFile = new File(stagingDirectory, UUID.randomUUID().toString() + PARTIAL_SUFFIX);
+        MessageDigest digest = newDigest();
+        try (InputStream input = new DigestInputStream(content, digest)) {
+            Files.copy(input, partialFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            delete(partialFile);
+            throw e;
+        }
+
+        // name the staged file after its content and the name of the partial file so concurrent deployments of
+        // the same content do not step on each other
+        byte[] hash = digest.digest();
+        File stagedFile = new File(stagingDirectory,
+                toHex(hash) + "-" + partialFile.getName().replace(PARTIAL_SUFFIX, CONTENT_SUFFIX));
+        Files.move(partialFile.toPath(), stagedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        log.debugf("Staged deployment content [%s]", stagedFile);
+        return new Staged(stagedFile, hash, true);
+    }
+
+    /**
+     * Copies the given content to a new file in the staging directory, such as the binary data of a WebSocket
+     * message that is only valid until the message is released. The hash of the content is computed while it is
+     * copied, so {@link #stage(BinaryData) staging} the returned data does not read it again. The file is removed
+     * if the content cannot be copied; otherwise the caller must delete it once it is no longer needed. Files left
+     * behind by an agent that was killed are removed the next time the agent starts.
+     *
+     * @param content the content to spool - it is closed when this returns
+     * @return the spooled content along with its hash
+     * @throws IOException if the content could not be read or spooled
+     */
+    public FileBinaryData spool(InputStream content) throws IOException {
+        createStagingDirectory();
+        File spoolFile = new File(stagingDirectory, UUID.randomUUID().toString() + SPOOL_SUFFIX);
+        MessageDigest digest = newDigest();
+        try {
+            try (InputStream input = new DigestInputStream(content, digest)) {
+                Files.copy(input, spoolFile.toPath());
+            }
+            return new FileBinaryData(spoolFile, digest.digest());
+        } catch (IOException | RuntimeException e) {
+            delete(spoolFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the staged content if it was copied to the staging directory.
+     *
+     * @param staged the content that is no longer needed
+     */
+    public void release(Staged staged) {
+        if (staged != null && staged.owned) {
+            delete(staged.getFile());
+        }
+    }
+
+    /**
+     * Removes anything left behind in the staging directory, e.g. by an agent that was killed while deploying.
+     */
+    private void purge() {
+        File[] leftovers = stagingDirectory.listFiles((dir, name) -> name.endsWith(PARTIAL_SUFFIX)
+                || name.endsWith(CONTENT_SUFFIX) || name.endsWith(SPOOL_SUFFIX));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                delete(leftover);
+            }
+        }
+    }
+
+    private void createStagingDirectory() throws IOException {
+        if (!stagingDirectory.isDirectory() && !stagingDirectory.mkdirs()) {
+            throw new IOException("Cannot create deployment staging directory: " + stagingDirectory);
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            log.debugf("Failed to delete staged deployment content [%s]", file);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM must support SHA-1
+        }
+    }
+}
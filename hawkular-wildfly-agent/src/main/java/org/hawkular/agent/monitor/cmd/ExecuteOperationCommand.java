@@ -16,7 +16,10 @@
  */
 package org.hawkular.agent.monitor.cmd;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.AbstractEndpointConfiguration;
@@ -34,19 +37,46 @@ import org.hawkular.bus.common.BasicMessageWithExtraData;
 import org.hawkular.bus.common.BinaryData;
 import org.hawkular.cmdgw.api.ExecuteOperationRequest;
 import org.hawkular.cmdgw.api.ExecuteOperationResponse;
+import org.hawkular.cmdgw.api.ResponseStatus;
 import org.hawkular.dmr.api.OperationBuilder;
+import org.hawkular.dmr.api.OperationBuilder.CompositeOperationBuilder;
+import org.hawkular.dmr.api.OperationBuilder.CompositeOperationResult;
 import org.hawkular.dmr.api.OperationBuilder.OperationResult;
+import org.hawkular.dmr.api.OperationFailureException;
 import org.hawkular.inventory.paths.CanonicalPath;
 import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
 
 /**
- * Execute an operation on a resource.
+ * Execute an operation on a resource, or several operations on several resources of the same managed server as a
+ * single composite operation if the requested operation is {@value #COMPOSITE_OPERATION_NAME}.
  */
 public class ExecuteOperationCommand extends
         AbstractResourcePathCommand<ExecuteOperationRequest, ExecuteOperationResponse> {
     private static final MsgLogger log = AgentLoggers.getLogger(ExecuteOperationCommand.class);
     public static final Class<ExecuteOperationRequest> REQUEST_CLASS = ExecuteOperationRequest.class;
 
+    /**
+     * The operation name of a request that executes the operations listed in its binary data as a single composite
+     * operation. The binary data is a JSON array with an object per operation with the {@code resourcePath}, the
+     * {@code operationName} and optionally the {@code parameters} of the operation. The binary data of the response
+     * is a JSON array with the {@code outcome} and the {@code result} or {@code failure-description} of each
+     * operation.
+     */
+    public static final String COMPOSITE_OPERATION_NAME = "Composite";
+
+    /**
+     * The request parameter of a composite operation that tells whether to roll back all steps if any of them fails.
+     * Defaults to {@code true}.
+     */
+    public static final String ROLLBACK_ON_RUNTIME_FAILURE = "rollbackOnRuntimeFailure";
+
+    private static final String RESOURCE_PATH = "resourcePath";
+    private static final String OPERATION_NAME = "operationName";
+    private static final String PARAMETERS = "parameters";
+
     public ExecuteOperationCommand() {
         super("Execute Operation", "DMR Node");
     }
@@ -85,65 +115,193 @@ public class ExecuteOperationCommand extends
             CommandContext context,
             DMRSession dmrContext) throws Exception {
         ExecuteOperationRequest request = envelope.getBasicMessage();
-        CanonicalPath canonicalPath = CanonicalPath.fromString(request.getResourcePath());
+        response.setOperationName(request.getOperationName());
+
+        if (COMPOSITE_OPERATION_NAME.equals(request.getOperationName())) {
+            return executeComposite(controllerClient, endpointService, envelope, response, context, dmrContext);
+        }
+
+        ResolvedOperation resolved = resolveOperation(endpointService, request.getResourcePath(),
+                request.getOperationName(), context, dmrContext);
+        final OperationBuilder.ByNameOperationBuilder<?> operation;
+        operation = OperationBuilder
+                .byName(resolved.internalName)
+                .address(resolved.location.getPathAddress());
+        addParameters(operation, request.getParameters());
+
+        OperationResult<?> opResult = operation.execute(controllerClient).assertSuccess();
+        setServerRefreshIndicator(opResult, response);
+
+        // because we don't know if the effects of the operation will alter inventory,
+        // let's request a full discovery scan just in case.
+        endpointService.discoverAll();
+
+        return null;
+    }
+
+    /**
+     * Executes the operations listed in the binary data of the request as the steps of a single composite operation.
+     * The binary data is a JSON array with an object per step with the {@code resourcePath}, the
+     * {@code operationName} and optionally the {@code parameters} of the step, the same as in a single
+     * {@link ExecuteOperationRequest}. All resources must be managed by the managed server of the request's resource
+     * path. Unless the request parameter {@value #ROLLBACK_ON_RUNTIME_FAILURE} is {@code false}, all steps are rolled
+     * back if any of them fails.
+     *
+     * @return a JSON array with an object per step with its {@code resourcePath}, {@code operationName},
+     *         {@code outcome} and either its {@code result} or its {@code failure-description}
+     */
+    private BinaryData executeComposite(
+            ModelControllerClient controllerClient,
+            EndpointService<DMRNodeLocation, DMRSession> endpointService,
+            BasicMessageWithExtraData<ExecuteOperationRequest> envelope,
+            ExecuteOperationResponse response,
+            CommandContext context,
+            DMRSession dmrContext) throws Exception {
+        ExecuteOperationRequest request = envelope.getBasicMessage();
+        if (envelope.getBinaryData() == null) {
+            throw new IllegalArgumentException("Cannot execute composite operation: no operations were sent");
+        }
+        List<ModelNode> steps;
+        try (BinaryData stepsData = envelope.getBinaryData()) {
+            steps = ModelNode.fromJSONStream(stepsData).asList();
+        }
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("Cannot execute composite operation: no operations were sent");
+        }
+
+        Map<String, String> params = request.getParameters();
+        boolean rollback = (params == null || params.get(ROLLBACK_ON_RUNTIME_FAILURE) == null)
+                || Boolean.parseBoolean(params.get(ROLLBACK_ON_RUNTIME_FAILURE));
+        CompositeOperationBuilder<?> composite = OperationBuilder.composite().rollbackOnRuntimeFailure(rollback);
+        for (ModelNode step : steps) {
+            if (!step.hasDefined(RESOURCE_PATH) || !step.hasDefined(OPERATION_NAME)) {
+                throw new IllegalArgumentException(String.format(
+                        "Cannot execute composite operation: step [%s] needs a [%s] and an [%s]", step,
+                        RESOURCE_PATH, OPERATION_NAME));
+            }
+            Map<String, String> stepParams = new HashMap<>();
+            if (step.hasDefined(PARAMETERS)) {
+                for (Property param : step.get(PARAMETERS).asPropertyList()) {
+                    stepParams.put(param.getName(), param.getValue().asString());
+                }
+            }
+            ResolvedOperation resolved = resolveOperation(endpointService, step.get(RESOURCE_PATH).asString(),
+                    step.get(OPERATION_NAME).asString(), context, dmrContext);
+            OperationBuilder.ByNameOperationBuilder<?> operation = composite
+                    .byNameOperation(resolved.internalName)
+                    .address(resolved.location.getPathAddress());
+            addParameters(operation, stepParams);
+            operation.parentBuilder();
+        }
+
+        CompositeOperationResult<?> compositeResult = composite.execute(controllerClient);
+        ModelNode stepResults = new ModelNode().setEmptyList();
+        for (int i = 0; i < steps.size(); i++) {
+            ModelNode stepResponse = compositeResult.getStepResult(i).getResponseNode();
+            ModelNode stepResult = stepResults.add();
+            stepResult.get(RESOURCE_PATH).set(steps.get(i).get(RESOURCE_PATH));
+            stepResult.get(OPERATION_NAME).set(steps.get(i).get(OPERATION_NAME));
+            stepResult.get(ModelDescriptionConstants.OUTCOME).set(stepResponse.hasDefined(
+                    ModelDescriptionConstants.OUTCOME) ? stepResponse.get(ModelDescriptionConstants.OUTCOME)
+                            : new ModelNode(ModelDescriptionConstants.CANCELLED));
+            if (stepResponse.hasDefined(ModelDescriptionConstants.RESULT)) {
+                stepResult.get(ModelDescriptionConstants.RESULT)
+                        .set(stepResponse.get(ModelDescriptionConstants.RESULT));
+            }
+            if (stepResponse.hasDefined(ModelDescriptionConstants.FAILURE_DESCRIPTION)) {
+                stepResult.get(ModelDescriptionConstants.FAILURE_DESCRIPTION)
+                        .set(stepResponse.get(ModelDescriptionConstants.FAILURE_DESCRIPTION));
+            }
+        }
+        BinaryData results = new BinaryData(stepResults.toJSONString(true).getBytes(StandardCharsets.UTF_8), null);
+
+        try {
+            compositeResult.assertSuccess();
+        } catch (OperationFailureException e) {
+            // reported by success() instead of its usual message so that the step results still get sent back
+            response.setStatus(ResponseStatus.ERROR);
+            response.setMessage(String.format("Composite operation of [%d] steps on [%s] failed: %s", steps.size(),
+                    request.getResourcePath(), e.getMessage()));
+            if (!rollback) {
+                endpointService.discoverAll();
+            }
+            return results;
+        }
+        setServerRefreshIndicator(compositeResult, response);
+        endpointService.discoverAll();
+        return results;
+    }
+
+    @Override
+    protected void success(BasicMessageWithExtraData<ExecuteOperationRequest> envelope,
+            ExecuteOperationResponse response) {
+        // execute() only sets the status if a composite operation failed
+        if (response.getStatus() != ResponseStatus.ERROR) {
+            super.success(envelope, response);
+        }
+    }
+
+    private static void addParameters(OperationBuilder.ByNameOperationBuilder<?> operation,
+            Map<String, String> params) {
+        if (params != null) {
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                operation.attribute(param.getKey(), param.getValue());
+            }
+        }
+    }
+
+    /**
+     * Finds the operation of a resource managed by the given endpoint service.
+     *
+     * @return the operation to execute on the resource
+     * @throws IllegalArgumentException if the resource or its operation is unknown
+     * @throws IllegalStateException if the operation modifies the resource and the agent is immutable
+     */
+    private ResolvedOperation resolveOperation(EndpointService<DMRNodeLocation, DMRSession> endpointService,
+            String resourcePath, String requestedOpName, CommandContext context, DMRSession dmrContext) {
+        CanonicalPath canonicalPath = CanonicalPath.fromString(resourcePath);
         String resourceId = canonicalPath.ids().getResourcePath().getSegment().getElementId();
 
         ResourceManager<DMRNodeLocation> resourceManager = endpointService.getResourceManager();
         Resource<DMRNodeLocation> resource = resourceManager.getResource(new ID(resourceId));
         if (resource == null) {
             throw new IllegalArgumentException(
-                    String.format("Cannot execute operation: unknown resource [%s]", request.getResourcePath()));
+                    String.format("Cannot execute operation: unknown resource [%s]", resourcePath));
         }
 
         // find the operation we need to execute - make sure it exists and get the address for the resource to invoke
-        DMRNodeLocation opLocation = null;
-        String actualOperationName = null;
-
-        String requestedOpName = request.getOperationName();
         Collection<Operation<DMRNodeLocation>> ops = resource.getResourceType().getOperations();
         log.tracef("Searching for operation [%s] among operations [%s] for resource [%s].", requestedOpName, ops,
                 resource.getID());
         for (Operation<DMRNodeLocation> op : ops) {
             if (requestedOpName.equals(op.getName().getNameString())) {
-                opLocation = dmrContext.getLocationResolver().absolutize(resource.getLocation(), op.getLocation());
-                actualOperationName = op.getInternalName();
+                DMRNodeLocation opLocation = dmrContext.getLocationResolver().absolutize(resource.getLocation(),
+                        op.getLocation());
                 if (op.getModifies()) {
                     if (context.getDiscoveryService().isImmutable()) {
                         throw new IllegalStateException(
                                 "Operation [" + requestedOpName + "] not allowed because the agent is immutable");
                     }
                 }
-                break;
+                return new ResolvedOperation(op.getInternalName(), opLocation);
             }
         }
 
-        if (opLocation == null) {
-            throw new IllegalArgumentException(
-                    String.format("Cannot execute operation: unknown operation [%s] for resource [%s]",
-                            request.getOperationName(), resource));
-        }
-
-        response.setOperationName(request.getOperationName());
+        throw new IllegalArgumentException(
+                String.format("Cannot execute operation: unknown operation [%s] for resource [%s]",
+                        requestedOpName, resource));
+    }
 
-        final OperationBuilder.ByNameOperationBuilder<?> operation;
-        operation = OperationBuilder
-                .byName(actualOperationName)
-                .address(opLocation.getPathAddress());
+    /**
+     * The DMR operation a requested operation of a resource maps to.
+     */
+    private static class ResolvedOperation {
+        private final String internalName;
+        private final DMRNodeLocation location;
 
-        Map<String, String> params = request.getParameters();
-        if (params != null) {
-            for (Map.Entry<String, String> param : params.entrySet()) {
-                operation.attribute(param.getKey(), param.getValue());
-            }
+        ResolvedOperation(String internalName, DMRNodeLocation location) {
+            this.internalName = internalName;
+            this.location = location;
         }
-
-        OperationResult<?> opResult = operation.execute(controllerClient).assertSuccess();
-        setServerRefreshIndicator(opResult, response);
-
-        // because we don't know if the effects of the operation will alter inventory,
-        // let's request a full discovery scan just in case.
-        endpointService.discoverAll();
-
-        return null;
     }
 }
@@ -17,8 +17,6 @@
 package org.hawkular.agent.monitor.cmd;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -115,9 +113,9 @@ public class ExportJdrCommand extends AbstractResourcePathCommand<ExportJdrReque
 
         String reportLocation = resultNode.get("report-location").asString();
 
+        // the report can be large - let it be streamed straight from the file
         File reportFile = new File(reportLocation);
-        InputStream reportInputStream = new FileInputStream(reportFile);
-        binaryData = new BinaryData(null, reportInputStream);
+        binaryData = new FileBinaryData(reportFile);
 
         response.setStatus(ResponseStatus.OK);
         response.setFileName(reportFile.getName());
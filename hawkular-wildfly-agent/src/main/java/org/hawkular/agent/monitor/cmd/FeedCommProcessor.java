@@ -16,22 +16,30 @@
  */
 package org.hawkular.agent.monitor.cmd;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.service.MonitorService;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 import org.hawkular.agent.monitor.util.Util;
 import org.hawkular.bus.common.BasicMessage;
 import org.hawkular.bus.common.BasicMessageWithExtraData;
@@ -41,6 +49,7 @@ import org.hawkular.cmdgw.api.AuthMessage;
 import org.hawkular.cmdgw.api.Authentication;
 import org.hawkular.cmdgw.api.GenericErrorResponse;
 import org.hawkular.cmdgw.api.GenericErrorResponseBuilder;
+import org.hawkular.cmdgw.api.ResourcePathRequest;
 
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
@@ -51,6 +60,8 @@ import okhttp3.ws.WebSocketCall;
 import okhttp3.ws.WebSocketListener;
 import okio.Buffer;
 import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
 
 public class FeedCommProcessor implements WebSocketListener {
     private static final MsgLogger log = AgentLoggers.getLogger(FeedCommProcessor.class);
@@ -77,14 +88,29 @@ public class FeedCommProcessor implements WebSocketListener {
                 UpdateCollectionIntervalsCommand.class);
     }
 
+    // how many commands can execute at the same time and how many can be accepted before new ones are rejected
+    public static final int DEFAULT_MAX_CONCURRENT_COMMANDS = 4;
+    public static final int DEFAULT_MAX_PENDING_COMMANDS = 50;
+
+    // how much binary data is moved to the WebSocket sink at once and how often progress of large sends is logged
+    private static final long SEND_CHUNK_BYTES = 1024 * 1024;
+    private static final long PROGRESS_REPORT_BYTES = 16 * 1024 * 1024;
+
     private final int disconnectCode = 1000;
     private final String disconnectReason = "Shutting down FeedCommProcessor";
 
     private final WebSocketClientBuilder webSocketClientBuilder;
     private final MonitorServiceConfiguration config;
     private final MonitorService discoveryService;
+    private final Diagnostics diagnostics;
+    private final DeploymentStaging deploymentStaging;
     private final String feedcommUrl;
-    private final ExecutorService sendExecutor = Executors.newSingleThreadExecutor();
+    private final CommandExecutor commandExecutor;
+    // a single thread sends everything; its queue orders the messages (see OutboundMessage)
+    private final ExecutorService sendExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(),
+            ThreadFactoryGenerator.generateFactory(true, "Hawkular WildFly Agent Feed Comm Sender"));
+    private final AtomicLong outboundSequence = new AtomicLong(0L);
     private final ScheduledExecutorService pingExecutor = Executors.newScheduledThreadPool(1);
     private final AtomicReference<ReconnectJobThread> reconnectJobThread = new AtomicReference<>();
 
@@ -97,7 +123,8 @@ public class FeedCommProcessor implements WebSocketListener {
     private boolean destroyed = false;
 
     public FeedCommProcessor(WebSocketClientBuilder webSocketClientBuilder, MonitorServiceConfiguration config,
-            String feedId, MonitorService discoveryService) {
+            String feedId, MonitorService discoveryService, Diagnostics diagnostics,
+            DeploymentStaging deploymentStaging) {
 
         if (feedId == null || feedId.isEmpty()) {
             throw new IllegalArgumentException("Must have a valid feed ID to communicate with the server");
@@ -106,6 +133,10 @@ public class FeedCommProcessor implements WebSocketListener {
         this.webSocketClientBuilder = webSocketClientBuilder;
         this.config = config;
         this.discoveryService = discoveryService;
+        this.diagnostics = diagnostics;
+        this.deploymentStaging = deploymentStaging;
+        this.commandExecutor = new CommandExecutor(config.getMaxConcurrentCommands(),
+                config.getMaxPendingCommands());
 
         try {
             StringBuilder url;
@@ -120,6 +151,13 @@ public class FeedCommProcessor implements WebSocketListener {
         }
     }
 
+    /**
+     * @return where deployment content is staged before it is deployed
+     */
+    public DeploymentStaging getDeploymentStaging() {
+        return deploymentStaging;
+    }
+
     /**
      * @return true if this object is currently connected to the websocket.
      */
@@ -182,6 +220,8 @@ public class FeedCommProcessor implements WebSocketListener {
         stopReconnectJobThread();
         disconnect();
         destroyPingExecutor();
+        commandExecutor.shutdown();
+        sendExecutor.shutdown();
     }
 
     /**
@@ -198,37 +238,9 @@ public class FeedCommProcessor implements WebSocketListener {
         BasicMessage message = messageWithData.getBasicMessage();
         configurationAuthentication(message);
 
-        sendExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    if (messageWithData.getBinaryData() == null) {
-                        String messageString = ApiDeserializer.toHawkularFormat(message);
-                        @SuppressWarnings("resource")
-                        Buffer buffer = new Buffer().writeUtf8(messageString);
-                        RequestBody requestBody = RequestBody.create(WebSocket.TEXT, buffer.readByteArray());
-                        FeedCommProcessor.this.webSocket.sendMessage(requestBody);
-                    } else {
-                        BinaryData messageData = ApiDeserializer.toHawkularFormat(message,
-                                messageWithData.getBinaryData());
-
-                        RequestBody requestBody = new RequestBody() {
-                            @Override
-                            public MediaType contentType() {
-                                return WebSocket.BINARY;
-                            }
-
-                            @Override
-                            public void writeTo(BufferedSink bufferedSink) throws IOException {
-                                emitToSink(messageData, bufferedSink);
-                            }
-                        };
-
-                        FeedCommProcessor.this.webSocket.sendMessage(requestBody);
-                    }
-                } catch (Throwable t) {
-                    log.errorFailedToSendOverFeedComm(message.getClass().getName(), t);
-                }
+        enqueue(messageWithData).whenComplete((result, t) -> {
+            if (t != null) {
+                log.errorFailedToSendOverFeedComm(message.getClass().getName(), t);
             }
         });
     }
@@ -247,44 +259,132 @@ public class FeedCommProcessor implements WebSocketListener {
         BasicMessage message = messageWithData.getBasicMessage();
         configurationAuthentication(message);
 
-        if (messageWithData.getBinaryData() == null) {
-            String messageString = ApiDeserializer.toHawkularFormat(message);
-            @SuppressWarnings("resource")
-            Buffer buffer = new Buffer().writeUtf8(messageString);
-            RequestBody requestBody = RequestBody.create(WebSocket.TEXT, buffer.readByteArray());
-            FeedCommProcessor.this.webSocket.sendMessage(requestBody);
-        } else {
-            BinaryData messageData = ApiDeserializer.toHawkularFormat(message, messageWithData.getBinaryData());
+        try {
+            enqueue(messageWithData).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof Exception) ? (Exception) cause : e;
+        }
+    }
 
-            RequestBody requestBody = new RequestBody() {
-                @Override
-                public MediaType contentType() {
-                    return WebSocket.BINARY;
+    /**
+     * Puts the message on the outbound queue. Messages without binary data are sent ahead of all messages with binary
+     * data; otherwise messages are sent in the order they were queued.
+     */
+    private CompletableFuture<Void> enqueue(BasicMessageWithExtraData<? extends BasicMessage> messageWithData) {
+        OutboundMessage outbound = new OutboundMessage(messageWithData, outboundSequence.getAndIncrement());
+        diagnostics.getFeedCommSendQueueSize().inc();
+        try {
+            sendExecutor.execute(outbound);
+        } catch (RejectedExecutionException e) {
+            diagnostics.getFeedCommSendQueueSize().dec();
+            outbound.future.completeExceptionally(
+                    new IllegalStateException("FeedCommProcessor has been destroyed. Cannot send any messages"));
+        }
+        return outbound.future;
+    }
+
+    /**
+     * A message waiting to be sent. Ordering puts control (text) messages ahead of bulk (binary) messages, and keeps
+     * the queuing order among messages of the same kind.
+     */
+    private class OutboundMessage implements Runnable, Comparable<OutboundMessage> {
+        private final BasicMessageWithExtraData<? extends BasicMessage> messageWithData;
+        private final boolean bulk;
+        private final long sequence;
+        private final long queuedNanos = System.nanoTime();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        OutboundMessage(BasicMessageWithExtraData<? extends BasicMessage> messageWithData, long sequence) {
+            this.messageWithData = messageWithData;
+            this.bulk = messageWithData.getBinaryData() != null;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(OutboundMessage other) {
+            if (this.bulk != other.bulk) {
+                return this.bulk ? 1 : -1;
+            }
+            return Long.compare(this.sequence, other.sequence);
+        }
+
+        @Override
+        public void run() {
+            diagnostics.getFeedCommSendQueueSize().dec();
+            try {
+                WebSocket ws = FeedCommProcessor.this.webSocket;
+                if (ws == null) {
+                    throw new IllegalStateException("WebSocket connection was closed. Cannot send any messages");
                 }
 
-                @Override
-                public void writeTo(BufferedSink bufferedSink) throws IOException {
-                    emitToSink(messageData, bufferedSink);
+                BasicMessage message = messageWithData.getBasicMessage();
+                if (!bulk) {
+                    String messageString = ApiDeserializer.toHawkularFormat(message);
+                    @SuppressWarnings("resource")
+                    Buffer buffer = new Buffer().writeUtf8(messageString);
+                    ws.sendMessage(RequestBody.create(WebSocket.TEXT, buffer.readByteArray()));
+                } else {
+                    ws.sendMessage(createBinaryRequestBody(message, messageWithData.getBinaryData()));
                 }
-            };
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                diagnostics.getFeedCommSendTimer().update(System.nanoTime() - queuedNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
 
-            FeedCommProcessor.this.webSocket.sendMessage(requestBody);
+    private RequestBody createBinaryRequestBody(BasicMessage message, BinaryData binaryData) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return WebSocket.BINARY;
+            }
 
-        }
+            @Override
+            public void writeTo(BufferedSink bufferedSink) throws IOException {
+                emitToSink(message, binaryData, bufferedSink);
+            }
+        };
     }
 
-    private void emitToSink(BinaryData in, BufferedSink out) throws RuntimeException {
-        int bufferSize = 32768;
-        try {
-            InputStream input = new BufferedInputStream(in, bufferSize);
-            byte[] buffer = new byte[bufferSize];
-            for (int bytesRead = input.read(buffer); bytesRead != -1; bytesRead = input.read(buffer)) {
-                out.write(buffer, 0, bytesRead);
-                out.flush();
+    /**
+     * Writes the message followed by its binary data to the sink. This is the same format as
+     * {@link ApiDeserializer#toHawkularFormat(BasicMessage, InputStream)} but the data is moved to the sink
+     * segment by segment (directly from the file if the data is a {@link FileBinaryData}) and the sink is left to
+     * decide when to write to the socket rather than being flushed after each chunk.
+     */
+    private void emitToSink(BasicMessage message, BinaryData in, BufferedSink out) throws IOException {
+        String messageName = message.getClass().getName();
+        long totalBytes = (in instanceof FileBinaryData) ? ((FileBinaryData) in).getLength() : -1L;
+        long bytesSent = 0L;
+        long nextProgressReport = PROGRESS_REPORT_BYTES;
+
+        out.writeUtf8(ApiDeserializer.toHawkularFormat(message));
+
+        try (Source source = (in instanceof FileBinaryData) ? Okio.source(((FileBinaryData) in).getFile())
+                : Okio.source(in)) {
+            for (long bytesRead = source.read(out.buffer(), SEND_CHUNK_BYTES); bytesRead != -1; bytesRead = source
+                    .read(out.buffer(), SEND_CHUNK_BYTES)) {
+                out.emitCompleteSegments();
+                bytesSent += bytesRead;
+                if (bytesSent >= nextProgressReport) {
+                    nextProgressReport += PROGRESS_REPORT_BYTES;
+                    if (totalBytes > 0) {
+                        log.debugf("Sent [%d] of [%d] bytes (%d%%) of binary data for [%s]", bytesSent, totalBytes,
+                                (bytesSent * 100) / totalBytes, messageName);
+                    } else {
+                        log.debugf("Sent [%d] bytes of binary data for [%s]", bytesSent, messageName);
+                    }
+                }
             }
-        } catch (IOException ioe) {
-            throw new RuntimeException("Failed to emit to sink", ioe);
+        } finally {
+            in.close();
         }
+
+        log.debugf("Finished sending [%d] bytes of binary data for [%s]", bytesSent, messageName);
     }
 
     @Override
@@ -360,44 +460,99 @@ public class FeedCommProcessor implements WebSocketListener {
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public void onMessage(ResponseBody responseBody) throws IOException {
 
-        BasicMessageWithExtraData<? extends BasicMessage> response;
+        final long receivedNanos = System.nanoTime();
         String requestClassName = "?";
+        File spoolFile = null;
+        BasicMessageWithExtraData<? extends BasicMessage> msgWithData = null;
 
         try {
             try {
-                BasicMessageWithExtraData<? extends BasicMessage> msgWithData;
-
                 if (responseBody.contentType().equals(WebSocket.TEXT)) {
                     String nameAndJsonStr = responseBody.string();
                     msgWithData = new ApiDeserializer().deserialize(nameAndJsonStr);
                 } else if (responseBody.contentType().equals(WebSocket.BINARY)) {
                     InputStream input = responseBody.byteStream();
                     msgWithData = new ApiDeserializer().deserialize(input);
+
+                    // the command runs after this method returns, but the stream is only valid until then
+                    if (msgWithData.getBinaryData() != null) {
+                        FileBinaryData spooled = deploymentStaging.spool(msgWithData.getBinaryData());
+                        spoolFile = spooled.getFile();
+                        msgWithData = new BasicMessageWithExtraData<>(msgWithData.getBasicMessage(), spooled);
+                    }
                 } else {
                     throw new IllegalArgumentException(
                             "Unknown mediatype type, please report this bug: " + responseBody.contentType());
                 }
+            } finally {
+                responseBody.close();
+            }
 
-                log.debug("Received message from server");
+            log.debug("Received message from server");
 
-                BasicMessage msg = msgWithData.getBasicMessage();
-                requestClassName = msg.getClass().getName();
+            BasicMessage msg = msgWithData.getBasicMessage();
+            requestClassName = msg.getClass().getName();
 
-                Class<? extends Command<?, ?>> commandClass = VALID_COMMANDS.get(requestClassName);
-                if (commandClass == null) {
-                    log.errorInvalidCommandRequestFeed(requestClassName);
-                    String errorMessage = "Invalid command request: " + requestClassName;
-                    GenericErrorResponse errorMsg = new GenericErrorResponseBuilder().setErrorMessage(errorMessage)
-                            .build();
-                    response = new BasicMessageWithExtraData<BasicMessage>(errorMsg, null);
-                } else {
-                    Command command = commandClass.newInstance();
-                    CommandContext context = new CommandContext(this, this.config, this.discoveryService);
-                    response = command.execute(msgWithData, context);
-                }
+            Class<? extends Command<?, ?>> commandClass = VALID_COMMANDS.get(requestClassName);
+            if (commandClass == null) {
+                log.errorInvalidCommandRequestFeed(requestClassName);
+                String errorMessage = "Invalid command request: " + requestClassName;
+                GenericErrorResponse errorMsg = new GenericErrorResponseBuilder().setErrorMessage(errorMessage)
+                        .build();
+                deleteSpoolFile(msgWithData, spoolFile);
+                sendResponse(new BasicMessageWithExtraData<BasicMessage>(errorMsg, null));
+                return;
+            }
+
+            // commands targeting the same resource must not run concurrently
+            String serializationKey = (msg instanceof ResourcePathRequest)
+                    ? ((ResourcePathRequest) msg).getResourcePath()
+                    : null;
+
+            Command command = commandClass.newInstance();
+            BasicMessageWithExtraData<? extends BasicMessage> request = msgWithData;
+            File requestSpoolFile = spoolFile;
+            String commandName = commandClass.getSimpleName();
+
+            try {
+                commandExecutor.execute(serializationKey,
+                        () -> executeCommand(command, request, requestSpoolFile, commandName, receivedNanos));
+            } catch (RejectedExecutionException e) {
+                diagnostics.getCommandRejectionRate().mark();
+                log.warnCommandRejected(requestClassName, commandExecutor.getPendingCount());
+                GenericErrorResponse errorMsg = new GenericErrorResponseBuilder()
+                        .setErrorMessage("Agent is too busy to execute command [" + requestClassName + "]").build();
+                deleteSpoolFile(request, requestSpoolFile);
+                sendResponse(new BasicMessageWithExtraData<BasicMessage>(errorMsg, null));
+            }
+        } catch (Throwable t) {
+            if (msgWithData != null) {
+                deleteSpoolFile(msgWithData, spoolFile);
+            } else if (spoolFile != null && !spoolFile.delete()) {
+                log.debugf("Failed to delete spool file [%s]", spoolFile);
+            }
+            log.errorCommandExecutionFailureFeed(requestClassName, t);
+            String errorMessage = "Command failed [" + requestClassName + "]";
+            GenericErrorResponse errorMsg = new GenericErrorResponseBuilder().setThrowable(t)
+                    .setErrorMessage(errorMessage).build();
+            sendResponse(new BasicMessageWithExtraData<BasicMessage>(errorMsg, null));
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void executeCommand(Command command, BasicMessageWithExtraData<? extends BasicMessage> request,
+            File spoolFile, String commandName, long receivedNanos) {
+
+        String requestClassName = request.getBasicMessage().getClass().getName();
+        BasicMessageWithExtraData<? extends BasicMessage> response;
+
+        try {
+            try {
+                CommandContext context = new CommandContext(this, this.config, this.discoveryService);
+                response = command.execute(request, context);
             } finally {
-                // must ensure response is closed; this assumes if it was a stream that the command is finished with it
-                responseBody.close();
+                // this assumes if the request had a stream that the command is finished with it
+                deleteSpoolFile(request, spoolFile);
             }
         } catch (Throwable t) {
             log.errorCommandExecutionFailureFeed(requestClassName, t);
@@ -405,8 +560,14 @@ public class FeedCommProcessor implements WebSocketListener {
             GenericErrorResponse errorMsg = new GenericErrorResponseBuilder().setThrowable(t)
                     .setErrorMessage(errorMessage).build();
             response = new BasicMessageWithExtraData<BasicMessage>(errorMsg, null);
+        } finally {
+            diagnostics.getCommandTimer(commandName).update(System.nanoTime() - receivedNanos, TimeUnit.NANOSECONDS);
         }
 
+        sendResponse(response);
+    }
+
+    private void sendResponse(BasicMessageWithExtraData<? extends BasicMessage> response) {
         // send the response back to the server
         if (response != null) {
             try {
@@ -417,6 +578,20 @@ public class FeedCommProcessor implements WebSocketListener {
         }
     }
 
+    private void deleteSpoolFile(BasicMessageWithExtraData<? extends BasicMessage> request, File spoolFile) {
+        if (spoolFile == null) {
+            return;
+        }
+        try {
+            request.getBinaryData().close();
+        } catch (IOException e) {
+            log.debugf("Failed to close spooled data [%s]", spoolFile);
+        }
+        if (!spoolFile.delete()) {
+            log.debugf("Failed to delete spool file [%s]", spoolFile);
+        }
+    }
+
     @Override
     public void onPong(Buffer buffer) {
         try {
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.cmd;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+
+import org.hawkular.bus.common.BinaryData;
+
+/**
+ * Binary data whose content is a file on the local file system. Knowing the file allows the data to be sent
+ * straight from the file rather than being copied through the stream.
+ */
+public class FileBinaryData extends BinaryData {
+    private final File file;
+    private final byte[] hash;
+
+    public FileBinaryData(File file) throws FileNotFoundException {
+        this(file, null);
+    }
+
+    /**
+     * @param file the file holding the data
+     * @param hash the SHA-1 hash of the data if it was computed while the file was written, otherwise null
+     */
+    public FileBinaryData(File file, byte[] hash) throws FileNotFoundException {
+        super(null, new FileInputStream(file));
+        this.file = file;
+        this.hash = hash;
+    }
+
+    /**
+     * @return the file holding the data
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the size of the data in bytes
+     */
+    public long getLength() {
+        return file.length();
+    }
+
+    /**
+     * @return the SHA-1 hash of the data or null if it is not known
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+}
@@ -17,9 +17,12 @@
 package org.hawkular.agent.monitor.cmd;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.AbstractEndpointConfiguration;
 import org.hawkular.agent.monitor.inventory.ID;
@@ -41,11 +44,12 @@ import org.hawkular.cmdgw.api.StatisticsControlResponse;
 import org.hawkular.cmdgw.api.StatisticsSetting;
 import org.hawkular.dmr.api.OperationBuilder;
 import org.hawkular.dmr.api.OperationBuilder.CompositeOperationBuilder;
+import org.hawkular.dmr.api.OperationBuilder.CompositeOperationResult;
 import org.hawkular.dmr.api.OperationBuilder.OperationResult;
 import org.hawkular.dmrclient.JBossASClient;
 import org.hawkular.inventory.paths.CanonicalPath;
-import org.jboss.as.controller.PathAddress;
 import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.ModelType;
 
@@ -53,12 +57,56 @@ import org.jboss.dmr.ModelType;
  * Turns on or off statistics for several WildFly subsystems.
  * This command can also be used to obtain the state of the statistics enable flags
  * of all the subsystems, even if you don't want to turn on or off any of them.
+ *
+ * No matter how many subsystems are involved, the current flags are read with a single composite operation
+ * and the changed flags are written with another single composite operation.
  */
 public class StatisticsControlCommand
         extends AbstractResourcePathCommand<StatisticsControlRequest, StatisticsControlResponse> {
     private static final MsgLogger log = AgentLoggers.getLogger(StatisticsControlCommand.class);
     public static final Class<StatisticsControlRequest> REQUEST_CLASS = StatisticsControlRequest.class;
 
+    /**
+     * The statistics enable flags of one subsystem as they are found in the request and in the response.
+     * Addresses ending with a wildcard have a flag per resource (e.g. per datasource).
+     */
+    private static class StatisticsFlags {
+        private final Function<StatisticsControlRequest, StatisticsSetting> requested;
+        private final BiConsumer<StatisticsControlResponse, StatisticsSetting> reported;
+        private final String attribute;
+        private final List<String> addresses;
+
+        private StatisticsFlags(Function<StatisticsControlRequest, StatisticsSetting> requested,
+                BiConsumer<StatisticsControlResponse, StatisticsSetting> reported, String attribute,
+                String... addresses) {
+            this.requested = requested;
+            this.reported = reported;
+            this.attribute = attribute;
+            this.addresses = Arrays.asList(addresses);
+        }
+    }
+
+    private static final List<StatisticsFlags> STATISTICS_FLAGS = Arrays.asList(
+            new StatisticsFlags(StatisticsControlRequest::getDatasources, StatisticsControlResponse::setDatasources,
+                    "statistics-enabled",
+                    "/subsystem=datasources/data-source=*", "/subsystem=datasources/xa-data-source=*"),
+            new StatisticsFlags(StatisticsControlRequest::getEjb3, StatisticsControlResponse::setEjb3,
+                    "enable-statistics",
+                    "/subsystem=ejb3"),
+            new StatisticsFlags(StatisticsControlRequest::getInfinispan, StatisticsControlResponse::setInfinispan,
+                    "statistics-enabled",
+                    "/subsystem=infinispan/cache-container=*"),
+            new StatisticsFlags(StatisticsControlRequest::getMessaging, StatisticsControlResponse::setMessaging,
+                    "statistics-enabled",
+                    "/subsystem=messaging-activemq/server=*"),
+            new StatisticsFlags(StatisticsControlRequest::getTransactions,
+                    StatisticsControlResponse::setTransactions,
+                    "enable-statistics",
+                    "/subsystem=transactions"),
+            new StatisticsFlags(StatisticsControlRequest::getWeb, StatisticsControlResponse::setWeb,
+                    "statistics-enabled",
+                    "/subsystem=undertow"));
+
     public StatisticsControlCommand() {
         super("Statistics Control", "Server");
     }
@@ -93,175 +141,117 @@ public class StatisticsControlCommand
         // populate the basic response
         MessageUtils.prepareResourcePathResponse(request, response);
 
+        // Read the current state of all the enable flags. Reading the wildcard addresses also tells us
+        // which resources have flags to be written, so we don't have to ask for their names separately.
+        final List<ModelNode> currentFlags = readStatisticsFlags(controllerClient);
+
         // determine which statistics it wants to enable, disable, or leave the same.
-        Optional<Boolean> datasources = getStatisticsEnabledFlag(request.getDatasources());
-        Optional<Boolean> ejb3 = getStatisticsEnabledFlag(request.getEjb3());
-        Optional<Boolean> infinispan = getStatisticsEnabledFlag(request.getInfinispan());
-        Optional<Boolean> messaging = getStatisticsEnabledFlag(request.getMessaging());
-        Optional<Boolean> transactions = getStatisticsEnabledFlag(request.getTransactions());
-        Optional<Boolean> web = getStatisticsEnabledFlag(request.getWeb());
-
-        boolean somethingToDo = false;
         final CompositeOperationBuilder<?> batch = OperationBuilder.composite();
+        int flagIndex = 0;
+        for (StatisticsFlags flags : STATISTICS_FLAGS) {
+            Optional<Boolean> enabled = getStatisticsEnabledFlag(flags.requested.apply(request));
+            for (String address : flags.addresses) {
+                ModelNode currentFlag = currentFlags.get(flagIndex++);
+                if (!enabled.isPresent()) {
+                    continue;
+                }
 
-        if (datasources.isPresent()) {
-            somethingToDo = true;
-            List<String> dsList = getChildrenNames(WildflyCompatibilityUtils.parseCLIStyleAddress("/subsystem=datasources"),
-                    "data-source", controllerClient);
-            List<String> xaList = getChildrenNames(WildflyCompatibilityUtils.parseCLIStyleAddress("/subsystem=datasources"),
-                    "xa-data-source", controllerClient);
-
-            for (String ds : dsList) {
-                String dsAddr = String.format("/subsystem=datasources/data-source=%s", ds);
-                batch.writeAttribute()
-                        .address(WildflyCompatibilityUtils.parseCLIStyleAddress(dsAddr))
-                        .attribute("statistics-enabled", datasources.get().toString())
-                        .parentBuilder();
-            }
-            for (String xa : xaList) {
-                String xaAddr = String.format("/subsystem=datasources/xa-data-source=%s", xa);
-                batch.writeAttribute()
-                        .address(WildflyCompatibilityUtils.parseCLIStyleAddress(xaAddr))
-                        .attribute("statistics-enabled", datasources.get().toString())
-                        .parentBuilder();
-            }
-        }
-
-        if (ejb3.isPresent()) {
-            somethingToDo = true;
-            batch.writeAttribute()
-                    .address(WildflyCompatibilityUtils.parseCLIStyleAddress("/subsystem=ejb3"))
-                    .attribute("enable-statistics", ejb3.get().toString())
-                    .parentBuilder();
-        }
-
-        if (infinispan.isPresent()) {
-            somethingToDo = true;
-            List<String> list = getChildrenNames(WildflyCompatibilityUtils.parseCLIStyleAddress("/subsystem=infinispan"),
-                    "cache-container", controllerClient);
-
-            for (String name : list) {
-                String addr = String.format("/subsystem=infinispan/cache-container=%s", name);
-                batch.writeAttribute()
-                        .address(WildflyCompatibilityUtils.parseCLIStyleAddress(addr))
-                        .attribute("statistics-enabled", infinispan.get().toString())
-                        .parentBuilder();
-            }
-        }
-
-        if (messaging.isPresent()) {
-            somethingToDo = true;
-            List<String> list = getChildrenNames(WildflyCompatibilityUtils.parseCLIStyleAddress("/subsystem=messaging-activemq"),
-                    "server", controllerClient);
-
-            for (String name : list) {
-                String addr = String.format("/subsystem=messaging-activemq/server=%s", name);
-                batch.writeAttribute()
-                        .address(WildflyCompatibilityUtils.parseCLIStyleAddress(addr))
-                        .attribute("statistics-enabled", messaging.get().toString())
-                        .parentBuilder();
+                if (address.endsWith("*")) {
+                    if (currentFlag == null) {
+                        throw new IllegalStateException(
+                                String.format("Cannot change statistics flags: cannot read [%s]", address));
+                    }
+                    for (ModelNode resourceNode : currentFlag.asList()) {
+                        batch.writeAttribute()
+                                .address(resourceNode.get(ModelDescriptionConstants.ADDRESS))
+                                .attribute(flags.attribute, enabled.get().toString())
+                                .parentBuilder();
+                    }
+                } else {
+                    batch.writeAttribute()
+                            .address(WildflyCompatibilityUtils.parseCLIStyleAddress(address))
+                            .attribute(flags.attribute, enabled.get().toString())
+                            .parentBuilder();
+                }
             }
         }
 
-        if (transactions.isPresent()) {
-            somethingToDo = true;
-            batch.writeAttribute()
-                    .address(WildflyCompatibilityUtils.parseCLIStyleAddress("/subsystem=transactions"))
-                    .attribute("enable-statistics", transactions.get().toString())
-                    .parentBuilder();
-        }
-
-        if (web.isPresent()) {
-            somethingToDo = true;
-            batch.writeAttribute()
-                    .address(WildflyCompatibilityUtils.parseCLIStyleAddress("/subsystem=undertow"))
-                    .attribute("statistics-enabled", web.get().toString())
-                    .parentBuilder();
-        }
-
-        if (somethingToDo) {
+        if (batch.getStepCount() > 0) {
             OperationResult<?> opResult = batch.execute(controllerClient).assertSuccess();
             setServerRefreshIndicator(opResult, response);
         }
 
         // Tell requestor what the current state is of all the enable flags,
         // even if they didn't ask to change some or all of them.
-        // We need to do this here in execute() as opposed to in success()
-        // because we still need to talk to the server and it is only here where we have the client.
-
-        if (request.getDatasources() != null) {
-            response.setDatasources(request.getDatasources());
-        } else {
-            // ask the server
-            StatisticsSetting currentState;
-            currentState = getCurrentStateFromServer(controllerClient,
-                    "/subsystem=datasources/data-source=*", "statistics-enabled");
-            if (currentState == null) {
-                currentState = getCurrentStateFromServer(controllerClient,
-                        "/subsystem=datasources/xa-data-source=*", "statistics-enabled");
+        // The flags they didn't ask to change are still what we read above.
+        flagIndex = 0;
+        for (StatisticsFlags flags : STATISTICS_FLAGS) {
+            StatisticsSetting setting = flags.requested.apply(request);
+            for (String address : flags.addresses) {
+                ModelNode currentFlag = currentFlags.get(flagIndex++);
+                if (setting == null && currentFlag != null) {
+                    // with several addresses (e.g. datasources and XA datasources) the first known state wins
+                    setting = toStatisticsSetting(address, flags.attribute, currentFlag);
+                }
             }
-            response.setDatasources(currentState);
-        }
-
-        if (request.getEjb3() != null) {
-            response.setEjb3(request.getEjb3());
-        } else {
-            // ask the server
-            StatisticsSetting currentState = getCurrentStateFromServer(controllerClient,
-                    "/subsystem=ejb3", "enable-statistics");
-            response.setEjb3(currentState);
+            flags.reported.accept(response, setting);
         }
 
-        if (request.getInfinispan() != null) {
-            response.setInfinispan(request.getInfinispan());
-        } else {
-            // ask the server
-            StatisticsSetting currentState = getCurrentStateFromServer(controllerClient,
-                    "/subsystem=infinispan/cache-container=*", "statistics-enabled");
-            response.setInfinispan(currentState);
-        }
-
-        if (request.getMessaging() != null) {
-            response.setMessaging(request.getMessaging());
-        } else {
-            // ask the server
-            StatisticsSetting currentState = getCurrentStateFromServer(controllerClient,
-                    "/subsystem=messaging-activemq/server=*", "statistics-enabled");
-            response.setMessaging(currentState);
-        }
+        return null;
+    }
 
-        if (request.getTransactions() != null) {
-            response.setTransactions(request.getTransactions());
-        } else {
-            // ask the server
-            StatisticsSetting currentState = getCurrentStateFromServer(controllerClient,
-                    "/subsystem=transactions", "enable-statistics");
-            response.setTransactions(currentState);
+    /**
+     * Reads all the statistics enable flags with a single composite operation. If that fails (e.g. because
+     * one of the subsystems does not exist in this server) the flags are read one by one.
+     *
+     * @return the read-attribute results in the order of the {@link #STATISTICS_FLAGS} addresses;
+     *         null items mean that flag could not be read
+     */
+    private List<ModelNode> readStatisticsFlags(ModelControllerClient controllerClient) {
+        final CompositeOperationBuilder<?> batch = OperationBuilder.composite();
+        for (StatisticsFlags flags : STATISTICS_FLAGS) {
+            for (String address : flags.addresses) {
+                batch.readAttribute()
+                        .address(WildflyCompatibilityUtils.parseCLIStyleAddress(address))
+                        .name(flags.attribute)
+                        .parentBuilder();
+            }
         }
 
-        if (request.getWeb() != null) {
-            response.setWeb(request.getWeb());
+        List<ModelNode> results = new ArrayList<>();
+        CompositeOperationResult<?> compositeResult = batch.execute(controllerClient);
+        ModelNode outcome = compositeResult.getResponseNode().get(ModelDescriptionConstants.OUTCOME);
+        if (ModelDescriptionConstants.SUCCESS.equals(outcome.asString())) {
+            for (OperationResult<?> stepResult : compositeResult.getStepResults()) {
+                results.add(stepResult.getResultNode());
+            }
         } else {
-            // ask the server
-            StatisticsSetting currentState = getCurrentStateFromServer(controllerClient,
-                    "/subsystem=undertow", "statistics-enabled");
-            response.setWeb(currentState);
+            log.debugf("Cannot read all statistics flags at once, reading them one by one: %s",
+                    compositeResult.getResponseNode());
+            for (StatisticsFlags flags : STATISTICS_FLAGS) {
+                for (String address : flags.addresses) {
+                    results.add(readStatisticsFlag(controllerClient, address, flags.attribute));
+                }
+            }
         }
-
-        return null;
+        return results;
     }
 
-    private StatisticsSetting getCurrentStateFromServer(ModelControllerClient controllerClient, String addr,
-            String attribName) {
-
+    private ModelNode readStatisticsFlag(ModelControllerClient controllerClient, String addr, String attribName) {
         try {
-            ModelNode result = new OperationBuilder().readAttribute()
+            return new OperationBuilder().readAttribute()
                     .address(WildflyCompatibilityUtils.parseCLIStyleAddress(addr))
                     .name(attribName)
                     .execute(controllerClient)
                     .assertSuccess()
                     .getResultNode();
+        } catch (Throwable t) {
+            return null; // we don't know
+        }
+    }
 
+    private StatisticsSetting toStatisticsSetting(String addr, String attribName, ModelNode result) {
+        try {
             log.debugf("Getting current statistics flag for address [%s][%s]. Type=[%s]:%s", addr, attribName,
                     result.getType(), result.toJSONString(true));
 
@@ -324,15 +314,6 @@ public class StatisticsControlCommand
         return Optional.of(setting == StatisticsSetting.ENABLED);
     }
 
-    private List<String> getChildrenNames(PathAddress parentPath, String childType, ModelControllerClient mcc) {
-        return OperationBuilder.readChildrenNames()
-                .address(parentPath)
-                .childType(childType)
-                .execute(mcc)
-                .assertSuccess()
-                .getList();
-    }
-
     @Override
     protected void success(BasicMessageWithExtraData<StatisticsControlRequest> envelope,
             StatisticsControlResponse response) {
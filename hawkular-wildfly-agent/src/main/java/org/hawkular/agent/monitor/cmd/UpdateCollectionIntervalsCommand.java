@@ -18,14 +18,18 @@ package org.hawkular.agent.monitor.cmd;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.AbstractEndpointConfiguration;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
 import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.protocol.EndpointService;
 import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
 import org.hawkular.agent.monitor.protocol.dmr.DMRSession;
+import org.hawkular.agent.monitor.service.MonitorService;
 import org.hawkular.agent.monitor.util.WildflyCompatibilityUtils;
 import org.hawkular.bus.common.BasicMessageWithExtraData;
 import org.hawkular.bus.common.BinaryData;
@@ -39,8 +43,9 @@ import org.jboss.as.controller.PathAddress;
 import org.jboss.as.controller.client.ModelControllerClient;
 
 /**
- * Update the specified metric and avail type collection intervals.  Performs a bulk update to prevent
- * excessive agent restarts. Because metric types are not guaranteed to be consistent across agents, it is
+ * Update the specified metric and avail type collection intervals.  Performs a bulk update of the agent
+ * configuration and then applies the new intervals to the running agent by rescheduling the affected measurements;
+ * the agent is not restarted. Because metric types are not guaranteed to be consistent across agents, it is
  * not a failure if a requested metric type does not exist.
  *
  * @author Jay Shaughnessy
@@ -84,15 +89,8 @@ public class UpdateCollectionIntervalsCommand
         CompositeOperationBuilder<?> composite = OperationBuilder.composite();
         addUpdates(composite, metricTypes);
         addUpdates(composite, availTypes);
-        // Don't let the restart services hook kick in, instead do a deferred restart
+        // Don't let the restart services hook kick in - the new intervals are applied to the running agent below
         composite.allowResourceServiceRestart(false);
-        // Now refresh the monitor service with the updated config. Delay the restart to allow time for the
-        // command response to be returned.
-        composite.byNameOperation("start")
-                .address(agentAddress)
-                .attribute("refresh", "true")
-                .attribute("delay", "500") //  enough time to get the response sent back
-                .parentBuilder();
 
         try {
             OperationResult<?> opResult = composite.execute(mcc).assertSuccess();
@@ -103,9 +101,41 @@ public class UpdateCollectionIntervalsCommand
             throw e;
         }
 
+        // the configuration is persisted; now reschedule the affected measurements of the running agent
+        MonitorService agent = context.getDiscoveryService();
+        int minIntervalSecs = context.getMonitorServiceConfiguration().getMinCollectionIntervalSeconds();
+        int changed = agent.updateMeasurementIntervals(
+                toIntervals(metricTypes, minIntervalSecs, "Metric"),
+                toIntervals(availTypes, minIntervalSecs, "Availability"));
+        log.debugf("Collection intervals of [%d] measurement types changed", changed);
+
         return null;
     }
 
+    /**
+     * Converts the validated updates to intervals keyed on the measurement type IDs, which are of the form
+     * SetName~TypeName just like the IDs the agent gives to the types it builds from its configuration.
+     */
+    private Map<ID, Interval> toIntervals(Map<PathAddress, String> updates, int minIntervalSecs, String kind) {
+        Map<ID, Interval> result = new HashMap<>();
+        if (!isEmpty(updates)) {
+            for (Map.Entry<PathAddress, String> entry : updates.entrySet()) {
+                PathAddress typeAddress = entry.getKey();
+                String setName = typeAddress.getParent().getLastElement().getValue();
+                String typeName = typeAddress.getLastElement().getValue();
+
+                int intervalSecs = Integer.parseInt(entry.getValue());
+                if (intervalSecs > 0 && intervalSecs < minIntervalSecs) {
+                    log.warnf("%s type [%s] interval being changed from [%s]s to minimum of [%s]s",
+                            kind, typeName, intervalSecs, minIntervalSecs);
+                    intervalSecs = minIntervalSecs;
+                }
+                result.put(new ID(setName + "~" + typeName), new Interval(intervalSecs, TimeUnit.SECONDS));
+            }
+        }
+        return result;
+    }
+
     private Map<PathAddress, String> filterUpdates(ModelControllerClient mcc, Map<String, String> updates,
             boolean isAvail, PathAddress agentAddress) {
 
@@ -137,7 +167,8 @@ public class UpdateCollectionIntervalsCommand
             }
 
             if (!isValidAddress(mcc, metricType)) {
-                log.warnf("Skipping collection interval update on invalid metric type [%s]", typeId);
+                log.warnf("Skipping collection interval update on invalid %s type [%s]",
+                        isAvail ? "availability" : "metric", typeId);
                 continue;
             }
 
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.diagnostics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+
+/**
+ * Diagnostic metrics for tracking how the scheduled collections of one endpoint perform.
+ */
+public final class CollectionDiagnostics {
+    private final Timer tickTimer;
+    private final Timer schedulingLagTimer;
+    private final AtomicInteger scheduledCount = new AtomicInteger();
+    private final Gauge<Integer> scheduledCountGauge = scheduledCount::get;
+
+    public CollectionDiagnostics(Timer tickTimer, Timer schedulingLagTimer) {
+        super();
+        this.tickTimer = tickTimer;
+        this.schedulingLagTimer = schedulingLagTimer;
+    }
+
+    /**
+     * @return tracks the time it takes to collect all the measurements that are due at the same time
+     */
+    public Timer getTickTimer() {
+        return tickTimer;
+    }
+
+    /**
+     * @return tracks how late collections start relative to the time they were scheduled for
+     */
+    public Timer getSchedulingLagTimer() {
+        return schedulingLagTimer;
+    }
+
+    /**
+     * @return the number of measurements currently scheduled for collection
+     */
+    public Gauge<Integer> getScheduledCount() {
+        return scheduledCountGauge;
+    }
+
+    /**
+     * @param count the number of measurements currently scheduled for collection
+     */
+    public void setScheduledCount(int count) {
+        scheduledCount.set(count);
+    }
+}
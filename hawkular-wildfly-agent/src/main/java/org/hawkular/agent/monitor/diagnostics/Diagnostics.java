@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -60,6 +60,44 @@ public interface Diagnostics {
      */
     Counter getAvailStorageBufferSize();
 
+    /**
+     * @return time metrics wait in the buffer before they are handed to the storage adapter
+     */
+    Timer getMetricsStorageQueueTimer();
+
+    /**
+     * @return time availability statuses wait in the buffer before they are handed to the storage adapter
+     */
+    Timer getAvailStorageQueueTimer();
+
+    /**
+     * @return time from collecting metrics until the storage has acknowledged them
+     */
+    Timer getMetricsStorageLatencyTimer();
+
+    /**
+     * @return time from checking availability statuses until the storage has acknowledged them
+     */
+    Timer getAvailStorageLatencyTimer();
+
+    /**
+     * The diagnostics of one of several storage sinks the collected data is handed to (see
+     * {@link org.hawkular.agent.monitor.storage.FanOutStorageAdapter}). The sink's storage buffer sizes and
+     * storage queue timers are tracked apart from those of the other sinks; everything else is tracked together
+     * with this diagnostics.
+     *
+     * @param sinkName identifies the storage sink
+     * @return the diagnostics of the given storage sink
+     */
+    Diagnostics getStorageSinkDiagnostics(String sinkName);
+
+    /**
+     * @param collectionType identifies what is collected (such as "metric" or "avail")
+     * @param endpointName identifies the endpoint whose measurements are collected
+     * @return the diagnostics of the scheduled collections of the given type for the given endpoint
+     */
+    CollectionDiagnostics getCollectionDiagnostics(String collectionType, String endpointName);
+
     /**
      * @return tracks the number of metrics that have been stored
      */
@@ -79,4 +117,25 @@ public interface Diagnostics {
      * @return time it takes to execute inventory storage requests
      */
     Timer getInventoryStorageRequestTimer();
+
+    /**
+     * @param commandName identifies the type of command
+     * @return time it takes from receiving a command of the given type until its response is ready
+     */
+    Timer getCommandTimer(String commandName);
+
+    /**
+     * @return tracks how many commands were rejected because too many were already pending
+     */
+    Meter getCommandRejectionRate();
+
+    /**
+     * @return tracks the number of messages waiting to be sent to the server over the feed comm channel
+     */
+    Counter getFeedCommSendQueueSize();
+
+    /**
+     * @return time it takes from queuing a message for the server until it has been sent over the feed comm channel
+     */
+    Timer getFeedCommSendTimer();
 }
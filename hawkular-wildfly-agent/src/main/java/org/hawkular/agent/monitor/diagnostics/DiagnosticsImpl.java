@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,6 +16,9 @@
  */
 package org.hawkular.agent.monitor.diagnostics;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
 
 import com.codahale.metrics.Counter;
@@ -31,11 +34,21 @@ public class DiagnosticsImpl implements Diagnostics {
     private final ProtocolDiagnostics platformDiagnostics;
     private final Meter storageError;
     private final Counter metricsStorageBuffer;
+    private final Timer metricsStorageQueueTimer;
+    private final Timer metricsStorageLatencyTimer;
     private final Meter metricRate;
     private final Counter availStorageBuffer;
+    private final Timer availStorageQueueTimer;
+    private final Timer availStorageLatencyTimer;
     private final Meter availRate;
     private final Meter inventoryRate;
     private final Timer inventoryStorageRequestTimer;
+    private final Meter commandRejectionRate;
+    private final Counter feedCommSendQueueSize;
+    private final Timer feedCommSendTimer;
+    private final Map<String, CollectionDiagnostics> collectionDiagnostics;
+    private final Map<String, Diagnostics> storageSinkDiagnostics;
+    private final String feedId;
 
     public static String name(String feedId, String name) {
         return MetricRegistry.name(feedId + ".diagnostics." + name);
@@ -50,12 +63,54 @@ public class DiagnosticsImpl implements Diagnostics {
 
         storageError = registry.meter(name(feedId, "storage.error-rate"));
         metricsStorageBuffer = registry.counter(name(feedId, "metrics.storage-buffer-size"));
+        metricsStorageQueueTimer = registry.timer(name(feedId, "metrics.storage-queue-timer"));
+        metricsStorageLatencyTimer = registry.timer(name(feedId, "metrics.storage-latency-timer"));
         metricRate = registry.meter(name(feedId, "metric.rate"));
         availStorageBuffer = registry.counter(name(feedId, "avail.storage-buffer-size"));
+        availStorageQueueTimer = registry.timer(name(feedId, "avail.storage-queue-timer"));
+        availStorageLatencyTimer = registry.timer(name(feedId, "avail.storage-latency-timer"));
         availRate = registry.meter(name(feedId, "avail.rate"));
         inventoryRate = registry.meter(name(feedId, "inventory.rate"));
         inventoryStorageRequestTimer = registry.timer(name(feedId, "inventory.storage-request-timer"));
+        commandRejectionRate = registry.meter(name(feedId, "command.rejection-rate"));
+        feedCommSendQueueSize = registry.counter(name(feedId, "feedcomm.send-queue-size"));
+        feedCommSendTimer = registry.timer(name(feedId, "feedcomm.send-timer"));
+
+        this.collectionDiagnostics = new ConcurrentHashMap<>();
+        this.storageSinkDiagnostics = new ConcurrentHashMap<>();
+        this.feedId = feedId;
+
+        this.metricsRegistry = registry;
+    }
 
+    /**
+     * Creates the diagnostics of a storage sink that shares everything but the storage buffers with the given
+     * diagnostics.
+     */
+    private DiagnosticsImpl(DiagnosticsImpl shared, String sinkName) {
+        String prefix = "storage-sink." + sinkName;
+        MetricRegistry registry = shared.metricsRegistry;
+        this.metricsStorageBuffer = registry.counter(name(shared.feedId, prefix + ".metrics.storage-buffer-size"));
+        this.metricsStorageQueueTimer = registry.timer(name(shared.feedId, prefix + ".metrics.storage-queue-timer"));
+        this.availStorageBuffer = registry.counter(name(shared.feedId, prefix + ".avail.storage-buffer-size"));
+        this.availStorageQueueTimer = registry.timer(name(shared.feedId, prefix + ".avail.storage-queue-timer"));
+
+        this.dmrDiagnostics = shared.dmrDiagnostics;
+        this.jmxDiagnostics = shared.jmxDiagnostics;
+        this.platformDiagnostics = shared.platformDiagnostics;
+        this.storageError = shared.storageError;
+        this.metricsStorageLatencyTimer = shared.metricsStorageLatencyTimer;
+        this.metricRate = shared.metricRate;
+        this.availStorageLatencyTimer = shared.availStorageLatencyTimer;
+        this.availRate = shared.availRate;
+        this.inventoryRate = shared.inventoryRate;
+        this.inventoryStorageRequestTimer = shared.inventoryStorageRequestTimer;
+        this.commandRejectionRate = shared.commandRejectionRate;
+        this.feedCommSendQueueSize = shared.feedCommSendQueueSize;
+        this.feedCommSendTimer = shared.feedCommSendTimer;
+        this.collectionDiagnostics = shared.collectionDiagnostics;
+        this.storageSinkDiagnostics = shared.storageSinkDiagnostics;
+        this.feedId = shared.feedId;
         this.metricsRegistry = registry;
     }
 
@@ -96,6 +151,43 @@ public class DiagnosticsImpl implements Diagnostics {
         return metricsStorageBuffer;
     }
 
+    @Override
+    public Timer getMetricsStorageQueueTimer() {
+        return metricsStorageQueueTimer;
+    }
+
+    @Override
+    public Timer getAvailStorageQueueTimer() {
+        return availStorageQueueTimer;
+    }
+
+    @Override
+    public Timer getMetricsStorageLatencyTimer() {
+        return metricsStorageLatencyTimer;
+    }
+
+    @Override
+    public Timer getAvailStorageLatencyTimer() {
+        return availStorageLatencyTimer;
+    }
+
+    @Override
+    public Diagnostics getStorageSinkDiagnostics(String sinkName) {
+        return storageSinkDiagnostics.computeIfAbsent(sinkName, sink -> new DiagnosticsImpl(this, sink));
+    }
+
+    @Override
+    public CollectionDiagnostics getCollectionDiagnostics(String collectionType, String endpointName) {
+        // created the first time collections of this type are scheduled for the endpoint
+        return collectionDiagnostics.computeIfAbsent(collectionType + "." + endpointName, prefix -> {
+            CollectionDiagnostics diag = new CollectionDiagnostics(
+                    metricsRegistry.timer(name(feedId, prefix + ".collection-tick-timer")),
+                    metricsRegistry.timer(name(feedId, prefix + ".scheduling-lag-timer")));
+            metricsRegistry.register(name(feedId, prefix + ".scheduled-count"), diag.getScheduledCount());
+            return diag;
+        });
+    }
+
     @Override
     public Meter getMetricRate() {
         return metricRate;
@@ -120,4 +212,25 @@ public class DiagnosticsImpl implements Diagnostics {
     public Timer getInventoryStorageRequestTimer() {
         return inventoryStorageRequestTimer;
     }
+
+    @Override
+    public Timer getCommandTimer(String commandName) {
+        // the registry creates the timer the first time a command of this type is seen
+        return metricsRegistry.timer(name(feedId, "command." + commandName + ".request-timer"));
+    }
+
+    @Override
+    public Meter getCommandRejectionRate() {
+        return commandRejectionRate;
+    }
+
+    @Override
+    public Counter getFeedCommSendQueueSize() {
+        return feedCommSendQueueSize;
+    }
+
+    @Override
+    public Timer getFeedCommSendTimer() {
+        return feedCommSendTimer;
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -40,6 +40,7 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 
 public class StorageReporter extends ScheduledReporter {
@@ -128,16 +129,24 @@ public class StorageReporter extends ScheduledReporter {
         }
 
         if (!timers.isEmpty()) {
-            Set<MetricDataPoint> samples = new HashSet<>(timers.size());
+            Set<MetricDataPoint> samples = new HashSet<>(timers.size() * 4);
             for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-                Timer timer = entry.getValue();
+                Snapshot snapshot = entry.getValue().getSnapshot();
                 String key = feedId + "." + ourName + "." + entry.getKey();
+                long now = System.currentTimeMillis();
                 samples.add(new NumericMetricDataPoint(
                         key,
-                        System.currentTimeMillis(),
-                        timer.getSnapshot().get75thPercentile(),
+                        now,
+                        snapshot.get75thPercentile(),
                         MetricType.GAUGE,
                         null));
+                // the tail of the distribution is what shows stalls - a single percentile hides them
+                samples.add(new NumericMetricDataPoint(key + ".p95", now, snapshot.get95thPercentile(),
+                        MetricType.GAUGE, null));
+                samples.add(new NumericMetricDataPoint(key + ".p99", now, snapshot.get99thPercentile(),
+                        MetricType.GAUGE, null));
+                samples.add(new NumericMetricDataPoint(key + ".max", now, snapshot.getMax(),
+                        MetricType.GAUGE, null));
             }
             storageAdapter.storeMetrics(samples, 0);
         }
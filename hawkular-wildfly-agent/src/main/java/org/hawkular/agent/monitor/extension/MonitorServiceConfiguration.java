@@ -49,6 +49,11 @@ public class MonitorServiceConfiguration {
         STORAGE // stores the diagnostics as metrics to the storage adapter
     }
 
+    public enum InventorySyncMode {
+        FULL, // every discovery syncs the full resource tree of each root resource
+        DIFF // only those resource subtrees that changed since they were last synced are synced
+    }
+
     /**
      * If feed ID is expicitly set to this value, it means the feed ID should be autogenerated at runtime.
      */
@@ -71,6 +76,9 @@ public class MonitorServiceConfiguration {
         private final String securityRealm;
         private final int connectTimeoutSeconds;
         private final int readTimeoutSeconds;
+        private final InventorySyncMode inventorySyncMode;
+        private final int inventorySyncConcurrency;
+        private final String prometheusSocketBindingRef;
 
         public StorageAdapterConfiguration(
                 StorageReportTo type,
@@ -88,7 +96,10 @@ public class MonitorServiceConfiguration {
                 String keystorePassword,
                 String securityRealm,
                 int connectTimeoutSeconds,
-                int readTimeoutSeconds) {
+                int readTimeoutSeconds,
+                InventorySyncMode inventorySyncMode,
+                int inventorySyncConcurrency,
+                String prometheusSocketBindingRef) {
             super();
             this.type = type;
             this.username = username;
@@ -106,6 +117,9 @@ public class MonitorServiceConfiguration {
             this.securityRealm = securityRealm;
             this.connectTimeoutSeconds = connectTimeoutSeconds;
             this.readTimeoutSeconds = readTimeoutSeconds;
+            this.inventorySyncMode = inventorySyncMode;
+            this.inventorySyncConcurrency = inventorySyncConcurrency;
+            this.prometheusSocketBindingRef = prometheusSocketBindingRef;
         }
 
         public StorageReportTo getType() {
@@ -180,6 +194,25 @@ public class MonitorServiceConfiguration {
             return readTimeoutSeconds;
         }
 
+        public InventorySyncMode getInventorySyncMode() {
+            return inventorySyncMode;
+        }
+
+        /**
+         * @return the maximum number of sync requests that will be sent to inventory at the same time
+         */
+        public int getInventorySyncConcurrency() {
+            return inventorySyncConcurrency;
+        }
+
+        /**
+         * @return if not null, the name of the socket binding on which the latest collected values are served
+         *         in OpenMetrics text format so they can be scraped by Prometheus
+         */
+        public String getPrometheusSocketBindingRef() {
+            return prometheusSocketBindingRef;
+        }
+
     }
 
     public static class DiagnosticsConfiguration {
@@ -229,11 +262,15 @@ public class MonitorServiceConfiguration {
         private final int availDispatcherBufferSize;
         private final int availDispatcherMaxBatchSize;
         private final int pingDispatcherPeriodSeconds;
+        private final boolean inventoryCacheEnabled;
+        private final int maxConcurrentCommands;
+        private final int maxPendingCommands;
 
         public GlobalConfiguration(boolean subsystemEnabled, boolean immutable, boolean inContainer, String apiJndi,
                 int autoDiscoveryScanPeriodSeconds, int minCollectionIntervalSeconds, int numDmrSchedulerThreads,
                 int metricDispatcherBufferSize, int metricDispatcherMaxBatchSize, int availDispatcherBufferSize,
-                int availDispatcherMaxBatchSize, int pingDispatcherPeriodSeconds) {
+                int availDispatcherMaxBatchSize, int pingDispatcherPeriodSeconds, boolean inventoryCacheEnabled,
+                int maxConcurrentCommands, int maxPendingCommands) {
             super();
             this.subsystemEnabled = subsystemEnabled;
             this.immutable = immutable;
@@ -247,6 +284,9 @@ public class MonitorServiceConfiguration {
             this.availDispatcherBufferSize = availDispatcherBufferSize;
             this.availDispatcherMaxBatchSize = availDispatcherMaxBatchSize;
             this.pingDispatcherPeriodSeconds = pingDispatcherPeriodSeconds;
+            this.inventoryCacheEnabled = inventoryCacheEnabled;
+            this.maxConcurrentCommands = maxConcurrentCommands;
+            this.maxPendingCommands = maxPendingCommands;
         }
 
         public boolean isSubsystemEnabled() {
@@ -288,6 +328,18 @@ public class MonitorServiceConfiguration {
         public int getPingDispatcherPeriodSeconds() {
             return pingDispatcherPeriodSeconds;
         }
+
+        public boolean isInventoryCacheEnabled() {
+            return inventoryCacheEnabled;
+        }
+
+        public int getMaxConcurrentCommands() {
+            return maxConcurrentCommands;
+        }
+
+        public int getMaxPendingCommands() {
+            return maxPendingCommands;
+        }
     }
 
     public static class ProtocolConfiguration<L> {
@@ -529,6 +581,18 @@ public class MonitorServiceConfiguration {
         return globalConfiguration.pingDispatcherPeriodSeconds;
     }
 
+    public boolean isInventoryCacheEnabled() {
+        return globalConfiguration.inventoryCacheEnabled;
+    }
+
+    public int getMaxConcurrentCommands() {
+        return globalConfiguration.maxConcurrentCommands;
+    }
+
+    public int getMaxPendingCommands() {
+        return globalConfiguration.maxPendingCommands;
+    }
+
     public MonitorServiceConfiguration cloneWith(StorageAdapterConfiguration newStorageAdapter) {
         return new MonitorServiceConfiguration(globalConfiguration,
                 diagnostics, newStorageAdapter, dmrConfiguration,
@@ -35,6 +35,7 @@ import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.Diagnost
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.DiagnosticsReportTo;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.EndpointConfiguration;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.GlobalConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.InventorySyncMode;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.ProtocolConfiguration;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageAdapterConfiguration;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageReportTo;
@@ -946,6 +947,13 @@ public class MonitorServiceConfigurationBuilder {
         StorageReportTo type = MonitorServiceConfiguration.StorageReportTo.valueOf(typeStr.toUpperCase());
         int connectTimeoutSeconds = getInt(storageAdapterConfig, context, StorageAttributes.CONNECT_TIMEOUT_SECONDS);
         int readTimeoutSeconds = getInt(storageAdapterConfig, context, StorageAttributes.READ_TIMEOUT_SECONDS);
+        String inventorySyncModeStr = getString(storageAdapterConfig, context, StorageAttributes.INVENTORY_SYNC_MODE);
+        InventorySyncMode inventorySyncMode = MonitorServiceConfiguration.InventorySyncMode
+                .valueOf(inventorySyncModeStr.toUpperCase());
+        int inventorySyncConcurrency = getInt(storageAdapterConfig, context,
+                StorageAttributes.INVENTORY_SYNC_CONCURRENCY);
+        String prometheusSocketBindingRef = getString(storageAdapterConfig, context,
+                StorageAttributes.PROMETHEUS_SOCKET_BINDING_REF);
 
         if (useSSL) {
             if (securityRealm == null) {
@@ -966,7 +974,8 @@ public class MonitorServiceConfigurationBuilder {
 
         return new StorageAdapterConfiguration(type, username, password, tenantId, feedId, url, useSSL,
                 serverOutboundSocketBindingRef, inventoryContext, metricsContext, feedcommContext,
-                keystorePath, keystorePassword, securityRealm, connectTimeoutSeconds, readTimeoutSeconds);
+                keystorePath, keystorePassword, securityRealm, connectTimeoutSeconds, readTimeoutSeconds,
+                inventorySyncMode, inventorySyncConcurrency, prometheusSocketBindingRef);
     }
 
     private static GlobalConfiguration determineGlobalConfig(ModelNode config, OperationContext context)
@@ -986,11 +995,20 @@ public class MonitorServiceConfigurationBuilder {
         int availDispatcherBufferSize = getInt(config, context, SubsystemAttributes.AVAIL_DISPATCHER_BUFFER_SIZE);
         int availDispatcherMaxBatchSize = getInt(config, context, SubsystemAttributes.AVAIL_DISPATCHER_MAX_BATCH_SIZE);
         int pingDispatcherPeriodSeconds = getInt(config, context, SubsystemAttributes.PING_DISPATCHER_PERIOD_SECONDS);
+        boolean inventoryCacheEnabled = getBoolean(config, context, SubsystemAttributes.INVENTORY_CACHE_ENABLED);
+        int maxConcurrentCommands = getInt(config, context, SubsystemAttributes.MAX_CONCURRENT_COMMANDS);
+        int maxPendingCommands = getInt(config, context, SubsystemAttributes.MAX_PENDING_COMMANDS);
+        if (maxPendingCommands < maxConcurrentCommands) {
+            throw new OperationFailedException(String.format("The value of [%s] (%d) must not be less than "
+                    + "the value of [%s] (%d)", SubsystemAttributes.MAX_PENDING_COMMANDS.getName(),
+                    maxPendingCommands, SubsystemAttributes.MAX_CONCURRENT_COMMANDS.getName(),
+                    maxConcurrentCommands));
+        }
 
         return new GlobalConfiguration(subsystemEnabled, immutable, inContainer, apiJndi, autoDiscoveryScanPeriodSecs,
                 minCollectionIntervalSecs, numDmrSchedulerThreads, metricDispatcherBufferSize,
                 metricDispatcherMaxBatchSize, availDispatcherBufferSize, availDispatcherMaxBatchSize,
-                pingDispatcherPeriodSeconds);
+                pingDispatcherPeriodSeconds, inventoryCacheEnabled, maxConcurrentCommands, maxPendingCommands);
     }
 
     private static void determineResourceTypeSetDmr(ModelNode config,
@@ -22,6 +22,7 @@ import static org.jboss.as.controller.descriptions.ModelDescriptionConstants.OPE
 import java.util.Collection;
 
 import org.hawkular.agent.monitor.service.MonitorService;
+import org.hawkular.agent.monitor.util.Util;
 import org.hawkular.agent.monitor.util.WildflyCompatibilityUtils;
 import org.jboss.as.controller.AttributeDefinition;
 import org.jboss.as.controller.OperationContext;
@@ -31,11 +32,13 @@ import org.jboss.as.controller.PathAddress;
 import org.jboss.as.controller.RestartParentWriteAttributeHandler;
 import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
 import org.jboss.dmr.ModelNode;
+import org.jboss.logging.Logger;
 import org.jboss.msc.service.ServiceController;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.ServiceRegistry;
 
 public class MonitorServiceRestartParentAttributeHandler extends RestartParentWriteAttributeHandler {
+    private static final Logger LOGGER = Logger.getLogger(MonitorServiceRestartParentAttributeHandler.class);
 
     private static final OperationContext.AttachmentKey<Integer> RECREATE_COUNTER = OperationContext.AttachmentKey
             .create(Integer.class);
@@ -43,6 +46,9 @@ public class MonitorServiceRestartParentAttributeHandler extends RestartParentWr
     private static final OperationContext.AttachmentKey<Integer> REMOVE_COUNTER = OperationContext.AttachmentKey
             .create(Integer.class);
 
+    private static final OperationContext.AttachmentKey<Integer> RECONFIGURE_COUNTER = OperationContext
+            .AttachmentKey.create(Integer.class);
+
     public MonitorServiceRestartParentAttributeHandler(AttributeDefinition... definitions) {
         super("subsystem", definitions);
     }
@@ -133,6 +139,14 @@ public class MonitorServiceRestartParentAttributeHandler extends RestartParentWr
         ModelNode headers = operation.has(OPERATION_HEADERS) ? operation.get(OPERATION_HEADERS) : null;
         boolean restartAllowedOptionSet = (headers != null) && headers.hasDefined(ALLOW_RESOURCE_SERVICE_RESTART);
         boolean restartAllowed = !restartAllowedOptionSet || headers.get(ALLOW_RESOURCE_SERVICE_RESTART).asBoolean();
+
+        // If the running agent can apply the change by restarting only the affected endpoints, there is no need
+        // to restart the whole agent.
+        if (restartAllowed && !context.isBooting() && canReconfigure(context)) {
+            reconfigure(context);
+            return false;
+        }
+
         Object tempOwner = null;
         PathAddress address = null;
         try {
@@ -151,6 +165,62 @@ public class MonitorServiceRestartParentAttributeHandler extends RestartParentWr
         return false;
     }
 
+    private boolean canReconfigure(OperationContext context) {
+        try {
+            return getMonitorService(context).canReconfigure(Util.getMonitorServiceConfiguration(context));
+        } catch (Exception e) {
+            LOGGER.debugf(e, "Cannot apply the change to the running agent, it will be restarted");
+            return false;
+        }
+    }
+
+    /**
+     * Reconfigures the running agent once all attributes written by the operation (or its composite) are in the
+     * model, and reconfigures it back to its previous configuration if the operation is rolled back.
+     */
+    private void reconfigure(OperationContext context) throws OperationFailedException {
+        incrementAttachedCounter(context, RECONFIGURE_COUNTER);
+        context.addStep(new OperationStepHandler() {
+            @Override
+            public void execute(OperationContext context, ModelNode operation) throws OperationFailedException {
+                Integer counter = decrementAttachedCounter(context, RECONFIGURE_COUNTER);
+                if (counter == 0) {
+                    reconfigureOrReload(context);
+                    return;
+                } else if (counter < 0) {
+                    throw new OperationFailedException("The reconfigure step got added more times than needed - " +
+                            "This shouldn't happen.");
+                }
+                WildflyCompatibilityUtils.operationContextStepCompleted(context);
+            }
+        }, OperationContext.Stage.RUNTIME);
+    }
+
+    private void reconfigureOrReload(OperationContext context) throws OperationFailedException {
+        MonitorService agent = getMonitorService(context);
+        MonitorServiceConfiguration previous = agent.getBootConfiguration();
+        if (agent.reconfigure(Util.getMonitorServiceConfiguration(context))) {
+            context.completeStep(new OperationContext.RollbackHandler() {
+                @Override
+                public void handleRollback(OperationContext context, ModelNode operation) {
+                    if (!agent.reconfigure(previous)) {
+                        LOGGER.warn("Failed to restore the previous configuration of the agent, it must be restarted");
+                        context.reloadRequired();
+                    }
+                }
+            });
+        } else {
+            // the agent changed its state since the change was checked, so it can only be restarted now
+            context.reloadRequired();
+            context.completeStep(new OperationContext.RollbackHandler() {
+                @Override
+                public void handleRollback(OperationContext context, ModelNode operation) {
+                    context.revertReloadRequired();
+                }
+            });
+        }
+    }
+
     protected MonitorService getMonitorService(OperationContext opContext) {
         ServiceName name = SubsystemExtension.SERVICE_NAME;
         ServiceRegistry serviceRegistry = opContext.getServiceRegistry(true);
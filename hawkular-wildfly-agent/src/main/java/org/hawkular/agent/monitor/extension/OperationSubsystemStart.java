@@ -62,6 +62,12 @@ public class OperationSubsystemStart implements OperationStepHandler {
                             Thread.sleep(delay);
                         }
 
+                        // a refresh of a running agent only needs to touch the endpoints affected by the changes
+                        if (refresh && service.reconfigure(newConfig)) {
+                            LOGGER.info("Hawkular Monitor Service refreshed without a restart.");
+                            return;
+                        }
+
                         if (restart) {
                             LOGGER.warnf("Stopping Hawkular Monitor Service now, %s requested.",
                                     refresh ? "refresh" : "restart");
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -144,6 +144,31 @@ public interface StorageAttributes {
                     .setDefaultValue(new ModelNode(120)) /* e.g. bulk inserts may take long */
                     .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
                     .build();
+    SimpleAttributeDefinition INVENTORY_SYNC_MODE = new SimpleAttributeDefinitionBuilder("inventory-sync-mode",
+            ModelType.STRING)
+                    .setAllowNull(true)
+                    .setAllowExpression(true)
+                    .setDefaultValue(new ModelNode(MonitorServiceConfiguration.InventorySyncMode.FULL.name()))
+                    .setValidator(EnumValidator.create(MonitorServiceConfiguration.InventorySyncMode.class, false,
+                            true))
+                    .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
+                    .build();
+    SimpleAttributeDefinition INVENTORY_SYNC_CONCURRENCY = new SimpleAttributeDefinitionBuilder(
+            "inventory-sync-concurrency",
+            ModelType.INT)
+                    .setAllowNull(true)
+                    .setAllowExpression(true)
+                    .setDefaultValue(new ModelNode(1))
+                    .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
+                    .build();
+
+    SimpleAttributeDefinition PROMETHEUS_SOCKET_BINDING_REF = new SimpleAttributeDefinitionBuilder(
+            "prometheus-socket-binding-ref",
+            ModelType.STRING)
+                    .setAllowNull(true)
+                    .setAllowExpression(true)
+                    .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
+                    .build();
 
     AttributeDefinition[] ATTRIBUTES = {
             TYPE,
@@ -161,7 +186,10 @@ public interface StorageAttributes {
             METRICS_CONTEXT,
             FEEDCOMM_CONTEXT,
             CONNECT_TIMEOUT_SECONDS,
-            READ_TIMEOUT_SECONDS
+            READ_TIMEOUT_SECONDS,
+            INVENTORY_SYNC_MODE,
+            INVENTORY_SYNC_CONCURRENCY,
+            PROMETHEUS_SOCKET_BINDING_REF
     };
 
 }
@@ -16,11 +16,13 @@
  */
 package org.hawkular.agent.monitor.extension;
 
+import org.hawkular.agent.monitor.cmd.FeedCommProcessor;
 import org.hawkular.agent.monitor.protocol.ProtocolServices;
 import org.hawkular.agent.monitor.scheduler.SchedulerConfiguration;
 import org.jboss.as.controller.AttributeDefinition;
 import org.jboss.as.controller.SimpleAttributeDefinition;
 import org.jboss.as.controller.SimpleAttributeDefinitionBuilder;
+import org.jboss.as.controller.operations.validation.IntRangeValidator;
 import org.jboss.as.controller.operations.validation.StringLengthValidator;
 import org.jboss.as.controller.registry.AttributeAccess;
 import org.jboss.dmr.ModelNode;
@@ -124,6 +126,32 @@ public interface SubsystemAttributes {
                     .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
                     .build();
 
+    SimpleAttributeDefinition INVENTORY_CACHE_ENABLED = new SimpleAttributeDefinitionBuilder(
+            "inventory-cache-enabled", ModelType.BOOLEAN)
+                    .setAllowNull(true)
+                    .setDefaultValue(new ModelNode(true))
+                    .setAllowExpression(true)
+                    .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
+                    .build();
+
+    SimpleAttributeDefinition MAX_CONCURRENT_COMMANDS = new SimpleAttributeDefinitionBuilder(
+            "max-concurrent-commands", ModelType.INT)
+                    .setAllowNull(true)
+                    .setDefaultValue(new ModelNode(FeedCommProcessor.DEFAULT_MAX_CONCURRENT_COMMANDS))
+                    .setValidator(new IntRangeValidator(1, true, true))
+                    .setAllowExpression(true)
+                    .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
+                    .build();
+
+    SimpleAttributeDefinition MAX_PENDING_COMMANDS = new SimpleAttributeDefinitionBuilder(
+            "max-pending-commands", ModelType.INT)
+                    .setAllowNull(true)
+                    .setDefaultValue(new ModelNode(FeedCommProcessor.DEFAULT_MAX_PENDING_COMMANDS))
+                    .setValidator(new IntRangeValidator(1, true, true))
+                    .setAllowExpression(true)
+                    .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
+                    .build();
+
     AttributeDefinition[] ATTRIBUTES = {
             ENABLED,
             IMMUTABLE,
@@ -136,6 +164,9 @@ public interface SubsystemAttributes {
             METRIC_DISPATCHER_MAX_BATCH_SIZE,
             AVAIL_DISPATCHER_BUFFER_SIZE,
             AVAIL_DISPATCHER_MAX_BATCH_SIZE,
-            PING_DISPATCHER_PERIOD_SECONDS
+            PING_DISPATCHER_PERIOD_SECONDS,
+            INVENTORY_CACHE_ENABLED,
+            MAX_CONCURRENT_COMMANDS,
+            MAX_PENDING_COMMANDS
     };
 }
\ No newline at end of file
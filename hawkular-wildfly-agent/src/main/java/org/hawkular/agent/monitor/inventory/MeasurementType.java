@@ -29,7 +29,7 @@ import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.Endpoint
  */
 public class MeasurementType<L> extends AttributeLocationProvider<L> {
 
-    private final Interval interval;
+    private volatile Interval interval;
     private final String metricIdTemplate;
     private final Map<String, String> metricTags;
 
@@ -48,6 +48,19 @@ public class MeasurementType<L> extends AttributeLocationProvider<L> {
         return interval;
     }
 
+    /**
+     * Changes how often instances of this type should be measured. Instances that are already scheduled keep their
+     * old schedule until they are rescheduled.
+     *
+     * @param interval the new interval
+     */
+    public void setInterval(Interval interval) {
+        if (interval == null) {
+            throw new IllegalArgumentException("interval must not be null");
+        }
+        this.interval = interval;
+    }
+
     /**
      * @return true if collection is disabled for this MeasurementType
      */
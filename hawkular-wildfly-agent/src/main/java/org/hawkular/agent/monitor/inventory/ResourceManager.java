@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -69,10 +69,16 @@ public final class ResourceManager<L> {
 
         private final Resource<L> resource;
         private final Effect effect;
+        private final boolean measurementsModified;
 
         public AddResult(Effect effect, Resource<L> resource) {
+            this(effect, resource, effect != Effect.UNCHANGED);
+        }
+
+        public AddResult(Effect effect, Resource<L> resource, boolean measurementsModified) {
             this.resource = resource;
             this.effect = effect;
+            this.measurementsModified = measurementsModified;
         }
 
         /**
@@ -89,6 +95,15 @@ public final class ResourceManager<L> {
         public Resource<L> getResource() {
             return resource;
         }
+
+        /**
+         * @return true if the resource was added or its metric or avail instances changed. If the effect was
+         *         {@link Effect#MODIFIED} and this is false, only the resource's name, resource configuration or
+         *         general properties changed - any collections already scheduled for the resource are still valid.
+         */
+        public boolean isMeasurementsModified() {
+            return measurementsModified;
+        }
     }
 
     /**
@@ -157,6 +172,37 @@ public final class ResourceManager<L> {
             // everything we care about didn't change - consider them the same resource
             return 0;
         }
+
+        /**
+         * @return true if both resources have the same metric and avail instances which means the measurement
+         *         collections scheduled for one of them are also valid for the other one
+         */
+        public boolean sameMeasurements(Resource<L> r1, Resource<L> r2) {
+            return sameMeasurements(r1.getMetrics(), r2.getMetrics())
+                    && sameMeasurements(r1.getAvails(), r2.getAvails());
+        }
+
+        private <T extends MeasurementType<L>> boolean sameMeasurements(
+                Collection<MeasurementInstance<L, T>> instances1,
+                Collection<MeasurementInstance<L, T>> instances2) {
+            if (instances1.size() != instances2.size()) {
+                return false;
+            }
+            Map<ID, MeasurementInstance<L, T>> instances2Map = new HashMap<>(instances2.size());
+            for (MeasurementInstance<L, T> instance2 : instances2) {
+                instances2Map.put(instance2.getID(), instance2);
+            }
+            for (MeasurementInstance<L, T> instance1 : instances1) {
+                MeasurementInstance<L, T> instance2 = instances2Map.get(instance1.getID());
+                if (instance2 == null
+                        || !instance1.getType().getID().equals(instance2.getType().getID())
+                        || !instance1.getAttributeLocation().equals(instance2.getAttributeLocation())
+                        || !instance1.getProperties().equals(instance2.getProperties())) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     private static final MsgLogger log = AgentLoggers.getLogger(ResourceManager.class);
@@ -251,14 +297,16 @@ public final class ResourceManager<L> {
                 // If the resource did not change, we don't do anything.
                 Resource<L> oldResource = getResource(newResource.getID());
 
-                if (new ResourceComparator().compare(oldResource, newResource) != 0) {
+                ResourceComparator comparator = new ResourceComparator();
+                boolean measurementsModified = !comparator.sameMeasurements(oldResource, newResource);
+                if (measurementsModified || comparator.compare(oldResource, newResource) != 0) {
                     Set<Resource<L>> children = getChildren(oldResource);
                     this.resourcesGraph.removeVertex(oldResource); // removes all edges! remember to put parent back
                     this.resourcesGraph.addVertex(newResource);
                     for (Resource<L> child : children) {
                         ResourceManager.this.resourcesGraph.addEdge(newResource, child);
                     }
-                    result = new AddResult<>(AddResult.Effect.MODIFIED, newResource);
+                    result = new AddResult<>(AddResult.Effect.MODIFIED, newResource, measurementsModified);
                 } else {
                     result = new AddResult<>(AddResult.Effect.UNCHANGED, oldResource);
                 }
@@ -372,4 +372,29 @@ public interface MsgLogger extends BasicLogger {
     @LogMessage(level = Level.INFO)
     @Message(id = 10082, value = "Agent being asked to start but is currently stopping. Will wait and then restart.")
     void infoAgentWillStartAfterStopping();
-}
\ No newline at end of file
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10083, value = "Rejecting command [%s] because [%d] commands are already pending execution")
+    void warnCommandRejected(String requestClassName, int pendingCount);
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10084, value = "Agent configuration change applied without a restart: %s")
+    void infoAgentReconfigured(String configurationDiff);
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10085, value = "Serving collected values in OpenMetrics format at [%s]")
+    void infoPrometheusEndpointStarted(String url);
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10086, value = "Storage sink [%s] cannot keep up - dropped [%d] %s data points because its "
+            + "buffer is full")
+    void warnStorageSinkBufferFull(String sinkName, int droppedCount, String dataType);
+
+    @LogMessage(level = Level.ERROR)
+    @Message(id = 10087, value = "Storage sink [%s] failed to store %s")
+    void errorStorageSinkFailedToStore(@Cause Throwable t, String sinkName, String dataType);
+
+    @LogMessage(level = Level.ERROR)
+    @Message(id = 10088, value = "Storage sink [%s] failed to process %s")
+    void errorStorageSinkFailedToProcess(@Cause Throwable t, String sinkName, String inventoryEvent);
+}
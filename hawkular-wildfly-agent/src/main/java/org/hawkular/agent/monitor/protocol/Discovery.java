@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -20,6 +20,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.hawkular.agent.monitor.api.SamplingService;
 import org.hawkular.agent.monitor.inventory.AttributeLocation;
@@ -37,6 +39,7 @@ import org.hawkular.agent.monitor.inventory.ResourceConfigurationPropertyType;
 import org.hawkular.agent.monitor.inventory.ResourceType;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.protocol.LocationResolver.NameTemplate;
 import org.hawkular.agent.monitor.util.Consumer;
 import org.hawkular.agent.monitor.util.Util;
 
@@ -51,6 +54,9 @@ public final class Discovery<L> {
 
     private static final MsgLogger log = AgentLoggers.getLogger(Discovery.class);
 
+    /** The resource name templates of the resource types, parsed the first time a type is discovered. */
+    private final ConcurrentMap<String, NameTemplate<L>> nameTemplates = new ConcurrentHashMap<>();
+
     /**
      * Discovers children of the given type underneath the given parent.
      *
@@ -73,11 +79,13 @@ public final class Discovery<L> {
             log.debugf("Discovering children of [%s] of type [%s]", parent, childType);
             final L childQuery = session.getLocationResolver().absolutize(parentLocation, childType.getLocation());
             Map<L, N> nativeResources = session.getDriver().fetchNodes(childQuery);
+            NameTemplate<L> nameTemplate = nativeResources.isEmpty() ? null
+                    : nameTemplates.computeIfAbsent(childType.getResourceNameTemplate(),
+                            session.getLocationResolver()::compileTemplate);
 
             for (Map.Entry<L, N> entry : nativeResources.entrySet()) {
                 L location = entry.getKey(); // this is the unique DMR address for this resource
-                String resourceName = session.getLocationResolver().applyTemplate(childType.getResourceNameTemplate(),
-                        location, session.getEndpoint().getName());
+                String resourceName = nameTemplate.apply(location, session.getEndpoint().getName());
                 ID id = InventoryIdUtil.generateResourceId(session.getEndpoint(), location.toString());
                 Builder<L> builder = Resource.<L> builder()
                         .id(id)
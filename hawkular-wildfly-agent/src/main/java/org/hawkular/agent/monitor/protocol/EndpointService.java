@@ -132,6 +132,7 @@ public abstract class EndpointService<L, S extends Session<L>> implements Sampli
     private class DiscoveryResults {
         private final List<Resource<L>> newOrModifiedResources = new ArrayList<>();
         private final List<ID> discoveredResourceIds = new ArrayList<>(); // to save space, just store the IDs
+        private int detailsModifiedCount = 0;
         private final List<Throwable> errors = new ArrayList<>();
 
         public DiscoveryResults() {
@@ -151,6 +152,16 @@ public abstract class EndpointService<L, S extends Session<L>> implements Sampli
             newOrModifiedResources.add(resource);
         }
 
+        /**
+         * The resource's name, resource configuration or general properties changed but its measurements did not.
+         * Its measurement collections stay scheduled as they are - the changes will be picked up by the
+         * inventory update that follows the discovery complete event.
+         */
+        public void detailsModified(Resource<L> resource) {
+            discoveredResourceIds.add(resource.getID());
+            detailsModifiedCount++;
+        }
+
         public void unchanged(Resource<L> resource) {
             discoveredResourceIds.add(resource.getID());
         }
@@ -165,6 +176,11 @@ public abstract class EndpointService<L, S extends Session<L>> implements Sampli
             // remove them from the resource manager itself
             removedResources.forEach(r -> getResourceManager().removeResource(r));
 
+            if (detailsModifiedCount > 0) {
+                LOG.debugf("[%d] resources had only their details modified - their measurements stay scheduled",
+                        detailsModifiedCount);
+            }
+
             // now emit events so other parts of the system can add/remove resources and persist to Hawkular Inventory
             inventoryListenerSupport.fireResourcesAdded(newOrModifiedResources);
             inventoryListenerSupport.fireResourcesRemoved(removedResources);
@@ -187,6 +203,7 @@ public abstract class EndpointService<L, S extends Session<L>> implements Sampli
     private final LocationResolver<L> locationResolver;
     private final ProtocolDiagnostics diagnostics;
     private final ExecutorService fullDiscoveryScanThreadPool;
+    private final Discovery<L> discovery = new Discovery<>();
 
     protected volatile ServiceStatus status = ServiceStatus.INITIAL;
 
@@ -322,6 +339,33 @@ public abstract class EndpointService<L, S extends Session<L>> implements Sampli
         }
     }
 
+    /**
+     * Puts previously discovered resources (such as those found in an {@link InventoryCache}) into the
+     * {@link #resourceManager} and triggers {@link InventoryListener#resourcesAdded(InventoryEvent)} so they
+     * can be monitored before the next discovery scan finishes. No discovery complete event is fired - the next
+     * discovery scan will reconcile these resources with what actually exists on the endpoint.
+     *
+     * @param resources the resources to restore - parents must precede their children
+     */
+    public void restoreResources(List<Resource<L>> resources) {
+        status.assertRunning(getClass(), "restoreResources()");
+
+        List<Resource<L>> restoredResources = new ArrayList<>(resources.size());
+        for (Resource<L> resource : resources) {
+            try {
+                AddResult<L> addResult = getResourceManager().addResource(resource);
+                if (addResult.getEffect() != AddResult.Effect.UNCHANGED) {
+                    restoredResources.add(addResult.getResource());
+                }
+            } catch (IllegalArgumentException e) {
+                LOG.debugf(e, "Cannot restore resource [%s] for endpoint [%s]", resource, getMonitoredEndpoint());
+            }
+        }
+
+        LOG.debugf("Restored [%d] resources for endpoint [%s]", restoredResources.size(), getMonitoredEndpoint());
+        inventoryListenerSupport.fireResourcesAdded(restoredResources);
+    }
+
     /**
      * Discovers child resources of the given {@code parentLocation}, puts them to {@link #resourceManager} and triggers
      * {@link InventoryListener#resourcesAdded(InventoryEvent)}.
@@ -351,7 +395,6 @@ public abstract class EndpointService<L, S extends Session<L>> implements Sampli
             } else {
                 parents = Arrays.asList((Resource<L>) null);
             }
-            Discovery<L> discovery = new Discovery<>();
             for (Resource<L> parent : parents) {
                 discovery.discoverChildren(parent, childType, sessionToUse, this, new Consumer<Resource<L>>() {
                     public void accept(Resource<L> resource) {
@@ -361,7 +404,11 @@ public abstract class EndpointService<L, S extends Session<L>> implements Sampli
                                 discoveryResults.added(addResult.getResource());
                                 break;
                             case MODIFIED:
-                                discoveryResults.modified(addResult.getResource());
+                                if (addResult.isMeasurementsModified()) {
+                                    discoveryResults.modified(addResult.getResource());
+                                } else {
+                                    discoveryResults.detailsModified(addResult.getResource());
+                                }
                                 break;
                             case UNCHANGED:
                                 discoveryResults.unchanged(addResult.getResource());
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.agent.monitor.api.DiscoveryEvent;
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.api.InventoryListener;
+import org.hawkular.agent.monitor.inventory.AvailType;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.MeasurementInstance;
+import org.hawkular.agent.monitor.inventory.MeasurementType;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceConfigurationPropertyInstance;
+import org.hawkular.agent.monitor.inventory.ResourceConfigurationPropertyType;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.util.Util;
+
+/**
+ * Keeps a snapshot of the resources discovered on each monitored endpoint in the agent's data directory.
+ *
+ * Every time a discovery scan completes the snapshot of that endpoint is rewritten. When the agent restarts,
+ * the snapshot can be {@link #load(EndpointService) loaded} and put into the endpoint's resource manager before
+ * the first discovery scan is finished, so metric and avail collection can begin right away. The discovery scan
+ * that follows will reconcile the restored resources with what really exists on the endpoint - resources that
+ * no longer exist are removed and resources that changed are replaced.
+ *
+ * Locations are cached in their string form and {@link LocationResolver#parseLocation(String, Map) parsed} when
+ * loaded. The {@link LocationResolver#getLocationFlags(Object) settings} of each location that its string form does
+ * not include are cached along with it. Only the properties of resources and measurements whose values are strings
+ * are cached, as other values would not come back with the same type - the discovery scan that follows restores
+ * the others.
+ */
+public class InventoryCache implements InventoryListener {
+    private static final MsgLogger log = AgentLoggers.getLogger(InventoryCache.class);
+
+    /**
+     * What gets written to the cache file of a single endpoint.
+     */
+    private static class CachedInventory {
+        private String feedId;
+        private String endpointName;
+        private List<CachedResource> resources; // parents always come before their children
+
+        @SuppressWarnings("unused")
+        private CachedInventory() {
+            // needed for JSON deserialization
+        }
+
+        public CachedInventory(String feedId, String endpointName, List<CachedResource> resources) {
+            this.feedId = feedId;
+            this.endpointName = endpointName;
+            this.resources = resources;
+        }
+    }
+
+    private static class CachedResource {
+        private String id;
+        private String name;
+        private String typeId;
+        private String parentId;
+        private String location;
+        private Map<String, Boolean> locationFlags;
+        private Map<String, String> properties;
+        private Map<String, String> configuration; // resource configuration property name -> value
+        private List<CachedMeasurement> metrics;
+        private List<CachedMeasurement> avails;
+
+        @SuppressWarnings("unused")
+        private CachedResource() {
+            // needed for JSON deserialization
+        }
+
+        public <L> CachedResource(Resource<L> resource, LocationResolver<L> locationResolver) {
+            this.id = resource.getID().getIDString();
+            this.name = resource.getName().getNameString();
+            this.typeId = resource.getResourceType().getID().getIDString();
+            this.parentId = (resource.getParent() != null) ? resource.getParent().getID().getIDString() : null;
+            this.location = resource.getLocation().toString();
+            this.locationFlags = new HashMap<>(locationResolver.getLocationFlags(resource.getLocation()));
+            this.properties = stringProperties(resource.getProperties());
+            this.configuration = new HashMap<>();
+            for (ResourceConfigurationPropertyInstance<L> config : resource.getResourceConfigurationProperties()) {
+                this.configuration.put(config.getName().getNameString(), config.getValue());
+            }
+            this.metrics = new ArrayList<>();
+            for (MeasurementInstance<L, MetricType<L>> metric : resource.getMetrics()) {
+                this.metrics.add(new CachedMeasurement(metric));
+            }
+            this.avails = new ArrayList<>();
+            for (MeasurementInstance<L, AvailType<L>> avail : resource.getAvails()) {
+                this.avails.add(new CachedMeasurement(avail));
+            }
+        }
+    }
+
+    private static class CachedMeasurement {
+        private String id;
+        private String typeId;
+        private Map<String, String> properties; // includes the associated metric ID
+
+        @SuppressWarnings("unused")
+        private CachedMeasurement() {
+            // needed for JSON deserialization
+        }
+
+        public CachedMeasurement(MeasurementInstance<?, ?> instance) {
+            this.id = instance.getID().getIDString();
+            this.typeId = instance.getType().getID().getIDString();
+            this.properties = stringProperties(instance.getProperties());
+        }
+    }
+
+    private final String feedId;
+    private final File cacheDir;
+
+    /**
+     * Creates the cache.
+     *
+     * @param feedId the feed whose inventory is being cached - cached inventories of other feeds are ignored
+     * @param cacheDir the directory where the cache files are kept
+     */
+    public InventoryCache(String feedId, File cacheDir) {
+        this.feedId = feedId;
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Loads the resources that were cached for the given endpoint. The resources are not added to the
+     * endpoint's resource manager - see {@link EndpointService#restoreResources(List)}.
+     *
+     * Cached resources whose types (or whose parents) no longer exist are skipped, as are cached measurements
+     * whose types no longer exist.
+     *
+     * @param endpointService the endpoint whose cached resources are to be loaded
+     * @return the cached resources with parents always preceding their children; empty if nothing was cached
+     */
+    public <L> List<Resource<L>> load(EndpointService<L, ?> endpointService) {
+        String endpointName = endpointService.getMonitoredEndpoint().getName();
+        File file = getCacheFile(endpointName);
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+
+        CachedInventory cached;
+        try {
+            cached = Util.fromJson(Util.read(file), CachedInventory.class);
+        } catch (Exception e) {
+            // not fatal - the discovery scan will find everything anyway
+            log.warnf(e, "Failed to load cached inventory from [%s]", file);
+            return Collections.emptyList();
+        }
+
+        if (!feedId.equals(cached.feedId) || !endpointName.equals(cached.endpointName)
+                || cached.resources == null) {
+            log.debugf("Ignoring cached inventory in [%s] - it belongs to feed [%s] endpoint [%s]", file,
+                    cached.feedId, cached.endpointName);
+            return Collections.emptyList();
+        }
+
+        LocationResolver<L> locationResolver = endpointService.getLocationResolver();
+        Map<String, ResourceType<L>> types = new HashMap<>();
+        for (ResourceType<L> type : endpointService.getResourceTypeManager().getResourceTypesBreadthFirst()) {
+            types.put(type.getID().getIDString(), type);
+        }
+
+        Map<String, Resource<L>> restored = new HashMap<>();
+        List<Resource<L>> resources = new ArrayList<>(cached.resources.size());
+        for (CachedResource cachedResource : cached.resources) {
+            try {
+                Resource<L> resource = toResource(cachedResource, types, restored, locationResolver);
+                if (resource != null) {
+                    restored.put(cachedResource.id, resource);
+                    resources.add(resource);
+                }
+            } catch (Exception e) {
+                log.debugf(e, "Skipping cached resource [%s] of endpoint [%s]", cachedResource.id, endpointName);
+            }
+        }
+
+        log.debugf("Loaded [%d] cached resources for endpoint [%s] from [%s]", resources.size(), endpointName, file);
+        return resources;
+    }
+
+    @Override
+    public <L> void resourcesAdded(InventoryEvent<L> event) {
+        // We don't do anything here - the snapshot is written when discovery is completed.
+        return;
+    }
+
+    @Override
+    public <L> void resourcesRemoved(InventoryEvent<L> event) {
+        // We don't do anything here - the snapshot is written when discovery is completed.
+        return;
+    }
+
+    @Override
+    public <L> void discoveryCompleted(DiscoveryEvent<L> event) {
+        if (!(event.getSamplingService() instanceof EndpointService)) {
+            return; // we can only cache what our own endpoint services discover - we could not restore the rest
+        }
+        String endpointName = event.getSamplingService().getMonitoredEndpoint().getName();
+        ResourceManager<L> resourceManager = event.getResourceManager();
+        LocationResolver<L> locationResolver = ((EndpointService<L, ?>) event.getSamplingService())
+                .getLocationResolver();
+
+        List<Resource<L>> resources = resourceManager.getResourcesBreadthFirst();
+        List<CachedResource> cachedResources = new ArrayList<>(resources.size());
+        for (Resource<L> resource : resources) {
+            cachedResources.add(new CachedResource(resource, locationResolver));
+        }
+
+        File file = getCacheFile(endpointName);
+        try {
+            cacheDir.mkdirs();
+            File tmpFile = new File(cacheDir, file.getName() + ".tmp");
+            Util.write(Util.toJson(new CachedInventory(feedId, endpointName, cachedResources)), tmpFile);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            log.debugf("Cached [%d] resources for endpoint [%s] in [%s]", cachedResources.size(), endpointName, file);
+        } catch (Exception e) {
+            log.warnf(e, "Failed to cache inventory of endpoint [%s] in [%s]", endpointName, file);
+        }
+    }
+
+    private static Map<String, String> stringProperties(Map<String, Object> properties) {
+        Map<String, String> strings = new HashMap<>();
+        properties.forEach((name, value) -> {
+            if (value instanceof String) {
+                strings.put(name, (String) value);
+            }
+        });
+        return strings;
+    }
+
+    private File getCacheFile(String endpointName) {
+        return new File(cacheDir, Util.urlEncode(endpointName) + ".json");
+    }
+
+    private static <L> Resource<L> toResource(CachedResource cached, Map<String, ResourceType<L>> types,
+            Map<String, Resource<L>> restored, LocationResolver<L> locationResolver) throws ProtocolException {
+
+        ResourceType<L> type = types.get(cached.typeId);
+        if (type == null) {
+            log.debugf("Skipping cached resource [%s] - its type [%s] no longer exists", cached.id, cached.typeId);
+            return null;
+        }
+
+        Resource<L> parent = null;
+        if (cached.parentId != null) {
+            parent = restored.get(cached.parentId);
+            if (parent == null) {
+                log.debugf("Skipping cached resource [%s] - its parent [%s] was not restored", cached.id,
+                        cached.parentId);
+                return null;
+            }
+        }
+
+        Map<String, Boolean> locationFlags = (cached.locationFlags != null) ? cached.locationFlags
+                : Collections.emptyMap();
+        L location = locationResolver.parseLocation(cached.location, locationFlags);
+
+        Resource.Builder<L> builder = Resource.<L> builder()
+                .id(new ID(cached.id))
+                .name(new Name(cached.name))
+                .location(location)
+                .type(type)
+                .parent(parent);
+
+        if (cached.configuration != null) {
+            for (ResourceConfigurationPropertyType<L> configType : type.getResourceConfigurationPropertyTypes()) {
+                String configName = configType.getName().getNameString();
+                if (cached.configuration.containsKey(configName)) {
+                    builder.resourceConfigurationProperty(new ResourceConfigurationPropertyInstance<>(ID.NULL_ID,
+                            configType.getName(), locationResolver.absolutize(location,
+                                    configType.getAttributeLocation()),
+                            configType, cached.configuration.get(configName)));
+                }
+            }
+        }
+
+        for (MeasurementInstance<L, MetricType<L>> metric : toMeasurements(cached.metrics, type.getMetricTypes(),
+                location, locationResolver)) {
+            builder.metric(metric);
+        }
+        for (MeasurementInstance<L, AvailType<L>> avail : toMeasurements(cached.avails, type.getAvailTypes(),
+                location, locationResolver)) {
+            builder.avail(avail);
+        }
+
+        Resource<L> resource = builder.build();
+        if (cached.properties != null) {
+            cached.properties.forEach(resource::addProperty);
+        }
+        return resource;
+    }
+
+    private static <L, T extends MeasurementType<L>> List<MeasurementInstance<L, T>> toMeasurements(
+            List<CachedMeasurement> cachedMeasurements, Collection<T> measurementTypes, L location,
+            LocationResolver<L> locationResolver) {
+
+        if (cachedMeasurements == null || cachedMeasurements.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, T> typesById = new HashMap<>();
+        for (T measurementType : measurementTypes) {
+            typesById.put(measurementType.getID().getIDString(), measurementType);
+        }
+
+        List<MeasurementInstance<L, T>> measurements = new ArrayList<>(cachedMeasurements.size());
+        for (CachedMeasurement cached : cachedMeasurements) {
+            T measurementType = typesById.get(cached.typeId);
+            if (measurementType != null) {
+                MeasurementInstance<L, T> instance = new MeasurementInstance<>(new ID(cached.id),
+                        measurementType.getName(),
+                        locationResolver.absolutize(location, measurementType.getAttributeLocation()),
+                        measurementType);
+                if (cached.properties != null) {
+                    cached.properties.forEach(instance::addProperty);
+                }
+                measurements.add(instance);
+            }
+        }
+        return measurements;
+    }
+}
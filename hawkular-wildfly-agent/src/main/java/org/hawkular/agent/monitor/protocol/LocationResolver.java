@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,6 +16,9 @@
  */
 package org.hawkular.agent.monitor.protocol;
 
+import java.util.Collections;
+import java.util.Map;
+
 import org.hawkular.agent.monitor.inventory.AttributeLocation;
 import org.hawkular.agent.monitor.inventory.NodeLocation;
 
@@ -28,6 +31,21 @@ import org.hawkular.agent.monitor.inventory.NodeLocation;
  * @param <L> the type of the protocol specific location, typically a subclass of {@link NodeLocation}
  */
 public interface LocationResolver<L> {
+    /**
+     * A resource name template parsed by {@link LocationResolver#compileTemplate(String)}, so that the names of any
+     * number of resources can be generated from it without parsing the template again.
+     *
+     * @param <L> the type of the protocol specific location
+     */
+    interface NameTemplate<L> {
+        /**
+         * @param location the location of the resource
+         * @param endpointName the name of the endpoint the resource is on
+         * @return the name of the resource
+         */
+        String apply(L location, String endpointName);
+    }
+
     /**
      * Given a multi-target location (e.g. a location with a wildcard) and a single location,
      * this returns that portion of the single location that matches the multi-target wildcard.
@@ -81,4 +99,52 @@ public interface LocationResolver<L> {
 
     String applyTemplate(String nameTemplate, L location, String endpointName);
 
+    /**
+     * Parses the given resource name template once for generating the names of many resources. The returned
+     * template generates the same names as {@link #applyTemplate(String, Object, String)} does with
+     * {@code nameTemplate}. This default implementation does not parse anything and just calls
+     * {@link #applyTemplate(String, Object, String)}.
+     *
+     * @param nameTemplate the template of the resource names
+     * @return the parsed template
+     */
+    default NameTemplate<L> compileTemplate(String nameTemplate) {
+        return (location, endpointName) -> applyTemplate(nameTemplate, location, endpointName);
+    }
+
+    /**
+     * Parses the string form of a location (that is, what the location's {@code toString()} returns)
+     * back into a location.
+     *
+     * @param location the string form of a location
+     * @return the parsed location
+     * @throws ProtocolException if the string is not a valid location
+     */
+    L parseLocation(String location) throws ProtocolException;
+
+    /**
+     * Returns the settings of the given location that its string form does not include, so they can be kept
+     * alongside the string form and handed back to {@link #parseLocation(String, Map)}. This default implementation
+     * returns an empty map.
+     *
+     * @param location the location whose settings are to be returned
+     * @return the settings of the location keyed by name
+     */
+    default Map<String, Boolean> getLocationFlags(L location) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Parses the string form of a location together with the settings {@link #getLocationFlags(Object)} returned
+     * for it. This default implementation ignores the settings and calls {@link #parseLocation(String)}.
+     *
+     * @param location the string form of a location
+     * @param flags the settings of the location; settings that are missing get their default values
+     * @return the parsed location
+     * @throws ProtocolException if the string is not a valid location
+     */
+    default L parseLocation(String location, Map<String, Boolean> flags) throws ProtocolException {
+        return parseLocation(location);
+    }
+
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,14 +17,22 @@
 package org.hawkular.agent.monitor.protocol;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hawkular.agent.monitor.api.InventoryListener;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
+import org.hawkular.agent.monitor.inventory.MeasurementType;
 import org.hawkular.agent.monitor.inventory.NodeLocation;
 import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.scheduler.SchedulerService;
@@ -105,6 +113,24 @@ public class ProtocolService<L, S extends Session<L>> {
         }
     }
 
+    /**
+     * Restores the cached resources of all endpoint services. This must be called after {@link #start()}.
+     *
+     * @param inventoryCache where the resources were cached
+     */
+    public void restoreInventory(InventoryCache inventoryCache) {
+        for (EndpointService<L, S> service : getEndpointServices().values()) {
+            try {
+                List<Resource<L>> resources = inventoryCache.load(service);
+                if (!resources.isEmpty()) {
+                    service.restoreResources(resources);
+                }
+            } catch (Exception e) {
+                log.warnf(e, "Failed to restore cached inventory for [%s]", service);
+            }
+        }
+    }
+
     public void stop() {
         for (EndpointService<L, S> service : getEndpointServices().values()) {
             service.stop();
@@ -125,6 +151,69 @@ public class ProtocolService<L, S extends Session<L>> {
         this.inventoryListeners.remove(listener);
     }
 
+    /**
+     * Changes the collection intervals of the given measurement types and reschedules the measurements of all
+     * resources of the affected resource types. Nothing is rediscovered and no service is restarted.
+     * The changed measurement types and the resource types they belong to are flagged as not persisted so the
+     * inventory storage syncs their new intervals with the next discovery.
+     *
+     * @param metricIntervals new intervals keyed on metric type ID
+     * @param availIntervals new intervals keyed on avail type ID
+     * @param scheduler the scheduler that is currently collecting metrics for these services
+     * @return the number of measurement types whose interval changed
+     */
+    public int updateMeasurementIntervals(Map<ID, Interval> metricIntervals, Map<ID, Interval> availIntervals,
+            SchedulerService scheduler) {
+
+        // endpoint services can share measurement types - remember which ones changed across all endpoints
+        Set<MeasurementType<L>> changedTypes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (EndpointService<L, S> service : getEndpointServices().values()) {
+            Set<ResourceType<L>> affectedResourceTypes = new HashSet<>();
+            for (ResourceType<L> resourceType : service.getResourceTypeManager().getResourceTypesBreadthFirst()) {
+                boolean affected = updateIntervals(resourceType.getMetricTypes(), metricIntervals, changedTypes);
+                affected |= updateIntervals(resourceType.getAvailTypes(), availIntervals, changedTypes);
+                if (affected) {
+                    resourceType.setPersisted(false);
+                    affectedResourceTypes.add(resourceType);
+                }
+            }
+
+            if (!affectedResourceTypes.isEmpty()) {
+                List<Resource<L>> affectedResources = new ArrayList<>();
+                for (Resource<L> resource : service.getResourceManager().getResourcesBreadthFirst()) {
+                    if (affectedResourceTypes.contains(resource.getResourceType())) {
+                        affectedResources.add(resource);
+                    }
+                }
+                if (!affectedResources.isEmpty()) {
+                    scheduler.reschedule(service, affectedResources);
+                }
+            }
+        }
+
+        return changedTypes.size();
+    }
+
+    private static <L, T extends MeasurementType<L>> boolean updateIntervals(Collection<T> types,
+            Map<ID, Interval> intervals, Set<MeasurementType<L>> changedTypes) {
+        boolean affected = false;
+        if (intervals != null) {
+            for (T type : types) {
+                Interval newInterval = intervals.get(type.getID());
+                if (newInterval != null && !newInterval.equals(type.getInterval())) {
+                    log.debugf("Collection interval of [%s] changed from [%s] to [%s]", type.getID(),
+                            type.getInterval(), newInterval);
+                    type.setInterval(newInterval);
+                    type.setPersisted(false);
+                    changedTypes.add(type);
+                }
+                affected |= changedTypes.contains(type);
+            }
+        }
+        return affected;
+    }
+
     /**
      * This will add a new endpoint service to the list. Once added, the new service
      * will immediately be started.
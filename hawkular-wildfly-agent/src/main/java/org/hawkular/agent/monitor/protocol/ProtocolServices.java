@@ -69,6 +69,7 @@ public class ProtocolServices {
         private final Map<String, InjectedValue<SSLContext>> sslContexts;
         private final Diagnostics diagnostics;
         private int autoDiscoveryScanPeriodSecs;
+        private InventoryCache inventoryCache;
 
         public Builder(String feedId, Map<String, InjectedValue<SSLContext>> sslContexts, Diagnostics diagnostics) {
             this.feedId = feedId;
@@ -79,7 +80,7 @@ public class ProtocolServices {
 
         public ProtocolServices build() {
             return new ProtocolServices(dmrProtocolService, jmxProtocolService, platformProtocolService,
-                    autoDiscoveryScanPeriodSecs);
+                    autoDiscoveryScanPeriodSecs, inventoryCache);
         }
 
         public Builder autoDiscoveryScanPeriodSecs(int periodSecs) {
@@ -87,6 +88,15 @@ public class ProtocolServices {
             return this;
         }
 
+        /**
+         * @param inventoryCache if not null, resources cached here are restored when the services start
+         * @return this builder
+         */
+        public Builder inventoryCache(InventoryCache inventoryCache) {
+            this.inventoryCache = inventoryCache;
+            return this;
+        }
+
         public Builder dmrProtocolService(
                 ModelControllerClientFactory localModelControllerClientFactory, // may be null; only needed for local
                 ProtocolConfiguration<DMRNodeLocation> protocolConfig) {
@@ -213,17 +223,22 @@ public class ProtocolServices {
     private final int autoDiscoveryScanPeriodSecs;
     private ScheduledExecutorService autoDiscoveryExecutor = null;
 
+    // if not null, previously discovered resources are restored from here on startup
+    private final InventoryCache inventoryCache;
+
     public ProtocolServices(
             ProtocolService<DMRNodeLocation, DMRSession> dmrProtocolService,
             ProtocolService<JMXNodeLocation, JMXSession> jmxProtocolService,
             ProtocolService<PlatformNodeLocation, PlatformSession> platformProtocolService,
-            int autoDiscoveryScanPeriodSecs) {
+            int autoDiscoveryScanPeriodSecs,
+            InventoryCache inventoryCache) {
         this.dmrProtocolService = dmrProtocolService;
         this.jmxProtocolService = jmxProtocolService;
         this.platformProtocolService = platformProtocolService;
         this.services = Collections.unmodifiableList(Arrays.asList(dmrProtocolService, jmxProtocolService,
                 platformProtocolService));
         this.autoDiscoveryScanPeriodSecs = autoDiscoveryScanPeriodSecs;
+        this.inventoryCache = inventoryCache;
     }
 
     public void start() {
@@ -231,6 +246,13 @@ public class ProtocolServices {
             service.start();
         }
 
+        // restore what we knew from the last time so we can start monitoring before the initial discovery finishes
+        if (inventoryCache != null) {
+            for (ProtocolService<?, ?> service : services) {
+                service.restoreInventory(inventoryCache);
+            }
+        }
+
         startAutoDiscovery();
     }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -21,6 +21,7 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -37,7 +38,7 @@ import org.hawkular.agent.monitor.protocol.Driver;
 import org.hawkular.agent.monitor.protocol.ProtocolException;
 import org.hawkular.dmr.api.OperationBuilder;
 import org.hawkular.dmr.api.OperationBuilder.OperationResult;
-import org.hawkular.dmr.api.OperationBuilder.ReadAttributeOperationBuilder;
+import org.hawkular.dmr.api.OperationBuilder.OperationTemplate;
 import org.hawkular.dmr.api.OperationBuilder.ReadResourceOperationBuilder;
 import org.hawkular.dmrclient.JBossASClient;
 import org.jboss.as.controller.PathAddress;
@@ -109,16 +110,103 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
         }
     }
 
+    /**
+     * The read-attribute operation of an {@link AttributeLocation}, built once and reused every time the attribute
+     * is fetched. An attribute named {@code name#subName} reads {@code name} and then takes {@code subName} out of
+     * its value.
+     */
+    static final class AttributeRead {
+        private final OperationTemplate<OperationResult<?>> template;
+        private final String attribute;
+        private final String subAttribute;
+
+        AttributeRead(AttributeLocation<DMRNodeLocation> location) {
+            String[] names = location.getAttribute().split("#");
+            this.attribute = names[0];
+            this.subAttribute = (names.length > 1) ? names[1] : null;
+            this.template = OperationBuilder
+                    .readAttribute()
+                    .address(location.getLocation().getPathAddress())
+                    .resolveExpressions(location.getLocation().getResolveExpressions())
+                    .includeDefaults(location.getLocation().getIncludeDefaults())
+                    .name(this.attribute)
+                    .template();
+        }
+    }
+
+    /**
+     * What an {@link AttributeRead} is cached by. {@link DMRNodeLocation}s are equal regardless of their
+     * resolve-expressions and include-defaults flags, but the reads built from them differ in those flags.
+     */
+    static final class AttributeReadKey {
+        private final AttributeLocation<DMRNodeLocation> location;
+        private final boolean resolveExpressions;
+        private final boolean includeDefaults;
+
+        AttributeReadKey(AttributeLocation<DMRNodeLocation> location) {
+            this.location = location;
+            this.resolveExpressions = location.getLocation().getResolveExpressions();
+            this.includeDefaults = location.getLocation().getIncludeDefaults();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * location.hashCode() + (resolveExpressions ? 2 : 0) + (includeDefaults ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof AttributeReadKey)) {
+                return false;
+            }
+            AttributeReadKey other = (AttributeReadKey) obj;
+            return resolveExpressions == other.resolveExpressions && includeDefaults == other.includeDefaults
+                    && location.equals(other.location);
+        }
+    }
+
+    /** The most reads that are cached - the least recently used ones are evicted, e.g. reads of gone resources. */
+    static final int MAX_CACHED_ATTRIBUTE_READS = 10000;
+
+    /**
+     * @return a new cache of attribute reads that holds up to {@link #MAX_CACHED_ATTRIBUTE_READS} reads
+     */
+    static Map<AttributeReadKey, AttributeRead> newAttributeReadCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<AttributeReadKey, AttributeRead>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AttributeReadKey, AttributeRead> eldest) {
+                return size() > MAX_CACHED_ATTRIBUTE_READS;
+            }
+        });
+    }
+
     private final ModelControllerClient client;
     private final MonitoredEndpoint<EndpointConfiguration> endpoint;
     private final ProtocolDiagnostics diagnostics;
+    private final Map<AttributeReadKey, AttributeRead> attributeReads;
 
     public DMRDriver(ModelControllerClient client, MonitoredEndpoint<EndpointConfiguration> endpoint,
             ProtocolDiagnostics diagnostics) {
+        this(client, endpoint, diagnostics, newAttributeReadCache());
+    }
+
+    /**
+     * @param attributeReads the cache of attribute reads (see {@link #newAttributeReadCache()}); it can be shared by
+     *        the drivers of the same endpoint so that a read is built once for the endpoint rather than once per
+     *        session
+     */
+    DMRDriver(ModelControllerClient client, MonitoredEndpoint<EndpointConfiguration> endpoint,
+            ProtocolDiagnostics diagnostics, Map<AttributeReadKey, AttributeRead> attributeReads) {
         super();
         this.client = client;
         this.endpoint = endpoint;
         this.diagnostics = diagnostics;
+        this.attributeReads = attributeReads;
     }
 
     @Override
@@ -131,19 +219,14 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
 
     @Override
     public Object fetchAttribute(AttributeLocation<DMRNodeLocation> location) throws ProtocolException {
-        String[] attribute = location.getAttribute().split("#");
-        String useAttribute = attribute[0];
-        ReadAttributeOperationBuilder<?> opBuilder = OperationBuilder
-                .readAttribute()
-                .address(location.getLocation().getPathAddress())
-                .resolveExpressions(location.getLocation().getResolveExpressions())
-                .includeDefaults(location.getLocation().getIncludeDefaults())
-                .name(useAttribute);
+        AttributeRead read = attributeReads.computeIfAbsent(new AttributeReadKey(location),
+                key -> new AttributeRead(key.location));
+        String useAttribute = read.attribute;
 
         // time the execute separately - we want to time ONLY the execute call
         OperationResult<?> opResult;
         try (Context timerContext = diagnostics.getRequestTimer().time()) {
-            opResult = opBuilder.execute(client);
+            opResult = read.template.execute(client);
         } catch (Exception e) {
             diagnostics.getErrorRate().mark(1);
             throw new ProtocolException("Error fetching DMR attribute [" + useAttribute + "]", e);
@@ -158,8 +241,8 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
             throw new ProtocolException("Unsuccessful fetching DMR attribute [" + useAttribute + "]", e);
         }
 
-        if (attribute.length > 1 && value != null && value.isDefined()) {
-            useAttribute = attribute[1];
+        if (read.subAttribute != null && value != null && value.isDefined()) {
+            useAttribute = read.subAttribute;
             value = value.get(useAttribute);
         }
 
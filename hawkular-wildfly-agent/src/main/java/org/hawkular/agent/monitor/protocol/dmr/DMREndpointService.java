@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,6 +17,7 @@
 package org.hawkular.agent.monitor.protocol.dmr;
 
 import java.io.IOException;
+import java.util.Map;
 
 import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.EndpointConfiguration;
@@ -88,6 +89,8 @@ public class DMREndpointService
         }
     }
     private final ModelControllerClientFactory modelControllerClientFactory;
+    private final Map<DMRDriver.AttributeReadKey, DMRDriver.AttributeRead> attributeReads =
+            DMRDriver.newAttributeReadCache();
 
     public DMREndpointService(String feedId, MonitoredEndpoint<EndpointConfiguration> endpoint,
             ResourceTypeManager<DMRNodeLocation> resourceTypeManager,
@@ -99,7 +102,8 @@ public class DMREndpointService
     @Override
     public DMRSession openSession() {
         ModelControllerClient client = modelControllerClientFactory.createClient();
-        Driver<DMRNodeLocation> driver = new DMRDriver(client, getMonitoredEndpoint(), getDiagnostics());
+        Driver<DMRNodeLocation> driver = new DMRDriver(client, getMonitoredEndpoint(), getDiagnostics(),
+                attributeReads);
         return new DMRSession(getFeedId(), getMonitoredEndpoint(), getResourceTypeManager(), driver,
                 getLocationResolver(), client);
     }
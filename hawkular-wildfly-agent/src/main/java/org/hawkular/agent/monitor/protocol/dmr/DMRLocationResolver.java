@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,25 +17,118 @@
 package org.hawkular.agent.monitor.protocol.dmr;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hawkular.agent.monitor.protocol.LocationResolver;
 import org.hawkular.agent.monitor.protocol.ProtocolException;
 import org.jboss.as.controller.PathAddress;
 import org.jboss.as.controller.PathElement;
-import org.jboss.dmr.ModelNode;
-import org.jboss.dmr.Property;
 
 /**
  * @author <a href="https://github.com/ppalaga">Peter Palaga</a>
  * @see LocationResolver
  */
 public class DMRLocationResolver implements LocationResolver<DMRNodeLocation> {
-    private static boolean matches(int length, PathAddress pattern, PathAddress address) {
-        for (int i = 0; i < length; i++) {
-            PathElement otherElem = address.getElement(i);
-            Property prop = new Property(otherElem.getKey(), new ModelNode(otherElem.getValue()));
-            if (!pattern.getElement(i).matches(prop)) {
+    private static final String MANAGED_SERVER_NAME = "ManagedServerName";
+    private static final String RESOLVE_EXPRESSIONS = "resolve-expressions";
+    private static final String INCLUDE_DEFAULTS = "include-defaults";
+
+    /**
+     * A name template that was split into literal text and references to address parts or to the endpoint name.
+     */
+    private static final class CompiledNameTemplate implements NameTemplate<DMRNodeLocation> {
+        static final int LAST_PART = 0;
+        static final int ENDPOINT_NAME = -1;
+
+        private final String nameTemplate;
+        /** There is one more literal than parts: the parts go between the literals. */
+        private final String[] literals;
+        /** A part is the index of an address part (starting with 1), {@link #LAST_PART} or {@link #ENDPOINT_NAME}. */
+        private final int[] parts;
+        private final int literalsLength;
+
+        CompiledNameTemplate(String nameTemplate, List<String> literals, List<Integer> parts) {
+            this.nameTemplate = nameTemplate;
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.parts = new int[parts.size()];
+            for (int i = 0; i < this.parts.length; i++) {
+                this.parts[i] = parts.get(i);
+            }
+            int length = 0;
+            for (String literal : this.literals) {
+                length += literal.length();
+            }
+            this.literalsLength = length;
+        }
+
+        @Override
+        public String apply(DMRNodeLocation location, String endpointName) {
+            String[] segments = location.getSegments();
+            StringBuilder name = new StringBuilder(literalsLength + 16 * parts.length);
+            name.append(literals[0]);
+            for (int i = 0; i < parts.length; i++) {
+                int part = parts[i];
+                if (part == ENDPOINT_NAME) {
+                    name.append(endpointName);
+                } else {
+                    int index = (part == LAST_PART) ? segments.length : part;
+                    if (index < 1 || index > segments.length) {
+                        // let String.format report the missing address part
+                        return new FormattedNameTemplate(nameTemplate).apply(location, endpointName);
+                    }
+                    name.append(segments[index - 1]);
+                }
+                name.append(literals[i + 1]);
+            }
+            return name.toString();
+        }
+    }
+
+    /**
+     * A name template passed to {@link String#format(String, Object...)} with the address parts as arguments.
+     */
+    private static final class FormattedNameTemplate implements NameTemplate<DMRNodeLocation> {
+        private final String nameTemplate;
+
+        FormattedNameTemplate(String nameTemplate) {
+            this.nameTemplate = nameTemplate;
+        }
+
+        @Override
+        public String apply(DMRNodeLocation location, String endpointName) {
+            String nameTemplate = this.nameTemplate;
+            ArrayList<String> args = new ArrayList<>();
+            for (PathElement segment : location.getPathAddress()) {
+                args.add(segment.getKey());
+                args.add(segment.getValue());
+            }
+
+            // String.format() requires "$s" after the "%#" to denote the type of value is a string (all our address
+            // parts are strings, so we know "$s" is what we want).
+            // This replaceAll just replaces all occurrances of "%#" with "%#$s" so String.format will work.
+            nameTemplate = nameTemplate.replaceAll("%(\\d+)", "%$1\\$s");
+            nameTemplate = nameTemplate.replaceAll("%(-)", "%" + args.size() + "\\$s");
+            nameTemplate = nameTemplate.replaceAll("%" + MANAGED_SERVER_NAME, endpointName);
+            return String.format(nameTemplate, args.toArray());
+        }
+    }
+
+    /**
+     * The same as {@link PathElement#matches(org.jboss.dmr.Property)} applied to the first {@code length} elements
+     * of the given locations, but without creating any objects. The segments of a {@link DMRNodeLocation} are
+     * interned, so equal keys and values are the same objects and can be compared by identity.
+     */
+    private static boolean matches(int length, DMRNodeLocation pattern, DMRNodeLocation location) {
+        String[] patternSegments = pattern.getSegments();
+        String[] segments = location.getSegments();
+        for (int i = 0; i < length * 2; i += 2) {
+            if (patternSegments[i] != segments[i]) {
+                return false;
+            }
+            String value = patternSegments[i + 1];
+            if (value != PathElement.WILDCARD_VALUE && value != segments[i + 1]) {
                 return false;
             }
         }
@@ -127,7 +220,7 @@ public class DMRLocationResolver implements LocationResolver<DMRNodeLocation> {
         PathAddress childPath = child.getPathAddress();
         int parentLength = parentPath.size();
         if (parentLength < childPath.size()) {
-            return matches(parentLength, parentPath, childPath);
+            return matches(parentLength, parent, child);
         } else {
             return false;
         }
@@ -144,7 +237,7 @@ public class DMRLocationResolver implements LocationResolver<DMRNodeLocation> {
 
         int queryLength = queryPath.size();
         if (queryLength == path.size()) {
-            return matches(queryLength, queryPath, path);
+            return matches(queryLength, query, location);
         } else {
             return false;
         }
@@ -152,26 +245,86 @@ public class DMRLocationResolver implements LocationResolver<DMRNodeLocation> {
 
     @Override
     public String applyTemplate(String nameTemplate, DMRNodeLocation location, String endpointName) {
+        return compileTemplate(nameTemplate).apply(location, endpointName);
+    }
 
-        ArrayList<String> args = new ArrayList<>();
-        for (PathElement segment : location.getPathAddress()) {
-            args.add(segment.getKey());
-            args.add(segment.getValue());
-        }
-
-        // The name template can have %# where # is the index number of the address part that should be substituted.
-        // For example, suppose a resource has an address of "/hello=world/foo=bar" and the template is "Name [%2]".
-        // The %2 will get substituted with the second address part (which is "world" - indices start at 1).
-        // String.format() requires "$s" after the "%#" to denote the type of value is a string (all our address
-        // parts are strings, so we know "$s" is what we want).
-        // This replaceAll just replaces all occurrances of "%#" with "%#$s" so String.format will work.
-        // We also allow for the special %- notation to mean "the last address part" since that's usually the one we
-        // want and sometimes you can't know its positional value.
-        // We also support %ManagedServerName which can help distinguish similar resources running in different servers.
-        nameTemplate = nameTemplate.replaceAll("%(\\d+)", "%$1\\$s");
-        nameTemplate = nameTemplate.replaceAll("%(-)", "%" + args.size() + "\\$s");
-        nameTemplate = nameTemplate.replaceAll("%ManagedServerName", endpointName);
-        String nameStr = String.format(nameTemplate, args.toArray());
-        return nameStr;
+    /**
+     * The name template can have %# where # is the index number of the address part that should be substituted.
+     * For example, suppose a resource has an address of "/hello=world/foo=bar" and the template is "Name [%2]".
+     * The %2 will get substituted with the second address part (which is "world" - indices start at 1).
+     * We also allow for the special %- notation to mean "the last address part" since that's usually the one we
+     * want and sometimes you can't know its positional value.
+     * We also support %ManagedServerName which can help distinguish similar resources running in different servers.
+     * <p>
+     * Other than these, templates can have anything {@link String#format(String, Object...)} accepts, with the
+     * address parts as the arguments; such templates are not parsed but formatted every time.
+     */
+    @Override
+    public NameTemplate<DMRNodeLocation> compileTemplate(String nameTemplate) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int length = nameTemplate.length();
+        int i = 0;
+        while (i < length) {
+            char c = nameTemplate.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            int part;
+            if (i < length && nameTemplate.charAt(i) >= '1' && nameTemplate.charAt(i) <= '9') {
+                int end = i;
+                while (end < length && nameTemplate.charAt(end) >= '0' && nameTemplate.charAt(end) <= '9') {
+                    end++;
+                }
+                if (end - i > 9) {
+                    return new FormattedNameTemplate(nameTemplate);
+                }
+                part = Integer.parseInt(nameTemplate.substring(i, end));
+                i = end;
+            } else if (i < length && nameTemplate.charAt(i) == '-') {
+                part = CompiledNameTemplate.LAST_PART;
+                i++;
+            } else if (nameTemplate.startsWith(MANAGED_SERVER_NAME, i)) {
+                part = CompiledNameTemplate.ENDPOINT_NAME;
+                i += MANAGED_SERVER_NAME.length();
+            } else {
+                return new FormattedNameTemplate(nameTemplate);
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            parts.add(part);
+        }
+        literals.add(literal.toString());
+        return new CompiledNameTemplate(nameTemplate, literals, parts);
+    }
+
+    @Override
+    public DMRNodeLocation parseLocation(String location) throws ProtocolException {
+        try {
+            return DMRNodeLocation.of(location);
+        } catch (Exception e) {
+            throw new ProtocolException("Invalid DMR location: " + location, e);
+        }
+    }
+
+    @Override
+    public Map<String, Boolean> getLocationFlags(DMRNodeLocation location) {
+        Map<String, Boolean> flags = new HashMap<>(4);
+        flags.put(RESOLVE_EXPRESSIONS, location.getResolveExpressions());
+        flags.put(INCLUDE_DEFAULTS, location.getIncludeDefaults());
+        return flags;
+    }
+
+    @Override
+    public DMRNodeLocation parseLocation(String location, Map<String, Boolean> flags) throws ProtocolException {
+        boolean resolveExpressions = flags.getOrDefault(RESOLVE_EXPRESSIONS, Boolean.TRUE);
+        boolean includeDefaults = flags.getOrDefault(INCLUDE_DEFAULTS, Boolean.TRUE);
+        try {
+            return DMRNodeLocation.of(location, resolveExpressions, includeDefaults);
+        } catch (Exception e) {
+            throw new ProtocolException("Invalid DMR location: " + location, e);
+        }
     }
 }
@@ -19,6 +19,7 @@ package org.hawkular.agent.monitor.protocol.dmr;
 import org.hawkular.agent.monitor.inventory.NodeLocation;
 import org.hawkular.agent.monitor.util.WildflyCompatibilityUtils;
 import org.jboss.as.controller.PathAddress;
+import org.jboss.as.controller.PathElement;
 import org.jboss.dmr.ModelNode;
 
 /**
@@ -52,6 +53,8 @@ public class DMRNodeLocation implements NodeLocation {
     }
 
     private final PathAddress pathAddress;
+    /** The keys and values of {@link #pathAddress} in turns, interned so that they can be compared by identity. */
+    private final String[] segments;
     private final boolean resolveExpressions;
     private final boolean includeDefaults;
 
@@ -66,6 +69,12 @@ public class DMRNodeLocation implements NodeLocation {
                     "Cannot create a new [" + getClass().getName() + "] with a null pathAddress");
         }
         this.pathAddress = pathAddress;
+        this.segments = new String[pathAddress.size() * 2];
+        int i = 0;
+        for (PathElement element : pathAddress) {
+            segments[i++] = element.getKey().intern();
+            segments[i++] = element.getValue().intern();
+        }
         this.resolveExpressions = resolveExpressions;
         this.includeDefaults = includeDefaults;
     }
@@ -94,6 +103,13 @@ public class DMRNodeLocation implements NodeLocation {
         return pathAddress;
     }
 
+    /**
+     * @return the keys and values of {@link #getPathAddress()} in turns, interned; the array must not be modified
+     */
+    String[] getSegments() {
+        return segments;
+    }
+
     @Override
     public int hashCode() {
         return pathAddress.hashCode();
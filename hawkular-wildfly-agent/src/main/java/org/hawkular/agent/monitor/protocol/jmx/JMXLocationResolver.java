@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,8 +16,11 @@
  */
 package org.hawkular.agent.monitor.protocol.jmx;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 
 import org.hawkular.agent.monitor.protocol.LocationResolver;
@@ -28,6 +31,84 @@ import org.hawkular.agent.monitor.protocol.ProtocolException;
  * @see LocationResolver
  */
 public class JMXLocationResolver implements LocationResolver<JMXNodeLocation> {
+    private static final String MANAGED_SERVER_NAME = "_ManagedServerName";
+
+    /**
+     * A name template that was split into literal text and %X% tokens.
+     * <p>
+     * The names it generates are the same as the ones of {@link ReplacedNameTemplate}, which replaces the tokens one
+     * key after the other, as long as the order of the replacements cannot matter. When it can (a token is not a key,
+     * the text between two tokens is a key, a value has a '%' in it, ...) the name is generated by a
+     * {@link ReplacedNameTemplate}. Keys with a '%' in them are not supported.
+     */
+    private static final class CompiledNameTemplate implements NameTemplate<JMXNodeLocation> {
+        private final String nameTemplate;
+        /** There is one more literal than keys: the keys go between the literals. */
+        private final String[] literals;
+        private final String[] keys;
+
+        CompiledNameTemplate(String nameTemplate, List<String> literals, List<String> keys) {
+            this.nameTemplate = nameTemplate;
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.keys = keys.toArray(new String[keys.size()]);
+        }
+
+        @Override
+        public String apply(JMXNodeLocation location, String endpointName) {
+            ObjectName objectName = location.getObjectName();
+            StringBuilder name = new StringBuilder(nameTemplate.length() + 16 * keys.length);
+            name.append(literals[0]);
+            for (int i = 0; i < keys.length; i++) {
+                String value = MANAGED_SERVER_NAME.equals(keys[i]) ? endpointName
+                        : objectName.getKeyProperty(keys[i]);
+                if (value == null || value.indexOf('%') != -1 || (i > 0 && isToken(objectName, literals[i]))) {
+                    return new ReplacedNameTemplate(nameTemplate).apply(location, endpointName);
+                }
+                name.append(value).append(literals[i + 1]);
+            }
+            return name.toString();
+        }
+
+        /**
+         * @return true if the given text between two tokens would be a token too when enclosed in their '%'s
+         */
+        private static boolean isToken(ObjectName objectName, String literal) {
+            return MANAGED_SERVER_NAME.equals(literal) || objectName.getKeyProperty(literal) != null;
+        }
+    }
+
+    /**
+     * The name template with its tokens replaced one after the other.
+     */
+    private static final class ReplacedNameTemplate implements NameTemplate<JMXNodeLocation> {
+        private final String nameTemplate;
+
+        ReplacedNameTemplate(String nameTemplate) {
+            this.nameTemplate = nameTemplate;
+        }
+
+        @Override
+        public String apply(JMXNodeLocation location, String endpointName) {
+            // The name template can have %X% where X is a key in the object name.
+            // This will be substituted with the value of that key in the resource name.
+            // For example, suppose a resource has an object name of "domain:abc=xyz" and the template is
+            // "Name [%abc%]". The %abc% will get substituted with the value of that "abc" key from the object name
+            // (in this case, the value is "xyz") so the resource name would be generated as "Name [xyz]".
+            // Also supported is the substitution key "%_ManagedServerName%" which can help distinguish similar
+            // resources running in different servers.
+            String nameTemplate = this.nameTemplate.replace("%" + MANAGED_SERVER_NAME + "%", endpointName);
+            for (Map.Entry<String, String> entry : location.getObjectName().getKeyPropertyList().entrySet()) {
+                if (nameTemplate.indexOf("%") == -1) {
+                    break; // no sense continuing if the nameTemplate doesn't have any tokens left
+                }
+                String key = entry.getKey();
+                String value = entry.getValue();
+                nameTemplate = nameTemplate.replace("%" + key + "%", value);
+            }
+            return nameTemplate;
+        }
+    }
+
 
     @Override
     public String findWildcardMatch(JMXNodeLocation multiTargetLocation, JMXNodeLocation singleLocation)
@@ -112,23 +193,38 @@ public class JMXLocationResolver implements LocationResolver<JMXNodeLocation> {
 
     @Override
     public String applyTemplate(String nameTemplate, JMXNodeLocation location, String endpointName) {
-        // The name template can have %X% where X is a key in the object name.
-        // This will be substituted with the value of that key in the resource name.
-        // For example, suppose a resource has an object name of "domain:abc=xyz" and the template is "Name [%abc%]".
-        // The %abc% will get substituted with the value of that "abc" key from the object name
-        // (in this case, the value is "xyz") so the resource name would be generated as "Name [xyz]".
-        // Also supported is the substitution key "%_ManagedServerName%" which can help distinguish similar
-        // resources running in different servers.
-        nameTemplate = nameTemplate.replace("%_ManagedServerName%", endpointName);
-        for (Map.Entry<String, String> entry : location.getObjectName().getKeyPropertyList().entrySet()) {
-            if (nameTemplate.indexOf("%") == -1) {
-                break; // no sense continuing if the nameTemplate doesn't have any tokens left
+        return compileTemplate(nameTemplate).apply(location, endpointName);
+    }
+
+    @Override
+    public NameTemplate<JMXNodeLocation> compileTemplate(String nameTemplate) {
+        List<String> literals = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = nameTemplate.indexOf('%', start)) != -1) {
+            int close = nameTemplate.indexOf('%', open + 1);
+            if (close == -1) {
+                // a '%' that does not start a token could still end one
+                return new ReplacedNameTemplate(nameTemplate);
+            } else if (close == open + 1) {
+                return new ReplacedNameTemplate(nameTemplate);
             }
-            String key = entry.getKey();
-            String value = entry.getValue();
-            nameTemplate = nameTemplate.replace("%" + key + "%", value);
+            literals.add(nameTemplate.substring(start, open));
+            keys.add(nameTemplate.substring(open + 1, close));
+            start = close + 1;
+        }
+        literals.add(nameTemplate.substring(start));
+        return new CompiledNameTemplate(nameTemplate, literals, keys);
+    }
+
+    @Override
+    public JMXNodeLocation parseLocation(String location) throws ProtocolException {
+        try {
+            return new JMXNodeLocation(location);
+        } catch (MalformedObjectNameException e) {
+            throw new ProtocolException("Invalid JMX location: " + location, e);
         }
-        return nameTemplate;
     }
 
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,10 +16,12 @@
  */
 package org.hawkular.agent.monitor.protocol.platform;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.hawkular.agent.monitor.protocol.LocationResolver;
 import org.hawkular.agent.monitor.protocol.ProtocolException;
+import org.hawkular.agent.monitor.protocol.platform.Constants.PlatformResourceType;
 import org.hawkular.agent.monitor.protocol.platform.PlatformPath.PathSegment;
 
 /**
@@ -97,7 +99,95 @@ public class PlatformLocationResolver implements LocationResolver<PlatformNodeLo
 
     @Override
     public String applyTemplate(String nameTemplate, PlatformNodeLocation location, String endpointName) {
-        String name = location.getPlatformPath().getLastSegment().getName();
-        return String.format(nameTemplate, name);
+        return compileTemplate(nameTemplate).apply(location, endpointName);
+    }
+
+    /**
+     * The name template is a {@link String#format(String, Object...)} format with the name of the resource as the
+     * argument. Templates that refer to the name with just %s or %1$s are parsed; others are formatted every time.
+     */
+    @Override
+    public NameTemplate<PlatformNodeLocation> compileTemplate(String nameTemplate) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean ordinaryName = false;
+        int i = 0;
+        while (i < nameTemplate.length()) {
+            char c = nameTemplate.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+            } else if (nameTemplate.startsWith("%", i)) {
+                literal.append('%');
+                i++;
+            } else if (nameTemplate.startsWith("s", i) && !ordinaryName) {
+                // only the first %s refers to the name, a second one would be a missing argument
+                ordinaryName = true;
+                literals.add(literal.toString());
+                literal.setLength(0);
+                i++;
+            } else if (nameTemplate.startsWith("1$s", i)) {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                i += 3;
+            } else {
+                return (location, endpointName) -> String.format(nameTemplate, getName(location));
+            }
+        }
+        literals.add(literal.toString());
+        String[] parts = literals.toArray(new String[literals.size()]);
+        return (location, endpointName) -> {
+            String name = getName(location);
+            StringBuilder result = new StringBuilder(nameTemplate.length() + 16);
+            result.append(parts[0]);
+            for (int part = 1; part < parts.length; part++) {
+                result.append(name).append(parts[part]);
+            }
+            return result.toString();
+        };
+    }
+
+    /**
+     * Parses what {@link PlatformPath#toString()} returns, that is {@code /TYPE=name} for each segment. Because
+     * names (such as those of file stores) may contain slashes, a segment only ends where the next
+     * {@code /TYPE=} of a known {@link PlatformResourceType} begins.
+     */
+    @Override
+    public PlatformNodeLocation parseLocation(String location) throws ProtocolException {
+        PlatformPath.Builder builder = PlatformPath.builder();
+        int start = 0;
+        while (start < location.length()) {
+            PlatformResourceType type = typeAt(location, start);
+            if (type == null) {
+                throw new ProtocolException("Invalid platform location: " + location);
+            }
+            int nameStart = start + type.name().length() + 2;
+            int nameEnd = nameStart;
+            while (nameEnd < location.length() && typeAt(location, nameEnd) == null) {
+                nameEnd = location.indexOf('/', nameEnd + 1);
+                if (nameEnd < 0) {
+                    nameEnd = location.length();
+                }
+            }
+            builder.segment(type, location.substring(nameStart, nameEnd));
+            start = nameEnd;
+        }
+        return new PlatformNodeLocation(builder.build());
+    }
+
+    private static PlatformResourceType typeAt(String location, int index) {
+        if (location.charAt(index) != '/') {
+            return null;
+        }
+        for (PlatformResourceType type : PlatformResourceType.values()) {
+            String name = type.name();
+            if (location.startsWith(name, index + 1) && location.startsWith("=", index + 1 + name.length())) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static String getName(PlatformNodeLocation location) {
+        return location.getPlatformPath().getLastSegment().getName();
     }
 }
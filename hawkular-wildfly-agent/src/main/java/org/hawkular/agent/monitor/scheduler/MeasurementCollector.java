@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,6 +17,7 @@
 package org.hawkular.agent.monitor.scheduler;
 
 import org.hawkular.agent.monitor.api.SamplingService;
+import org.hawkular.agent.monitor.diagnostics.CollectionDiagnostics;
 import org.hawkular.agent.monitor.inventory.MeasurementType;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
@@ -36,6 +37,7 @@ public abstract class MeasurementCollector<L, T extends MeasurementType<L>, D ex
     private final SamplingService<L> endpointService;
     private final ScheduledCollectionsQueue<L, T> queue;
     private final Consumer<D> completionHandler;
+    private final CollectionDiagnostics collectionDiagnostics;
 
     /**
      * Creates a job that is used to collect measurements provided by the priority queue
@@ -46,13 +48,16 @@ public abstract class MeasurementCollector<L, T extends MeasurementType<L>, D ex
      * @param endpointService where the resource is whose data is to be collected
      * @param queue the queue that determines what is scheduled next for collection
      * @param completionHandler when the data are found (or if an error occurs) this object is notified
+     * @param collectionDiagnostics where the job reports how long its collections take and how late they start
      */
     public MeasurementCollector(SamplingService<L> endpointService,
             ScheduledCollectionsQueue<L, T> queue,
-            Consumer<D> completionHandler) {
+            Consumer<D> completionHandler,
+            CollectionDiagnostics collectionDiagnostics) {
         this.endpointService = endpointService;
         this.queue = queue;
         this.completionHandler = completionHandler;
+        this.collectionDiagnostics = collectionDiagnostics;
     }
 
     protected SamplingService<L> getEndpointService() {
@@ -66,4 +71,8 @@ public abstract class MeasurementCollector<L, T extends MeasurementType<L>, D ex
     protected Consumer<D> getCompletionHandler() {
         return completionHandler;
     }
+
+    protected CollectionDiagnostics getCollectionDiagnostics() {
+        return collectionDiagnostics;
+    }
 }
\ No newline at end of file
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -27,6 +27,8 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.hawkular.agent.monitor.api.SamplingService;
+import org.hawkular.agent.monitor.diagnostics.CollectionDiagnostics;
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
 import org.hawkular.agent.monitor.inventory.AvailType;
 import org.hawkular.agent.monitor.inventory.MeasurementType;
 import org.hawkular.agent.monitor.inventory.MetricType;
@@ -42,7 +44,7 @@ import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 
 /**
  * A scheduler that can be used to collect metrics or availability. To create a scheduler,
- * use one of {@link #forMetrics(String, int, Consumer)} or {@link #forAvails(String, int, Consumer)}.
+ * use one of {@link #forMetrics(String, Diagnostics, Consumer)} or {@link #forAvails(String, Diagnostics, Consumer)}.
  *
  * @param <T> the sublclass of {@link MeasurementType} to handle (such as metric types or avail types)
  * @param <D> the {@link DataPoint} type (such as metric data or avail data)
@@ -55,22 +57,25 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
      * Static method that builds a scheduler for metric collection.
      *
      * @param name the name of the scheduler (used for things like naming the threads)
+     * @param diagnostics where the scheduler reports how its collections perform
      * @param completionHandler object that is notified of metric values when they are collected
      *
      * @return the new metric collection scheduler
      */
     public static <LL> MeasurementScheduler<LL, MetricType<LL>, MetricDataPoint> forMetrics(
-            String name, Consumer<MetricDataPoint> completionHandler) {
+            String name, Diagnostics diagnostics, Consumer<MetricDataPoint> completionHandler) {
 
-        return new MeasurementScheduler<LL, MetricType<LL>, MetricDataPoint>(name, completionHandler) {
+        return new MeasurementScheduler<LL, MetricType<LL>, MetricDataPoint>(name, "metric", diagnostics,
+                completionHandler) {
 
             /**
              * @return the collector that will be used to get metrics for resources at the given endpoint.
              */
             @Override
             protected Runnable createCollector(SamplingService<LL> endpointService,
-                    ScheduledCollectionsQueue<LL, MetricType<LL>> queue, Consumer<MetricDataPoint> completionHandler) {
-                return new MetricsCollector<LL>(endpointService, queue, completionHandler);
+                    ScheduledCollectionsQueue<LL, MetricType<LL>> queue, Consumer<MetricDataPoint> completionHandler,
+                    CollectionDiagnostics collectionDiagnostics) {
+                return new MetricsCollector<LL>(endpointService, queue, completionHandler, collectionDiagnostics);
             }
 
             /**
@@ -88,22 +93,25 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
      * Static method that builds a scheduler for availability checking.
      *
      * @param name the name of the scheduler (used for things like naming the threads)
+     * @param diagnostics where the scheduler reports how its collections perform
      * @param completionHandler object that is notified of availability results when they are checked
      *
      * @return the new availability checking scheduler
      */
     public static <LL> MeasurementScheduler<LL, AvailType<LL>, AvailDataPoint> forAvails(
-            String name, Consumer<AvailDataPoint> completionHandler) {
+            String name, Diagnostics diagnostics, Consumer<AvailDataPoint> completionHandler) {
 
-        return new MeasurementScheduler<LL, AvailType<LL>, AvailDataPoint>(name, completionHandler) {
+        return new MeasurementScheduler<LL, AvailType<LL>, AvailDataPoint>(name, "avail", diagnostics,
+                completionHandler) {
 
             /**
              * @return the collector that will be used to check availabilities for resources at the given endpoint.
              */
             @Override
             protected Runnable createCollector(SamplingService<LL> endpointService,
-                    ScheduledCollectionsQueue<LL, AvailType<LL>> queue, Consumer<AvailDataPoint> completionHandler) {
-                return new AvailsCollector<LL>(endpointService, queue, completionHandler);
+                    ScheduledCollectionsQueue<LL, AvailType<LL>> queue, Consumer<AvailDataPoint> completionHandler,
+                    CollectionDiagnostics collectionDiagnostics) {
+                return new AvailsCollector<LL>(endpointService, queue, completionHandler, collectionDiagnostics);
             }
 
             /**
@@ -120,6 +128,12 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
     /** the name of the scheduler */
     private final String name;
 
+    /** what the scheduler collects (such as "metric" or "avail") - used to name its diagnostics */
+    private final String collectionType;
+
+    /** where the scheduler reports how its collections perform */
+    private final Diagnostics diagnostics;
+
     /** thread pool used by the scheduler to execute the different metrics/avails jobs. */
     private final ExecutorService executorService;
 
@@ -134,20 +148,27 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
 
     /**
      * The actual scheduler constructor.
-     * To build schedulers, call {@link #forMetrics(String, Consumer)} or {@link #forAvails(String, Consumer)}.
+     * To build schedulers, call {@link #forMetrics(String, Diagnostics, Consumer)} or
+     * {@link #forAvails(String, Diagnostics, Consumer)}.
      *
      * @param name name of scheduler
+     * @param collectionType what the scheduler collects
+     * @param diagnostics where the scheduler reports how its collections perform
      * @param completionHandler object notified when a job is done and its data needs to be stored
      */
-    private MeasurementScheduler(String name, Consumer<D> completionHandler) {
+    private MeasurementScheduler(String name, String collectionType, Diagnostics diagnostics,
+            Consumer<D> completionHandler) {
         this.name = name;
+        this.collectionType = collectionType;
+        this.diagnostics = diagnostics;
         this.completionHandler = completionHandler;
         ThreadFactory threadFactory = ThreadFactoryGenerator.generateFactory(true, name);
         this.executorService = Executors.newCachedThreadPool(threadFactory);
     }
 
     /**
-     * Schedules collections for all measurements for the given resources.
+     * Schedules collections for all measurements for the given resources. Any collections already scheduled
+     * for these resources are replaced.
      *
      * @param endpointService defines where the resources are
      * @param resources the resources whose metric collections/avail checks are to be added to the scheduler
@@ -160,7 +181,9 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
             schedules.addAll(getScheduledMeasurementInstances(resource));
         }
         ScheduledCollectionsQueue<L, T> queue = createOrGetScheduledCollectionsQueue(endpointService);
+        queue.unschedule(resources); // drops schedules of measurements the resources no longer have
         queue.schedule(schedules);
+        getCollectionDiagnostics(endpointService).setScheduledCount(queue.size());
 
         LOG.debugf("Scheduler [%s]: [%d] measurements for [%d] resources have been scheduled for endpoint [%s]",
                 this.name, schedules.size(), resources.size(), endpointService);
@@ -178,6 +201,7 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
         ScheduledCollectionsQueue<L, T> queue = getScheduledCollectionsQueue(endpointService);
         if (queue != null) {
             queue.unschedule(resources);
+            getCollectionDiagnostics(endpointService).setScheduledCount(queue.size());
         }
 
         LOG.debugf("Scheduler [%s]: all measurements for [%d] resources have been unscheduled for endpoint [%s]",
@@ -201,7 +225,8 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
                 this.queues.put(endpointService, q);
 
                 // create our collector thread to start processing the collections
-                Runnable collector = createCollector(endpointService, q, completionHandler);
+                Runnable collector = createCollector(endpointService, q, completionHandler,
+                        getCollectionDiagnostics(endpointService));
                 this.executorService.submit(collector);
             }
             return q;
@@ -225,6 +250,10 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
         }
     }
 
+    private CollectionDiagnostics getCollectionDiagnostics(SamplingService<L> endpointService) {
+        return diagnostics.getCollectionDiagnostics(collectionType, endpointService.getMonitoredEndpoint().getName());
+    }
+
     public void start() {
         status.assertInitialOrStopped(getClass(), "start()");
         status = ServiceStatus.STARTING;
@@ -256,10 +285,12 @@ public abstract class MeasurementScheduler<L, T extends MeasurementType<L>, D ex
      * @param endpointService the resources whose data is to be collected are managed by this endpoint
      * @param queue contains the scheduled measurements
      * @param completionHandler handler to process the measurement collection results
+     * @param collectionDiagnostics where the collector reports how its collections perform
      * @return the collector object
      */
     protected abstract Runnable createCollector(SamplingService<L> endpointService,
-            ScheduledCollectionsQueue<L, T> queue, Consumer<D> completionHandler);
+            ScheduledCollectionsQueue<L, T> queue, Consumer<D> completionHandler,
+            CollectionDiagnostics collectionDiagnostics);
 
     /**
      * Given a resource, this returns the measurement instances that this scheduler should collect for it.
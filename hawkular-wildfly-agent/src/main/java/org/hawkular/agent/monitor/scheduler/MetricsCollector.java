@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,8 +17,10 @@
 package org.hawkular.agent.monitor.scheduler;
 
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.hawkular.agent.monitor.api.SamplingService;
+import org.hawkular.agent.monitor.diagnostics.CollectionDiagnostics;
 import org.hawkular.agent.monitor.inventory.MeasurementInstance;
 import org.hawkular.agent.monitor.inventory.MetricType;
 import org.hawkular.agent.monitor.log.AgentLoggers;
@@ -26,6 +28,8 @@ import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.storage.MetricDataPoint;
 import org.hawkular.agent.monitor.util.Consumer;
 
+import com.codahale.metrics.Timer;
+
 /**
  * Defines a job that collects metric data from a particular monitored endpoint.
  *
@@ -36,8 +40,9 @@ class MetricsCollector<L> extends MeasurementCollector<L, MetricType<L>, MetricD
 
     public MetricsCollector(SamplingService<L> endpointService,
             ScheduledCollectionsQueue<L, MetricType<L>> priorityQueue,
-            Consumer<MetricDataPoint> completionHandler) {
-        super(endpointService, priorityQueue, completionHandler);
+            Consumer<MetricDataPoint> completionHandler,
+            CollectionDiagnostics collectionDiagnostics) {
+        super(endpointService, priorityQueue, completionHandler, collectionDiagnostics);
     }
 
     /**
@@ -56,19 +61,25 @@ class MetricsCollector<L> extends MeasurementCollector<L, MetricType<L>, MetricD
                     long delay = next - System.currentTimeMillis();
                     if (delay <= 0) {
                         // we're late, we're late, for a very important date - collect now
+                        getCollectionDiagnostics().getSchedulingLagTimer().update(-delay, TimeUnit.MILLISECONDS);
+                        Timer.Context tick = getCollectionDiagnostics().getTickTimer().time();
                         Set<MeasurementInstance<L, MetricType<L>>> instances = queue.popNextScheduledSet();
-                        getEndpointService().measureMetrics(instances, new Consumer<MetricDataPoint>() {
-                            @Override
-                            public void accept(MetricDataPoint dataPoint) {
-                                getCompletionHandler().accept(dataPoint);
-                            }
+                        try {
+                            getEndpointService().measureMetrics(instances, new Consumer<MetricDataPoint>() {
+                                @Override
+                                public void accept(MetricDataPoint dataPoint) {
+                                    getCompletionHandler().accept(dataPoint);
+                                }
 
-                            @Override
-                            public void report(Throwable e) {
-                                LOG.errorFailedToStoreMetrics(getEndpointService().toString(), e);
-                                getCompletionHandler().report(e);
-                            }
-                        });
+                                @Override
+                                public void report(Throwable e) {
+                                    LOG.errorFailedToStoreMetrics(getEndpointService().toString(), e);
+                                    getCompletionHandler().report(e);
+                                }
+                            });
+                        } finally {
+                            tick.stop();
+                        }
                     } else {
                         // wait for the amount of time before the next collection is scheduled
                         Thread.sleep(delay);
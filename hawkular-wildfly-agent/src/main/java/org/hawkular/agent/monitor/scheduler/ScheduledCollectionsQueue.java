@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,10 +17,13 @@
 package org.hawkular.agent.monitor.scheduler;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 
+import org.hawkular.agent.monitor.inventory.ID;
 import org.hawkular.agent.monitor.inventory.MeasurementInstance;
 import org.hawkular.agent.monitor.inventory.MeasurementType;
 import org.hawkular.agent.monitor.inventory.Resource;
@@ -31,6 +34,11 @@ import org.hawkular.agent.monitor.log.MsgLogger;
  * A priority queue that organizes measurement collections such that the next collection that needs
  * to be made is at the head of the queue.
  *
+ * The queue also keeps an index of the scheduled collections of each resource. This makes scheduling idempotent
+ * (scheduling a measurement that is already scheduled replaces the old schedule) and lets resources be unscheduled
+ * without scanning the whole queue - unscheduled collections are just cancelled and dropped from the queue
+ * once they reach its head.
+ *
  * @author John Mazzitelli
  */
 public class ScheduledCollectionsQueue<L, T extends MeasurementType<L>> {
@@ -40,8 +48,16 @@ public class ScheduledCollectionsQueue<L, T extends MeasurementType<L>> {
     //           Right now code just uses "synchronized" blocks, but should introduce R/W locks in future
     private final PriorityQueue<ScheduledMeasurementInstance<L, T>> priorityQueue;
 
+    // resource ID -> measurement instance ID -> the live (not cancelled) schedule in the priority queue
+    private final Map<ID, Map<ID, ScheduledMeasurementInstance<L, T>>> scheduleIndex;
+
+    // number of cancelled schedules still sitting in the priority queue
+    private int cancelledCount;
+
     public ScheduledCollectionsQueue() {
         this.priorityQueue = new PriorityQueue<>();
+        this.scheduleIndex = new HashMap<>();
+        this.cancelledCount = 0;
     }
 
     /**
@@ -53,7 +69,7 @@ public class ScheduledCollectionsQueue<L, T extends MeasurementType<L>> {
      */
     public long getNextExpectedCollectionTime() {
         synchronized (priorityQueue) {
-            ScheduledMeasurementInstance<L, T> nextScheduledMeasurement = priorityQueue.peek();
+            ScheduledMeasurementInstance<L, T> nextScheduledMeasurement = peekLive();
             if (nextScheduledMeasurement == null) {
                 return Long.MIN_VALUE;
             } else {
@@ -79,7 +95,7 @@ public class ScheduledCollectionsQueue<L, T extends MeasurementType<L>> {
         Set<MeasurementInstance<L, T>> nextScheduledSet = new HashSet<>();
 
         synchronized (priorityQueue) {
-            ScheduledMeasurementInstance<L, T> first = priorityQueue.peek();
+            ScheduledMeasurementInstance<L, T> first = peekLive();
             if ((first == null) || (first.getNextCollectionTime() > System.currentTimeMillis())) {
                 // nothing is scheduled at all, or the next schedule is in the future
                 return nextScheduledSet;
@@ -91,6 +107,11 @@ public class ScheduledCollectionsQueue<L, T extends MeasurementType<L>> {
             long firstCollectionTime = first.getNextCollectionTime();
             while ((next != null) && (next.getNextCollectionTime() == firstCollectionTime)) {
                 ScheduledMeasurementInstance<L, T> queueItem = priorityQueue.poll();
+                if (queueItem.isCancelled()) {
+                    cancelledCount--;
+                    next = priorityQueue.peek();
+                    continue;
+                }
                 nextScheduledSet.add(queueItem.getMeasurementInstance());
 
                 // reschedule it
@@ -108,12 +129,27 @@ public class ScheduledCollectionsQueue<L, T extends MeasurementType<L>> {
 
     /**
      * Puts the given schedules in the queue to be prioritized for collection.
+     * If a measurement of a resource is already scheduled, its old schedule is replaced by the new one.
+     * Scheduling a schedule that is already in the queue again leaves it as it is.
      *
      * @param schedules the new schedules to add
      */
     public void schedule(Collection<ScheduledMeasurementInstance<L, T>> schedules) {
         synchronized (priorityQueue) {
-            priorityQueue.addAll(schedules);
+            for (ScheduledMeasurementInstance<L, T> schedule : schedules) {
+                Map<ID, ScheduledMeasurementInstance<L, T>> resourceSchedules = scheduleIndex
+                        .computeIfAbsent(schedule.getResource().getID(), id -> new HashMap<>());
+                ScheduledMeasurementInstance<L, T> oldSchedule = resourceSchedules
+                        .put(schedule.getMeasurementInstance().getID(), schedule);
+                if (oldSchedule == schedule) {
+                    continue; // already scheduled - it is still live in the queue
+                }
+                if (oldSchedule != null) {
+                    cancel(oldSchedule);
+                }
+                priorityQueue.offer(schedule);
+            }
+            purgeIfNecessary();
         }
     }
 
@@ -124,7 +160,51 @@ public class ScheduledCollectionsQueue<L, T extends MeasurementType<L>> {
      */
     public void unschedule(Collection<Resource<L>> resources) {
         synchronized (priorityQueue) {
-            priorityQueue.removeIf(mi -> resources.contains(mi.getResource()));
+            for (Resource<L> resource : resources) {
+                Map<ID, ScheduledMeasurementInstance<L, T>> resourceSchedules = scheduleIndex.remove(resource.getID());
+                if (resourceSchedules != null) {
+                    resourceSchedules.values().forEach(this::cancel);
+                }
+            }
+            purgeIfNecessary();
+        }
+    }
+
+    /**
+     * @return the number of measurement collections currently scheduled (cancelled ones are not counted)
+     */
+    public int size() {
+        synchronized (priorityQueue) {
+            return priorityQueue.size() - cancelledCount;
+        }
+    }
+
+    // must be called while synchronized on the priority queue
+    private void cancel(ScheduledMeasurementInstance<L, T> schedule) {
+        if (!schedule.isCancelled()) {
+            schedule.cancel();
+            cancelledCount++;
+        }
+    }
+
+    // must be called while synchronized on the priority queue
+    private ScheduledMeasurementInstance<L, T> peekLive() {
+        ScheduledMeasurementInstance<L, T> head = priorityQueue.peek();
+        while (head != null && head.isCancelled()) {
+            priorityQueue.poll();
+            cancelledCount--;
+            head = priorityQueue.peek();
+        }
+        return head;
+    }
+
+    // Cancelled schedules are normally dropped when they reach the head of the queue. If they make up most
+    // of the queue (e.g. after a large undeployment) clean them out now so the queue doesn't stay bloated.
+    // must be called while synchronized on the priority queue
+    private void purgeIfNecessary() {
+        if (cancelledCount > 0 && cancelledCount > (priorityQueue.size() / 2)) {
+            priorityQueue.removeIf(ScheduledMeasurementInstance::isCancelled);
+            cancelledCount = 0;
         }
     }
 }
\ No newline at end of file
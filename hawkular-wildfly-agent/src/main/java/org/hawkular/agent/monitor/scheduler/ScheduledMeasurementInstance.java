@@ -85,6 +85,7 @@ public class ScheduledMeasurementInstance<L, T extends MeasurementType<L>>
     private final MeasurementInstance<L, T> measurementInstance;
     private final Resource<L> resource;
     private long nextCollectionTime;
+    private boolean cancelled;
 
     public ScheduledMeasurementInstance(Resource<L> resource, MeasurementInstance<L, T> measurementInstance) {
 
@@ -134,6 +135,18 @@ public class ScheduledMeasurementInstance<L, T extends MeasurementType<L>>
         setNextCollectionTime(System.currentTimeMillis() + interval);
     }
 
+    /**
+     * Marks this schedule as cancelled - a cancelled schedule is never collected again and will be
+     * dropped from its queue when it is next seen.
+     */
+    void cancel() {
+        this.cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
     @Override
     public String toString() {
         return String.format("%s: resource=[%s], measurement=[%s], nextCollectionTime=[%s]",
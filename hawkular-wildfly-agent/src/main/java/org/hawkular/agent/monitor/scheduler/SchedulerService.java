@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -34,12 +34,11 @@ import org.hawkular.agent.monitor.inventory.Resource;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.service.ServiceStatus;
-import org.hawkular.agent.monitor.storage.AvailBufferedStorageDispatcher;
 import org.hawkular.agent.monitor.storage.AvailDataPoint;
-import org.hawkular.agent.monitor.storage.MetricBufferedStorageDispatcher;
 import org.hawkular.agent.monitor.storage.MetricDataPoint;
 import org.hawkular.agent.monitor.storage.PingStorageDispatcher;
 import org.hawkular.agent.monitor.storage.StorageAdapter;
+import org.hawkular.agent.monitor.storage.StorageDispatcher;
 import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 
 /**
@@ -53,8 +52,8 @@ public class SchedulerService implements InventoryListener {
     private final MeasurementScheduler<Object, MetricType<Object>, MetricDataPoint> metricScheduler;
     private final MeasurementScheduler<Object, AvailType<Object>, AvailDataPoint> availScheduler;
     private final ScheduledThreadPoolExecutor pingScheduler;
-    private final MetricBufferedStorageDispatcher metricStorage;
-    private final AvailBufferedStorageDispatcher availStorage;
+    private final StorageDispatcher<MetricDataPoint> metricStorage;
+    private final StorageDispatcher<AvailDataPoint> availStorage;
     private final PingStorageDispatcher pingStorage;
 
     private ScheduledFuture<?> pingJob;
@@ -70,13 +69,13 @@ public class SchedulerService implements InventoryListener {
         this.diagnostics = diagnostics;
 
         // create the schedulers - we use three: one for metric collections, one for avail checks and one for feed pings
-        this.metricStorage = new MetricBufferedStorageDispatcher(configuration, storageAdapter, diagnostics);
-        this.metricScheduler = MeasurementScheduler.forMetrics("Hawkular-WildFly-Agent-Scheduler-Metrics",
-                metricStorage);
+        this.metricStorage = storageAdapter.createMetricDispatcher(configuration, diagnostics);
+        this.availStorage = storageAdapter.createAvailDispatcher(configuration, diagnostics);
 
-        this.availStorage = new AvailBufferedStorageDispatcher(configuration, storageAdapter, diagnostics);
+        this.metricScheduler = MeasurementScheduler.forMetrics("Hawkular-WildFly-Agent-Scheduler-Metrics",
+                diagnostics, metricStorage);
         this.availScheduler = MeasurementScheduler.forAvails("Hawkular-WildFly-Agent-Scheduler-Avail",
-                availStorage);
+                diagnostics, availStorage);
 
         this.pingStorage = new PingStorageDispatcher(configuration, storageAdapter, diagnostics);
         ThreadFactory threadFactory = ThreadFactoryGenerator.generateFactory(true, "Hawkular-WildFly-Scheduler-Ping");
@@ -156,6 +155,21 @@ public class SchedulerService implements InventoryListener {
         return;
     }
 
+    /**
+     * Replaces the scheduled collections of the given resources with new ones. Call this when the intervals of
+     * the resources' measurement types have changed.
+     *
+     * @param service defines where the resources are
+     * @param resources the resources to reschedule
+     */
+    public <L> void reschedule(SamplingService<L> service, Collection<Resource<L>> resources) {
+        log.debugf("Rescheduling jobs for [%d] resources for endpoint [%s]",
+                resources.size(), service.getMonitoredEndpoint());
+
+        ((MeasurementScheduler) metricScheduler).schedule(service, resources);
+        ((MeasurementScheduler) availScheduler).schedule(service, resources);
+    }
+
     public <L> void unschedule(SamplingService<L> service, Collection<Resource<L>> resources) {
         ((MeasurementScheduler) metricScheduler).unschedule(service, resources);
         ((MeasurementScheduler) availScheduler).unschedule(service, resources);
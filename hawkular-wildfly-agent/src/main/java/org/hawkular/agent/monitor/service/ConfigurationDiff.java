@@ -0,0 +1,324 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.ProtocolConfiguration;
+import org.hawkular.agent.monitor.inventory.AvailType;
+import org.hawkular.agent.monitor.inventory.ConnectionData;
+import org.hawkular.agent.monitor.inventory.MeasurementType;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Operation;
+import org.hawkular.agent.monitor.inventory.ResourceConfigurationPropertyType;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.TypeSet;
+import org.hawkular.agent.monitor.util.Util;
+
+/**
+ * The differences between two agent configurations as far as a running agent is concerned.
+ *
+ * Changes to the global, diagnostics or storage adapter settings can only be applied by restarting the agent
+ * (see {@link #isRestartRequired()}). Changes to managed servers and type sets are narrowed down to the endpoints
+ * they affect, so only those endpoints need to be stopped and started again while all the others keep running.
+ * An endpoint is affected if its own settings changed or if any resource type set it monitors changed, including
+ * the metric and avail types those resource types refer to.
+ */
+public class ConfigurationDiff {
+
+    /**
+     * The endpoints of a single protocol that are affected by a configuration change.
+     */
+    public static class EndpointsDiff {
+        private final Set<String> removed;
+        private final Set<String> added;
+        private final Set<String> changed;
+
+        private EndpointsDiff(Set<String> removed, Set<String> added, Set<String> changed) {
+            this.removed = Collections.unmodifiableSet(removed);
+            this.added = Collections.unmodifiableSet(added);
+            this.changed = Collections.unmodifiableSet(changed);
+        }
+
+        /**
+         * @return names of the endpoints that are no longer in the configuration
+         */
+        public Set<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return names of the endpoints that are new in the configuration
+         */
+        public Set<String> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return names of the endpoints whose configuration, or the configuration of the types they monitor, changed
+         */
+        public Set<String> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return names of the endpoints whose running services (if any) must be stopped
+         */
+        public Set<String> getEndpointsToStop() {
+            Set<String> names = new LinkedHashSet<>(removed);
+            names.addAll(changed);
+            return names;
+        }
+
+        /**
+         * @return names of the endpoints whose services must be (re)created; disabled endpoints are included
+         *         and are expected to be skipped by the caller
+         */
+        public Set<String> getEndpointsToStart() {
+            Set<String> names = new LinkedHashSet<>(added);
+            names.addAll(changed);
+            return names;
+        }
+
+        public boolean isEmpty() {
+            return removed.isEmpty() && added.isEmpty() && changed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "removed=" + removed + ", added=" + added + ", changed=" + changed;
+        }
+    }
+
+    /**
+     * Compares the two configurations.
+     *
+     * @param oldConfig the configuration the agent is currently running with
+     * @param newConfig the configuration the agent is to run with
+     * @return the differences between the two
+     */
+    public static ConfigurationDiff between(MonitorServiceConfiguration oldConfig,
+            MonitorServiceConfiguration newConfig) {
+        boolean restartRequired = !sameJson(oldConfig.getGlobalConfiguration(), newConfig.getGlobalConfiguration())
+                || !sameJson(oldConfig.getDiagnostics(), newConfig.getDiagnostics())
+                || !sameJson(oldConfig.getStorageAdapter(), newConfig.getStorageAdapter());
+
+        return new ConfigurationDiff(restartRequired,
+                diff(oldConfig.getDmrConfiguration(), newConfig.getDmrConfiguration()),
+                diff(oldConfig.getJmxConfiguration(), newConfig.getJmxConfiguration()),
+                diff(oldConfig.getPlatformConfiguration(), newConfig.getPlatformConfiguration()));
+    }
+
+    private final boolean restartRequired;
+    private final EndpointsDiff dmrEndpoints;
+    private final EndpointsDiff jmxEndpoints;
+    private final EndpointsDiff platformEndpoints;
+
+    private ConfigurationDiff(boolean restartRequired, EndpointsDiff dmrEndpoints, EndpointsDiff jmxEndpoints,
+            EndpointsDiff platformEndpoints) {
+        this.restartRequired = restartRequired;
+        this.dmrEndpoints = dmrEndpoints;
+        this.jmxEndpoints = jmxEndpoints;
+        this.platformEndpoints = platformEndpoints;
+    }
+
+    /**
+     * @return true if settings changed that are used throughout the agent, so it must be restarted to apply them
+     */
+    public boolean isRestartRequired() {
+        return restartRequired;
+    }
+
+    public EndpointsDiff getDmrEndpoints() {
+        return dmrEndpoints;
+    }
+
+    public EndpointsDiff getJmxEndpoints() {
+        return jmxEndpoints;
+    }
+
+    public EndpointsDiff getPlatformEndpoints() {
+        return platformEndpoints;
+    }
+
+    /**
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+        return !restartRequired && dmrEndpoints.isEmpty() && jmxEndpoints.isEmpty() && platformEndpoints.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigurationDiff: restartRequired=" + restartRequired + ", dmr=[" + dmrEndpoints + "], jmx=["
+                + jmxEndpoints + "], platform=[" + platformEndpoints + "]";
+    }
+
+    private static <L> EndpointsDiff diff(ProtocolConfiguration<L> oldConfig, ProtocolConfiguration<L> newConfig) {
+        Map<Name, TypeSet<ResourceType<L>>> oldTypeSets = oldConfig.getTypeSets().getResourceTypeSets();
+        Map<Name, TypeSet<ResourceType<L>>> newTypeSets = newConfig.getTypeSets().getResourceTypeSets();
+
+        Set<Name> changedTypeSets = new HashSet<>();
+        Set<Name> allTypeSets = new HashSet<>(oldTypeSets.keySet());
+        allTypeSets.addAll(newTypeSets.keySet());
+        for (Name typeSetName : allTypeSets) {
+            if (!Objects.equals(fingerprint(oldTypeSets.get(typeSetName)),
+                    fingerprint(newTypeSets.get(typeSetName)))) {
+                changedTypeSets.add(typeSetName);
+            }
+        }
+
+        Map<String, EndpointConfiguration> oldEndpoints = oldConfig.getEndpoints();
+        Map<String, EndpointConfiguration> newEndpoints = newConfig.getEndpoints();
+        Set<String> removed = new LinkedHashSet<>();
+        Set<String> added = new LinkedHashSet<>();
+        Set<String> changed = new LinkedHashSet<>();
+
+        for (String name : oldEndpoints.keySet()) {
+            if (!newEndpoints.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+
+        for (EndpointConfiguration newEndpoint : newEndpoints.values()) {
+            EndpointConfiguration oldEndpoint = oldEndpoints.get(newEndpoint.getName());
+            if (oldEndpoint == null) {
+                added.add(newEndpoint.getName());
+            } else if (!sameEndpoint(oldEndpoint, newEndpoint)
+                    || usesAny(newEndpoint.getResourceTypeSets(), changedTypeSets)) {
+                changed.add(newEndpoint.getName());
+            }
+        }
+
+        return new EndpointsDiff(removed, added, changed);
+    }
+
+    private static boolean usesAny(Collection<Name> resourceTypeSets, Set<Name> changedTypeSets) {
+        if (changedTypeSets.isEmpty()) {
+            return false;
+        }
+        if (resourceTypeSets == null) {
+            return true; // the endpoint monitors all resource type sets
+        }
+        for (Name name : resourceTypeSets) {
+            if (changedTypeSets.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameEndpoint(EndpointConfiguration a, EndpointConfiguration b) {
+        return a.isEnabled() == b.isEnabled()
+                && sameConnectionData(a.getConnectionData(), b.getConnectionData())
+                && Objects.equals(a.getSecurityRealm(), b.getSecurityRealm())
+                && Objects.equals(a.getTenantId(), b.getTenantId())
+                && Objects.equals(a.getMetricIdTemplate(), b.getMetricIdTemplate())
+                && Objects.equals(a.getMetricTags(), b.getMetricTags())
+                && Objects.equals(a.getCustomData(), b.getCustomData())
+                && Objects.equals(asSet(a.getResourceTypeSets()), asSet(b.getResourceTypeSets()))
+                && a.getSetAvailOnShutdown() == b.getSetAvailOnShutdown();
+    }
+
+    private static boolean sameConnectionData(ConnectionData a, ConnectionData b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.getUri(), b.getUri())
+                && Objects.equals(a.getUsername(), b.getUsername())
+                && Objects.equals(a.getPassword(), b.getPassword());
+    }
+
+    private static <T> Set<T> asSet(Collection<T> collection) {
+        return (collection != null) ? new HashSet<>(collection) : null;
+    }
+
+    private static boolean sameJson(Object a, Object b) {
+        return Objects.equals(Util.toJson(a), Util.toJson(b));
+    }
+
+    // Inventory types are equal if their IDs are equal, which says nothing about their definitions having changed.
+    // So the definitions are compared by their string fingerprints instead. Collections are sorted so that
+    // the fingerprint does not depend on the order in which the types happen to be stored.
+
+    private static <L> String fingerprint(TypeSet<ResourceType<L>> typeSet) {
+        if (typeSet == null) {
+            return null;
+        }
+        List<String> types = new ArrayList<>();
+        for (ResourceType<L> type : typeSet.getTypeMap().values()) {
+            types.add(fingerprint(type));
+        }
+        return typeSet.isEnabled() + sorted(types);
+    }
+
+    private static <L> String fingerprint(ResourceType<L> type) {
+        List<String> metrics = new ArrayList<>();
+        for (MetricType<L> metricType : type.getMetricTypes()) {
+            metrics.add(fingerprint(metricType) + "|" + metricType.getMetricUnits() + "|"
+                    + metricType.getMetricType());
+        }
+        List<String> avails = new ArrayList<>();
+        for (AvailType<L> availType : type.getAvailTypes()) {
+            avails.add(fingerprint(availType) + "|"
+                    + (availType.getUpPattern() != null ? availType.getUpPattern().pattern() : null));
+        }
+        List<String> operations = new ArrayList<>();
+        for (Operation<L> operation : type.getOperations()) {
+            operations.add(operation.getID() + "|" + operation.getName() + "|" + operation.getLocation() + "|"
+                    + operation.getInternalName() + "|" + operation.getModifies() + "|" + operation.getParameters());
+        }
+        List<String> configProperties = new ArrayList<>();
+        for (ResourceConfigurationPropertyType<L> property : type.getResourceConfigurationPropertyTypes()) {
+            configProperties.add(property.getID() + "|" + property.getName() + "|" + property.getAttributeLocation());
+        }
+        return type.getID() + "|" + type.getName() + "|" + type.getLocation() + "|" + type.getResourceNameTemplate()
+                + "|" + sorted(type.getParents()) + "|" + sorted(type.getMetricSets()) + "|"
+                + sorted(type.getAvailSets()) + "|" + sorted(metrics) + "|" + sorted(avails) + "|"
+                + sorted(operations) + "|" + sorted(configProperties);
+    }
+
+    private static <L> String fingerprint(MeasurementType<L> type) {
+        Map<String, String> tags = (type.getMetricTags() != null) ? new TreeMap<>(type.getMetricTags()) : null;
+        return type.getID() + "|" + type.getName() + "|" + type.getAttributeLocation() + "|" + type.getInterval()
+                + "|" + type.getMetricIdTemplate() + "|" + tags;
+    }
+
+    private static String sorted(Collection<?> items) {
+        if (items == null) {
+            return "null";
+        }
+        List<String> strings = new ArrayList<>(items.size());
+        for (Object item : items) {
+            strings.add(String.valueOf(item));
+        }
+        Collections.sort(strings);
+        return strings.toString();
+    }
+}
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,12 +35,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import javax.net.ssl.SSLContext;
 
 import org.hawkular.agent.monitor.api.Avail;
 import org.hawkular.agent.monitor.api.HawkularWildFlyAgentContext;
 import org.hawkular.agent.monitor.api.HawkularWildFlyAgentContextImpl;
+import org.hawkular.agent.monitor.cmd.DeploymentStaging;
 import org.hawkular.agent.monitor.cmd.FeedCommProcessor;
 import org.hawkular.agent.monitor.cmd.WebSocketClientBuilder;
 import org.hawkular.agent.monitor.diagnostics.Diagnostics;
@@ -50,27 +53,40 @@ import org.hawkular.agent.monitor.diagnostics.StorageReporter;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.AbstractEndpointConfiguration;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.ProtocolConfiguration;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageAdapterConfiguration;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageReportTo;
 import org.hawkular.agent.monitor.inventory.AvailType;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
 import org.hawkular.agent.monitor.inventory.MeasurementInstance;
+import org.hawkular.agent.monitor.inventory.MeasurementType;
+import org.hawkular.agent.monitor.inventory.MetricType;
 import org.hawkular.agent.monitor.inventory.Resource;
 import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.TypeSet;
+import org.hawkular.agent.monitor.inventory.TypeSets;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.protocol.EndpointService;
+import org.hawkular.agent.monitor.protocol.InventoryCache;
 import org.hawkular.agent.monitor.protocol.ProtocolService;
 import org.hawkular.agent.monitor.protocol.ProtocolServices;
+import org.hawkular.agent.monitor.protocol.Session;
 import org.hawkular.agent.monitor.protocol.dmr.DMREndpointService;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
 import org.hawkular.agent.monitor.protocol.dmr.ModelControllerClientFactory;
 import org.hawkular.agent.monitor.scheduler.SchedulerConfiguration;
 import org.hawkular.agent.monitor.scheduler.SchedulerService;
 import org.hawkular.agent.monitor.storage.AvailDataPoint;
 import org.hawkular.agent.monitor.storage.AvailStorageProxy;
+import org.hawkular.agent.monitor.storage.FanOutStorageAdapter;
 import org.hawkular.agent.monitor.storage.HawkularStorageAdapter;
 import org.hawkular.agent.monitor.storage.HttpClientBuilder;
 import org.hawkular.agent.monitor.storage.InventoryStorageProxy;
 import org.hawkular.agent.monitor.storage.MetricStorageProxy;
+import org.hawkular.agent.monitor.storage.PrometheusStorageAdapter;
 import org.hawkular.agent.monitor.storage.StorageAdapter;
 import org.hawkular.agent.monitor.util.Util;
 import org.hawkular.agent.monitor.util.WildflyCompatibilityUtils;
@@ -213,7 +229,10 @@ public class MonitorService implements Service<MonitorService> {
                             bootStorageAdapter.getKeystorePassword(),
                             bootStorageAdapter.getSecurityRealm(),
                             bootStorageAdapter.getConnectTimeoutSeconds(),
-                            bootStorageAdapter.getReadTimeoutSeconds());
+                            bootStorageAdapter.getReadTimeoutSeconds(),
+                            bootStorageAdapter.getInventorySyncMode(),
+                            bootStorageAdapter.getInventorySyncConcurrency(),
+                            bootStorageAdapter.getPrometheusSocketBindingRef());
 
             return bootConfiguration.cloneWith(runtimeStorageAdapter);
         }
@@ -236,6 +255,7 @@ public class MonitorService implements Service<MonitorService> {
     private final InjectedValue<SocketBinding> httpSocketBindingValue = new InjectedValue<>();
     private final InjectedValue<SocketBinding> httpsSocketBindingValue = new InjectedValue<>();
     private final InjectedValue<OutboundSocketBinding> serverOutboundSocketBindingValue = new InjectedValue<>();
+    private final InjectedValue<SocketBinding> prometheusSocketBindingValue = new InjectedValue<>();
     // key=securityRealm name as a String
     private final Map<String, InjectedValue<SSLContext>> trustOnlySSLContextValues = new HashMap<>();
 
@@ -277,6 +297,9 @@ public class MonitorService implements Service<MonitorService> {
     // contains endpoint services for all the different protocols that are supported (dmr, jmx, platform)
     private ProtocolServices protocolServices;
 
+    // keeps a snapshot of discovered resources so they can be monitored right away after a restart
+    private InventoryCache inventoryCache;
+
     // used to talk to the management interface of the WildFly server the agent is deployed in
     private ModelControllerClientFactory localModelControllerClientFactory;
 
@@ -348,6 +371,13 @@ public class MonitorService implements Service<MonitorService> {
             }
         }
 
+        // if the collected values are to be scraped by Prometheus, we need to know where to serve them
+        if (storageAdapterConfig.getPrometheusSocketBindingRef() != null) {
+            bldr.addDependency(SocketBinding.JBOSS_BINDING_NAME.append(
+                    storageAdapterConfig.getPrometheusSocketBindingRef()), SocketBinding.class,
+                    prometheusSocketBindingValue);
+        }
+
         // get the security realm ssl context for the storage adapter
         if (storageAdapterConfig.getSecurityRealm() != null) {
             InjectedValue<SSLContext> iv = new InjectedValue<>();
@@ -671,7 +701,8 @@ public class MonitorService implements Service<MonitorService> {
                         this.webSocketClientBuilder = new WebSocketClientBuilder(
                                 this.configuration.getStorageAdapter(), ssl);
                         this.feedComm = new FeedCommProcessor(this.webSocketClientBuilder, this.configuration,
-                                this.feedId, this);
+                                this.feedId, this, this.diagnostics,
+                                new DeploymentStaging(new File(getDataDirectory(), "deployment-staging")));
                         this.feedComm.connect();
                     } catch (Exception e) {
                         if (e instanceof InterruptedException) {
@@ -704,15 +735,23 @@ public class MonitorService implements Service<MonitorService> {
                 throw new Exception("Agent cannot initialize scheduler");
             }
 
+            if (configuration.isInventoryCacheEnabled()) {
+                inventoryCache = new InventoryCache(feedId, new File(getDataDirectory(), "inventory-cache"));
+            }
+
             // build the protocol services
             ProtocolServices ps = createProtocolServicesBuilder()
                     .dmrProtocolService(this.localModelControllerClientFactory, configuration.getDmrConfiguration())
                     .jmxProtocolService(configuration.getJmxConfiguration())
                     .platformProtocolService(configuration.getPlatformConfiguration())
                     .autoDiscoveryScanPeriodSecs(configuration.getAutoDiscoveryScanPeriodSeconds())
+                    .inventoryCache(inventoryCache)
                     .build();
             ps.addInventoryListener(inventoryStorageProxy);
             ps.addInventoryListener(schedulerService);
+            if (inventoryCache != null) {
+                ps.addInventoryListener(inventoryCache);
+            }
             protocolServices = ps;
 
             // start all protocol services - this should perform the initial discovery scans
@@ -732,6 +771,137 @@ public class MonitorService implements Service<MonitorService> {
         }
     }
 
+    /**
+     * Applies the given configuration to the running agent without restarting it. Only the endpoints affected by
+     * the configuration change (see {@link ConfigurationDiff}) are stopped and started again; all other endpoints
+     * keep running along with their schedules and inventory.
+     *
+     * If the change cannot be applied this way (e.g. the storage adapter settings changed, or the agent is not
+     * running) nothing is changed and false is returned - the caller should restart the agent instead.
+     *
+     * @param newBootConfiguration the new configuration as persisted in standalone.xml
+     * @return true if the new configuration has been applied, false if the agent must be restarted to apply it
+     * @see #canReconfigure(MonitorServiceConfiguration)
+     */
+    public boolean reconfigure(MonitorServiceConfiguration newBootConfiguration) {
+        synchronized (agentServiceStatus) {
+            ConfigurationDiff diff = diffForReconfigure(newBootConfiguration);
+            if (diff == null) {
+                return false;
+            }
+
+            // the storage adapter settings did not change, so neither did their runtime version
+            this.bootConfiguration = newBootConfiguration;
+            this.configuration = newBootConfiguration.cloneWith(this.configuration.getStorageAdapter());
+
+            if (diff.isEmpty()) {
+                return true;
+            }
+
+            reconfigure(protocolServices.getDmrProtocolService(), diff.getDmrEndpoints(),
+                    configuration.getDmrConfiguration(),
+                    c -> createProtocolServicesBuilder()
+                            .dmrProtocolService(this.localModelControllerClientFactory, c)
+                            .build().getDmrProtocolService());
+            reconfigure(protocolServices.getJmxProtocolService(), diff.getJmxEndpoints(),
+                    configuration.getJmxConfiguration(),
+                    c -> createProtocolServicesBuilder().jmxProtocolService(c).build().getJmxProtocolService());
+            reconfigure(protocolServices.getPlatformProtocolService(), diff.getPlatformEndpoints(),
+                    configuration.getPlatformConfiguration(),
+                    c -> createProtocolServicesBuilder().platformProtocolService(c).build()
+                            .getPlatformProtocolService());
+
+            log.infoAgentReconfigured(diff.toString());
+            return true;
+        }
+    }
+
+    /**
+     * @param newBootConfiguration the new configuration as persisted in standalone.xml
+     * @return true if {@link #reconfigure(MonitorServiceConfiguration)} can currently apply the given configuration
+     *         without restarting the agent
+     */
+    public boolean canReconfigure(MonitorServiceConfiguration newBootConfiguration) {
+        synchronized (agentServiceStatus) {
+            return diffForReconfigure(newBootConfiguration) != null;
+        }
+    }
+
+    /**
+     * @return the configuration as persisted in standalone.xml that the agent currently runs with
+     */
+    public MonitorServiceConfiguration getBootConfiguration() {
+        synchronized (agentServiceStatus) {
+            return bootConfiguration;
+        }
+    }
+
+    /**
+     * @return the difference to the current configuration or null if the agent must be restarted to apply the
+     *         new configuration
+     */
+    private ConfigurationDiff diffForReconfigure(MonitorServiceConfiguration newBootConfiguration) {
+        if (agentServiceStatus.get() != ServiceStatus.RUNNING) {
+            return null;
+        }
+
+        ConfigurationDiff diff = ConfigurationDiff.between(this.bootConfiguration, newBootConfiguration);
+        if (diff.isRestartRequired()) {
+            log.debugf("Configuration change requires the agent to restart: %s", diff);
+            return null;
+        }
+
+        // the SSL contexts of security realms are injected when the service is created, so endpoints
+        // that refer to security realms not known at that time need the whole service to be recreated
+        if (!hasSslContexts(diff.getDmrEndpoints(), newBootConfiguration.getDmrConfiguration())
+                || !hasSslContexts(diff.getJmxEndpoints(), newBootConfiguration.getJmxConfiguration())
+                || !hasSslContexts(diff.getPlatformEndpoints(), newBootConfiguration.getPlatformConfiguration())) {
+            log.debugf("Configuration change refers to new security realms, the agent must restart: %s", diff);
+            return null;
+        }
+        return diff;
+    }
+
+    private boolean hasSslContexts(ConfigurationDiff.EndpointsDiff diff, ProtocolConfiguration<?> protocolConfig) {
+        for (String name : diff.getEndpointsToStart()) {
+            EndpointConfiguration endpoint = protocolConfig.getEndpoints().get(name);
+            if (endpoint != null && endpoint.getSecurityRealm() != null
+                    && !trustOnlySSLContextValues.containsKey(endpoint.getSecurityRealm())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private <L, S extends Session<L>> void reconfigure(ProtocolService<L, S> protocolService,
+            ConfigurationDiff.EndpointsDiff diff, ProtocolConfiguration<L> protocolConfig,
+            Function<ProtocolConfiguration<L>, ProtocolService<L, S>> protocolServiceFactory) {
+
+        for (String name : diff.getEndpointsToStop()) {
+            protocolService.remove(name, schedulerService);
+        }
+
+        // build the services of the endpoints to start with the new type sets; the endpoints themselves are
+        // then moved over to the running protocol service so they get its inventory listeners
+        ProtocolConfiguration.Builder<L> builder = ProtocolConfiguration.<L> builder()
+                .typeSets(protocolConfig.getTypeSets());
+        boolean anyToStart = false;
+        for (String name : diff.getEndpointsToStart()) {
+            EndpointConfiguration endpoint = protocolConfig.getEndpoints().get(name);
+            if (endpoint != null && endpoint.isEnabled()) {
+                builder.endpoint(endpoint);
+                anyToStart = true;
+            }
+        }
+
+        if (anyToStart) {
+            ProtocolService<L, S> newServices = protocolServiceFactory.apply(builder.build());
+            for (EndpointService<L, S> endpointService : newServices.getEndpointServices().values()) {
+                protocolService.add(endpointService);
+            }
+        }
+    }
+
     /**
      * @return tenant IDs of the agent and its monitored endpoints (even if those monitored endpoints are not enabled)
      */
@@ -805,6 +975,10 @@ public class MonitorService implements Service<MonitorService> {
                     protocolServices.stop();
                     protocolServices.removeInventoryListener(inventoryStorageProxy);
                     protocolServices.removeInventoryListener(schedulerService);
+                    if (inventoryCache != null) {
+                        protocolServices.removeInventoryListener(inventoryCache);
+                        inventoryCache = null;
+                    }
                     protocolServices = null;
                 }
             } catch (Throwable t) {
@@ -928,6 +1102,18 @@ public class MonitorService implements Service<MonitorService> {
         return agentDataDir;
     }
 
+    /**
+     * @return a new configuration of the buffers of one sink of a {@link FanOutStorageAdapter}
+     */
+    private SchedulerConfiguration createSinkDispatcherConfig() {
+        SchedulerConfiguration sinkDispatcherConfig = new SchedulerConfiguration();
+        sinkDispatcherConfig.setMetricDispatcherBufferSize(this.configuration.getMetricDispatcherBufferSize());
+        sinkDispatcherConfig.setMetricDispatcherMaxBatchSize(this.configuration.getMetricDispatcherMaxBatchSize());
+        sinkDispatcherConfig.setAvailDispatcherBufferSize(this.configuration.getAvailDispatcherBufferSize());
+        sinkDispatcherConfig.setAvailDispatcherMaxBatchSize(this.configuration.getAvailDispatcherMaxBatchSize());
+        return sinkDispatcherConfig;
+    }
+
     /**
      * Creates and starts the storage adapter that will be used to store our inventory data and monitoring data.
      *
@@ -936,7 +1122,20 @@ public class MonitorService implements Service<MonitorService> {
     private void startStorageAdapter() throws Exception {
         // create the storage adapter that will write our metrics/inventory data to backend storage on server
         this.storageAdapter = new HawkularStorageAdapter();
-        this.storageAdapter.initialize(feedId, configuration.getStorageAdapter(), diagnostics, httpClientBuilder);
+
+        // if asked to, also keep the latest collected values so Prometheus can scrape them from us.
+        // Each sink gets its own buffers so a slow Hawkular server does not hold up the Prometheus endpoint.
+        if (configuration.getStorageAdapter().getPrometheusSocketBindingRef() != null) {
+            PrometheusStorageAdapter prometheusStorageAdapter = new PrometheusStorageAdapter(
+                    prometheusSocketBindingValue.getValue().getSocketAddress());
+            this.storageAdapter = new FanOutStorageAdapter(Arrays.asList(
+                    new FanOutStorageAdapter.Sink("Hawkular", this.storageAdapter, createSinkDispatcherConfig()),
+                    new FanOutStorageAdapter.Sink("Prometheus", prometheusStorageAdapter,
+                            createSinkDispatcherConfig())));
+        }
+
+        this.storageAdapter.initialize(feedId, configuration.getStorageAdapter(), diagnostics, httpClientBuilder,
+                getDataDirectory());
 
         // provide our storage adapter to the proxies - allows external apps to use them to store its own data
         metricStorageProxy.setStorageAdapter(storageAdapter);
@@ -1242,6 +1441,50 @@ public class MonitorService implements Service<MonitorService> {
         return protocolServices;
     }
 
+    /**
+     * Applies new collection intervals of DMR measurement types to the running agent and records them in the boot
+     * configuration too, so that a later {@link #reconfigure(MonitorServiceConfiguration) reconfiguration} compares
+     * against the intervals that are actually in effect. The agent is not restarted.
+     *
+     * @param metricIntervals new intervals keyed on metric type ID
+     * @param availIntervals new intervals keyed on avail type ID
+     * @return the number of measurement types of the running agent whose interval changed
+     */
+    public int updateMeasurementIntervals(Map<ID, Interval> metricIntervals, Map<ID, Interval> availIntervals) {
+        synchronized (agentServiceStatus) {
+            int changed = 0;
+            if (agentServiceStatus.get() == ServiceStatus.RUNNING && protocolServices != null) {
+                changed = protocolServices.getDmrProtocolService().updateMeasurementIntervals(metricIntervals,
+                        availIntervals, schedulerService);
+            }
+
+            // after a reconfiguration the boot configuration no longer shares its types with the running agent
+            TypeSets<DMRNodeLocation> typeSets = bootConfiguration.getDmrConfiguration().getTypeSets();
+            for (TypeSet<MetricType<DMRNodeLocation>> typeSet : typeSets.getMetricTypeSets().values()) {
+                setIntervals(typeSet.getTypeMap().values(), metricIntervals);
+            }
+            for (TypeSet<AvailType<DMRNodeLocation>> typeSet : typeSets.getAvailTypeSets().values()) {
+                setIntervals(typeSet.getTypeMap().values(), availIntervals);
+            }
+            for (TypeSet<ResourceType<DMRNodeLocation>> typeSet : typeSets.getResourceTypeSets().values()) {
+                for (ResourceType<DMRNodeLocation> resourceType : typeSet.getTypeMap().values()) {
+                    setIntervals(resourceType.getMetricTypes(), metricIntervals);
+                    setIntervals(resourceType.getAvailTypes(), availIntervals);
+                }
+            }
+            return changed;
+        }
+    }
+
+    private static void setIntervals(Collection<? extends MeasurementType<?>> types, Map<ID, Interval> intervals) {
+        for (MeasurementType<?> type : types) {
+            Interval interval = intervals.get(type.getID());
+            if (interval != null) {
+                type.setInterval(interval);
+            }
+        }
+    }
+
     /**
      * @return true if the agent is to be considered immutable and no config changes are allowed. This should
      *         also disallow operation execution on managed resources if those operations modify the remote resource.
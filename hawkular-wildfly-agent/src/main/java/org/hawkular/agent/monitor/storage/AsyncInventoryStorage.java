@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,13 +16,20 @@
  */
 package org.hawkular.agent.monitor.storage;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -32,6 +39,7 @@ import org.hawkular.agent.monitor.api.InventoryStorage;
 import org.hawkular.agent.monitor.diagnostics.Diagnostics;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.InventorySyncMode;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageAdapterConfiguration;
 import org.hawkular.agent.monitor.inventory.AvailType;
 import org.hawkular.agent.monitor.inventory.ID;
@@ -50,6 +58,7 @@ import org.hawkular.agent.monitor.inventory.ResourceType;
 import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 import org.hawkular.agent.monitor.util.Util;
 import org.hawkular.inventory.api.model.DataEntity;
 import org.hawkular.inventory.api.model.InventoryStructure;
@@ -116,20 +125,34 @@ public class AsyncInventoryStorage implements InventoryStorage {
             Set<Resource<L>> roots = resourceManager.getRootResources();
             retVal = new HashMap<>(roots.size());
 
+            // recursively builds the sync structure starting at the roots of the inventory
+            for (Resource<L> root : roots) {
+                retVal.put(root, build(resourceManager, root));
+            }
+
+            return retVal;
+        }
+
+        /**
+         * Builds a sync structure that can be sent to {@code /sync} endpoint of Inventory
+         * in order to sync the subtree rooted at the given resource. No types are synced.
+         *
+         * @param resourceManager contains the resources to be sync'ed
+         * @param subtreeRoot the resource whose subtree is to be sync'ed (need not be a root resource)
+         * @return sync structure for the subtree
+         */
+        public Offline<org.hawkular.inventory.api.model.Resource.Blueprint> build(
+                ResourceManager<L> resourceManager, Resource<L> subtreeRoot) {
+
             synchronized (addedIds) {
                 prepareAddedIds();
 
-                // recursively builds the sync structure starting at the roots of the inventory
-                for (Resource<L> root : roots) {
-                    InventoryStructure.Builder<org.hawkular.inventory.api.model.Resource.Blueprint> invBldr;
-                    org.hawkular.inventory.api.model.Resource.Blueprint rootBP = buildResourceBlueprint(root);
-                    invBldr = InventoryStructure.Offline.of(rootBP);
-                    resource(resourceManager, root, invBldr);
-                    retVal.put(root, invBldr.build());
-                }
+                InventoryStructure.Builder<org.hawkular.inventory.api.model.Resource.Blueprint> invBldr;
+                org.hawkular.inventory.api.model.Resource.Blueprint rootBP = buildResourceBlueprint(subtreeRoot);
+                invBldr = InventoryStructure.Offline.of(rootBP);
+                resource(resourceManager, subtreeRoot, invBldr);
+                return invBldr.build();
             }
-
-            return retVal;
         }
 
         /**
@@ -452,25 +475,43 @@ public class AsyncInventoryStorage implements InventoryStorage {
 
     private static final MsgLogger log = AgentLoggers.getLogger(AsyncInventoryStorage.class);
 
+    private static final String SYNC_HASHES_FILE = "inventory-sync-hashes.json";
+
     private final String feedId;
     private final MonitorServiceConfiguration.StorageAdapterConfiguration config;
     private final HttpClientBuilder httpClientBuilder;
     private final Diagnostics diagnostics;
+    private final InventorySyncHashes syncHashes; // null unless we only sync what changed
+    private final ExecutorService syncExecutor; // sends the sync requests, bounded by the sync concurrency
 
     public AsyncInventoryStorage(
             String feedId,
             StorageAdapterConfiguration config,
             HttpClientBuilder httpClientBuilder,
-            Diagnostics diagnostics) {
+            Diagnostics diagnostics,
+            File dataDirectory) {
         super();
         this.feedId = feedId;
         this.config = config;
         this.httpClientBuilder = httpClientBuilder;
         this.diagnostics = diagnostics;
+
+        if (config.getInventorySyncMode() == InventorySyncMode.DIFF) {
+            File hashesFile = (dataDirectory != null) ? new File(dataDirectory, SYNC_HASHES_FILE) : null;
+            this.syncHashes = new InventorySyncHashes(feedId, hashesFile);
+        } else {
+            this.syncHashes = null;
+        }
+
+        ThreadFactory threadFactory = ThreadFactoryGenerator.generateFactory(true,
+                "Hawkular WildFly Agent Inventory Sync");
+        this.syncExecutor = Executors.newFixedThreadPool(Math.max(1, config.getInventorySyncConcurrency()),
+                threadFactory);
     }
 
     public void shutdown() {
         log.debugf("Shutting down async inventory storage");
+        syncExecutor.shutdownNow();
     }
 
     @Override
@@ -486,16 +527,15 @@ public class AsyncInventoryStorage implements InventoryStorage {
         // so we remove it here. Any children resources will be synced via discoveryCompleted so we don't
         // do anything in here.
         List<Resource<L>> removedResources = event.getPayload();
+        MonitoredEndpoint<EndpointConfiguration> endpoint = event.getSamplingService().getMonitoredEndpoint();
+        String endpointTenantId = endpoint.getEndpointConfiguration().getTenantId();
+        String tenantIdToUse = (endpointTenantId != null) ? endpointTenantId : config.getTenantId();
+
         for (Resource<L> removedResource : removedResources) {
             if (removedResource.getParent() == null) {
                 try {
                     log.debugf("Removing root resource: %s", removedResource);
 
-                    MonitoredEndpoint<EndpointConfiguration> endpoint = event.getSamplingService()
-                            .getMonitoredEndpoint();
-                    String endpointTenantId = endpoint.getEndpointConfiguration().getTenantId();
-                    String tenantIdToUse = (endpointTenantId != null) ? endpointTenantId : config.getTenantId();
-
                     // The final URL should be in the form: entity/<resource_canonical_path>
                     // for example: entity/t;hawkular/f;myfeed/r;resource_id
 
@@ -540,13 +580,19 @@ public class AsyncInventoryStorage implements InventoryStorage {
 
             }
         }
+
+        // Forget what we synced for the removed resources. Removed children change the hash of their parent,
+        // so those will be re-synced via discoveryCompleted.
+        if (syncHashes != null) {
+            syncHashes.forget(tenantIdToUse, removedResources);
+            syncHashes.persist();
+        }
+
         return;
     }
 
-    // FIXME: This really shouldn't be synchronized but it seems to workaround inventory/titan issues.
-    //        Once Titan is fixed/replaced, we need to delete the "synchronized" keyword here.
     @Override
-    public synchronized <L> void discoveryCompleted(DiscoveryEvent<L> event) {
+    public <L> void discoveryCompleted(DiscoveryEvent<L> event) {
         ResourceManager<L> resourceManager = event.getResourceManager();
         ResourceTypeManager<L> resourceTypeManager = event.getResourceTypeManager();
         MonitoredEndpoint<EndpointConfiguration> endpoint = event.getSamplingService().getMonitoredEndpoint();
@@ -558,35 +604,134 @@ public class AsyncInventoryStorage implements InventoryStorage {
         // Since we know types never change during the lifetime of the agent, we don't have to process
         // types that have already been flagged as having been persisted.
         // We first must persist metric types then resource types (remember, there are no hierarchies,
-        // all metric types and resource types are peers to one another).
+        // all metric types and resource types are peers to one another) and only then the resources
+        // that refer to those types. The syncs within each of those stages do not depend on each other,
+        // so each stage is sent as one batch of concurrent requests.
         List<ResourceType<L>> allResourceTypes = resourceTypeManager.getResourceTypesBreadthFirst()
                 .stream()
                 .filter(rt -> rt.isPersisted() == false)
                 .collect(Collectors.toList());
         Map<MeasurementType<L>, Offline<org.hawkular.inventory.api.model.MetricType.Blueprint>> mtBlueprints;
         mtBlueprints = bldr.buildMetrics(allResourceTypes);
-        mtBlueprints.forEach((mt, bp) -> performMetricTypeSync(bp, tenantIdToUse));
+        List<MeasurementType<L>> measurementTypes = new ArrayList<>(mtBlueprints.keySet());
+        List<Callable<Boolean>> mtSyncs = new ArrayList<>(measurementTypes.size());
+        measurementTypes.forEach(mt -> mtSyncs.add(() -> performMetricTypeSync(mtBlueprints.get(mt), tenantIdToUse)));
+        List<Boolean> mtResults = performSyncs(mtSyncs);
 
         Map<ResourceType<L>, Offline<org.hawkular.inventory.api.model.ResourceType.Blueprint>> rtBlueprints;
         rtBlueprints = bldr.build(allResourceTypes);
-        rtBlueprints.forEach((rt, bp) -> performResourceTypeSync(bp, tenantIdToUse));
-
-        // indicate we persisted the resource types
-        allResourceTypes.forEach(rt -> rt.setPersisted(true));
+        List<ResourceType<L>> resourceTypes = new ArrayList<>(rtBlueprints.keySet());
+        List<Callable<Boolean>> rtSyncs = new ArrayList<>(resourceTypes.size());
+        resourceTypes.forEach(rt -> rtSyncs.add(() -> performResourceTypeSync(rtBlueprints.get(rt), tenantIdToUse)));
+        List<Boolean> rtResults = performSyncs(rtSyncs);
+
+        // indicate which types we persisted; the resources must wait until all the types they refer to made it
+        if (!InventorySyncStages.markTypesPersisted(measurementTypes, mtResults, resourceTypes, rtResults)) {
+            log.debugf("Not all types of endpoint [%s] were synced; its resources will be synced after the types "
+                    + "are synced again with the next discovery", endpoint);
+            return;
+        }
 
-        // build the JSON blueprints for the sync resource requests
-        // Note that it is possible for a endpoint to define multiple root resources.
-        // We have to sync each root resource separately.
-        Map<Resource<L>, Offline<org.hawkular.inventory.api.model.Resource.Blueprint>> rBlueprints;
-        rBlueprints = bldr.build(resourceManager);
-        rBlueprints.forEach((r, bp) -> performResourceSync(bp, tenantIdToUse, resourceManager.size(r)));
+        if (syncHashes == null) {
+            // build the JSON blueprints for the sync resource requests
+            // Note that it is possible for a endpoint to define multiple root resources.
+            // We have to sync each root resource separately.
+            Map<Resource<L>, Offline<org.hawkular.inventory.api.model.Resource.Blueprint>> rBlueprints;
+            rBlueprints = bldr.build(resourceManager);
+            List<Callable<Boolean>> rSyncs = new ArrayList<>(rBlueprints.size());
+            rBlueprints.forEach((r, bp) -> {
+                String resourcePath = getResourcePath(r);
+                int resourceCount = resourceManager.size(r);
+                rSyncs.add(() -> performResourceSync(bp, resourcePath, tenantIdToUse, resourceCount));
+            });
+            performSyncs(rSyncs);
+        } else {
+            performChangedResourcesSync(bldr, resourceManager, tenantIdToUse);
+        }
 
         // indicate we persisted the resources
         resourceManager.getResourcesBreadthFirst().forEach(r -> r.setPersisted(true));
     }
 
-    private <L> void performResourceSync(
+    /**
+     * Syncs only those resource subtrees whose hashes differ from what was last synced.
+     * Root resources whose trees have not changed are skipped entirely.
+     */
+    private <L> void performChangedResourcesSync(InventoryPayloadBuilder<L> bldr, ResourceManager<L> resourceManager,
+            String tenantIdToUse) {
+
+        Map<String, InventorySyncHashes.Hashes> currentHashes = InventorySyncHashes.computeHashes(resourceManager);
+
+        Map<Resource<L>, List<Resource<L>>> changedSubtreesByRoot = new LinkedHashMap<>();
+        List<Resource<L>> allChangedSubtrees = new ArrayList<>();
+        for (Resource<L> root : resourceManager.getRootResources()) {
+            List<Resource<L>> changedSubtrees = syncHashes.getChangedSubtrees(tenantIdToUse, resourceManager, root,
+                    currentHashes);
+
+            if (changedSubtrees.isEmpty()) {
+                log.debugf("Resource tree rooted at [%s] has not changed since last sync; skipping it", root);
+                continue;
+            }
+
+            log.debugf("Resource tree rooted at [%s] has [%d] changed subtrees to sync", root,
+                    changedSubtrees.size());
+            changedSubtreesByRoot.put(root, changedSubtrees);
+            allChangedSubtrees.addAll(changedSubtrees);
+        }
+
+        // the changed subtrees never overlap so they can all be synced at the same time
+        List<Callable<Boolean>> syncs = new ArrayList<>(allChangedSubtrees.size());
+        for (Resource<L> subtreeRoot : allChangedSubtrees) {
+            Offline<org.hawkular.inventory.api.model.Resource.Blueprint> bp;
+            bp = bldr.build(resourceManager, subtreeRoot);
+            String resourcePath = getResourcePath(subtreeRoot);
+            int resourceCount = resourceManager.size(subtreeRoot);
+            syncs.add(() -> performResourceSync(bp, resourcePath, tenantIdToUse, resourceCount));
+        }
+        List<Boolean> results = performSyncs(syncs);
+
+        Set<Resource<L>> failedSubtrees = new HashSet<>();
+        for (int i = 0; i < allChangedSubtrees.size(); i++) {
+            Resource<L> subtreeRoot = allChangedSubtrees.get(i);
+            if (results.get(i)) {
+                syncHashes.markSynced(tenantIdToUse, resourceManager, subtreeRoot, currentHashes);
+            } else {
+                failedSubtrees.add(subtreeRoot);
+            }
+        }
+
+        // only once everything under a root made it to inventory can we remember the root's new hashes;
+        // otherwise the next discovery will look at that tree again and retry what failed
+        changedSubtreesByRoot.forEach((root, changedSubtrees) -> {
+            if (changedSubtrees.stream().noneMatch(failedSubtrees::contains)) {
+                syncHashes.markSynced(tenantIdToUse, resourceManager, root, currentHashes);
+            }
+        });
+
+        syncHashes.persist();
+    }
+
+    private List<Boolean> performSyncs(List<Callable<Boolean>> syncs) {
+        return InventorySyncStages.performSyncs(syncExecutor, syncs);
+    }
+
+    /**
+     * @return the path of the resource relative to the feed, e.g. {@code /r;parent_id/r;child_id}
+     */
+    private <L> String getResourcePath(Resource<L> resource) {
+        StringBuilder path = new StringBuilder();
+        for (Resource<L> r = resource; r != null; r = r.getParent()) {
+            path.insert(0, Util.urlEncode(r.getID().getIDString())).insert(0, "/r;");
+        }
+        return path.toString();
+    }
+
+    /**
+     * @return true if the sync succeeded, false otherwise
+     */
+    private <L> boolean performResourceSync(
             InventoryStructure<org.hawkular.inventory.api.model.Resource.Blueprint> resourceStructure,
+            String resourcePath,
             String tenantIdToUse,
             int totalResourceCount) {
 
@@ -600,7 +745,7 @@ public class AsyncInventoryStorage implements InventoryStorage {
                         AsyncInventoryStorage.this.config.getInventoryContext());
                 url.append("sync");
                 url.append("/f;").append(this.feedId);
-                url.append("/r;").append(Util.urlEncode(resourceStructure.getRoot().getId()));
+                url.append(resourcePath);
                 String jsonPayload = Util.toJson(sync);
                 Map<String, String> headers = getTenantHeader(tenantIdToUse);
 
@@ -636,16 +781,21 @@ public class AsyncInventoryStorage implements InventoryStorage {
             } catch (InterruptedException ie) {
                 log.errorFailedToStoreInventoryData(ie);
                 Thread.currentThread().interrupt(); // preserve interrupt
+                return false;
             } catch (Exception e) {
                 log.errorFailedToStoreInventoryData(e);
                 diagnostics.getStorageErrorRate().mark(1);
+                return false;
             }
         }
 
-        return;
+        return true;
     }
 
-    private <L> void performResourceTypeSync(
+    /**
+     * @return true if the sync succeeded, false otherwise
+     */
+    private <L> boolean performResourceTypeSync(
             Offline<org.hawkular.inventory.api.model.ResourceType.Blueprint> resourceTypeStructure,
             String tenantIdToUse) {
 
@@ -693,16 +843,21 @@ public class AsyncInventoryStorage implements InventoryStorage {
             } catch (InterruptedException ie) {
                 log.errorFailedToStoreInventoryData(ie);
                 Thread.currentThread().interrupt(); // preserve interrupt
+                return false;
             } catch (Exception e) {
                 log.errorFailedToStoreInventoryData(e);
                 diagnostics.getStorageErrorRate().mark(1);
+                return false;
             }
         }
 
-        return;
+        return true;
     }
 
-    private <L> void performMetricTypeSync(
+    /**
+     * @return true if the sync succeeded, false otherwise
+     */
+    private <L> boolean performMetricTypeSync(
             Offline<org.hawkular.inventory.api.model.MetricType.Blueprint> metricTypeStructure,
             String tenantIdToUse) {
 
@@ -750,13 +905,15 @@ public class AsyncInventoryStorage implements InventoryStorage {
             } catch (InterruptedException ie) {
                 log.errorFailedToStoreInventoryData(ie);
                 Thread.currentThread().interrupt(); // preserve interrupt
+                return false;
             } catch (Exception e) {
                 log.errorFailedToStoreInventoryData(e);
                 diagnostics.getStorageErrorRate().mark(1);
+                return false;
             }
         }
 
-        return;
+        return true;
     }
 
     /**
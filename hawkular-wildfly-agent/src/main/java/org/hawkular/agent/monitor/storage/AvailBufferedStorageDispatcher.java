@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -20,17 +20,19 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.hawkular.agent.monitor.diagnostics.Diagnostics;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.scheduler.SchedulerConfiguration;
-import org.hawkular.agent.monitor.util.Consumer;
+
+import com.codahale.metrics.Timer;
 
 /**
  * Buffers availability check data and eventually stores them in a storage adapter.
  */
-public class AvailBufferedStorageDispatcher implements Consumer<AvailDataPoint> {
+public class AvailBufferedStorageDispatcher implements StorageDispatcher<AvailDataPoint> {
     private static final MsgLogger log = AgentLoggers.getLogger(AvailBufferedStorageDispatcher.class);
     private final int maxBatchSize;
     private final int bufferSize;
@@ -41,18 +43,32 @@ public class AvailBufferedStorageDispatcher implements Consumer<AvailDataPoint>
 
     public AvailBufferedStorageDispatcher(SchedulerConfiguration config, StorageAdapter storageAdapter,
             Diagnostics diagnostics) {
+        this(config, storageAdapter, diagnostics, null);
+    }
+
+    /**
+     * @param config provides the buffer size and the maximum batch size
+     * @param storageAdapter where the buffered data is eventually stored
+     * @param diagnostics used to track the buffer size
+     * @param name if not null, it is added to the name of the worker thread so it can be told apart from the
+     *             workers of other dispatchers
+     */
+    public AvailBufferedStorageDispatcher(SchedulerConfiguration config, StorageAdapter storageAdapter,
+            Diagnostics diagnostics, String name) {
         this.maxBatchSize = config.getAvailDispatcherMaxBatchSize();
         this.bufferSize = config.getAvailDispatcherBufferSize();
         this.storageAdapter = storageAdapter;
         this.diagnostics = diagnostics;
         this.queue = new ArrayBlockingQueue<AvailDataPoint>(bufferSize);
-        this.worker = new Worker(queue);
+        this.worker = new Worker(queue, name);
     }
 
+    @Override
     public void start() {
         worker.start();
     }
 
+    @Override
     public void shutdown() {
         worker.setKeepRunning(false);
         worker.interrupt();
@@ -66,16 +82,27 @@ public class AvailBufferedStorageDispatcher implements Consumer<AvailDataPoint>
 
     @Override
     public void accept(AvailDataPoint sample) {
-        if (queue.remainingCapacity() > 0) {
-            log.debugf("Availability checked: [%s]->[%s]", sample.getKey(), sample.getValue());
-            diagnostics.getAvailStorageBufferSize().inc();
-            queue.add(sample);
-        }
-        else {
+        if (!offer(sample)) {
             throw new RuntimeException("Avail dispatcher buffer capacity has been exceeded [" + bufferSize + "]");
         }
     }
 
+    /**
+     * Buffers the given data point unless the buffer is full.
+     *
+     * @param sample the data point to be stored
+     * @return true if the data point was buffered, false if the buffer is full and the data point was dropped
+     */
+    public boolean offer(AvailDataPoint sample) {
+        log.debugf("Availability checked: [%s]->[%s]", sample.getKey(), sample.getValue());
+        diagnostics.getAvailStorageBufferSize().inc();
+        if (!queue.offer(sample)) {
+            diagnostics.getAvailStorageBufferSize().dec();
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void report(Throwable e) {
         log.errorAvailCheckFailed(e);
@@ -85,8 +112,8 @@ public class AvailBufferedStorageDispatcher implements Consumer<AvailDataPoint>
         private final BlockingQueue<AvailDataPoint> queue;
         private boolean keepRunning = true;
 
-        public Worker(BlockingQueue<AvailDataPoint> queue) {
-            super("Hawkular-WildFly-Agent-Storage-Dispatcher-Avail");
+        public Worker(BlockingQueue<AvailDataPoint> queue, String name) {
+            super("Hawkular-WildFly-Agent-Storage-Dispatcher-Avail" + ((name == null) ? "" : ("-" + name)));
             this.queue = queue;
         }
 
@@ -101,8 +128,20 @@ public class AvailBufferedStorageDispatcher implements Consumer<AvailDataPoint>
 
                     diagnostics.getAvailStorageBufferSize().dec(samples.size());
 
-                    // dispatch
-                    storageAdapter.storeAvails(samples, 0);
+                    // how long the samples waited since they were collected
+                    long now = System.currentTimeMillis();
+                    Timer queueTimer = diagnostics.getAvailStorageQueueTimer();
+                    for (AvailDataPoint queued : samples) {
+                        queueTimer.update(now - queued.getTimestamp(), TimeUnit.MILLISECONDS);
+                    }
+
+                    // dispatch - a failing storage adapter must not kill the worker
+                    try {
+                        storageAdapter.storeAvails(samples, 0);
+                    } catch (Exception e) {
+                        log.errorf(e, "Failed to store [%d] availability data points", samples.size());
+                        diagnostics.getStorageErrorRate().mark(1);
+                    }
                 }
             } catch (InterruptedException ie) {
             }
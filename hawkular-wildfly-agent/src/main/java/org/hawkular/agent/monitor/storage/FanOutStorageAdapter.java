@@ -0,0 +1,390 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hawkular.agent.monitor.api.AvailDataPayloadBuilder;
+import org.hawkular.agent.monitor.api.DiscoveryEvent;
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.api.MetricDataPayloadBuilder;
+import org.hawkular.agent.monitor.api.MetricTagPayloadBuilder;
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.scheduler.SchedulerConfiguration;
+
+/**
+ * A storage adapter that hands everything it is asked to store to several other storage adapters (the sinks).
+ * The first sink is the primary one - it provides the configuration and the payload builders.
+ *
+ * Each sink has its own bounded buffers and its own worker threads that store the buffered data points in batches
+ * (see {@link MetricBufferedStorageDispatcher} and {@link AvailBufferedStorageDispatcher}), so a slow or failing sink
+ * does not hold up the others. If a sink cannot keep up and its buffer fills up, the data points it cannot take
+ * are dropped for that sink only. The sizes of the buffers of each sink and how long data points wait in them are
+ * tracked by the sink's own diagnostics (see {@link Diagnostics#getStorageSinkDiagnostics(String)}).
+ *
+ * Because the sinks buffer the data points themselves, the dispatchers this adapter creates for the scheduler
+ * hand the collected data points straight to the buffers of the sinks rather than buffering them once more.
+ *
+ * Data points that the caller wants to wait for (a non-zero wait time) and data built with payload builders are
+ * handed to all the sinks directly in the caller thread.
+ */
+public class FanOutStorageAdapter implements StorageAdapter {
+    private static final MsgLogger log = AgentLoggers.getLogger(FanOutStorageAdapter.class);
+
+    /**
+     * A storage adapter the data is handed to along with how the data is buffered and batched for it.
+     */
+    public static class Sink {
+        private final String name;
+        private final StorageAdapter storageAdapter;
+        private final SchedulerConfiguration dispatcherConfig;
+
+        /**
+         * @param name identifies the sink in log messages and thread names
+         * @param storageAdapter the adapter that stores the data
+         * @param dispatcherConfig the buffer sizes and maximum batch sizes of the sink's metric and avail buffers
+         */
+        public Sink(String name, StorageAdapter storageAdapter, SchedulerConfiguration dispatcherConfig) {
+            this.name = name;
+            this.storageAdapter = storageAdapter;
+            this.dispatcherConfig = dispatcherConfig;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public StorageAdapter getStorageAdapter() {
+            return storageAdapter;
+        }
+    }
+
+    private static class SinkDispatcher {
+        private final Sink sink;
+        private final MetricBufferedStorageDispatcher metricDispatcher;
+        private final AvailBufferedStorageDispatcher availDispatcher;
+        // whether the last data points offered to the buffers were dropped - so a full buffer is only warned about
+        // once rather than for every data point it cannot take
+        private final AtomicBoolean droppingMetrics = new AtomicBoolean(false);
+        private final AtomicBoolean droppingAvails = new AtomicBoolean(false);
+
+        private SinkDispatcher(Sink sink, Diagnostics diagnostics) {
+            this.sink = sink;
+            this.metricDispatcher = new MetricBufferedStorageDispatcher(sink.dispatcherConfig,
+                    sink.storageAdapter, diagnostics, sink.name);
+            this.availDispatcher = new AvailBufferedStorageDispatcher(sink.dispatcherConfig,
+                    sink.storageAdapter, diagnostics, sink.name);
+        }
+    }
+
+    private final List<Sink> sinks;
+    private final StorageAdapter primary;
+    private volatile List<SinkDispatcher> dispatchers = Collections.emptyList();
+    private Diagnostics diagnostics;
+
+    public FanOutStorageAdapter(List<Sink> sinks) {
+        if (sinks.isEmpty()) {
+            throw new IllegalArgumentException("At least one sink is required");
+        }
+        this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+        this.primary = sinks.get(0).storageAdapter;
+    }
+
+    /**
+     * @return the primary sink followed by all the other sinks the data is handed to
+     */
+    public List<Sink> getSinks() {
+        return sinks;
+    }
+
+    @Override
+    public void initialize(
+            String feedId,
+            MonitorServiceConfiguration.StorageAdapterConfiguration config,
+            Diagnostics diag,
+            HttpClientBuilder httpClientBuilder,
+            File dataDirectory) {
+        this.diagnostics = diag;
+
+        List<SinkDispatcher> newDispatchers = new ArrayList<>(sinks.size());
+        for (Sink sink : sinks) {
+            sink.storageAdapter.initialize(feedId, config, diag, httpClientBuilder, dataDirectory);
+            SinkDispatcher dispatcher = new SinkDispatcher(sink, diag.getStorageSinkDiagnostics(sink.name));
+            dispatcher.metricDispatcher.start();
+            dispatcher.availDispatcher.start();
+            newDispatchers.add(dispatcher);
+        }
+        this.dispatchers = newDispatchers;
+    }
+
+    @Override
+    public MonitorServiceConfiguration.StorageAdapterConfiguration getStorageAdapterConfiguration() {
+        return primary.getStorageAdapterConfiguration();
+    }
+
+    /**
+     * @return hands each collected metric data point to the buffers of all sinks without waiting for them - the
+     *         buffers are started and stopped along with this adapter
+     */
+    @Override
+    public StorageDispatcher<MetricDataPoint> createMetricDispatcher(SchedulerConfiguration config,
+            Diagnostics diag) {
+        return new StorageDispatcher<MetricDataPoint>() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void shutdown() {
+            }
+
+            @Override
+            public void accept(MetricDataPoint datapoint) {
+                offerMetrics(Collections.singleton(datapoint));
+            }
+
+            @Override
+            public void report(Throwable e) {
+                log.errorMetricCollectionFailed(e);
+            }
+        };
+    }
+
+    /**
+     * @return hands each checked availability data point to the buffers of all sinks without waiting for them - the
+     *         buffers are started and stopped along with this adapter
+     */
+    @Override
+    public StorageDispatcher<AvailDataPoint> createAvailDispatcher(SchedulerConfiguration config,
+            Diagnostics diag) {
+        return new StorageDispatcher<AvailDataPoint>() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void shutdown() {
+            }
+
+            @Override
+            public void accept(AvailDataPoint datapoint) {
+                offerAvails(Collections.singleton(datapoint));
+            }
+
+            @Override
+            public void report(Throwable e) {
+                log.errorAvailCheckFailed(e);
+            }
+        };
+    }
+
+    @Override
+    public MetricDataPayloadBuilder createMetricDataPayloadBuilder() {
+        return primary.createMetricDataPayloadBuilder();
+    }
+
+    @Override
+    public AvailDataPayloadBuilder createAvailDataPayloadBuilder() {
+        return primary.createAvailDataPayloadBuilder();
+    }
+
+    @Override
+    public MetricTagPayloadBuilder createMetricTagPayloadBuilder() {
+        return primary.createMetricTagPayloadBuilder();
+    }
+
+    @Override
+    public void storeMetrics(Set<MetricDataPoint> datapoints, long waitMillis) {
+        if (datapoints == null || datapoints.isEmpty()) {
+            return; // nothing to do
+        }
+
+        if (waitMillis > 0) {
+            for (Sink sink : sinks) {
+                try {
+                    sink.storageAdapter.storeMetrics(datapoints, waitMillis);
+                } catch (Throwable t) {
+                    sinkFailedToStore(sink, "metric data", t);
+                }
+            }
+            return;
+        }
+
+        offerMetrics(datapoints);
+    }
+
+    @Override
+    public void storeAvails(Set<AvailDataPoint> datapoints, long waitMillis) {
+        if (datapoints == null || datapoints.isEmpty()) {
+            return; // nothing to do
+        }
+
+        if (waitMillis > 0) {
+            for (Sink sink : sinks) {
+                try {
+                    sink.storageAdapter.storeAvails(datapoints, waitMillis);
+                } catch (Throwable t) {
+                    sinkFailedToStore(sink, "availability data", t);
+                }
+            }
+            return;
+        }
+
+        offerAvails(datapoints);
+    }
+
+    private void offerMetrics(Collection<MetricDataPoint> datapoints) {
+        for (SinkDispatcher dispatcher : dispatchers) {
+            int dropped = 0;
+            for (MetricDataPoint datapoint : datapoints) {
+                if (!dispatcher.metricDispatcher.offer(datapoint)) {
+                    dropped++;
+                }
+            }
+            bufferFull(dispatcher, dispatcher.droppingMetrics, dropped, "metric");
+        }
+    }
+
+    private void offerAvails(Collection<AvailDataPoint> datapoints) {
+        for (SinkDispatcher dispatcher : dispatchers) {
+            int dropped = 0;
+            for (AvailDataPoint datapoint : datapoints) {
+                if (!dispatcher.availDispatcher.offer(datapoint)) {
+                    dropped++;
+                }
+            }
+            bufferFull(dispatcher, dispatcher.droppingAvails, dropped, "availability");
+        }
+    }
+
+    private void bufferFull(SinkDispatcher dispatcher, AtomicBoolean dropping, int dropped, String dataType) {
+        if (dropped == 0) {
+            dropping.set(false);
+            return;
+        }
+        diagnostics.getStorageErrorRate().mark(1);
+        if (dropping.compareAndSet(false, true)) {
+            log.warnStorageSinkBufferFull(dispatcher.sink.name, dropped, dataType);
+        } else {
+            log.debugf("Storage sink [%s] is still dropping %s data points - dropped [%d] more", dispatcher.sink.name,
+                    dataType, dropped);
+        }
+    }
+
+    @Override
+    public void store(MetricDataPayloadBuilder payloadBuilder, long waitMillis) {
+        for (Sink sink : sinks) {
+            try {
+                sink.storageAdapter.store(payloadBuilder, waitMillis);
+            } catch (Throwable t) {
+                sinkFailedToStore(sink, "metric data", t);
+            }
+        }
+    }
+
+    @Override
+    public void store(MetricTagPayloadBuilder payloadBuilder, long waitMillis) {
+        for (Sink sink : sinks) {
+            try {
+                sink.storageAdapter.store(payloadBuilder, waitMillis);
+            } catch (Throwable t) {
+                sinkFailedToStore(sink, "metric tags", t);
+            }
+        }
+    }
+
+    @Override
+    public void store(AvailDataPayloadBuilder payloadBuilder, long waitMillis) {
+        for (Sink sink : sinks) {
+            try {
+                sink.storageAdapter.store(payloadBuilder, waitMillis);
+            } catch (Throwable t) {
+                sinkFailedToStore(sink, "availability data", t);
+            }
+        }
+    }
+
+    @Override
+    public <L> void resourcesAdded(InventoryEvent<L> event) {
+        for (Sink sink : sinks) {
+            try {
+                sink.storageAdapter.resourcesAdded(event);
+            } catch (Throwable t) {
+                sinkFailedToProcess(sink, "added resources", t);
+            }
+        }
+    }
+
+    @Override
+    public <L> void resourcesRemoved(InventoryEvent<L> event) {
+        for (Sink sink : sinks) {
+            try {
+                sink.storageAdapter.resourcesRemoved(event);
+            } catch (Throwable t) {
+                sinkFailedToProcess(sink, "removed resources", t);
+            }
+        }
+    }
+
+    @Override
+    public <L> void discoveryCompleted(DiscoveryEvent<L> event) {
+        for (Sink sink : sinks) {
+            try {
+                sink.storageAdapter.discoveryCompleted(event);
+            } catch (Throwable t) {
+                sinkFailedToProcess(sink, "completed discovery", t);
+            }
+        }
+    }
+
+    private void sinkFailedToStore(Sink sink, String dataType, Throwable t) {
+        log.errorStorageSinkFailedToStore(t, sink.name, dataType);
+        diagnostics.getStorageErrorRate().mark(1);
+    }
+
+    private void sinkFailedToProcess(Sink sink, String inventoryEvent, Throwable t) {
+        log.errorStorageSinkFailedToProcess(t, sink.name, inventoryEvent);
+        diagnostics.getStorageErrorRate().mark(1);
+    }
+
+    @Override
+    public void shutdown() {
+        List<SinkDispatcher> oldDispatchers = this.dispatchers;
+        this.dispatchers = Collections.emptyList();
+        for (SinkDispatcher dispatcher : oldDispatchers) {
+            dispatcher.metricDispatcher.shutdown();
+            dispatcher.availDispatcher.shutdown();
+        }
+
+        for (Sink sink : sinks) {
+            try {
+                sink.storageAdapter.shutdown();
+            } catch (Throwable t) {
+                log.debugf(t, "Cannot shutdown storage sink [%s]", sink.name);
+            }
+        }
+    }
+}
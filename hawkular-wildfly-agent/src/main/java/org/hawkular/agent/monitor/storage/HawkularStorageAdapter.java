@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,6 +16,7 @@
  */
 package org.hawkular.agent.monitor.storage;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
@@ -43,6 +44,8 @@ import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.util.Util;
 
+import com.codahale.metrics.Timer;
+
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.Request;
@@ -65,7 +68,8 @@ public class HawkularStorageAdapter implements StorageAdapter {
             String feedId,
             MonitorServiceConfiguration.StorageAdapterConfiguration config,
             Diagnostics diag,
-            HttpClientBuilder httpClientBuilder) {
+            HttpClientBuilder httpClientBuilder,
+            File dataDirectory) {
         this.config = config;
         this.diagnostics = diag;
         this.httpClientBuilder = httpClientBuilder;
@@ -74,7 +78,8 @@ public class HawkularStorageAdapter implements StorageAdapter {
         switch (config.getType()) {
             case HAWKULAR:
                 // We are in a full hawkular environment - so we will integrate with inventory.
-                this.inventoryStorage = new AsyncInventoryStorage(feedId, config, httpClientBuilder, diagnostics);
+                this.inventoryStorage = new AsyncInventoryStorage(feedId, config, httpClientBuilder, diagnostics,
+                        dataDirectory);
                 break;
 
             case METRICS:
@@ -134,7 +139,7 @@ public class HawkularStorageAdapter implements StorageAdapter {
                 }
             }
 
-            store(payloadBuilder, waitMillis);
+            store(payloadBuilder, waitMillis, tenantDataPoints);
         }
 
         return;
@@ -142,6 +147,18 @@ public class HawkularStorageAdapter implements StorageAdapter {
 
     @Override
     public void store(MetricDataPayloadBuilder payloadBuilder, long waitMillis) {
+        store(payloadBuilder, waitMillis, null);
+    }
+
+    /**
+     * Stores the data of the payload builder.
+     *
+     * @param payloadBuilder the data to store
+     * @param waitMillis how long to wait for the storage to acknowledge the data
+     * @param datapoints the data points the payload was built from - if not null, the time it took from their
+     *                   collection to their acknowledgement is recorded
+     */
+    private void store(MetricDataPayloadBuilder payloadBuilder, long waitMillis, Set<MetricDataPoint> datapoints) {
         String jsonPayload = "?";
 
         try {
@@ -192,6 +209,9 @@ public class HawkularStorageAdapter implements StorageAdapter {
                         } else {
                             // looks like everything stored successfully
                             diagnostics.getMetricRate().mark(payloadBuilder.getNumberDataPoints());
+                            if (datapoints != null) {
+                                recordLatency(diagnostics.getMetricsStorageLatencyTimer(), datapoints);
+                            }
                         }
                     } finally {
                         if (latch != null) {
@@ -232,7 +252,7 @@ public class HawkularStorageAdapter implements StorageAdapter {
                 payloadBuilder.addDataPoint(datapoint.getKey(), timestamp, value);
             }
 
-            store(payloadBuilder, waitMillis);
+            store(payloadBuilder, waitMillis, tenantDataPoints);
         }
 
         return;
@@ -240,6 +260,18 @@ public class HawkularStorageAdapter implements StorageAdapter {
 
     @Override
     public void store(AvailDataPayloadBuilder payloadBuilder, long waitMillis) {
+        store(payloadBuilder, waitMillis, null);
+    }
+
+    /**
+     * Stores the data of the payload builder.
+     *
+     * @param payloadBuilder the data to store
+     * @param waitMillis how long to wait for the storage to acknowledge the data
+     * @param datapoints the data points the payload was built from - if not null, the time it took from their
+     *                   collection to their acknowledgement is recorded
+     */
+    private void store(AvailDataPayloadBuilder payloadBuilder, long waitMillis, Set<AvailDataPoint> datapoints) {
         String jsonPayload = "?";
 
         try {
@@ -290,6 +322,9 @@ public class HawkularStorageAdapter implements StorageAdapter {
                         } else {
                             // looks like everything stored successfully
                             diagnostics.getAvailRate().mark(payloadBuilder.getNumberDataPoints());
+                            if (datapoints != null) {
+                                recordLatency(diagnostics.getAvailStorageLatencyTimer(), datapoints);
+                            }
                         }
                     } finally {
                         if (latch != null) {
@@ -458,6 +493,13 @@ public class HawkularStorageAdapter implements StorageAdapter {
         return Collections.singletonMap("Hawkular-Tenant", tenantId);
     }
 
+    private static void recordLatency(Timer timer, Set<? extends DataPoint> datapoints) {
+        long now = System.currentTimeMillis();
+        for (DataPoint datapoint : datapoints) {
+            timer.update(now - datapoint.getTimestamp(), TimeUnit.MILLISECONDS);
+        }
+    }
+
     private <T extends DataPoint> Map<String, Set<T>> separateByTenantId(Set<T> dataPoints) {
         Map<String, Set<T>> byTenant = new HashMap<>();
         for (T dp : dataPoints) {
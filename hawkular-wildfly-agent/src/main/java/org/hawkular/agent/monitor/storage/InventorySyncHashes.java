@@ -0,0 +1,356 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hawkular.agent.monitor.inventory.Instance;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceConfigurationPropertyInstance;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.util.Util;
+
+/**
+ * Keeps track of Merkle-style hashes of the resource subtrees that were last synced to inventory.
+ * This allows the agent to skip syncing resource trees that have not changed and to sync only the
+ * smallest subtrees that did change.
+ *
+ * Each resource gets two hashes:
+ * <ul>
+ * <li>the node hash - covers the resource itself (its name, type, properties, resource configuration,
+ * metrics and avails) along with the IDs of its direct children</li>
+ * <li>the tree hash - covers the node hash along with the tree hashes of all of its children</li>
+ * </ul>
+ *
+ * If a resource's tree hash matches what was last synced, nothing in that subtree changed. If the node hash
+ * changed, the resource itself (or its set of children) changed and the subtree rooted at it must be synced
+ * (because inventory sync will remove any children not found in the sync structure). Otherwise only
+ * some descendants changed and those children subtrees can be examined individually.
+ *
+ * If a file is given, the last synced hashes are persisted to it so they survive agent restarts.
+ */
+public class InventorySyncHashes {
+    private static final MsgLogger log = AgentLoggers.getLogger(InventorySyncHashes.class);
+
+    /**
+     * The node and tree hashes of a single resource, along with the IDs of its direct children so that
+     * the hashes of a whole subtree can be forgotten once the resources are gone.
+     */
+    public static class Hashes {
+        private String nodeHash;
+        private String treeHash;
+        private List<String> childIds;
+
+        @SuppressWarnings("unused")
+        private Hashes() {
+            // needed for JSON deserialization
+        }
+
+        public Hashes(String nodeHash, String treeHash) {
+            this(nodeHash, treeHash, Collections.emptyList());
+        }
+
+        public Hashes(String nodeHash, String treeHash, Collection<String> childIds) {
+            this.nodeHash = nodeHash;
+            this.treeHash = treeHash;
+            this.childIds = new ArrayList<>(childIds);
+        }
+
+        public String getNodeHash() {
+            return nodeHash;
+        }
+
+        public String getTreeHash() {
+            return treeHash;
+        }
+
+        public List<String> getChildIds() {
+            // hashes persisted by older agents do not have the child IDs
+            return (childIds == null) ? Collections.emptyList() : childIds;
+        }
+
+        @Override
+        public String toString() {
+            return "Hashes[node=" + nodeHash + ", tree=" + treeHash + "]";
+        }
+    }
+
+    /**
+     * What gets written to the hashes file.
+     */
+    private static class PersistedHashes {
+        private String feedId;
+        private Map<String, Map<String, Hashes>> hashes; // tenant ID -> resource ID -> hashes
+
+        @SuppressWarnings("unused")
+        private PersistedHashes() {
+            // needed for JSON deserialization
+        }
+
+        public PersistedHashes(String feedId, Map<String, Map<String, Hashes>> hashes) {
+            this.feedId = feedId;
+            this.hashes = hashes;
+        }
+    }
+
+    private final String feedId;
+    private final File file;
+    private final Map<String, Map<String, Hashes>> syncedHashes; // tenant ID -> resource ID -> hashes
+    private boolean dirty;
+
+    /**
+     * Creates the object and loads any hashes that were previously persisted for the given feed.
+     *
+     * @param feedId the feed whose resources are being synced
+     * @param file where the hashes are persisted; if <code>null</code> the hashes are only kept in memory
+     */
+    public InventorySyncHashes(String feedId, File file) {
+        this.feedId = feedId;
+        this.file = file;
+        this.syncedHashes = new HashMap<>();
+        this.dirty = false;
+        load();
+    }
+
+    /**
+     * Computes the node and tree hashes for all resources in the given resource manager.
+     *
+     * @param resourceManager the resources whose hashes are to be computed
+     * @return the hashes keyed on resource ID string
+     */
+    public static <L> Map<String, Hashes> computeHashes(ResourceManager<L> resourceManager) {
+        Map<String, Hashes> hashes = new HashMap<>();
+        for (Resource<L> root : resourceManager.getRootResources()) {
+            computeHashes(resourceManager, root, hashes);
+        }
+        return hashes;
+    }
+
+    private static <L> Hashes computeHashes(ResourceManager<L> resourceManager, Resource<L> resource,
+            Map<String, Hashes> hashes) {
+
+        // sort the children so the hashes do not depend on the order in which things were discovered
+        TreeMap<String, Hashes> childHashes = new TreeMap<>();
+        for (Resource<L> child : resourceManager.getChildren(resource)) {
+            childHashes.put(child.getID().getIDString(), computeHashes(resourceManager, child, hashes));
+        }
+
+        List<String> nodeContent = new ArrayList<>();
+        nodeContent.add(resource.getID().getIDString());
+        nodeContent.add(resource.getName().getNameString());
+        nodeContent.add(resource.getResourceType().getID().getIDString());
+        nodeContent.add(resource.getResourceType().getName().getNameString());
+        nodeContent.add(String.valueOf(new TreeMap<>(resource.getProperties())));
+
+        TreeMap<String, String> resConfig = new TreeMap<>();
+        for (ResourceConfigurationPropertyInstance<L> rcpi : resource.getResourceConfigurationProperties()) {
+            resConfig.put(rcpi.getID().getIDString(), rcpi.getValue());
+        }
+        nodeContent.add(String.valueOf(resConfig));
+
+        nodeContent.add(measurementContent(resource.getMetrics()));
+        nodeContent.add(measurementContent(resource.getAvails()));
+        nodeContent.add(String.valueOf(childHashes.keySet()));
+        String nodeHash = digest(nodeContent);
+
+        List<String> treeContent = new ArrayList<>(childHashes.size() + 1);
+        treeContent.add(nodeHash);
+        childHashes.values().forEach(h -> treeContent.add(h.getTreeHash()));
+        String treeHash = digest(treeContent);
+
+        Hashes resourceHashes = new Hashes(nodeHash, treeHash, childHashes.keySet());
+        hashes.put(resource.getID().getIDString(), resourceHashes);
+        return resourceHashes;
+    }
+
+    private static <L> String measurementContent(Collection<? extends Instance<L, ?>> instances) {
+        TreeMap<String, String> content = new TreeMap<>();
+        for (Instance<L, ?> instance : instances) {
+            content.put(instance.getID().getIDString(), instance.getName().getNameString() + "|"
+                    + instance.getType().getID().getIDString() + "|" + instance.getType().getName().getNameString()
+                    + "|" + new TreeMap<>(instance.getProperties()));
+        }
+        return String.valueOf(content);
+    }
+
+    private static String digest(List<String> content) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported", e); // every JVM must support SHA-1
+        }
+
+        for (String str : content) {
+            messageDigest.update(String.valueOf(str).getBytes(StandardCharsets.UTF_8));
+            messageDigest.update((byte) 0); // separator so different splits of the same bytes do not collide
+        }
+
+        byte[] bytes = messageDigest.digest();
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Determines the smallest subtrees that need to be synced in order to bring inventory up to date.
+     *
+     * @param tenantId the tenant the resources belong to
+     * @param resourceManager contains the resources
+     * @param root the root resource whose tree is to be examined
+     * @param currentHashes the current hashes of all resources as obtained by {@link #computeHashes(ResourceManager)}
+     * @return the resources whose subtrees must be synced; empty if nothing changed under the root
+     */
+    public synchronized <L> List<Resource<L>> getChangedSubtrees(String tenantId, ResourceManager<L> resourceManager,
+            Resource<L> root, Map<String, Hashes> currentHashes) {
+        List<Resource<L>> changed = new ArrayList<>();
+        Map<String, Hashes> tenantHashes = syncedHashes.getOrDefault(tenantId, new HashMap<>());
+        collectChangedSubtrees(tenantHashes, resourceManager, root, currentHashes, changed);
+        return changed;
+    }
+
+    private <L> void collectChangedSubtrees(Map<String, Hashes> syncedTenantHashes,
+            ResourceManager<L> resourceManager, Resource<L> resource, Map<String, Hashes> currentHashes,
+            List<Resource<L>> changed) {
+
+        String resourceId = resource.getID().getIDString();
+        Hashes synced = syncedTenantHashes.get(resourceId);
+        Hashes current = currentHashes.get(resourceId);
+
+        if (synced != null && current != null && synced.getTreeHash().equals(current.getTreeHash())) {
+            return; // nothing in this subtree changed
+        }
+
+        if (synced == null || current == null || !synced.getNodeHash().equals(current.getNodeHash())) {
+            changed.add(resource); // the resource itself or its set of children changed; sync the whole subtree
+            return;
+        }
+
+        for (Resource<L> child : resourceManager.getChildren(resource)) {
+            collectChangedSubtrees(syncedTenantHashes, resourceManager, child, currentHashes, changed);
+        }
+    }
+
+    /**
+     * Remembers the hashes of all resources in the subtree rooted at the given resource as having been synced.
+     *
+     * @param tenantId the tenant the resources belong to
+     * @param resourceManager contains the resources
+     * @param resource the root of the subtree that was synced
+     * @param currentHashes the hashes of the resources as they were synced
+     */
+    public synchronized <L> void markSynced(String tenantId, ResourceManager<L> resourceManager,
+            Resource<L> resource, Map<String, Hashes> currentHashes) {
+        Map<String, Hashes> tenantHashes = syncedHashes.computeIfAbsent(tenantId, t -> new HashMap<>());
+        markSynced(tenantHashes, resourceManager, resource, currentHashes);
+    }
+
+    private <L> void markSynced(Map<String, Hashes> syncedTenantHashes, ResourceManager<L> resourceManager,
+            Resource<L> resource, Map<String, Hashes> currentHashes) {
+        Hashes hashes = currentHashes.get(resource.getID().getIDString());
+        if (hashes != null) {
+            syncedTenantHashes.put(resource.getID().getIDString(), hashes);
+            dirty = true;
+        }
+        for (Resource<L> child : resourceManager.getChildren(resource)) {
+            markSynced(syncedTenantHashes, resourceManager, child, currentHashes);
+        }
+    }
+
+    /**
+     * Forgets the hashes of the given resources and of all their descendants as they were last synced.
+     * Call this when resources have been removed from inventory.
+     *
+     * @param tenantId the tenant the resources belong to
+     * @param resources the resources that were removed
+     */
+    public synchronized <L> void forget(String tenantId, Collection<Resource<L>> resources) {
+        Map<String, Hashes> tenantHashes = syncedHashes.get(tenantId);
+        if (tenantHashes != null) {
+            for (Resource<L> resource : resources) {
+                forgetSubtree(tenantHashes, resource.getID().getIDString());
+            }
+        }
+    }
+
+    private void forgetSubtree(Map<String, Hashes> syncedTenantHashes, String resourceId) {
+        Hashes forgotten = syncedTenantHashes.remove(resourceId);
+        if (forgotten != null) {
+            dirty = true;
+            for (String childId : forgotten.getChildIds()) {
+                forgetSubtree(syncedTenantHashes, childId);
+            }
+        }
+    }
+
+    /**
+     * Writes the hashes to the file if anything changed since the last time they were persisted.
+     */
+    public synchronized void persist() {
+        if (file == null || !dirty) {
+            return;
+        }
+
+        try {
+            File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+            Util.write(Util.toJson(new PersistedHashes(feedId, syncedHashes)), tmpFile);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (Exception e) {
+            log.warnf(e, "Failed to persist inventory sync hashes to [%s]", file);
+        }
+    }
+
+    private void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+
+        try {
+            PersistedHashes persisted = Util.fromJson(Util.read(file), PersistedHashes.class);
+            if (persisted.feedId == null || !persisted.feedId.equals(feedId)) {
+                log.debugf("Ignoring inventory sync hashes in [%s] - they belong to feed [%s]", file,
+                        persisted.feedId);
+                return;
+            }
+            if (persisted.hashes != null) {
+                syncedHashes.putAll(persisted.hashes);
+            }
+            log.debugf("Loaded inventory sync hashes for [%d] tenants from [%s]", syncedHashes.size(), file);
+        } catch (Exception e) {
+            // not fatal - we will just sync everything again
+            log.warnf(e, "Failed to load inventory sync hashes from [%s]", file);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.hawkular.agent.monitor.inventory.MeasurementType;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+
+/**
+ * Helps {@link AsyncInventoryStorage} send the stages of an inventory sync. The sync requests within a stage do not
+ * depend on one another and are sent concurrently; a stage only starts once everything it refers to made it to
+ * inventory in an earlier stage.
+ */
+final class InventorySyncStages {
+    private static final MsgLogger log = AgentLoggers.getLogger(InventorySyncStages.class);
+
+    private InventorySyncStages() {
+    }
+
+    /**
+     * Sends the given sync requests to inventory and waits for all of them to finish. How many are sent at the
+     * same time is limited by the number of threads of the executor. Because all endpoints share the same
+     * executor, that limit applies to the agent as a whole (i.e. a limit of 1 means inventory never
+     * sees more than one sync request from this agent at any one time).
+     *
+     * @param executor sends the sync requests
+     * @param syncs the sync requests to send; each returns true if it succeeded
+     * @return the results of the sync requests in the same order as the given syncs
+     */
+    static List<Boolean> performSyncs(ExecutorService executor, List<Callable<Boolean>> syncs) {
+        List<Boolean> results = new ArrayList<>(syncs.size());
+        if (syncs.isEmpty()) {
+            return results;
+        }
+
+        try {
+            for (Future<Boolean> future : executor.invokeAll(syncs)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException | CancellationException e) {
+                    results.add(Boolean.FALSE);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt(); // preserve interrupt
+        } catch (RejectedExecutionException ree) {
+            log.debugf("Inventory storage is shutting down; [%d] sync requests will not be sent", syncs.size());
+        }
+
+        // anything we did not get a result for did not make it to inventory
+        while (results.size() < syncs.size()) {
+            results.add(Boolean.FALSE);
+        }
+        return results;
+    }
+
+    /**
+     * Flags the types that made it to inventory as persisted so they are not synced again. A resource type only
+     * counts as persisted once its own sync and the syncs of all of its metric and avail types succeeded; the
+     * others are synced again along with their failed types after the next discovery.
+     *
+     * @param measurementTypes the metric and avail types that were synced
+     * @param measurementTypeResults the results of the syncs of the measurement types, in the same order
+     * @param resourceTypes the resource types that were synced
+     * @param resourceTypeResults the results of the syncs of the resource types, in the same order
+     * @return true if all given types are now persisted, i.e. resources referring to them can be synced
+     */
+    static <L> boolean markTypesPersisted(List<? extends MeasurementType<L>> measurementTypes,
+            List<Boolean> measurementTypeResults, List<ResourceType<L>> resourceTypes,
+            List<Boolean> resourceTypeResults) {
+        // types are equal if their IDs are, so this also covers types of the same ID that were only synced once
+        Set<MeasurementType<L>> failedMeasurementTypes = new HashSet<>();
+        for (int i = 0; i < measurementTypes.size(); i++) {
+            if (!measurementTypeResults.get(i)) {
+                failedMeasurementTypes.add(measurementTypes.get(i));
+            }
+        }
+
+        boolean allPersisted = failedMeasurementTypes.isEmpty();
+        for (int i = 0; i < resourceTypes.size(); i++) {
+            ResourceType<L> resourceType = resourceTypes.get(i);
+            List<MeasurementType<L>> typeMeasurementTypes = new ArrayList<>();
+            typeMeasurementTypes.addAll(resourceType.getMetricTypes());
+            typeMeasurementTypes.addAll(resourceType.getAvailTypes());
+
+            boolean measurementTypesPersisted = true;
+            for (MeasurementType<L> measurementType : typeMeasurementTypes) {
+                if (failedMeasurementTypes.contains(measurementType)) {
+                    measurementTypesPersisted = false;
+                } else {
+                    measurementType.setPersisted(true);
+                }
+            }
+
+            if (measurementTypesPersisted && resourceTypeResults.get(i)) {
+                resourceType.setPersisted(true);
+            } else {
+                allPersisted = false;
+            }
+        }
+        return allPersisted;
+    }
+}
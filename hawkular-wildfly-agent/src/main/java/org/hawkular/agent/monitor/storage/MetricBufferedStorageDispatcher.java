@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -20,17 +20,19 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.hawkular.agent.monitor.diagnostics.Diagnostics;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.scheduler.SchedulerConfiguration;
-import org.hawkular.agent.monitor.util.Consumer;
+
+import com.codahale.metrics.Timer;
 
 /**
  * Buffers collected metric data and eventually stores them in a storage adapter.
  */
-public class MetricBufferedStorageDispatcher implements Consumer<MetricDataPoint> {
+public class MetricBufferedStorageDispatcher implements StorageDispatcher<MetricDataPoint> {
     private static final MsgLogger log = AgentLoggers.getLogger(MetricBufferedStorageDispatcher.class);
     private final int maxBatchSize;
     private final int bufferSize;
@@ -41,18 +43,32 @@ public class MetricBufferedStorageDispatcher implements Consumer<MetricDataPoint
 
     public MetricBufferedStorageDispatcher(SchedulerConfiguration config, StorageAdapter storageAdapter,
             Diagnostics diagnostics) {
+        this(config, storageAdapter, diagnostics, null);
+    }
+
+    /**
+     * @param config provides the buffer size and the maximum batch size
+     * @param storageAdapter where the buffered data is eventually stored
+     * @param diagnostics used to track the buffer size
+     * @param name if not null, it is added to the name of the worker thread so it can be told apart from the
+     *             workers of other dispatchers
+     */
+    public MetricBufferedStorageDispatcher(SchedulerConfiguration config, StorageAdapter storageAdapter,
+            Diagnostics diagnostics, String name) {
         this.maxBatchSize = config.getMetricDispatcherMaxBatchSize();
         this.bufferSize = config.getMetricDispatcherBufferSize();
         this.storageAdapter = storageAdapter;
         this.diagnostics = diagnostics;
         this.queue = new ArrayBlockingQueue<MetricDataPoint>(bufferSize);
-        this.worker = new Worker(queue);
+        this.worker = new Worker(queue, name);
     }
 
+    @Override
     public void start() {
         worker.start();
     }
 
+    @Override
     public void shutdown() {
         worker.setKeepRunning(false);
         worker.interrupt();
@@ -66,15 +82,27 @@ public class MetricBufferedStorageDispatcher implements Consumer<MetricDataPoint
 
     @Override
     public void accept(MetricDataPoint sample) {
-        if (queue.remainingCapacity() > 0) {
-            log.debugf("Metric collected: [%s]->[%s]", sample.getKey(), sample.getMetricValue());
-            diagnostics.getMetricsStorageBufferSize().inc();
-            queue.add(sample);
-        } else {
+        if (!offer(sample)) {
             throw new RuntimeException("Metric dispatcher buffer capacity has been exceeded [" + bufferSize + "]");
         }
     }
 
+    /**
+     * Buffers the given data point unless the buffer is full.
+     *
+     * @param sample the data point to be stored
+     * @return true if the data point was buffered, false if the buffer is full and the data point was dropped
+     */
+    public boolean offer(MetricDataPoint sample) {
+        log.debugf("Metric collected: [%s]->[%s]", sample.getKey(), sample.getMetricValue());
+        diagnostics.getMetricsStorageBufferSize().inc();
+        if (!queue.offer(sample)) {
+            diagnostics.getMetricsStorageBufferSize().dec();
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void report(Throwable e) {
         log.errorMetricCollectionFailed(e);
@@ -84,8 +112,8 @@ public class MetricBufferedStorageDispatcher implements Consumer<MetricDataPoint
         private final BlockingQueue<MetricDataPoint> queue;
         private boolean keepRunning = true;
 
-        public Worker(BlockingQueue<MetricDataPoint> queue) {
-            super("Hawkular-WildFly-Agent-Storage-Dispatcher-Metric");
+        public Worker(BlockingQueue<MetricDataPoint> queue, String name) {
+            super("Hawkular-WildFly-Agent-Storage-Dispatcher-Metric" + ((name == null) ? "" : ("-" + name)));
             this.queue = queue;
         }
 
@@ -100,8 +128,20 @@ public class MetricBufferedStorageDispatcher implements Consumer<MetricDataPoint
 
                     diagnostics.getMetricsStorageBufferSize().dec(samples.size());
 
-                    // dispatch
-                    storageAdapter.storeMetrics(samples, 0);
+                    // how long the samples waited since they were collected
+                    long now = System.currentTimeMillis();
+                    Timer queueTimer = diagnostics.getMetricsStorageQueueTimer();
+                    for (MetricDataPoint queued : samples) {
+                        queueTimer.update(now - queued.getTimestamp(), TimeUnit.MILLISECONDS);
+                    }
+
+                    // dispatch - a failing storage adapter must not kill the worker
+                    try {
+                        storageAdapter.storeMetrics(samples, 0);
+                    } catch (Exception e) {
+                        log.errorf(e, "Failed to store [%d] metric data points", samples.size());
+                        diagnostics.getStorageErrorRate().mark(1);
+                    }
                 }
             } catch (InterruptedException ie) {
             }
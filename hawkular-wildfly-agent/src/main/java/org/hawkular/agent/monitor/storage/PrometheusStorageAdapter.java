@@ -0,0 +1,423 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.hawkular.agent.monitor.api.Avail;
+import org.hawkular.agent.monitor.api.AvailDataPayloadBuilder;
+import org.hawkular.agent.monitor.api.DiscoveryEvent;
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.api.MetricDataPayloadBuilder;
+import org.hawkular.agent.monitor.api.MetricTagPayloadBuilder;
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
+import org.hawkular.agent.monitor.inventory.AvailType;
+import org.hawkular.agent.monitor.inventory.MeasurementInstance;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A storage adapter that does not send anything anywhere. Instead it keeps the latest value of every metric and
+ * availability it is asked to store and serves them in OpenMetrics text format so a Prometheus server can scrape
+ * them. A scrape only reads what was already collected - it never causes additional requests to the managed servers.
+ *
+ * Numeric metrics are exposed as the {@value #GAUGE_FAMILY} and {@value #COUNTER_FAMILY} metric families and
+ * availabilities as the {@value #AVAIL_FAMILY} family (1 for UP, 0 for DOWN and NaN for UNKNOWN). The Hawkular metric
+ * ID and tenant ID are exposed as labels. String metrics, metric tags and inventory are not supported by the
+ * OpenMetrics format and are ignored.
+ *
+ * The values are served over plain HTTP without any authentication, so the scrape address should only be reachable
+ * by the Prometheus server (e.g. bound to the management interface).
+ */
+public class PrometheusStorageAdapter implements StorageAdapter {
+    private static final MsgLogger log = AgentLoggers.getLogger(PrometheusStorageAdapter.class);
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    public static final String CONTEXT = "/metrics";
+
+    static final String GAUGE_FAMILY = "hawkular_gauge";
+    static final String COUNTER_FAMILY = "hawkular_counter";
+    static final String AVAIL_FAMILY = "hawkular_availability";
+
+    /**
+     * The latest value of one time series. Instances are immutable so they can be replaced in the tables
+     * without any locking while a scrape is reading them.
+     */
+    private static final class Sample {
+        private final String tenantId;
+        private final String id;
+        private final double value;
+        private final long timestamp;
+
+        private Sample(String tenantId, String id, double value, long timestamp) {
+            this.tenantId = tenantId;
+            this.id = id;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final InetSocketAddress scrapeAddress;
+
+    // key is [tenant ID, metric ID]
+    private final Map<List<String>, Sample> gauges = new ConcurrentHashMap<>();
+    private final Map<List<String>, Sample> counters = new ConcurrentHashMap<>();
+    private final Map<List<String>, Sample> avails = new ConcurrentHashMap<>();
+
+    private MonitorServiceConfiguration.StorageAdapterConfiguration config;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+
+    /**
+     * @param scrapeAddress the address where the collected values are served; if <code>null</code> the values are
+     *                      only kept in memory and can be obtained via {@link #write(Writer)}
+     */
+    public PrometheusStorageAdapter(InetSocketAddress scrapeAddress) {
+        this.scrapeAddress = scrapeAddress;
+    }
+
+    @Override
+    public void initialize(
+            String feedId,
+            MonitorServiceConfiguration.StorageAdapterConfiguration config,
+            Diagnostics diag,
+            HttpClientBuilder httpClientBuilder,
+            File dataDirectory) {
+        this.config = config;
+
+        if (scrapeAddress != null) {
+            try {
+                this.serverExecutor = Executors.newSingleThreadExecutor(
+                        ThreadFactoryGenerator.generateFactory(true, "Hawkular WildFly Agent Prometheus Endpoint"));
+                this.server = HttpServer.create(scrapeAddress, 0);
+                this.server.createContext(CONTEXT, this::handleScrape);
+                this.server.setExecutor(serverExecutor);
+                this.server.start();
+                log.infoPrometheusEndpointStarted(String.format("http://%s:%d%s",
+                        scrapeAddress.getHostString(), scrapeAddress.getPort(), CONTEXT));
+            } catch (IOException e) {
+                shutdown();
+                throw new IllegalStateException("Cannot start the Prometheus endpoint at " + scrapeAddress, e);
+            }
+        }
+    }
+
+    @Override
+    public MonitorServiceConfiguration.StorageAdapterConfiguration getStorageAdapterConfiguration() {
+        return config;
+    }
+
+    @Override
+    public MetricDataPayloadBuilder createMetricDataPayloadBuilder() {
+        return new MetricDataPayloadBuilderImpl();
+    }
+
+    @Override
+    public AvailDataPayloadBuilder createAvailDataPayloadBuilder() {
+        return new AvailDataPayloadBuilderImpl();
+    }
+
+    @Override
+    public MetricTagPayloadBuilder createMetricTagPayloadBuilder() {
+        return new MetricTagPayloadBuilderImpl();
+    }
+
+    @Override
+    public void storeMetrics(Set<MetricDataPoint> datapoints, long waitMillis) {
+        if (datapoints == null) {
+            return;
+        }
+
+        for (MetricDataPoint datapoint : datapoints) {
+            if (datapoint instanceof NumericMetricDataPoint) {
+                double value = ((NumericMetricDataPoint) datapoint).getMetricValue();
+                put(datapoint.getMetricType(), datapoint.getTenantId(), datapoint.getKey(), value,
+                        datapoint.getTimestamp());
+            }
+        }
+    }
+
+    @Override
+    public void store(MetricDataPayloadBuilder payloadBuilder, long waitMillis) {
+        if (!(payloadBuilder instanceof MetricDataPayloadBuilderImpl)) {
+            log.errorf("Invalid payload builder type [%s] - please report this bug", payloadBuilder.getClass());
+            return;
+        }
+
+        Map<String, List<Map<String, Object>>> payload = ((MetricDataPayloadBuilderImpl) payloadBuilder)
+                .toObjectPayload();
+        putAll(org.hawkular.metrics.client.common.MetricType.GAUGE, payloadBuilder.getTenantId(),
+                payload.get("gauges"));
+        putAll(org.hawkular.metrics.client.common.MetricType.COUNTER, payloadBuilder.getTenantId(),
+                payload.get("counters"));
+    }
+
+    @Override
+    public void storeAvails(Set<AvailDataPoint> datapoints, long waitMillis) {
+        if (datapoints == null) {
+            return;
+        }
+
+        for (AvailDataPoint datapoint : datapoints) {
+            put(org.hawkular.metrics.client.common.MetricType.AVAILABILITY, datapoint.getTenantId(),
+                    datapoint.getKey(), toNumber(datapoint.getValue()), datapoint.getTimestamp());
+        }
+    }
+
+    @Override
+    public void store(AvailDataPayloadBuilder payloadBuilder, long waitMillis) {
+        if (!(payloadBuilder instanceof AvailDataPayloadBuilderImpl)) {
+            log.errorf("Invalid payload builder type [%s] - please report this bug", payloadBuilder.getClass());
+            return;
+        }
+
+        for (Map<String, Object> avail : ((AvailDataPayloadBuilderImpl) payloadBuilder).toObjectPayload()) {
+            String id = (String) avail.get("id");
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> data = (List<Map<String, Object>>) avail.get("data");
+            for (Map<String, Object> timestampAndValue : data) {
+                Avail value = Avail.valueOf(timestampAndValue.get("value").toString().toUpperCase());
+                long timestamp = ((Number) timestampAndValue.get("timestamp")).longValue();
+                put(org.hawkular.metrics.client.common.MetricType.AVAILABILITY, payloadBuilder.getTenantId(), id,
+                        toNumber(value), timestamp);
+            }
+        }
+    }
+
+    @Override
+    public void store(MetricTagPayloadBuilder payloadBuilder, long waitMillis) {
+        // tags are not exposed to Prometheus
+    }
+
+    @Override
+    public <L> void resourcesAdded(InventoryEvent<L> event) {
+        // inventory is not exposed to Prometheus
+    }
+
+    @Override
+    public <L> void resourcesRemoved(InventoryEvent<L> event) {
+        // stop exposing the last values of resources that are gone - they were stored under the endpoint's tenant
+        String tenantId = event.getSamplingService().getMonitoredEndpoint().getEndpointConfiguration().getTenantId();
+        for (Resource<L> resource : event.getPayload()) {
+            for (MeasurementInstance<L, MetricType<L>> metric : resource.getMetrics()) {
+                remove(metric.getType().getMetricType(), tenantId, metric.getAssociatedMetricId());
+            }
+            for (MeasurementInstance<L, AvailType<L>> avail : resource.getAvails()) {
+                remove(org.hawkular.metrics.client.common.MetricType.AVAILABILITY, tenantId,
+                        avail.getAssociatedMetricId());
+            }
+        }
+    }
+
+    @Override
+    public <L> void discoveryCompleted(DiscoveryEvent<L> event) {
+        // inventory is not exposed to Prometheus
+    }
+
+    @Override
+    public void shutdown() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (serverExecutor != null) {
+            serverExecutor.shutdownNow();
+            serverExecutor = null;
+        }
+        gauges.clear();
+        counters.clear();
+        avails.clear();
+    }
+
+    /**
+     * Writes the latest values of all metrics and availabilities in OpenMetrics text format.
+     *
+     * @param out where the values are written to
+     * @throws IOException if the values could not be written
+     */
+    public void write(Writer out) throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        writeFamily(out, line, GAUGE_FAMILY, "gauge", "", gauges);
+        writeFamily(out, line, COUNTER_FAMILY, "counter", "_total", counters);
+        writeFamily(out, line, AVAIL_FAMILY, "gauge", "", avails);
+        out.write("# EOF\n");
+    }
+
+    private void handleScrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+            try (Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+                write(writer);
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.size());
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                body.writeTo(responseBody);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the table that keeps the values of the given type or null if the type is not numeric
+     */
+    private Map<List<String>, Sample> getTable(org.hawkular.metrics.client.common.MetricType metricType) {
+        switch (metricType) {
+            case GAUGE:
+                return gauges;
+            case COUNTER:
+                return counters;
+            case AVAILABILITY:
+                return avails;
+            default:
+                return null;
+        }
+    }
+
+    private void put(org.hawkular.metrics.client.common.MetricType metricType, String tenantId, String id,
+            double value, long timestamp) {
+        Map<List<String>, Sample> table = getTable(metricType);
+        if (table == null) {
+            return; // not a numeric value, nothing Prometheus can do with it
+        }
+
+        String useTenantId = (tenantId != null) ? tenantId : config.getTenantId();
+        Sample sample = new Sample(useTenantId, id, value, timestamp);
+        // the collector may deliver data points out of order; never replace a newer value with an older one
+        table.merge(Arrays.asList(useTenantId, id), sample,
+                (oldSample, newSample) -> (newSample.timestamp >= oldSample.timestamp) ? newSample : oldSample);
+    }
+
+    private void putAll(org.hawkular.metrics.client.common.MetricType metricType, String tenantId,
+            List<Map<String, Object>> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        for (Map<String, Object> metric : metrics) {
+            String id = (String) metric.get("id");
+            @SuppressWarnings("unchecked")
+            List<Map<String, Number>> data = (List<Map<String, Number>>) metric.get("data");
+            for (Map<String, Number> timestampAndValue : data) {
+                put(metricType, tenantId, id, timestampAndValue.get("value").doubleValue(),
+                        timestampAndValue.get("timestamp").longValue());
+            }
+        }
+    }
+
+    private void remove(org.hawkular.metrics.client.common.MetricType metricType, String tenantId, String id) {
+        Map<List<String>, Sample> table = getTable(metricType);
+        if (table != null && id != null) {
+            String useTenantId = (tenantId != null) ? tenantId : config.getTenantId();
+            table.remove(Arrays.asList(useTenantId, id));
+        }
+    }
+
+    private static double toNumber(Avail avail) {
+        switch (avail) {
+            case UP:
+                return 1.0;
+            case DOWN:
+                return 0.0;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static void writeFamily(Writer out, StringBuilder line, String family, String type, String suffix,
+            Map<List<String>, Sample> table) throws IOException {
+        if (table.isEmpty()) {
+            return;
+        }
+
+        out.write("# TYPE " + family + " " + type + "\n");
+        for (Sample sample : table.values()) {
+            line.setLength(0);
+            line.append(family).append(suffix).append("{tenant=\"");
+            appendEscaped(line, sample.tenantId);
+            line.append("\",id=\"");
+            appendEscaped(line, sample.id);
+            line.append("\"} ");
+            appendValue(line, sample.value);
+            line.append(' ');
+            // OpenMetrics timestamps are in seconds
+            line.append(sample.timestamp / 1000L).append('.');
+            long millis = sample.timestamp % 1000L;
+            if (millis < 100L) {
+                line.append(millis < 10L ? "00" : "0");
+            }
+            line.append(millis).append('\n');
+            out.append(line);
+        }
+    }
+
+    private static void appendValue(StringBuilder line, double value) {
+        if (Double.isNaN(value)) {
+            line.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            line.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            line.append(value);
+        }
+    }
+
+    private static void appendEscaped(StringBuilder line, String labelValue) {
+        for (int i = 0; i < labelValue.length(); i++) {
+            char c = labelValue.charAt(i);
+            switch (c) {
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,6 +16,7 @@
  */
 package org.hawkular.agent.monitor.storage;
 
+import java.io.File;
 import java.util.Set;
 
 import org.hawkular.agent.monitor.api.AvailStorage;
@@ -23,6 +24,7 @@ import org.hawkular.agent.monitor.api.InventoryStorage;
 import org.hawkular.agent.monitor.api.MetricStorage;
 import org.hawkular.agent.monitor.diagnostics.Diagnostics;
 import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
+import org.hawkular.agent.monitor.scheduler.SchedulerConfiguration;
 
 public interface StorageAdapter extends MetricStorage, AvailStorage, InventoryStorage {
 
@@ -33,12 +35,15 @@ public interface StorageAdapter extends MetricStorage, AvailStorage, InventorySt
      * @param config the configuration of the storage adapter
      * @param diag the object used to track internal diagnostic data for the storage adapter
      * @param httpClientBuilder used to communicate with the storage server
+     * @param dataDirectory where the storage adapter can keep files that must survive agent restarts
+     *                      (may be <code>null</code> in which case nothing will be persisted)
      */
     void initialize(
             String feedId,
             MonitorServiceConfiguration.StorageAdapterConfiguration config,
             Diagnostics diag,
-            HttpClientBuilder httpClientBuilder);
+            HttpClientBuilder httpClientBuilder,
+            File dataDirectory);
 
     /**
      * Clean up and stop whatever the storage adapter is doing.
@@ -79,4 +84,30 @@ public interface StorageAdapter extends MetricStorage, AvailStorage, InventorySt
      * @param waitMillis the amount of milliseconds to wait for the store to complete before returning (0==no wait).
      */
     void storeAvails(Set<AvailDataPoint> datapoints, long waitMillis);
+
+    /**
+     * Creates what the scheduler hands the collected metric data points to. By default they are buffered and
+     * stored in batches by a {@link MetricBufferedStorageDispatcher}.
+     *
+     * @param config the buffer size and maximum batch size
+     * @param diag the object used to track internal diagnostic data of the dispatcher
+     * @return the dispatcher of the collected metric data points
+     */
+    default StorageDispatcher<MetricDataPoint> createMetricDispatcher(SchedulerConfiguration config,
+            Diagnostics diag) {
+        return new MetricBufferedStorageDispatcher(config, this, diag);
+    }
+
+    /**
+     * Creates what the scheduler hands the checked availability data points to. By default they are buffered and
+     * stored in batches by an {@link AvailBufferedStorageDispatcher}.
+     *
+     * @param config the buffer size and maximum batch size
+     * @param diag the object used to track internal diagnostic data of the dispatcher
+     * @return the dispatcher of the checked availability data points
+     */
+    default StorageDispatcher<AvailDataPoint> createAvailDispatcher(SchedulerConfiguration config,
+            Diagnostics diag) {
+        return new AvailBufferedStorageDispatcher(config, this, diag);
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import org.hawkular.agent.monitor.util.Consumer;
+
+/**
+ * Takes the data points collected by the scheduler and hands them to storage.
+ *
+ * @see StorageAdapter#createMetricDispatcher(org.hawkular.agent.monitor.scheduler.SchedulerConfiguration,
+ *      org.hawkular.agent.monitor.diagnostics.Diagnostics)
+ * @see StorageAdapter#createAvailDispatcher(org.hawkular.agent.monitor.scheduler.SchedulerConfiguration,
+ *      org.hawkular.agent.monitor.diagnostics.Diagnostics)
+ */
+public interface StorageDispatcher<T> extends Consumer<T> {
+
+    /**
+     * Starts handing data points to storage.
+     */
+    void start();
+
+    /**
+     * Stops handing data points to storage.
+     */
+    void shutdown();
+}
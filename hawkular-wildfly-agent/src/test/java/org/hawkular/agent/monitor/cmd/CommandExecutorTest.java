@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.cmd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CommandExecutorTest {
+
+    @Test
+    public void testSameKeyRunsSerially() throws Exception {
+        CommandExecutor executor = new CommandExecutor(4, 20);
+        try {
+            AtomicInteger running = new AtomicInteger(0);
+            AtomicInteger maxRunning = new AtomicInteger(0);
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(10);
+
+            for (int i = 0; i < 10; i++) {
+                final int index = i;
+                executor.execute("/t;tenant/f;feed/r;server", () -> {
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    order.add(index);
+                    sleep(5);
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(1, maxRunning.get());
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(i, order.get(i).intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDifferentKeysRunConcurrently() throws Exception {
+        CommandExecutor executor = new CommandExecutor(2, 20);
+        try {
+            CountDownLatch bothStarted = new CountDownLatch(2);
+            CountDownLatch done = new CountDownLatch(2);
+
+            for (String key : new String[] { "one", "two" }) {
+                executor.execute(key, () -> {
+                    bothStarted.countDown();
+                    try {
+                        // only finishes if the other task got to run at the same time
+                        if (bothStarted.await(10, TimeUnit.SECONDS)) {
+                            done.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectWhenTooManyPending() throws Exception {
+        CommandExecutor executor = new CommandExecutor(1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Runnable blocked = () -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            executor.execute(null, blocked);
+            executor.execute("key", blocked);
+            Assert.assertEquals(2, executor.getPendingCount());
+
+            try {
+                executor.execute(null, blocked);
+                Assert.fail("Should have rejected the command");
+            } catch (RejectedExecutionException expected) {
+            }
+            Assert.assertEquals(2, executor.getPendingCount());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        Assert.assertEquals(0, executor.getPendingCount());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.cmd;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.hawkular.bus.common.BinaryData;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeploymentStagingTest {
+
+    // SHA-1 of "hello world"
+    private static final String HELLO_WORLD_HASH = "2aae6c35c94fcfb415dbe95f408b9ce91ee846ed";
+
+    @Test
+    public void testStageStream() throws Exception {
+        File dir = Files.createTempDirectory("staging-test").toFile();
+        DeploymentStaging staging = new DeploymentStaging(dir);
+
+        // the first part of the content is in memory, the rest comes from the stream
+        BinaryData content = new BinaryData("hello ".getBytes(StandardCharsets.UTF_8),
+                new ByteArrayInputStream("world".getBytes(StandardCharsets.UTF_8)));
+        DeploymentStaging.Staged staged = staging.stage(content);
+
+        Assert.assertEquals(HELLO_WORLD_HASH, staged.getHashString());
+        Assert.assertEquals(dir, staged.getFile().getParentFile());
+        Assert.assertEquals("hello world", new String(Files.readAllBytes(staged.getFile().toPath()),
+                StandardCharsets.UTF_8));
+
+        staging.release(staged);
+        Assert.assertFalse(staged.getFile().exists());
+        Assert.assertTrue(dir.delete());
+    }
+
+    @Test
+    public void testStageFile() throws Exception {
+        File dir = Files.createTempDirectory("staging-test").toFile();
+        File file = File.createTempFile("staging-test", ".war");
+        try {
+            Files.write(file.toPath(), "hello world".getBytes(StandardCharsets.UTF_8));
+            DeploymentStaging staging = new DeploymentStaging(dir);
+
+            // file content is used in place and must survive the release
+            DeploymentStaging.Staged staged = staging.stage(new FileBinaryData(file));
+            Assert.assertEquals(HELLO_WORLD_HASH, staged.getHashString());
+            Assert.assertEquals(file, staged.getFile());
+            staging.release(staged);
+            Assert.assertTrue(file.exists());
+            Assert.assertEquals(0, dir.list().length);
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testSpool() throws Exception {
+        File dir = Files.createTempDirectory("staging-test").toFile();
+        DeploymentStaging staging = new DeploymentStaging(dir);
+
+        FileBinaryData spooled = staging.spool(new ByteArrayInputStream("hello world".getBytes(
+                StandardCharsets.UTF_8)));
+        File spoolFile = spooled.getFile();
+        Assert.assertEquals(dir, spoolFile.getParentFile());
+        Assert.assertEquals("hello world", new String(Files.readAllBytes(spoolFile.toPath()), StandardCharsets.UTF_8));
+
+        // spooled content is staged in place with the hash computed while spooling, the file is not read again
+        Files.write(spoolFile.toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+        DeploymentStaging.Staged staged = staging.stage(spooled);
+        Assert.assertEquals(HELLO_WORLD_HASH, staged.getHashString());
+        Assert.assertEquals(spoolFile, staged.getFile());
+        staging.release(staged);
+
+        Assert.assertTrue(spoolFile.delete());
+        Assert.assertTrue(dir.delete());
+    }
+
+    @Test
+    public void testFailedSpoolIsRemoved() throws Exception {
+        File dir = Files.createTempDirectory("staging-test").toFile();
+        DeploymentStaging staging = new DeploymentStaging(dir);
+
+        InputStream broken = new InputStream() {
+            private int remaining = 100;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- <= 0) {
+                    throw new IOException("connection dropped");
+                }
+                return 'x';
+            }
+        };
+        try {
+            staging.spool(broken);
+            Assert.fail("Spooling a broken stream must fail");
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals(0, dir.list().length);
+        Assert.assertTrue(dir.delete());
+    }
+
+    @Test
+    public void testLeftoversArePurged() throws Exception {
+        File dir = Files.createTempDirectory("staging-test").toFile();
+        File leftover = new File(dir, "abc.part");
+        File spooled = new File(dir, "def.spool");
+        File unrelated = new File(dir, "keep.txt");
+        Files.write(leftover.toPath(), new byte[] { 1 });
+        Files.write(spooled.toPath(), new byte[] { 1 });
+        Files.write(unrelated.toPath(), new byte[] { 1 });
+
+        new DeploymentStaging(dir);
+        Assert.assertFalse(leftover.exists());
+        Assert.assertFalse(spooled.exists());
+        Assert.assertTrue(unrelated.exists());
+
+        unrelated.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.diagnostics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class DiagnosticsImplTest {
+
+    @Test
+    public void testCollectionDiagnostics() {
+        MetricRegistry registry = new MetricRegistry();
+        DiagnosticsImpl diagnostics = new DiagnosticsImpl(null, registry, "feed");
+
+        CollectionDiagnostics local = diagnostics.getCollectionDiagnostics("metric", "Local");
+        Assert.assertSame(local, diagnostics.getCollectionDiagnostics("metric", "Local"));
+        Assert.assertNotSame(local, diagnostics.getCollectionDiagnostics("avail", "Local"));
+        Assert.assertNotSame(local, diagnostics.getCollectionDiagnostics("metric", "Remote"));
+
+        local.setScheduledCount(42);
+        local.getSchedulingLagTimer().update(5, TimeUnit.MILLISECONDS);
+        local.getTickTimer().update(7, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(42, registry.getGauges().get(
+                DiagnosticsImpl.name("feed", "metric.Local.scheduled-count")).getValue());
+        Assert.assertEquals(1, registry.getTimers().get(
+                DiagnosticsImpl.name("feed", "metric.Local.scheduling-lag-timer")).getCount());
+        Assert.assertEquals(1, registry.getTimers().get(
+                DiagnosticsImpl.name("feed", "metric.Local.collection-tick-timer")).getCount());
+        Assert.assertEquals(0, registry.getTimers().get(
+                DiagnosticsImpl.name("feed", "avail.Local.collection-tick-timer")).getCount());
+    }
+
+    @Test
+    public void testStorageSinkDiagnostics() {
+        MetricRegistry registry = new MetricRegistry();
+        DiagnosticsImpl diagnostics = new DiagnosticsImpl(null, registry, "feed");
+
+        Diagnostics hawkular = diagnostics.getStorageSinkDiagnostics("Hawkular");
+        Diagnostics prometheus = diagnostics.getStorageSinkDiagnostics("Prometheus");
+        Assert.assertSame(hawkular, diagnostics.getStorageSinkDiagnostics("Hawkular"));
+
+        // each sink has its own buffers ...
+        Assert.assertNotSame(diagnostics.getMetricsStorageBufferSize(), hawkular.getMetricsStorageBufferSize());
+        Assert.assertNotSame(hawkular.getMetricsStorageBufferSize(), prometheus.getMetricsStorageBufferSize());
+        Assert.assertNotSame(hawkular.getAvailStorageQueueTimer(), prometheus.getAvailStorageQueueTimer());
+        hawkular.getMetricsStorageBufferSize().inc(3);
+        prometheus.getMetricsStorageBufferSize().inc(5);
+        Assert.assertEquals(0, diagnostics.getMetricsStorageBufferSize().getCount());
+        Assert.assertEquals(3, registry.getCounters().get(
+                DiagnosticsImpl.name("feed", "storage-sink.Hawkular.metrics.storage-buffer-size")).getCount());
+        Assert.assertEquals(5, registry.getCounters().get(
+                DiagnosticsImpl.name("feed", "storage-sink.Prometheus.metrics.storage-buffer-size")).getCount());
+
+        // ... but everything else is shared
+        Assert.assertSame(diagnostics.getStorageErrorRate(), hawkular.getStorageErrorRate());
+        Assert.assertSame(diagnostics.getMetricsStorageLatencyTimer(), prometheus.getMetricsStorageLatencyTimer());
+        Assert.assertSame(diagnostics.getCollectionDiagnostics("metric", "Local"),
+                hawkular.getCollectionDiagnostics("metric", "Local"));
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -19,11 +19,13 @@ package org.hawkular.agent.monitor.inventory;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.hawkular.agent.monitor.inventory.ResourceManager.AddResult;
 import org.hawkular.agent.monitor.inventory.ResourceManager.AddResult.Effect;
 import org.hawkular.agent.monitor.protocol.dmr.DMRLocationResolver;
 import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.jboss.as.controller.client.helpers.MeasurementUnit;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -444,6 +446,60 @@ public class ResourceManagerTest {
         Assert.assertFalse(bIter.hasNext());
     }
 
+    @Test
+    public void testMeasurementsModified() {
+        ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("resType"))
+                .name(new Name("resTypeName"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        MetricType<DMRNodeLocation> metricType = new MetricType<DMRNodeLocation>(new ID("metricType"),
+                new Name("metricType"), new AttributeLocation<>(DMRNodeLocation.empty(), "attrib"),
+                new Interval(1, TimeUnit.MINUTES), MeasurementUnit.NONE,
+                org.hawkular.metrics.client.common.MetricType.GAUGE, null, null);
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+
+        AddResult<DMRNodeLocation> addResult = rm.addResource(createResourceWithMetric(type, "rootName", metricType,
+                "attrib"));
+        Assert.assertEquals(Effect.ADDED, addResult.getEffect());
+        Assert.assertTrue(addResult.isMeasurementsModified());
+
+        // same metrics - nothing changed
+        addResult = rm.addResource(createResourceWithMetric(type, "rootName", metricType, "attrib"));
+        Assert.assertEquals(Effect.UNCHANGED, addResult.getEffect());
+        Assert.assertFalse(addResult.isMeasurementsModified());
+
+        // only the name changed - the metrics stay the same
+        addResult = rm.addResource(createResourceWithMetric(type, "rootNameUPDATE", metricType, "attrib"));
+        Assert.assertEquals(Effect.MODIFIED, addResult.getEffect());
+        Assert.assertFalse(addResult.isMeasurementsModified());
+        Assert.assertEquals("rootNameUPDATE", rm.getResource(new ID("root")).getName().getNameString());
+
+        // only the metric changed
+        addResult = rm.addResource(createResourceWithMetric(type, "rootNameUPDATE", metricType, "otherAttrib"));
+        Assert.assertEquals(Effect.MODIFIED, addResult.getEffect());
+        Assert.assertTrue(addResult.isMeasurementsModified());
+
+        // the metric went away
+        addResult = rm.addResource(createResourceWithMetric(type, "rootNameUPDATE", null, null));
+        Assert.assertEquals(Effect.MODIFIED, addResult.getEffect());
+        Assert.assertTrue(addResult.isMeasurementsModified());
+    }
+
+    private Resource<DMRNodeLocation> createResourceWithMetric(ResourceType<DMRNodeLocation> type, String name,
+            MetricType<DMRNodeLocation> metricType, String attribute) {
+        Resource.Builder<DMRNodeLocation> builder = Resource.<DMRNodeLocation> builder()
+                .id(new ID("root"))
+                .name(new Name(name))
+                .location(DMRNodeLocation.empty())
+                .type(type);
+        if (metricType != null) {
+            builder.metric(new MeasurementInstance<>(new ID("metric"), new Name("metric"),
+                    new AttributeLocation<>(DMRNodeLocation.empty(), attribute), metricType));
+        }
+        return builder.build();
+    }
+
     private AddResult<DMRNodeLocation> addResourceAndTest(
             ResourceManager<DMRNodeLocation> rm,
             Resource<DMRNodeLocation> resource,
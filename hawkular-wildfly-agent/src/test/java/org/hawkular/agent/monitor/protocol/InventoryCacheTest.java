@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.agent.monitor.api.DiscoveryEvent;
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
+import org.hawkular.agent.monitor.inventory.MeasurementInstance;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.jboss.as.controller.client.helpers.MeasurementUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InventoryCacheTest {
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        MetricType<DMRNodeLocation> metricType = new MetricType<DMRNodeLocation>(new ID("metricType"),
+                new Name("metricType"), new AttributeLocation<>(DMRNodeLocation.empty(), "attrib"),
+                new Interval(1, TimeUnit.MINUTES), MeasurementUnit.NONE,
+                org.hawkular.metrics.client.common.MetricType.GAUGE, null, null);
+        ResourceType<DMRNodeLocation> serverType = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("serverType"))
+                .name(new Name("serverType"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        ResourceType<DMRNodeLocation> dataSourceType = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("dataSourceType"))
+                .name(new Name("dataSourceType"))
+                .location(DMRNodeLocation.of("/subsystem=datasources/data-source=*"))
+                .parents(Collections.singletonList(serverType.getName()))
+                .metricTypes(Collections.singletonList(metricType))
+                .build();
+        ResourceTypeManager<DMRNodeLocation> resourceTypeManager = new ResourceTypeManager<>(
+                Arrays.asList(serverType, dataSourceType));
+
+        Resource<DMRNodeLocation> server = Resource.<DMRNodeLocation> builder()
+                .id(new ID("server"))
+                .name(new Name("server"))
+                .location(DMRNodeLocation.empty())
+                .type(serverType)
+                .build();
+        DMRNodeLocation dataSourceLocation = DMRNodeLocation.of("/subsystem=datasources/data-source=ExampleDS",
+                false, true);
+        MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> metric = new MeasurementInstance<>(
+                new ID("metric"), metricType.getName(), new AttributeLocation<>(dataSourceLocation, "attrib"),
+                metricType);
+        metric.setAssociatedMetricId("metric-id");
+        Resource<DMRNodeLocation> dataSource = Resource.<DMRNodeLocation> builder()
+                .id(new ID("dataSource"))
+                .name(new Name("dataSource"))
+                .location(dataSourceLocation)
+                .type(dataSourceType)
+                .parent(server)
+                .metric(metric)
+                .build();
+        dataSource.addProperty("prop", "value");
+        dataSource.addProperty("count", 5L);
+
+        TestEndpointService discovered = new TestEndpointService(resourceTypeManager);
+        discovered.getResourceManager().addResource(server);
+        discovered.getResourceManager().addResource(dataSource);
+
+        File cacheDir = Files.createTempDirectory("inventory-cache").toFile();
+        try {
+            new InventoryCache("feed", cacheDir).discoveryCompleted(new DiscoveryEvent<>(discovered,
+                    discovered.getResourceManager(), resourceTypeManager));
+
+            List<Resource<DMRNodeLocation>> loaded = new InventoryCache("feed", cacheDir)
+                    .load(new TestEndpointService(resourceTypeManager));
+            Assert.assertEquals(2, loaded.size());
+
+            Resource<DMRNodeLocation> loadedServer = loaded.get(0);
+            Assert.assertEquals(server.getID(), loadedServer.getID());
+            Assert.assertEquals(DMRNodeLocation.empty(), loadedServer.getLocation());
+            Assert.assertNull(loadedServer.getParent());
+
+            Resource<DMRNodeLocation> loadedDataSource = loaded.get(1);
+            Assert.assertEquals(dataSource.getID(), loadedDataSource.getID());
+            Assert.assertEquals(dataSource.getName(), loadedDataSource.getName());
+            Assert.assertSame(dataSourceType, loadedDataSource.getResourceType());
+            Assert.assertSame(loadedServer, loadedDataSource.getParent());
+            Assert.assertEquals("value", loadedDataSource.getProperties().get("prop"));
+            // a Long would come back as an Integer so only strings are cached - discovery restores the rest
+            Assert.assertFalse(loadedDataSource.getProperties().containsKey("count"));
+
+            // the settings of the location that its string form lacks must survive too
+            Assert.assertEquals(dataSourceLocation, loadedDataSource.getLocation());
+            Assert.assertFalse(loadedDataSource.getLocation().getResolveExpressions());
+            Assert.assertTrue(loadedDataSource.getLocation().getIncludeDefaults());
+
+            Assert.assertEquals(1, loadedDataSource.getMetrics().size());
+            MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> loadedMetric = loadedDataSource
+                    .getMetrics().iterator().next();
+            Assert.assertEquals(metric.getID(), loadedMetric.getID());
+            Assert.assertSame(metricType, loadedMetric.getType());
+            Assert.assertEquals("metric-id", loadedMetric.getAssociatedMetricId());
+            Assert.assertEquals(dataSourceLocation, loadedMetric.getAttributeLocation().getLocation());
+
+            // the cache of another feed is not loaded
+            Assert.assertTrue(new InventoryCache("other-feed", cacheDir)
+                    .load(new TestEndpointService(resourceTypeManager)).isEmpty());
+        } finally {
+            for (File file : cacheDir.listFiles()) {
+                file.delete();
+            }
+            cacheDir.delete();
+        }
+    }
+}
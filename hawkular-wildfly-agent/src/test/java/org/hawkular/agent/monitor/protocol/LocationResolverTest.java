@@ -87,4 +87,29 @@ public class LocationResolverTest {
         Assert.assertEquals("foo", resolver.findWildcardMatch(multiTargetLocation, singleLocation));
     }
 
+    @Test
+    public void testParseLocationPlatform() throws Exception {
+        PlatformLocationResolver resolver = new PlatformLocationResolver();
+        PlatformPath path = PlatformPath.builder()
+                .segment(Constants.PlatformResourceType.OPERATING_SYSTEM, "machine")
+                .segment(Constants.PlatformResourceType.FILE_STORE, "/dev/sda1 (/mnt/a=b)")
+                .build();
+        PlatformNodeLocation parsed = resolver.parseLocation(path.toString());
+        Assert.assertEquals(2, parsed.getPlatformPath().getSegments().size());
+        Assert.assertEquals(Constants.PlatformResourceType.OPERATING_SYSTEM,
+                parsed.getPlatformPath().getSegments().get(0).getType());
+        Assert.assertEquals("machine", parsed.getPlatformPath().getSegments().get(0).getName());
+        Assert.assertEquals(Constants.PlatformResourceType.FILE_STORE, parsed.getPlatformPath().getLastSegment()
+                .getType());
+        Assert.assertEquals("/dev/sda1 (/mnt/a=b)", parsed.getPlatformPath().getLastSegment().getName());
+        Assert.assertEquals(path.toString(), parsed.toString());
+
+        Assert.assertTrue(resolver.parseLocation("").getPlatformPath().getSegments().isEmpty());
+        try {
+            resolver.parseLocation("/NO_SUCH_TYPE=x");
+            Assert.fail("Unknown resource types must not be parsed");
+        } catch (ProtocolException expected) {
+        }
+    }
+
 }
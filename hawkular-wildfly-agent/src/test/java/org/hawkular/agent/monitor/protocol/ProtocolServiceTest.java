@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.AvailType;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
+import org.hawkular.agent.monitor.inventory.MeasurementInstance;
+import org.hawkular.agent.monitor.inventory.MeasurementType;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.agent.monitor.protocol.dmr.DMRSession;
+import org.hawkular.agent.monitor.scheduler.SchedulerConfiguration;
+import org.hawkular.agent.monitor.scheduler.SchedulerService;
+import org.hawkular.agent.monitor.storage.PrometheusStorageAdapter;
+import org.jboss.as.controller.client.helpers.MeasurementUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class ProtocolServiceTest {
+
+    private static final Interval ONE_MINUTE = new Interval(1, TimeUnit.MINUTES);
+    private static final Interval TWO_MINUTES = new Interval(2, TimeUnit.MINUTES);
+    private static final Interval DISABLED = new Interval(0, TimeUnit.MINUTES);
+
+    @Test
+    public void testUpdateMeasurementIntervals() throws Exception {
+        MetricType<DMRNodeLocation> changedMetric = metricType("changedMetric", ONE_MINUTE);
+        MetricType<DMRNodeLocation> disabledMetric = metricType("disabledMetric", ONE_MINUTE);
+        AvailType<DMRNodeLocation> enabledAvail = new AvailType<DMRNodeLocation>(new ID("enabledAvail"),
+                new Name("enabledAvail"), new AttributeLocation<>(DMRNodeLocation.empty(), "attrib"), DISABLED,
+                null, null, null);
+        MetricType<DMRNodeLocation> unchangedMetric = metricType("unchangedMetric", ONE_MINUTE);
+
+        ResourceType<DMRNodeLocation> changedType = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("changedType"))
+                .name(new Name("changedType"))
+                .location(DMRNodeLocation.empty())
+                .metricTypes(Arrays.asList(changedMetric, disabledMetric))
+                .availTypes(Collections.singletonList(enabledAvail))
+                .build();
+        ResourceType<DMRNodeLocation> unchangedType = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("unchangedType"))
+                .name(new Name("unchangedType"))
+                .location(DMRNodeLocation.empty())
+                .metricTypes(Collections.singletonList(unchangedMetric))
+                .build();
+
+        // all types already made it to inventory
+        for (ResourceType<DMRNodeLocation> type : Arrays.asList(changedType, unchangedType)) {
+            type.setPersisted(true);
+            type.getMetricTypes().forEach(t -> t.setPersisted(true));
+            type.getAvailTypes().forEach(t -> t.setPersisted(true));
+        }
+
+        TestEndpointService service = new TestEndpointService(
+                new ResourceTypeManager<>(Arrays.asList(changedType, unchangedType)));
+        Resource<DMRNodeLocation> changedResource = Resource.<DMRNodeLocation> builder()
+                .id(new ID("changedResource"))
+                .name(new Name("changedResource"))
+                .location(DMRNodeLocation.empty())
+                .type(changedType)
+                .metric(measurementInstance("changed", changedMetric))
+                .metric(measurementInstance("disabled", disabledMetric))
+                .avail(measurementInstance("enabled", enabledAvail))
+                .build();
+        Resource<DMRNodeLocation> unchangedResource = Resource.<DMRNodeLocation> builder()
+                .id(new ID("unchangedResource"))
+                .name(new Name("unchangedResource"))
+                .location(DMRNodeLocation.empty())
+                .type(unchangedType)
+                .metric(measurementInstance("unchanged", unchangedMetric))
+                .build();
+        service.getResourceManager().addResource(changedResource);
+        service.getResourceManager().addResource(unchangedResource);
+
+        ProtocolService<DMRNodeLocation, DMRSession> protocolService = ProtocolService
+                .<DMRNodeLocation, DMRSession> builder("test")
+                .endpointService(service)
+                .build();
+
+        SchedulerConfiguration config = new SchedulerConfiguration();
+        config.setMetricDispatcherBufferSize(100);
+        config.setMetricDispatcherMaxBatchSize(10);
+        config.setAvailDispatcherBufferSize(100);
+        config.setAvailDispatcherMaxBatchSize(10);
+        DiagnosticsImpl diagnostics = new DiagnosticsImpl(null, new MetricRegistry(), "feed");
+        SchedulerService scheduler = new SchedulerService(config, diagnostics, new PrometheusStorageAdapter(null));
+        scheduler.start();
+        try {
+            scheduler.reschedule(service, Arrays.asList(changedResource, unchangedResource));
+            Assert.assertEquals(3, scheduledCount(diagnostics, "metric"));
+            Assert.assertEquals(0, scheduledCount(diagnostics, "avail"));
+
+            Map<ID, Interval> metricIntervals = new HashMap<>();
+            metricIntervals.put(changedMetric.getID(), TWO_MINUTES);
+            metricIntervals.put(disabledMetric.getID(), DISABLED);
+            metricIntervals.put(unchangedMetric.getID(), ONE_MINUTE);
+            Map<ID, Interval> availIntervals = Collections.singletonMap(enabledAvail.getID(), ONE_MINUTE);
+            int changed = protocolService.updateMeasurementIntervals(metricIntervals, availIntervals, scheduler);
+
+            Assert.assertEquals(3, changed);
+            Assert.assertEquals(TWO_MINUTES, changedMetric.getInterval());
+            Assert.assertTrue(disabledMetric.isDisabled());
+            Assert.assertFalse(enabledAvail.isDisabled());
+            Assert.assertEquals(ONE_MINUTE, unchangedMetric.getInterval());
+
+            // the disabled metric is no longer collected and the re-enabled avail is checked again
+            Assert.assertEquals(2, scheduledCount(diagnostics, "metric"));
+            Assert.assertEquals(1, scheduledCount(diagnostics, "avail"));
+
+            // the changed types must be synced to inventory again, the unchanged ones must not
+            Assert.assertFalse(changedMetric.isPersisted());
+            Assert.assertFalse(disabledMetric.isPersisted());
+            Assert.assertFalse(enabledAvail.isPersisted());
+            Assert.assertFalse(changedType.isPersisted());
+            Assert.assertTrue(unchangedMetric.isPersisted());
+            Assert.assertTrue(unchangedType.isPersisted());
+
+            // setting the same intervals again changes nothing
+            Assert.assertEquals(0,
+                    protocolService.updateMeasurementIntervals(metricIntervals, availIntervals, scheduler));
+            Assert.assertEquals(2, scheduledCount(diagnostics, "metric"));
+            Assert.assertEquals(1, scheduledCount(diagnostics, "avail"));
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    private static int scheduledCount(DiagnosticsImpl diagnostics, String collectionType) {
+        return diagnostics.getCollectionDiagnostics(collectionType, "test-endpoint").getScheduledCount().getValue();
+    }
+
+    private static MetricType<DMRNodeLocation> metricType(String id, Interval interval) {
+        return new MetricType<DMRNodeLocation>(new ID(id), new Name(id),
+                new AttributeLocation<>(DMRNodeLocation.empty(), "attrib"), interval, MeasurementUnit.NONE,
+                org.hawkular.metrics.client.common.MetricType.GAUGE, null, null);
+    }
+
+    private static <T extends MeasurementType<DMRNodeLocation>> MeasurementInstance<DMRNodeLocation, T>
+            measurementInstance(String id, T type) {
+        return new MeasurementInstance<>(new ID(id), new Name(id),
+                new AttributeLocation<>(DMRNodeLocation.empty(), "attrib"), type);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.dmr.DMRLocationResolver;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.agent.monitor.protocol.dmr.DMRSession;
+
+/**
+ * An endpoint service of feed {@code feed} for a DMR endpoint named {@code test-endpoint} that cannot be connected
+ * to, for tests that only need the inventory side of an endpoint service.
+ */
+public class TestEndpointService extends EndpointService<DMRNodeLocation, DMRSession> {
+
+    public TestEndpointService(ResourceTypeManager<DMRNodeLocation> resourceTypeManager) {
+        this(null, resourceTypeManager);
+    }
+
+    /**
+     * @param tenantId the tenant of the endpoint or null if it uses the agent's tenant
+     * @param resourceTypeManager the types of the resources of the endpoint
+     */
+    public TestEndpointService(String tenantId, ResourceTypeManager<DMRNodeLocation> resourceTypeManager) {
+        super("feed", MonitoredEndpoint.of(new EndpointConfiguration("test-endpoint", true, null, null, null,
+                null, tenantId, null, null, null), null), resourceTypeManager, new DMRLocationResolver(), null);
+    }
+
+    @Override
+    public DMRSession openSession() {
+        throw new UnsupportedOperationException("a test endpoint service cannot be connected to");
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol.dmr;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
+import org.jboss.dmr.ModelNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+public class DMRDriverTest {
+
+    @Test
+    public void testReadsHonorLocationFlags() throws Exception {
+        List<ModelNode> requests = new ArrayList<>();
+        ModelControllerClient client = (ModelControllerClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ModelControllerClient.class }, (proxy, method, args) -> {
+                    if (!"execute".equals(method.getName()) || !(args[0] instanceof ModelNode)) {
+                        throw new UnsupportedOperationException(method.toString());
+                    }
+                    requests.add((ModelNode) args[0]);
+                    ModelNode response = new ModelNode();
+                    response.get(ModelDescriptionConstants.OUTCOME).set(ModelDescriptionConstants.SUCCESS);
+                    response.get(ModelDescriptionConstants.RESULT).set("value");
+                    return response;
+                });
+        DMRDriver driver = new DMRDriver(client, null, new ProtocolDiagnostics(new Timer(), new Meter(), new Timer()));
+
+        // the locations are equal but must be read differently
+        AttributeLocation<DMRNodeLocation> resolved = new AttributeLocation<>(
+                DMRNodeLocation.of("/subsystem=foo", true, true), "attr");
+        AttributeLocation<DMRNodeLocation> unresolved = new AttributeLocation<>(
+                DMRNodeLocation.of("/subsystem=foo", false, false), "attr");
+        Assert.assertEquals(resolved, unresolved);
+
+        Assert.assertEquals("value", driver.fetchAttribute(resolved));
+        Assert.assertEquals("value", driver.fetchAttribute(unresolved));
+        Assert.assertEquals("value", driver.fetchAttribute(resolved));
+        Assert.assertEquals(3, requests.size());
+        Assert.assertTrue(requests.get(0).get(ModelDescriptionConstants.RESOLVE_EXPRESSIONS).asBoolean());
+        Assert.assertTrue(requests.get(0).get(ModelDescriptionConstants.INCLUDE_DEFAULTS).asBoolean());
+        Assert.assertFalse(requests.get(1).get(ModelDescriptionConstants.RESOLVE_EXPRESSIONS).asBoolean(false));
+        Assert.assertFalse(requests.get(1).get(ModelDescriptionConstants.INCLUDE_DEFAULTS).asBoolean(false));
+        Assert.assertEquals(requests.get(0), requests.get(2));
+    }
+
+    @Test
+    public void testAttributeReadCacheEvictsLeastRecentlyUsed() {
+        Map<DMRDriver.AttributeReadKey, DMRDriver.AttributeRead> cache = DMRDriver.newAttributeReadCache();
+        List<DMRDriver.AttributeReadKey> keys = new ArrayList<>();
+        for (int i = 0; i <= DMRDriver.MAX_CACHED_ATTRIBUTE_READS; i++) {
+            AttributeLocation<DMRNodeLocation> location = new AttributeLocation<>(
+                    DMRNodeLocation.of("/subsystem=foo/bar=" + i), "attr");
+            keys.add(new DMRDriver.AttributeReadKey(location));
+            cache.put(keys.get(i), new DMRDriver.AttributeRead(location));
+            if (i == 1) {
+                cache.get(keys.get(0)); // the first read keeps being used
+            }
+        }
+
+        // only the least recently used read was evicted - the rest of the cache is kept
+        Assert.assertEquals(DMRDriver.MAX_CACHED_ATTRIBUTE_READS, cache.size());
+        Assert.assertTrue(cache.containsKey(keys.get(0)));
+        Assert.assertFalse(cache.containsKey(keys.get(1)));
+        Assert.assertTrue(cache.containsKey(keys.get(DMRDriver.MAX_CACHED_ATTRIBUTE_READS)));
+    }
+}
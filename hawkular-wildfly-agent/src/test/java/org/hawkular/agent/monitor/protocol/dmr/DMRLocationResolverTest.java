@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,7 +16,14 @@
  */
 package org.hawkular.agent.monitor.protocol.dmr;
 
+import java.util.Collections;
+import java.util.IllegalFormatException;
+import java.util.MissingFormatArgumentException;
+
+import org.hawkular.agent.monitor.protocol.LocationResolver.NameTemplate;
 import org.hawkular.agent.monitor.protocol.ProtocolException;
+import org.jboss.as.controller.PathAddress;
+import org.jboss.as.controller.PathElement;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -92,6 +99,17 @@ public class DMRLocationResolverTest {
         Assert.assertTrue(resolver.matches(DMRNodeLocation.of("/one=1/two=*"), DMRNodeLocation.of("/one=1/two=2")));
         Assert.assertTrue(resolver.matches(DMRNodeLocation.of("/one=*/two=*"), DMRNodeLocation.of("/one=1/two=2")));
         Assert.assertFalse(resolver.matches(DMRNodeLocation.of("/one=1/two=XX"), DMRNodeLocation.of("/one=1/two=2")));
+        Assert.assertFalse(resolver.matches(DMRNodeLocation.of("/one=*/two=2"), DMRNodeLocation.of("/one=1/XX=2")));
+        Assert.assertFalse(resolver.matches(DMRNodeLocation.of("/one=*"), DMRNodeLocation.of("/one=1/two=2")));
+
+        // locations built from strings that are not constants
+        DMRNodeLocation built = new DMRNodeLocation(PathAddress.pathAddress(
+                PathElement.pathElement(new String("one"), new String("1")),
+                PathElement.pathElement(new StringBuilder("tw").append('o').toString(), "2")));
+        Assert.assertTrue(resolver.matches(DMRNodeLocation.of("/one=1/two=2"), built));
+        Assert.assertTrue(resolver.matches(DMRNodeLocation.of("/one=*/two=2"), built));
+        Assert.assertTrue(resolver.isParent(DMRNodeLocation.of("/one=*"), built));
+        Assert.assertFalse(resolver.isParent(DMRNodeLocation.of("/one=2"), built));
     }
 
     @Test
@@ -113,4 +131,51 @@ public class DMRLocationResolverTest {
         Assert.assertEquals("hello one.1.two.2.[eName]", str);
     }
 
+    @Test
+    public void testCompileTemplate() {
+        DMRLocationResolver resolver = new DMRLocationResolver();
+        DMRNodeLocation location = DMRNodeLocation.of("/one=1/two=2");
+
+        NameTemplate<DMRNodeLocation> template = resolver.compileTemplate("[%ManagedServerName] %1=%2 %-%-");
+        Assert.assertEquals("[eName] one=1 22", template.apply(location, "eName"));
+        Assert.assertEquals("[other] two=2 33", template.apply(DMRNodeLocation.of("/two=2/three=3"), "other"));
+
+        // String.format specifiers
+        Assert.assertEquals("100% 1", resolver.compileTemplate("100%% %2").apply(location, "eName"));
+        Assert.assertEquals("x1$s", resolver.compileTemplate("x%2$s").apply(location, "eName"));
+
+        try {
+            resolver.compileTemplate("%5").apply(location, "eName");
+            Assert.fail("There is no fifth address part");
+        } catch (MissingFormatArgumentException expected) {
+        }
+        try {
+            resolver.compileTemplate("%-").apply(DMRNodeLocation.empty(), "eName");
+            Assert.fail("There is no last address part");
+        } catch (IllegalFormatException expected) {
+        }
+    }
+
+    @Test
+    public void testParseLocation() throws Exception {
+        DMRLocationResolver resolver = new DMRLocationResolver();
+        DMRNodeLocation location = DMRNodeLocation.of("/subsystem=datasources/data-source=ExampleDS");
+        Assert.assertEquals(location, resolver.parseLocation(location.toString()));
+        Assert.assertEquals(DMRNodeLocation.empty(), resolver.parseLocation(DMRNodeLocation.empty().toString()));
+    }
+
+    @Test
+    public void testParseLocationFlags() throws Exception {
+        DMRLocationResolver resolver = new DMRLocationResolver();
+        DMRNodeLocation location = DMRNodeLocation.of("/subsystem=datasources/data-source=ExampleDS", false, true);
+        DMRNodeLocation parsed = resolver.parseLocation(location.toString(), resolver.getLocationFlags(location));
+        Assert.assertEquals(location, parsed);
+        Assert.assertFalse(parsed.getResolveExpressions());
+        Assert.assertTrue(parsed.getIncludeDefaults());
+
+        // missing settings get their defaults
+        parsed = resolver.parseLocation(location.toString(), Collections.emptyMap());
+        Assert.assertTrue(parsed.getResolveExpressions());
+        Assert.assertTrue(parsed.getIncludeDefaults());
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,6 +16,7 @@
  */
 package org.hawkular.agent.monitor.protocol.jmx;
 
+import org.hawkular.agent.monitor.protocol.LocationResolver.NameTemplate;
 import org.hawkular.agent.monitor.protocol.ProtocolException;
 import org.junit.Assert;
 import org.junit.Test;
@@ -118,4 +119,33 @@ public class JMXLocationResolverTest extends JMXLocationResolver {
         Assert.assertEquals("hello 1.2.[eName]", str);
     }
 
+    @Test
+    public void testCompileTemplate() throws Exception {
+        JMXLocationResolver resolver = new JMXLocationResolver();
+        JMXNodeLocation location = new JMXNodeLocation("domain:one=1,two=2");
+
+        NameTemplate<JMXNodeLocation> template = resolver.compileTemplate("[%_ManagedServerName%] %one%-%two%");
+        Assert.assertEquals("[eName] 1-2", template.apply(location, "eName"));
+        Assert.assertEquals("[other] 3-4", template.apply(new JMXNodeLocation("domain:two=4,one=3"), "other"));
+
+        // tokens that are not keys are kept
+        Assert.assertEquals("%three% 1 %", resolver.compileTemplate("%three% %one% %").apply(location, "eName"));
+        Assert.assertEquals("100%%", resolver.compileTemplate("100%%").apply(location, "eName"));
+        // the text between two tokens is a token too, and that is replaced first
+        Assert.assertEquals("%oneeNametwo%",
+                resolver.compileTemplate("%one%_ManagedServerName%two%").apply(location, "eName"));
+    }
+
+    @Test
+    public void testParseLocation() throws Exception {
+        JMXLocationResolver resolver = new JMXLocationResolver();
+        JMXNodeLocation location = new JMXNodeLocation("domain:two=2,one=1");
+        Assert.assertEquals(location, resolver.parseLocation(location.toString()));
+
+        try {
+            resolver.parseLocation("not an object name");
+            Assert.fail("Should not have parsed an invalid object name");
+        } catch (ProtocolException ok) {
+        }
+    }
 }
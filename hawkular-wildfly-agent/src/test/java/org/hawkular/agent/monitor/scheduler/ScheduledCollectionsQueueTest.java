@@ -19,6 +19,7 @@ package org.hawkular.agent.monitor.scheduler;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -245,6 +246,73 @@ public class ScheduledCollectionsQueueTest {
         Assert.assertFalse(scheduledSet.contains(schedule3.getMeasurementInstance()));
     }
 
+    @Test
+    public void testScheduleSameInstanceAgain() {
+        ScheduledCollectionsQueue<DMRNodeLocation, MetricType<DMRNodeLocation>> q = new ScheduledCollectionsQueue<>();
+
+        MetricType<DMRNodeLocation> metricType = createMetricType("metricTypeName", 1000);
+        MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> measInstance;
+        measInstance = createMeasurementInstance("metricName", metricType);
+        Resource<DMRNodeLocation> resource = createResource("root", measInstance);
+        ScheduledMeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> schedule;
+        schedule = new ScheduledMeasurementInstance<>(resource, measInstance);
+
+        // the schedule must not replace (and so cancel) itself
+        q.schedule(Collections.singleton(schedule));
+        q.schedule(Collections.singleton(schedule));
+        Assert.assertFalse(schedule.isCancelled());
+        Assert.assertEquals(1, q.size());
+        Assert.assertEquals(schedule.getNextCollectionTime(), q.getNextExpectedCollectionTime());
+
+        q.unschedule(Collections.singleton(resource));
+        Assert.assertTrue(schedule.isCancelled());
+        Assert.assertEquals(0, q.size());
+    }
+
+    @Test
+    public void testRescheduleReplacesExistingSchedules() throws InterruptedException {
+        ScheduledCollectionsQueue<DMRNodeLocation, MetricType<DMRNodeLocation>> q = new ScheduledCollectionsQueue<>();
+
+        int collInterval = 1000;
+        MetricType<DMRNodeLocation> metricType1 = createMetricType("metricTypeName1", collInterval);
+        MetricType<DMRNodeLocation> metricType2 = createMetricType("metricTypeName2", collInterval);
+        MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> measInstance1;
+        MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>> measInstance2;
+        measInstance1 = createMeasurementInstance("metricName1", metricType1);
+        measInstance2 = createMeasurementInstance("metricName2", metricType2);
+        Resource<DMRNodeLocation> resource1 = createResource("root1", measInstance1);
+        Resource<DMRNodeLocation> resource2 = createResource("root2", measInstance2);
+
+        // scheduling the same measurements again must not duplicate them
+        q.schedule(Arrays.asList(new ScheduledMeasurementInstance<>(resource1, measInstance1),
+                new ScheduledMeasurementInstance<>(resource2, measInstance2)));
+        Assert.assertEquals(2, q.size());
+        q.schedule(Collections.singleton(new ScheduledMeasurementInstance<>(resource1, measInstance1)));
+        q.schedule(Collections.singleton(new ScheduledMeasurementInstance<>(resource1, measInstance1)));
+        Assert.assertEquals(2, q.size());
+
+        Thread.sleep(collInterval + 1000);
+        Set<MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>>> collected = new HashSet<>();
+        int popped = 0;
+        for (Set<MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>>> next = q.popNextScheduledSet();
+                !next.isEmpty(); next = q.popNextScheduledSet()) {
+            collected.addAll(next);
+            popped += next.size();
+        }
+        Assert.assertEquals("Each measurement should be collected exactly once", 2, popped);
+        Assert.assertTrue(collected.contains(measInstance1));
+        Assert.assertTrue(collected.contains(measInstance2));
+
+        // unscheduling only touches the given resource
+        q.unschedule(Collections.singleton(resource1));
+        Assert.assertEquals(1, q.size());
+        q.unschedule(Collections.singleton(resource1));
+        Assert.assertEquals(1, q.size());
+        q.unschedule(Collections.singleton(resource2));
+        Assert.assertEquals(0, q.size());
+        Assert.assertEquals("Nothing scheduled!", Long.MIN_VALUE, q.getNextExpectedCollectionTime());
+    }
+
     private Resource<DMRNodeLocation> createResource(String name,
             MeasurementInstance<DMRNodeLocation, MetricType<DMRNodeLocation>>... metrics) {
         ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
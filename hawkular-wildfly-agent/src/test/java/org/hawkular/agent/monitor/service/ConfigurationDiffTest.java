@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.DiagnosticsConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.DiagnosticsReportTo;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.GlobalConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.InventorySyncMode;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.ProtocolConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageAdapterConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageReportTo;
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.ConnectionData;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.TypeSet;
+import org.hawkular.agent.monitor.inventory.TypeSets;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.agent.monitor.protocol.jmx.JMXNodeLocation;
+import org.hawkular.agent.monitor.protocol.platform.PlatformNodeLocation;
+import org.jboss.as.controller.client.helpers.MeasurementUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConfigurationDiffTest {
+
+    @Test
+    public void testNoChanges() {
+        ConfigurationDiff diff = ConfigurationDiff.between(
+                config("storage", dmr(5, endpoint("one", "set1", 9990))),
+                config("storage", dmr(5, endpoint("one", "set1", 9990))));
+        Assert.assertTrue(diff.toString(), diff.isEmpty());
+    }
+
+    @Test
+    public void testStorageChangeRequiresRestart() {
+        ConfigurationDiff diff = ConfigurationDiff.between(
+                config("storage", dmr(5, endpoint("one", "set1", 9990))),
+                config("other-storage", dmr(5, endpoint("one", "set1", 9990))));
+        Assert.assertTrue(diff.isRestartRequired());
+    }
+
+    @Test
+    public void testEndpointAddedRemovedAndChanged() {
+        ConfigurationDiff diff = ConfigurationDiff.between(
+                config("storage", dmr(5,
+                        endpoint("same", "set1", 9990),
+                        endpoint("removed", "set1", 9991),
+                        endpoint("changed", "set1", 9992))),
+                config("storage", dmr(5,
+                        endpoint("same", "set1", 9990),
+                        endpoint("changed", "set1", 19992),
+                        endpoint("added", "set1", 9993))));
+
+        Assert.assertFalse(diff.isRestartRequired());
+        Assert.assertEquals(Collections.singleton("removed"), diff.getDmrEndpoints().getRemoved());
+        Assert.assertEquals(Collections.singleton("added"), diff.getDmrEndpoints().getAdded());
+        Assert.assertEquals(Collections.singleton("changed"), diff.getDmrEndpoints().getChanged());
+        Assert.assertTrue(diff.getJmxEndpoints().isEmpty());
+        Assert.assertTrue(diff.getPlatformEndpoints().isEmpty());
+    }
+
+    @Test
+    public void testTypeSetChangeOnlyAffectsEndpointsUsingIt() {
+        // changing the metric interval of set1 must not affect the endpoint that only monitors set2
+        ConfigurationDiff diff = ConfigurationDiff.between(
+                config("storage", dmr(5, endpoint("uses-set1", "set1", 9990), endpoint("uses-set2", "set2", 9991))),
+                config("storage", dmr(10, endpoint("uses-set1", "set1", 9990), endpoint("uses-set2", "set2", 9991))));
+
+        Assert.assertFalse(diff.isRestartRequired());
+        Assert.assertEquals(Collections.singleton("uses-set1"), diff.getDmrEndpoints().getChanged());
+        Assert.assertTrue(diff.getDmrEndpoints().getAdded().isEmpty());
+        Assert.assertTrue(diff.getDmrEndpoints().getRemoved().isEmpty());
+    }
+
+    private static EndpointConfiguration endpoint(String name, String resourceTypeSet, int port) {
+        return new EndpointConfiguration(name, true, Collections.singletonList(new Name(resourceTypeSet)),
+                new ConnectionData("http-remoting", "localhost", port, "user", "pass"), null, null, null, null,
+                null, null);
+    }
+
+    /**
+     * Two resource type sets, set1 and set2. The collection interval of the set1 metric is given by the caller.
+     */
+    private static ProtocolConfiguration<DMRNodeLocation> dmr(int set1IntervalSecs,
+            EndpointConfiguration... endpoints) {
+        TypeSets.Builder<DMRNodeLocation> typeSets = TypeSets.builder();
+        for (String setName : Arrays.asList("set1", "set2")) {
+            int interval = "set1".equals(setName) ? set1IntervalSecs : 5;
+            MetricType<DMRNodeLocation> metric = new MetricType<>(new ID(setName + "~metric"),
+                    new Name("metric"),
+                    new AttributeLocation<>(DMRNodeLocation.of("/subsystem=" + setName), "attr"),
+                    new Interval(interval, TimeUnit.SECONDS), MeasurementUnit.NONE,
+                    org.hawkular.metrics.client.common.MetricType.GAUGE, null, null);
+            ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+                    .id(new ID(setName + "~type"))
+                    .name(new Name("type"))
+                    .location(DMRNodeLocation.of("/subsystem=" + setName))
+                    .resourceNameTemplate(setName)
+                    .metricTypes(Collections.singletonList(metric))
+                    .build();
+            typeSets.resourceTypeSet(TypeSet.<ResourceType<DMRNodeLocation>> builder()
+                    .id(new ID(setName))
+                    .name(new Name(setName))
+                    .enabled(true)
+                    .type(type)
+                    .build());
+        }
+
+        ProtocolConfiguration.Builder<DMRNodeLocation> builder = ProtocolConfiguration.<DMRNodeLocation> builder()
+                .typeSets(typeSets.build());
+        for (EndpointConfiguration endpoint : endpoints) {
+            builder.endpoint(endpoint);
+        }
+        return builder.build();
+    }
+
+    private static MonitorServiceConfiguration config(String tenantId,
+            ProtocolConfiguration<DMRNodeLocation> dmrConfiguration) {
+        GlobalConfiguration global = new GlobalConfiguration(true, false, false, null, 600, 30, 4, 1000, 100, 500,
+                50, 60, false, 4, 50);
+        DiagnosticsConfiguration diagnostics = new DiagnosticsConfiguration(false, DiagnosticsReportTo.LOG, 5,
+                TimeUnit.MINUTES);
+        StorageAdapterConfiguration storage = new StorageAdapterConfiguration(StorageReportTo.HAWKULAR, "user",
+                "pass", tenantId, null, "http://localhost:8080", false, null, "/hawkular/inventory/",
+                "/hawkular/metrics/", "/hawkular/command-gateway/", null, null, null, 10, 120,
+                InventorySyncMode.FULL, 1, null);
+        return new MonitorServiceConfiguration(global, diagnostics, storage, dmrConfiguration,
+                ProtocolConfiguration.<JMXNodeLocation> builder().typeSets(TypeSets.empty()).build(),
+                ProtocolConfiguration.<PlatformNodeLocation> builder().typeSets(TypeSets.empty()).build());
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.agent.monitor.api.DiscoveryEvent;
+import org.hawkular.agent.monitor.api.MetricTagPayloadBuilder;
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.InventorySyncMode;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageAdapterConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageReportTo;
+import org.hawkular.agent.monitor.scheduler.SchedulerConfiguration;
+import org.hawkular.metrics.client.common.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class FanOutStorageAdapterTest {
+
+    /**
+     * A sink that blocks every store until it is released.
+     */
+    private static class SlowStorageAdapter extends PrometheusStorageAdapter {
+        private final CountDownLatch storing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger stored = new AtomicInteger();
+
+        SlowStorageAdapter() {
+            super(null);
+        }
+
+        @Override
+        public void storeMetrics(Set<MetricDataPoint> datapoints, long waitMillis) {
+            storing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            stored.addAndGet(datapoints.size());
+        }
+    }
+
+    @Test
+    public void testSlowSinkDoesNotBlockFastSink() throws Exception {
+        SlowStorageAdapter slow = new SlowStorageAdapter();
+        PrometheusStorageAdapter fast = new PrometheusStorageAdapter(null);
+
+        SchedulerConfiguration slowDispatcherConfig = new SchedulerConfiguration();
+        slowDispatcherConfig.setMetricDispatcherBufferSize(5);
+        slowDispatcherConfig.setMetricDispatcherMaxBatchSize(5);
+
+        FanOutStorageAdapter fanOut = new FanOutStorageAdapter(Arrays.asList(
+                new FanOutStorageAdapter.Sink("slow", slow, slowDispatcherConfig),
+                new FanOutStorageAdapter.Sink("fast", fast, new SchedulerConfiguration())));
+        fanOut.initialize("feed", config(), new DiagnosticsImpl(null, new MetricRegistry(), "feed"), null, null);
+
+        try {
+            // far more than the slow sink can buffer - none of these calls may block
+            for (int i = 0; i < 20; i++) {
+                fanOut.storeMetrics(Collections.singleton(
+                        new NumericMetricDataPoint("metric" + i, 1000L + i, i, MetricType.GAUGE, null)), 0L);
+            }
+
+            // the fast sink gets everything while the slow sink is still stuck on its first batch
+            long deadline = System.currentTimeMillis() + 10_000L;
+            String scrape = scrape(fast);
+            while (!scrape.contains("id=\"metric19\"") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+                scrape = scrape(fast);
+            }
+            for (int i = 0; i < 20; i++) {
+                Assert.assertTrue(scrape, scrape.contains("id=\"metric" + i + "\""));
+            }
+            Assert.assertEquals(0, slow.stored.get());
+
+            // once released, the slow sink only gets what fit into its own buffer
+            slow.release.countDown();
+            deadline = System.currentTimeMillis() + 10_000L;
+            while (slow.stored.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            Thread.sleep(100L);
+            Assert.assertTrue(String.valueOf(slow.stored.get()), slow.stored.get() > 0);
+            Assert.assertTrue(String.valueOf(slow.stored.get()), slow.stored.get() < 20);
+        } finally {
+            fanOut.shutdown();
+        }
+    }
+
+    @Test
+    public void testDispatchersBufferPerSink() throws Exception {
+        SlowStorageAdapter slow = new SlowStorageAdapter();
+        PrometheusStorageAdapter fast = new PrometheusStorageAdapter(null);
+
+        SchedulerConfiguration slowDispatcherConfig = new SchedulerConfiguration();
+        slowDispatcherConfig.setMetricDispatcherBufferSize(5);
+        slowDispatcherConfig.setMetricDispatcherMaxBatchSize(5);
+
+        FanOutStorageAdapter fanOut = new FanOutStorageAdapter(Arrays.asList(
+                new FanOutStorageAdapter.Sink("slow", slow, slowDispatcherConfig),
+                new FanOutStorageAdapter.Sink("fast", fast, new SchedulerConfiguration())));
+        DiagnosticsImpl diagnostics = new DiagnosticsImpl(null, new MetricRegistry(), "feed");
+        fanOut.initialize("feed", config(), diagnostics, null, null);
+
+        StorageDispatcher<MetricDataPoint> dispatcher = fanOut.createMetricDispatcher(new SchedulerConfiguration(),
+                diagnostics);
+        dispatcher.start();
+        try {
+            // get the slow sink stuck on its first batch so everything else has to wait in its buffer
+            dispatcher.accept(new NumericMetricDataPoint("metric0", 1000L, 0, MetricType.GAUGE, null));
+            Assert.assertTrue(slow.storing.await(10, TimeUnit.SECONDS));
+
+            for (int i = 1; i < 20; i++) {
+                dispatcher.accept(
+                        new NumericMetricDataPoint("metric" + i, 1000L + i, i, MetricType.GAUGE, null));
+            }
+
+            long deadline = System.currentTimeMillis() + 10_000L;
+            String scrape = scrape(fast);
+            while (!scrape.contains("id=\"metric19\"") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+                scrape = scrape(fast);
+            }
+            Assert.assertTrue(scrape, scrape.contains("id=\"metric19\""));
+
+            // only the slow sink still holds data points - as many as fit its buffer, the rest was dropped
+            long slowBuffered = diagnostics.getStorageSinkDiagnostics("slow").getMetricsStorageBufferSize()
+                    .getCount();
+            Assert.assertEquals(5, slowBuffered);
+            Assert.assertEquals(0,
+                    diagnostics.getStorageSinkDiagnostics("fast").getMetricsStorageBufferSize().getCount());
+            Assert.assertEquals(0, diagnostics.getMetricsStorageBufferSize().getCount());
+            Assert.assertTrue(diagnostics.getStorageErrorRate().getCount() > 0);
+        } finally {
+            dispatcher.shutdown();
+            slow.release.countDown();
+            fanOut.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailingSinkDoesNotStopOthers() {
+        AtomicInteger calls = new AtomicInteger();
+        PrometheusStorageAdapter failing = new PrometheusStorageAdapter(null) {
+            @Override
+            public void store(MetricTagPayloadBuilder payloadBuilder, long waitMillis) {
+                throw new IllegalStateException("failing sink");
+            }
+
+            @Override
+            public <L> void discoveryCompleted(DiscoveryEvent<L> event) {
+                throw new IllegalStateException("failing sink");
+            }
+        };
+        PrometheusStorageAdapter working = new PrometheusStorageAdapter(null) {
+            @Override
+            public void store(MetricTagPayloadBuilder payloadBuilder, long waitMillis) {
+                calls.incrementAndGet();
+            }
+
+            @Override
+            public <L> void discoveryCompleted(DiscoveryEvent<L> event) {
+                calls.incrementAndGet();
+            }
+        };
+        FanOutStorageAdapter fanOut = new FanOutStorageAdapter(Arrays.asList(
+                new FanOutStorageAdapter.Sink("failing", failing, new SchedulerConfiguration()),
+                new FanOutStorageAdapter.Sink("working", working, new SchedulerConfiguration())));
+        DiagnosticsImpl diagnostics = new DiagnosticsImpl(null, new MetricRegistry(), "feed");
+        fanOut.initialize("feed", config(), diagnostics, null, null);
+        try {
+            fanOut.store((MetricTagPayloadBuilder) null, 0);
+            fanOut.discoveryCompleted(null);
+
+            // every failure of a sink counts as a storage error, like data it fails to store
+            Assert.assertEquals(2, calls.get());
+            Assert.assertEquals(2, diagnostics.getStorageErrorRate().getCount());
+        } finally {
+            fanOut.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrimaryProvidesConfiguration() {
+        PrometheusStorageAdapter primary = new PrometheusStorageAdapter(null);
+        PrometheusStorageAdapter secondary = new PrometheusStorageAdapter(null);
+        FanOutStorageAdapter fanOut = new FanOutStorageAdapter(Arrays.asList(
+                new FanOutStorageAdapter.Sink("primary", primary, new SchedulerConfiguration()),
+                new FanOutStorageAdapter.Sink("secondary", secondary, new SchedulerConfiguration())));
+        StorageAdapterConfiguration config = config();
+        fanOut.initialize("feed", config, new DiagnosticsImpl(null, new MetricRegistry(), "feed"), null, null);
+        try {
+            Assert.assertSame(config, fanOut.getStorageAdapterConfiguration());
+            Assert.assertEquals(2, fanOut.getSinks().size());
+            Assert.assertSame(primary, fanOut.getSinks().get(0).getStorageAdapter());
+        } finally {
+            fanOut.shutdown();
+        }
+    }
+
+    private static String scrape(PrometheusStorageAdapter adapter) throws Exception {
+        StringWriter out = new StringWriter();
+        adapter.write(out);
+        return out.toString();
+    }
+
+    private static StorageAdapterConfiguration config() {
+        return new StorageAdapterConfiguration(StorageReportTo.HAWKULAR, "user",
+                "pass", "hawkular", null, "http://localhost:8080", false, null, "/hawkular/inventory/",
+                "/hawkular/metrics/", "/hawkular/command-gateway/", null, null, null, 10, 120,
+                InventorySyncMode.FULL, 1, null);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InventorySyncHashesTest {
+
+    private static final String TENANT = "tenant";
+
+    private final ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+            .id(new ID("resType"))
+            .name(new Name("resTypeName"))
+            .location(DMRNodeLocation.empty())
+            .build();
+
+    @Test
+    public void testUnchangedTreeIsSkipped() {
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        Resource<DMRNodeLocation> root = resource("root", "rootName", null);
+        rm.addResource(root);
+        rm.addResource(resource("child1", "child1Name", root));
+        rm.addResource(resource("child2", "child2Name", root));
+
+        InventorySyncHashes syncHashes = new InventorySyncHashes("feed", null);
+
+        // nothing was synced yet so the entire tree must be synced
+        Map<String, InventorySyncHashes.Hashes> hashes = InventorySyncHashes.computeHashes(rm);
+        List<Resource<DMRNodeLocation>> changed = syncHashes.getChangedSubtrees(TENANT, rm, root, hashes);
+        Assert.assertEquals(Collections.singletonList(root), changed);
+        syncHashes.markSynced(TENANT, rm, root, hashes);
+
+        // the same resources are discovered again - nothing needs to be synced
+        hashes = InventorySyncHashes.computeHashes(rm);
+        Assert.assertTrue(syncHashes.getChangedSubtrees(TENANT, rm, root, hashes).isEmpty());
+
+        // a different tenant never had anything synced
+        Assert.assertEquals(1, syncHashes.getChangedSubtrees("other", rm, root, hashes).size());
+    }
+
+    @Test
+    public void testOnlySmallestChangedSubtreesAreSynced() {
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        Resource<DMRNodeLocation> root = resource("root", "rootName", null);
+        Resource<DMRNodeLocation> child1 = resource("child1", "child1Name", root);
+        Resource<DMRNodeLocation> child2 = resource("child2", "child2Name", root);
+        rm.addResource(root);
+        rm.addResource(child1);
+        rm.addResource(child2);
+        rm.addResource(resource("grand1", "grand1Name", child1));
+
+        InventorySyncHashes syncHashes = new InventorySyncHashes("feed", null);
+        Map<String, InventorySyncHashes.Hashes> hashes = InventorySyncHashes.computeHashes(rm);
+        syncHashes.markSynced(TENANT, rm, root, hashes);
+
+        // modify a grandchild - only it needs to be synced
+        rm.addResource(resource("grand1", "grand1NameUPDATE", child1));
+        hashes = InventorySyncHashes.computeHashes(rm);
+        List<Resource<DMRNodeLocation>> changed = syncHashes.getChangedSubtrees(TENANT, rm, root, hashes);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(new ID("grand1"), changed.get(0).getID());
+        syncHashes.markSynced(TENANT, rm, root, hashes);
+
+        // add a new child under child2 - child2's set of children changed so its whole subtree is synced
+        rm.addResource(resource("grand2", "grand2Name", child2));
+        hashes = InventorySyncHashes.computeHashes(rm);
+        changed = syncHashes.getChangedSubtrees(TENANT, rm, root, hashes);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(new ID("child2"), changed.get(0).getID());
+
+        // if that sync failed (we never mark it synced), we are asked to sync it again next time
+        hashes = InventorySyncHashes.computeHashes(rm);
+        changed = syncHashes.getChangedSubtrees(TENANT, rm, root, hashes);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(new ID("child2"), changed.get(0).getID());
+
+        // modify the root itself - the full tree must be synced
+        rm.addResource(resource("root", "rootNameUPDATE", null));
+        hashes = InventorySyncHashes.computeHashes(rm);
+        changed = syncHashes.getChangedSubtrees(TENANT, rm, root, hashes);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(new ID("root"), changed.get(0).getID());
+    }
+
+    @Test
+    public void testForgetRemovesWholeSubtree() {
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        Resource<DMRNodeLocation> root = resource("root", "rootName", null);
+        Resource<DMRNodeLocation> child1 = resource("child1", "child1Name", root);
+        Resource<DMRNodeLocation> grand1 = resource("grand1", "grand1Name", child1);
+        rm.addResource(root);
+        rm.addResource(child1);
+        rm.addResource(grand1);
+
+        InventorySyncHashes syncHashes = new InventorySyncHashes("feed", null);
+        Map<String, InventorySyncHashes.Hashes> hashes = InventorySyncHashes.computeHashes(rm);
+        syncHashes.markSynced(TENANT, rm, root, hashes);
+        Assert.assertTrue(syncHashes.getChangedSubtrees(TENANT, rm, grand1, hashes).isEmpty());
+
+        // only the top of the removed subtree is given - its descendants must be forgotten too
+        rm.removeResource(child1);
+        syncHashes.forget(TENANT, Collections.singletonList(child1));
+        Assert.assertEquals(Collections.singletonList(child1),
+                syncHashes.getChangedSubtrees(TENANT, rm, child1, hashes));
+        Assert.assertEquals(Collections.singletonList(grand1),
+                syncHashes.getChangedSubtrees(TENANT, rm, grand1, hashes));
+        Assert.assertTrue(syncHashes.getChangedSubtrees(TENANT, rm, root, hashes).isEmpty());
+    }
+
+    @Test
+    public void testHashesSurviveRestart() throws Exception {
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        Resource<DMRNodeLocation> root = resource("root", "rootName", null);
+        rm.addResource(root);
+        rm.addResource(resource("child1", "child1Name", root));
+
+        File file = File.createTempFile("inventory-sync-hashes", ".json");
+        file.delete();
+        try {
+            InventorySyncHashes syncHashes = new InventorySyncHashes("feed", file);
+            Map<String, InventorySyncHashes.Hashes> hashes = InventorySyncHashes.computeHashes(rm);
+            syncHashes.markSynced(TENANT, rm, root, hashes);
+            syncHashes.persist();
+            Assert.assertTrue(file.exists());
+
+            // simulate a restart - what was synced before should be remembered
+            syncHashes = new InventorySyncHashes("feed", file);
+            Assert.assertTrue(syncHashes.getChangedSubtrees(TENANT, rm, root, hashes).isEmpty());
+
+            // hashes persisted for some other feed are ignored
+            syncHashes = new InventorySyncHashes("otherFeed", file);
+            Assert.assertEquals(1, syncHashes.getChangedSubtrees(TENANT, rm, root, hashes).size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private Resource<DMRNodeLocation> resource(String id, String name, Resource<DMRNodeLocation> parent) {
+        return Resource.<DMRNodeLocation> builder()
+                .id(new ID(id))
+                .name(new Name(name))
+                .type(type)
+                .parent(parent)
+                .location((parent == null) ? DMRNodeLocation.empty() : DMRNodeLocation.of("/" + id + "=1"))
+                .build();
+    }
+}
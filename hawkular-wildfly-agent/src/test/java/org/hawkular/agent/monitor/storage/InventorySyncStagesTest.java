@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
+import org.hawkular.agent.monitor.inventory.MeasurementType;
+import org.hawkular.agent.monitor.inventory.MetricType;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.jboss.as.controller.client.helpers.MeasurementUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InventorySyncStagesTest {
+
+    @Test
+    public void testSyncsAreSentConcurrentlyUpToTheExecutorLimit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            List<Callable<Boolean>> syncs = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                boolean result = i % 3 != 0;
+                syncs.add(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return result;
+                });
+            }
+
+            List<Boolean> results = InventorySyncStages.performSyncs(executor, syncs);
+            Assert.assertEquals(Arrays.asList(false, true, true, false, true, true, false, true, true, false),
+                    results);
+            Assert.assertEquals(2, maxRunning.get());
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testFailedSyncsAreReportedAsFailed() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Callable<Boolean>> syncs = new ArrayList<>();
+            syncs.add(() -> true);
+            syncs.add(() -> {
+                throw new IllegalStateException("inventory is down");
+            });
+            syncs.add(() -> true);
+            Assert.assertEquals(Arrays.asList(true, false, true), InventorySyncStages.performSyncs(executor, syncs));
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        // nothing is sent once the executor is shut down
+        List<Callable<Boolean>> syncs = Arrays.asList(() -> true, () -> true);
+        Assert.assertEquals(Arrays.asList(false, false), InventorySyncStages.performSyncs(executor, syncs));
+        Assert.assertTrue(InventorySyncStages.performSyncs(executor, Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testOnlySyncedTypesAreMarkedPersisted() {
+        MetricType<DMRNodeLocation> metricType1 = metricType("metric1");
+        MetricType<DMRNodeLocation> metricType2 = metricType("metric2");
+        ResourceType<DMRNodeLocation> resourceType1 = resourceType("type1", metricType1);
+        ResourceType<DMRNodeLocation> resourceType2 = resourceType("type2", metricType2);
+        ResourceType<DMRNodeLocation> resourceType3 = resourceType("type3");
+        List<MeasurementType<DMRNodeLocation>> measurementTypes = Arrays.asList(metricType1, metricType2);
+        List<ResourceType<DMRNodeLocation>> resourceTypes = Arrays.asList(resourceType1, resourceType2,
+                resourceType3);
+
+        // metric2 failed, so type2 must be synced again even though its own sync succeeded; type3 failed itself
+        boolean allPersisted = InventorySyncStages.markTypesPersisted(measurementTypes, Arrays.asList(true, false),
+                resourceTypes, Arrays.asList(true, true, false));
+        Assert.assertFalse(allPersisted);
+        Assert.assertTrue(metricType1.isPersisted());
+        Assert.assertFalse(metricType2.isPersisted());
+        Assert.assertTrue(resourceType1.isPersisted());
+        Assert.assertFalse(resourceType2.isPersisted());
+        Assert.assertFalse(resourceType3.isPersisted());
+
+        // the next discovery only syncs the types that are not persisted yet and this time all of them succeed
+        allPersisted = InventorySyncStages.markTypesPersisted(Collections.singletonList(metricType2),
+                Collections.singletonList(true), Arrays.asList(resourceType2, resourceType3),
+                Arrays.asList(true, true));
+        Assert.assertTrue(allPersisted);
+        Assert.assertTrue(metricType2.isPersisted());
+        Assert.assertTrue(resourceType2.isPersisted());
+        Assert.assertTrue(resourceType3.isPersisted());
+    }
+
+    private static MetricType<DMRNodeLocation> metricType(String id) {
+        return new MetricType<DMRNodeLocation>(new ID(id), new Name(id),
+                new AttributeLocation<>(DMRNodeLocation.empty(), "attrib"), new Interval(1, TimeUnit.MINUTES),
+                MeasurementUnit.NONE, org.hawkular.metrics.client.common.MetricType.GAUGE, null, null);
+    }
+
+    @SafeVarargs
+    private static ResourceType<DMRNodeLocation> resourceType(String id, MetricType<DMRNodeLocation>... metricTypes) {
+        return ResourceType.<DMRNodeLocation> builder()
+                .id(new ID(id))
+                .name(new Name(id))
+                .location(DMRNodeLocation.empty())
+                .metricTypes(Arrays.asList(metricTypes))
+                .build();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.agent.monitor.api.Avail;
+import org.hawkular.agent.monitor.api.AvailDataPayloadBuilder;
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.api.MetricDataPayloadBuilder;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.InventorySyncMode;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageAdapterConfiguration;
+import org.hawkular.agent.monitor.extension.MonitorServiceConfiguration.StorageReportTo;
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.AvailType;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Interval;
+import org.hawkular.agent.monitor.inventory.MeasurementInstance;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.TestEndpointService;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.metrics.client.common.MetricType;
+import org.jboss.as.controller.client.helpers.MeasurementUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrometheusStorageAdapterTest {
+
+    @Test
+    public void testLatestValues() throws Exception {
+        PrometheusStorageAdapter adapter = createAdapter();
+
+        Set<MetricDataPoint> metrics = new HashSet<>();
+        metrics.add(new NumericMetricDataPoint("heap", 1000L, 1.5, MetricType.GAUGE, null));
+        metrics.add(new NumericMetricDataPoint("requests", 1000L, 7, MetricType.COUNTER, "other"));
+        metrics.add(new StringMetricDataPoint("version", 1000L, "1.0", null));
+        adapter.storeMetrics(metrics, 0L);
+
+        // a newer value replaces the older one, an older value is ignored
+        adapter.storeMetrics(new HashSet<>(Arrays.asList(
+                new NumericMetricDataPoint("heap", 2001L, 2.5, MetricType.GAUGE, null))), 0L);
+        adapter.storeMetrics(new HashSet<>(Arrays.asList(
+                new NumericMetricDataPoint("heap", 1500L, 9.9, MetricType.GAUGE, null))), 0L);
+
+        adapter.storeAvails(new HashSet<>(Arrays.asList(
+                new AvailDataPoint("server", 3000L, Avail.UP, null),
+                new AvailDataPoint("db", 3000L, Avail.UNKNOWN, null))), 0L);
+
+        String scrape = scrape(adapter);
+        assertContains(scrape, "# TYPE hawkular_gauge gauge\n");
+        assertContains(scrape, "hawkular_gauge{tenant=\"hawkular\",id=\"heap\"} 2.5 2.001\n");
+        assertContains(scrape, "# TYPE hawkular_counter counter\n");
+        assertContains(scrape, "hawkular_counter_total{tenant=\"other\",id=\"requests\"} 7.0 1.000\n");
+        assertContains(scrape, "hawkular_availability{tenant=\"hawkular\",id=\"server\"} 1.0 3.000\n");
+        assertContains(scrape, "hawkular_availability{tenant=\"hawkular\",id=\"db\"} NaN 3.000\n");
+        Assert.assertFalse(scrape, scrape.contains("version"));
+        Assert.assertTrue(scrape, scrape.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testPayloadBuilders() throws Exception {
+        PrometheusStorageAdapter adapter = createAdapter();
+
+        MetricDataPayloadBuilder metrics = adapter.createMetricDataPayloadBuilder();
+        metrics.addDataPoint("id with \"quotes\"", 1234L, 42.0, MetricType.GAUGE);
+        adapter.store(metrics, 0L);
+
+        AvailDataPayloadBuilder avails = adapter.createAvailDataPayloadBuilder();
+        avails.setTenantId("other");
+        avails.addDataPoint("server", 1234L, Avail.DOWN);
+        adapter.store(avails, 0L);
+
+        String scrape = scrape(adapter);
+        assertContains(scrape, "hawkular_gauge{tenant=\"hawkular\",id=\"id with \\\"quotes\\\"\"} 42.0 1.234\n");
+        assertContains(scrape, "hawkular_availability{tenant=\"other\",id=\"server\"} 0.0 1.234\n");
+    }
+
+    @Test
+    public void testResourcesRemoved() throws Exception {
+        PrometheusStorageAdapter adapter = createAdapter();
+        adapter.storeMetrics(new HashSet<>(Arrays.asList(
+                new NumericMetricDataPoint("heap", 1000L, 1.5, MetricType.GAUGE, "other"),
+                new NumericMetricDataPoint("heap", 1000L, 2.5, MetricType.GAUGE, null))), 0L);
+        adapter.storeAvails(new HashSet<>(Arrays.asList(
+                new AvailDataPoint("server", 1000L, Avail.UP, "other"),
+                new AvailDataPoint("server", 1000L, Avail.UP, null))), 0L);
+
+        org.hawkular.agent.monitor.inventory.MetricType<DMRNodeLocation> metricType =
+                new org.hawkular.agent.monitor.inventory.MetricType<DMRNodeLocation>(new ID("heapType"),
+                        new Name("heapType"), new AttributeLocation<>(DMRNodeLocation.empty(), "heap"),
+                        new Interval(1, TimeUnit.MINUTES), MeasurementUnit.NONE, MetricType.GAUGE, null, null);
+        AvailType<DMRNodeLocation> availType = new AvailType<DMRNodeLocation>(new ID("serverType"),
+                new Name("serverType"), new AttributeLocation<>(DMRNodeLocation.empty(), "state"),
+                new Interval(1, TimeUnit.MINUTES), null, null, null);
+        ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("type"))
+                .name(new Name("type"))
+                .location(DMRNodeLocation.empty())
+                .metricTypes(Collections.singletonList(metricType))
+                .availTypes(Collections.singletonList(availType))
+                .build();
+        MeasurementInstance<DMRNodeLocation, org.hawkular.agent.monitor.inventory.MetricType<DMRNodeLocation>> metric =
+                new MeasurementInstance<>(new ID("heap"), metricType.getName(), metricType.getAttributeLocation(),
+                        metricType);
+        metric.setAssociatedMetricId("heap");
+        MeasurementInstance<DMRNodeLocation, AvailType<DMRNodeLocation>> avail = new MeasurementInstance<>(
+                new ID("server"), availType.getName(), availType.getAttributeLocation(), availType);
+        avail.setAssociatedMetricId("server");
+        Resource<DMRNodeLocation> resource = Resource.<DMRNodeLocation> builder()
+                .id(new ID("resource"))
+                .name(new Name("resource"))
+                .location(DMRNodeLocation.empty())
+                .type(type)
+                .metric(metric)
+                .avail(avail)
+                .build();
+        ResourceTypeManager<DMRNodeLocation> resourceTypeManager = new ResourceTypeManager<>(
+                Collections.singletonList(type));
+
+        // only the values of the endpoint's tenant go away
+        adapter.resourcesRemoved(new InventoryEvent<>(new TestEndpointService("other", resourceTypeManager),
+                Collections.singletonList(resource)));
+        String scrape = scrape(adapter);
+        Assert.assertFalse(scrape, scrape.contains("tenant=\"other\""));
+        assertContains(scrape, "hawkular_gauge{tenant=\"hawkular\",id=\"heap\"} 2.5 1.000\n");
+        assertContains(scrape, "hawkular_availability{tenant=\"hawkular\",id=\"server\"} 1.0 1.000\n");
+
+        // an endpoint without a tenant of its own uses the agent's tenant
+        adapter.resourcesRemoved(new InventoryEvent<>(new TestEndpointService(null, resourceTypeManager),
+                Collections.singletonList(resource)));
+        Assert.assertEquals("# EOF\n", scrape(adapter));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Assert.assertEquals("# EOF\n", scrape(createAdapter()));
+    }
+
+    private static void assertContains(String scrape, String expected) {
+        Assert.assertTrue("Missing [" + expected + "] in:\n" + scrape, scrape.contains(expected));
+    }
+
+    private static String scrape(PrometheusStorageAdapter adapter) throws Exception {
+        StringWriter out = new StringWriter();
+        adapter.write(out);
+        return out.toString();
+    }
+
+    private static PrometheusStorageAdapter createAdapter() {
+        StorageAdapterConfiguration config = new StorageAdapterConfiguration(StorageReportTo.HAWKULAR, "user",
+                "pass", "hawkular", null, "http://localhost:8080", false, null, "/hawkular/inventory/",
+                "/hawkular/metrics/", "/hawkular/command-gateway/", null, null, null, 10, 120,
+                InventorySyncMode.FULL, 1, null);
+        PrometheusStorageAdapter adapter = new PrometheusStorageAdapter(null);
+        adapter.initialize("feed", config, null, null, null);
+        return adapter;
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -18,7 +18,17 @@ package org.hawkular.wildfly.module.installer;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jboss.logging.Logger;
 
@@ -28,28 +38,120 @@ import org.jboss.logging.Logger;
 public class ExtensionDeployer {
     private final Logger log = Logger.getLogger(this.getClass());
 
-    private File targetServerConfigAbsolute;
-    private File sourceServerConfigBackupAbsolute;
-    private File modulesHomeAbsolute;
+    /**
+     * The locations of a configuration, resolved against its JBoss home.
+     */
+    private static class ResolvedPaths {
+        private File targetServerConfigAbsolute;
+        private File sourceServerConfigBackupAbsolute;
+        private File modulesHomeAbsolute;
+    }
+
+    /**
+     * A module read and installed for a configuration, reused by the other configurations installing the same
+     * module to the same modules home.
+     */
+    private static class InstalledModule {
+        private final JBossModule module;
+        private final List<File> installedFiles;
+
+        InstalledModule(JBossModule module, List<File> installedFiles) {
+            this.module = module;
+            this.installedFiles = installedFiles;
+        }
+    }
 
     public void install(DeploymentConfiguration configuration) throws ExtensionDeploymentException {
-        log.debug("Validating configuration");
-        validConfiguration(configuration);
+        install(Collections.singletonList(configuration));
+    }
+
+    /**
+     * Installs several configurations at once, e.g. the domain.xml and host.xml of a domain. The modules are
+     * installed first, one after the other (a module shared by the configurations is only installed once), then the
+     * server configuration files are updated in parallel. Each configuration must target a different file.
+     */
+    public void install(List<DeploymentConfiguration> configurations) throws ExtensionDeploymentException {
+        List<RegisterModuleConfiguration> registrations = new ArrayList<>(configurations.size());
+        Set<File> targets = new HashSet<>();
+        Map<String, InstalledModule> installedModules = new HashMap<>();
+        for (DeploymentConfiguration configuration : configurations) {
+            log.debug("Validating configuration");
+            ResolvedPaths paths = validConfiguration(configuration);
+            if (!targets.add(paths.targetServerConfigAbsolute.getAbsoluteFile())) {
+                throw new ExtensionDeploymentException("targetServerConfig = "
+                        + paths.targetServerConfigAbsolute.getAbsolutePath()
+                        + " is the target of more than one configuration");
+            }
+            registrations.add(resolveOptions(configuration, paths, installedModules));
+        }
 
+        if (registrations.size() == 1) {
+            registerOrFail(registrations.get(0));
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(registrations.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<?>> futures = new ArrayList<>(registrations.size());
+            for (RegisterModuleConfiguration options : registrations) {
+                futures.add(executor.submit(() -> {
+                    registerOrFail(options);
+                    return null;
+                }));
+            }
+            // wait for all of them, so no file is still being written when a failure is reported
+            ExtensionDeploymentException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = (e.getCause() instanceof ExtensionDeploymentException)
+                                ? (ExtensionDeploymentException) e.getCause()
+                                : new ExtensionDeploymentException("Failed to update server configuration file",
+                                        e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ExtensionDeploymentException("Interrupted while updating server configuration files",
+                            e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private RegisterModuleConfiguration resolveOptions(DeploymentConfiguration configuration, ResolvedPaths paths,
+            Map<String, InstalledModule> installedModules) throws ExtensionDeploymentException {
         JBossModule module = null;
         RegisterModuleConfiguration resolvedOptions = new RegisterModuleConfiguration();
         if (configuration.getModule() != null) {
-            try {
-                log.debugf("Reading module from [%s]", configuration.getModule());
-                module = JBossModule.readFromURL(configuration.getModule());
-            } catch (Exception e) {
-                throw new ExtensionDeploymentException("Failed to read module", e);
+            String key = configuration.getModule().toExternalForm() + "|" + paths.modulesHomeAbsolute;
+            InstalledModule installed = installedModules.get(key);
+            if (installed == null) {
+                try {
+                    log.debugf("Reading module from [%s]", configuration.getModule());
+                    module = JBossModule.readFromURL(configuration.getModule());
+                } catch (Exception e) {
+                    throw new ExtensionDeploymentException("Failed to read module", e);
+                }
+
+                try {
+                    installed = new InstalledModule(module, module.installTo(paths.modulesHomeAbsolute));
+                    installedModules.put(key, installed);
+                } catch (Exception e) {
+                    throw new ExtensionDeploymentException("Failed to install module", e);
+                }
             }
+            module = installed.module;
 
             try {
-                List<File> installedFiles = module.installTo(modulesHomeAbsolute);
-                resolvedOptions = resolveBundledXmlSnippets(installedFiles, configuration);
-
+                resolvedOptions = resolveBundledXmlSnippets(installed.installedFiles, configuration);
             } catch (Exception e) {
                 throw new ExtensionDeploymentException("Failed to install module", e);
             }
@@ -65,8 +167,8 @@ public class ExtensionDeployer {
                 options.configType(configuration.getConfigType());
             }
             options
-                .targetServerConfig(targetServerConfigAbsolute)
-                .sourceServerConfig(sourceServerConfigBackupAbsolute)
+                .targetServerConfig(paths.targetServerConfigAbsolute)
+                .sourceServerConfig(paths.sourceServerConfigBackupAbsolute)
                 .subsystem(configuration.getSubsystem())
                 .socketBinding(configuration.getSocketBinding())
                 .socketBindingGroups(configuration.getSocketBindingGroups())
@@ -75,9 +177,18 @@ public class ExtensionDeployer {
                 .failNoMatch(configuration.isFailNoMatch());
 
             resolvedOptions.extend(options);
-            log.debugf("Proceeding with \n%s", resolvedOptions);
-            register(resolvedOptions);
+            return resolvedOptions;
+
+        } catch (Exception e) {
+            log.error(e);
+            throw new ExtensionDeploymentException("Failed to update server configuration file", e);
+        }
+    }
 
+    private void registerOrFail(RegisterModuleConfiguration options) throws ExtensionDeploymentException {
+        try {
+            log.debugf("Proceeding with \n%s", options);
+            register(options);
         } catch (Exception e) {
             log.error(e);
             throw new ExtensionDeploymentException("Failed to update server configuration file", e);
@@ -132,8 +243,12 @@ public class ExtensionDeployer {
         new RegisterExtension().register(options);
     }
 
-    private void validConfiguration(DeploymentConfiguration configuration) throws ExtensionDeploymentException {
+    private ResolvedPaths validConfiguration(DeploymentConfiguration configuration)
+            throws ExtensionDeploymentException {
         File jbossHome = configuration.getJbossHome();
+        File targetServerConfigAbsolute;
+        File sourceServerConfigBackupAbsolute;
+        File modulesHomeAbsolute;
 
         if (!(jbossHome.exists() && jbossHome.isDirectory() && jbossHome.canRead())) {
             throw new ExtensionDeploymentException("wildflyHome = " + jbossHome.getAbsolutePath()
@@ -197,5 +312,10 @@ public class ExtensionDeployer {
                             + " is not writable and existing directory. [modulesHome]"
                             + "must be either absolute path or relative to [jbossHome]");
         }
+        ResolvedPaths paths = new ResolvedPaths();
+        paths.targetServerConfigAbsolute = targetServerConfigAbsolute;
+        paths.sourceServerConfigBackupAbsolute = sourceServerConfigBackupAbsolute;
+        paths.modulesHomeAbsolute = modulesHomeAbsolute;
+        return paths;
     }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -19,7 +19,6 @@ package org.hawkular.wildfly.module.installer;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -34,7 +33,6 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.jboss.logging.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
@@ -113,7 +111,7 @@ class JBossModule {
             ZipEntry ze = null;
             while ((ze = zin.getNextEntry()) != null) {
                 String fileName = ze.getName();
-                File newFile = new File(modulesHome + File.separator + fileName);
+                File newFile = ZipExtractor.resolve(modulesHome, fileName);
                 if (!ze.isDirectory()) {
                     if (log.isDebugEnabled()) {
                         log.debug("Deleting "+newFile.getAbsolutePath());
@@ -142,43 +140,8 @@ class JBossModule {
      * @throws Exception
      */
     public List<File> installTo(File modulesHome) throws Exception {
-        List<File> installedFiles = new ArrayList<File>();
-
-        ZipInputStream zin = null;
-        FileOutputStream fos;
         log.info("Extracting module [" + this.root+ "] to [" + modulesHome.getAbsolutePath() + "]");
-        try {
-            zin = new ZipInputStream(this.root.openStream());
-            ZipEntry ze = null;
-            while ((ze = zin.getNextEntry()) != null) {
-                String fileName = ze.getName();
-                File newFile = new File(modulesHome + File.separator + fileName);
-                if (!ze.isDirectory()) {
-                    log.debug("Writing " + newFile.getAbsolutePath());
-                    File parent = newFile.getParentFile();
-                    if (!parent.exists()) {
-                        parent.mkdirs();
-                    }
-                    fos = new FileOutputStream(newFile);
-
-                    IOUtils.copy(zin, fos);
-                    IOUtils.closeQuietly(fos);
-                    installedFiles.add(newFile);
-                }
-            }
-        } finally {
-            try {
-                // it should be enough to close the latest created stream in
-                // case of chained (nested) streams, @see
-                // http://www.javapractices.com/topic/TopicAction.do?Id=8
-                if (zin != null) {
-                    zin.close();
-                }
-            } catch (IOException ex) {
-            }
-        }
-
-        return installedFiles;
+        return new ZipExtractor().extract(this.root, modulesHome);
     }
 
 }
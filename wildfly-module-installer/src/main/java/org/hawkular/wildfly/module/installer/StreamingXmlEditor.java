@@ -0,0 +1,484 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.wildfly.module.installer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Applies edits to an XML document in one streaming pass. The document is copied event by event; only the elements
+ * that an edit selects are read into a DOM - each with copies of its ancestors around it, but without the rest of
+ * the document - and handed to a {@link SubtreeEditor}. The edited element is then written in place of the original
+ * one. A large server configuration is thus never loaded as a whole, and the parts of it no edit selects are copied
+ * with their formatting intact.
+ */
+final class StreamingXmlEditor {
+
+    /**
+     * Edits an element read from the stream.
+     */
+    interface SubtreeEditor {
+        /**
+         * @param document the element to edit, under copies of its ancestors (without their other children)
+         * @param selectors the indexes of the selectors that may select the element or any of its descendants
+         */
+        void edit(Document document, List<Integer> selectors) throws Exception;
+    }
+
+    private static final String DEFAULT_INDENT = "    ";
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private final List<XmlSelector> selectors;
+    private final DocumentBuilder documentBuilder;
+    private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    /**
+     * @param selectors the compiled select expressions of the edits
+     * @param documentBuilder builds the documents the selected elements are read into
+     */
+    StreamingXmlEditor(List<XmlSelector> selectors, DocumentBuilder documentBuilder) {
+        this.selectors = selectors;
+        this.documentBuilder = documentBuilder;
+        if (inputFactory.isPropertySupported(REPORT_CDATA)) {
+            inputFactory.setProperty(REPORT_CDATA, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Streams the source document to the output, passing each element a selector selects to the editor.
+     */
+    void edit(File source, OutputStream output, SubtreeEditor editor) throws Exception {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(source))) {
+            XMLEventReader reader = inputFactory.createXMLEventReader(input);
+            try {
+                stream(reader, output, editor);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private void stream(XMLEventReader reader, OutputStream output, SubtreeEditor editor) throws Exception {
+        XMLStreamWriter writer = null;
+        List<StartElement> path = new ArrayList<>(); // the open elements
+        Deque<BitSet> matching = new ArrayDeque<>(); // for each open element, the selectors matching the path to it
+        String rootNamespace = null;
+        String indent = ""; // the indentation before the next element
+        String indentUnit = null;
+
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (writer == null) {
+                StartDocument startDocument = (event instanceof StartDocument) ? (StartDocument) event : null;
+                String encoding = (startDocument != null && startDocument.encodingSet())
+                        ? startDocument.getCharacterEncodingScheme() : "UTF-8";
+                writer = outputFactory.createXMLStreamWriter(output, encoding);
+                writer.writeStartDocument(encoding, (startDocument != null) ? startDocument.getVersion() : "1.0");
+                if (startDocument != null) {
+                    continue;
+                }
+            }
+
+            int depth = matching.size();
+            if (depth == 0 && event.getEventType() != XMLStreamConstants.END_DOCUMENT) {
+                // the reader does not report whitespace outside of the root element
+                writer.writeCharacters("\n");
+            }
+
+            switch (event.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    StartElement start = event.asStartElement();
+                    if (depth == 0) {
+                        rootNamespace = getDefaultNamespace(start);
+                    } else if (depth == 1 && indentUnit == null && !indent.isEmpty()) {
+                        indentUnit = indent;
+                    }
+
+                    BitSet matches = new BitSet();
+                    boolean selected = false;
+                    for (int i = 0; i < selectors.size(); i++) {
+                        if ((depth == 0 || matching.peek().get(i))
+                                && selectors.get(i).matches(depth + 1, start, rootNamespace)) {
+                            matches.set(i);
+                            selected |= selectors.get(i).getDepth() == depth + 1;
+                        }
+                    }
+
+                    if (selected) {
+                        Element element = editElement(reader, path, start, matches, editor);
+                        writeElement(writer, element, indent, (indentUnit != null) ? indentUnit : DEFAULT_INDENT);
+                    } else if (matches.isEmpty()) {
+                        // none of the descendants can be selected either
+                        copyElement(reader, writer, start);
+                    } else if (reader.peek().isEndElement()) {
+                        reader.nextEvent();
+                        writeStartElement(writer, start, true);
+                    } else {
+                        writeStartElement(writer, start, false);
+                        path.add(start);
+                        matching.push(matches);
+                    }
+                    break;
+                }
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    path.remove(path.size() - 1);
+                    matching.pop();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA: {
+                    Characters characters = event.asCharacters();
+                    int newline = characters.getData().lastIndexOf('\n');
+                    if (newline >= 0) {
+                        indent = characters.getData().substring(newline + 1);
+                    }
+                    writeEvent(writer, event);
+                    break;
+                }
+                case XMLStreamConstants.END_DOCUMENT:
+                    writer.writeCharacters("\n");
+                    writer.writeEndDocument();
+                    break;
+                default:
+                    writeEvent(writer, event);
+                    break;
+            }
+        }
+        writer.flush();
+        writer.close();
+    }
+
+    /**
+     * Reads the selected element into a document and lets the editor edit it.
+     *
+     * @return the edited element
+     */
+    private Element editElement(XMLEventReader reader, List<StartElement> path, StartElement start, BitSet matches,
+            SubtreeEditor editor) throws Exception {
+        Document document = documentBuilder.newDocument();
+        Node parent = document;
+        for (StartElement ancestor : path) {
+            Element copy = toElement(document, ancestor);
+            parent.appendChild(copy);
+            parent = copy;
+        }
+        Element element = readElement(reader, document, start);
+        parent.appendChild(element);
+
+        List<Integer> indexes = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            indexes.add(i);
+        }
+        editor.edit(document, indexes);
+        removeWhitespace(element);
+        return element;
+    }
+
+    /**
+     * Copies an element that no selector selects, along with its content.
+     */
+    private static void copyElement(XMLEventReader reader, XMLStreamWriter writer, StartElement start)
+            throws XMLStreamException {
+        if (reader.peek().isEndElement()) {
+            reader.nextEvent();
+            writeStartElement(writer, start, true);
+            return;
+        }
+        writeStartElement(writer, start, false);
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                if (reader.peek().isEndElement()) {
+                    reader.nextEvent();
+                    writeStartElement(writer, event.asStartElement(), true);
+                } else {
+                    writeStartElement(writer, event.asStartElement(), false);
+                    depth++;
+                }
+            } else if (event.isEndElement()) {
+                writer.writeEndElement();
+                depth--;
+            } else {
+                writeEvent(writer, event);
+            }
+        }
+    }
+
+    private static void writeStartElement(XMLStreamWriter writer, StartElement start, boolean empty)
+            throws XMLStreamException {
+        QName name = start.getName();
+        if (empty) {
+            writer.writeEmptyElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+        } else {
+            writer.writeStartElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+        }
+        for (Iterator<?> i = start.getNamespaces(); i.hasNext();) {
+            Namespace namespace = (Namespace) i.next();
+            if (namespace.isDefaultNamespaceDeclaration()) {
+                writer.writeDefaultNamespace(namespace.getNamespaceURI());
+            } else {
+                writer.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+            }
+        }
+        for (Iterator<?> i = start.getAttributes(); i.hasNext();) {
+            Attribute attribute = (Attribute) i.next();
+            QName attributeName = attribute.getName();
+            if (attributeName.getNamespaceURI().isEmpty()) {
+                writer.writeAttribute(attributeName.getLocalPart(), attribute.getValue());
+            } else {
+                writer.writeAttribute(attributeName.getPrefix(), attributeName.getNamespaceURI(),
+                        attributeName.getLocalPart(), attribute.getValue());
+            }
+        }
+    }
+
+    private static void writeEvent(XMLStreamWriter writer, XMLEvent event) throws XMLStreamException {
+        switch (event.getEventType()) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                writer.writeCharacters(event.asCharacters().getData());
+                break;
+            case XMLStreamConstants.CDATA:
+                writer.writeCData(event.asCharacters().getData());
+                break;
+            case XMLStreamConstants.COMMENT:
+                writer.writeComment(((Comment) event).getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                ProcessingInstruction pi = (ProcessingInstruction) event;
+                writer.writeProcessingInstruction(pi.getTarget(), pi.getData());
+                break;
+            case XMLStreamConstants.DTD:
+                writer.writeDTD(((DTD) event).getDocumentTypeDeclaration());
+                break;
+            default:
+                // entity references are replaced by the reader; elements and the document are handled by the callers
+                break;
+        }
+    }
+
+    /**
+     * Reads the element that just started, with all its content, into the document.
+     */
+    private static Element readElement(XMLEventReader reader, Document document, StartElement start)
+            throws XMLStreamException {
+        Element element = toElement(document, start);
+        Node current = element;
+        while (current != null) {
+            XMLEvent event = reader.nextEvent();
+            switch (event.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element child = toElement(document, event.asStartElement());
+                    current.appendChild(child);
+                    current = child;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = (current == element) ? null : current.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(document.createTextNode(event.asCharacters().getData()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(document.createCDATASection(event.asCharacters().getData()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(document.createComment(((Comment) event).getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    ProcessingInstruction pi = (ProcessingInstruction) event;
+                    current.appendChild(document.createProcessingInstruction(pi.getTarget(), pi.getData()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return element;
+    }
+
+    private static Element toElement(Document document, StartElement start) {
+        QName name = start.getName();
+        Element element = document.createElementNS(emptyToNull(name.getNamespaceURI()), qualifiedName(name));
+        for (Iterator<?> i = start.getNamespaces(); i.hasNext();) {
+            Namespace namespace = (Namespace) i.next();
+            String attributeName = namespace.isDefaultNamespaceDeclaration() ? XMLConstants.XMLNS_ATTRIBUTE
+                    : XMLConstants.XMLNS_ATTRIBUTE + ":" + namespace.getPrefix();
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attributeName, namespace.getNamespaceURI());
+        }
+        for (Iterator<?> i = start.getAttributes(); i.hasNext();) {
+            Attribute attribute = (Attribute) i.next();
+            element.setAttributeNS(emptyToNull(attribute.getName().getNamespaceURI()),
+                    qualifiedName(attribute.getName()), attribute.getValue());
+        }
+        return element;
+    }
+
+    /**
+     * Writes an edited element, indenting its content.
+     *
+     * @param indent the indentation of the element
+     * @param indentUnit what the content of an element is indented by relative to the element
+     */
+    private static void writeElement(XMLStreamWriter writer, Element element, String indent, String indentUnit)
+            throws XMLStreamException {
+        NodeList children = element.getChildNodes();
+        boolean empty = children.getLength() == 0;
+        String prefix = (element.getPrefix() != null) ? element.getPrefix() : "";
+        String localName = (element.getLocalName() != null) ? element.getLocalName() : element.getNodeName();
+        String namespaceUri = (element.getNamespaceURI() != null) ? element.getNamespaceURI() : "";
+        if (empty) {
+            writer.writeEmptyElement(prefix, localName, namespaceUri);
+        } else {
+            writer.writeStartElement(prefix, localName, namespaceUri);
+        }
+
+        // namespace declarations go before the attributes
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                if (XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getNodeName())) {
+                    writer.writeDefaultNamespace(attribute.getNodeValue());
+                } else {
+                    writer.writeNamespace(attribute.getLocalName(), attribute.getNodeValue());
+                }
+            }
+        }
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            if (attribute.getNamespaceURI() == null) {
+                writer.writeAttribute(attribute.getNodeName(), attribute.getNodeValue());
+            } else if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                writer.writeAttribute((attribute.getPrefix() != null) ? attribute.getPrefix() : "",
+                        attribute.getNamespaceURI(), attribute.getLocalName(), attribute.getNodeValue());
+            }
+        }
+        if (empty) {
+            return;
+        }
+
+        String childIndent = indent + indentUnit;
+        boolean indented = false;
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    writer.writeCharacters("\n" + childIndent);
+                    writeElement(writer, (Element) child, childIndent, indentUnit);
+                    indented = true;
+                    break;
+                case Node.COMMENT_NODE:
+                    writer.writeCharacters("\n" + childIndent);
+                    writer.writeComment(child.getNodeValue());
+                    indented = true;
+                    break;
+                case Node.TEXT_NODE:
+                    writer.writeCharacters(child.getNodeValue());
+                    break;
+                case Node.CDATA_SECTION_NODE:
+                    writer.writeCData(child.getNodeValue());
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    org.w3c.dom.ProcessingInstruction pi = (org.w3c.dom.ProcessingInstruction) child;
+                    writer.writeProcessingInstruction(pi.getTarget(), pi.getData());
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (indented) {
+            writer.writeCharacters("\n" + indent);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Removes the whitespace-only text, so the edited element can be indented consistently.
+     */
+    private static void removeWhitespace(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                if (child.getNodeValue().trim().isEmpty()) {
+                    node.removeChild(child);
+                }
+            } else if (child.getNodeType() == Node.ELEMENT_NODE) {
+                removeWhitespace(child);
+            }
+            child = next;
+        }
+    }
+
+    /**
+     * @return the default namespace the element declares or null if it declares none
+     */
+    private static String getDefaultNamespace(StartElement start) {
+        for (Iterator<?> i = start.getNamespaces(); i.hasNext();) {
+            Namespace namespace = (Namespace) i.next();
+            if (namespace.isDefaultNamespaceDeclaration() && !namespace.getNamespaceURI().isEmpty()) {
+                return namespace.getNamespaceURI();
+            }
+        }
+        return null;
+    }
+
+    private static String qualifiedName(QName name) {
+        return name.getPrefix().isEmpty() ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart();
+    }
+
+    private static String emptyToNull(String value) {
+        return (value == null || value.isEmpty()) ? null : value;
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,9 +16,13 @@
  */
 package org.hawkular.wildfly.module.installer;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -86,9 +90,6 @@ class XmlConfigBuilder {
     }
 
     public void build() throws Exception {
-        DocumentBuilder dBuilder = factory.newDocumentBuilder();
-        Document srcDoc = dBuilder.parse(sourceFile);
-
         // sort inserts by the shortest
         Collections.sort(getXmlEdits(), new Comparator<XmlEdit>() {
 
@@ -99,6 +100,88 @@ class XmlConfigBuilder {
             }
         });
         debug("Building [" + this.sourceFile + "] ");
+
+        List<XmlSelector> selectors = compileSelectors();
+        if (selectors != null) {
+            buildStreaming(selectors);
+        } else {
+            buildDocument();
+        }
+    }
+
+    /**
+     * @return the select expressions of all edits compiled for streaming or null if some cannot be streamed
+     */
+    private List<XmlSelector> compileSelectors() {
+        List<XmlSelector> selectors = new ArrayList<>(getXmlEdits().size());
+        for (XmlEdit xmlEdit : getXmlEdits()) {
+            XmlSelector selector = XmlSelector.compile(xmlEdit.getSelect());
+            if (selector == null) {
+                debug("Select expression [" + xmlEdit.getSelect() + "] needs the whole document");
+                return null;
+            }
+            selectors.add(selector);
+        }
+        return selectors;
+    }
+
+    /**
+     * Streams the source document to the target, reading only the elements the edits select into a DOM.
+     */
+    private void buildStreaming(List<XmlSelector> selectors) throws Exception {
+        DocumentBuilder dBuilder = factory.newDocumentBuilder();
+        List<XmlEdit> xmlEdits = getXmlEdits();
+        XPathExpression[] expressions = new XPathExpression[xmlEdits.size()];
+        boolean[] matched = new boolean[xmlEdits.size()];
+
+        // the source and target are often the same file, so the target is only written once the source was read
+        File tempFile = File.createTempFile("hawkular-config", ".xml");
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                new StreamingXmlEditor(selectors, dBuilder).edit(sourceFile, out, (srcDoc, indexes) -> {
+                    String namespace = getNameSpace(srcDoc);
+                    if (namespace != null) {
+                        namespaceContext.mapping(PREFIX, namespace);
+                    }
+                    for (int i : indexes) {
+                        XmlEdit xmlEdit = xmlEdits.get(i);
+                        if (xmlEdit.isAttributeContent() && matched[i]) {
+                            continue; // the attribute is only set on the first element selected
+                        }
+                        debug("Applying " + xmlEdit);
+                        String expression = getExpression(xmlEdit, namespace);
+                        if (expressions[i] == null) {
+                            expressions[i] = xpath.compile(expression);
+                        }
+                        try {
+                            matched[i] |= applyEdit(dBuilder, srcDoc, namespace, xmlEdit, expression, expressions[i]);
+                        } catch (Exception e) {
+                            editFailed(xmlEdit, e);
+                        }
+                    }
+                });
+            }
+            for (int i = 0; i < xmlEdits.size(); i++) {
+                if (!matched[i]) {
+                    noMatch(xmlEdits.get(i));
+                }
+            }
+            debug("Writing target file..");
+            try (OutputStream out = new FileOutputStream(targetFile)) {
+                Files.copy(tempFile.toPath(), out);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Parses the whole source document, applies the edits and writes the document to the target.
+     */
+    private void buildDocument() throws Exception {
+        DocumentBuilder dBuilder = factory.newDocumentBuilder();
+        Document srcDoc = dBuilder.parse(sourceFile);
+
         // if our target document defines namespace in root element, let's read
         // it
         String namespace = getNameSpace(srcDoc);
@@ -108,80 +191,107 @@ class XmlConfigBuilder {
 
         for (XmlEdit xmlEdit : getXmlEdits()) {
             debug("Applying " + xmlEdit);
-            String expression = xmlEdit.getSelect();
-
-            if (namespace != null) {
-                // enhance given xpath to use namespaces
-                expression = xpath2Namespaced(expression, PREFIX);
-                debug("Expression " + expression);
-            }
+            String expression = getExpression(xmlEdit, namespace);
             XPathExpression expr = xpath.compile(expression);
+            boolean matched;
             try {
-                NodeList nl = (NodeList) expr.evaluate(srcDoc, XPathConstants.NODESET);
-                if (nl.getLength() == 0) {
-                    if (failNoMatch) {
-                        throw new Exception("Failed to update [" + targetFile.getAbsolutePath() + "] " + xmlEdit
-                                + " does not select any element");
-                    }
-                    warning(xmlEdit + " does not select any element");
-                    continue;
+                matched = applyEdit(dBuilder, srcDoc, namespace, xmlEdit, expression, expr);
+            } catch (Exception e) {
+                editFailed(xmlEdit, e);
+                matched = false;
+            }
+            if (!matched) {
+                noMatch(xmlEdit);
+            }
+        }
+        writeTargetDcoument(srcDoc);
+    }
+
+    private String getExpression(XmlEdit xmlEdit, String namespace) {
+        String expression = xmlEdit.getSelect();
+        if (namespace != null) {
+            // enhance given xpath to use namespaces
+            expression = xpath2Namespaced(expression, PREFIX);
+            debug("Expression " + expression);
+        }
+        return expression;
+    }
+
+    private void noMatch(XmlEdit xmlEdit) throws Exception {
+        if (failNoMatch) {
+            throw new Exception("Failed to update [" + targetFile.getAbsolutePath() + "] " + xmlEdit
+                    + " does not select any element");
+        }
+        warning(xmlEdit + " does not select any element");
+    }
+
+    private void editFailed(XmlEdit xmlEdit, Exception e) {
+        warning("Failed to apply " + xmlEdit + ": " + e);
+    }
+
+    /**
+     * Applies the edit to the elements its expression selects in the document.
+     *
+     * @return false if the expression does not select any element
+     */
+    private boolean applyEdit(DocumentBuilder dBuilder, Document srcDoc, String namespace, XmlEdit xmlEdit,
+            String expression, XPathExpression expr) throws Exception {
+        NodeList nl = (NodeList) expr.evaluate(srcDoc, XPathConstants.NODESET);
+        if (nl.getLength() == 0) {
+            return false;
+        }
+        debug("Expression evaluated to " + nl.getLength() + " nodes");
+        if (xmlEdit.isAttributeContent()) {
+            String attribValue = xmlEdit.getXml(); // we only support XML. Stream content in future if we need
+            for (int i = 0; i < nl.getLength(); i++) {
+                Node node = nl.item(i);
+                if (node instanceof Element) {
+                    Element element = (Element) node;
+                    element.setAttribute(xmlEdit.getAttribute(), attribValue);
+                    break;
                 }
-                debug("Expression evaluated to " + nl.getLength() + " nodes");
-                if (xmlEdit.isAttributeContent()) {
-                    String attribValue = xmlEdit.getXml(); // we only support XML. Stream content in future if we need
-                    for (int i = 0; i < nl.getLength(); i++) {
-                        Node node = nl.item(i);
-                        if (node instanceof Element) {
-                            Element element = (Element) node;
-                            element.setAttribute(xmlEdit.getAttribute(), attribValue);
-                            break;
-                        }
-                    }
-                } else {
-                    Document contentDoc = null;
-                    if (xmlEdit.getContent() != null) {
-                        debug("Loading content XML from file " + xmlEdit.getContent());
-                        contentDoc = dBuilder.parse(xmlEdit.getContent().openStream());
+            }
+        } else {
+            Document contentDoc = null;
+            if (xmlEdit.getContent() != null) {
+                debug("Loading content XML from file " + xmlEdit.getContent());
+                contentDoc = dBuilder.parse(xmlEdit.getContent().openStream());
+            } else {
+                debug("Loading content XML from string");
+                contentDoc = dBuilder.parse(new ByteArrayInputStream(xmlEdit.getXml().getBytes()));
+            }
+
+            for (int i = 0; i < nl.getLength(); i++) {
+                Node node = nl.item(i);
+                if (node instanceof Element) {
+                    Element element = (Element) node;
+                    Node inserting = contentDoc.getDocumentElement().cloneNode(true);
+                    srcDoc.adoptNode(inserting);
+                    String recentNs = findRecentNamespaceFromXpath(expression);
+                    // is the root node of inserting content already present?
+                    XPathExpression contentExpr = createContentRootExpression(contentDoc, recentNs, namespace,
+                            xmlEdit.getAttribute(), xmlEdit.isIgnoreAttributeValue());
+                    NodeList existingNodes = (NodeList) contentExpr.evaluate(element, XPathConstants.NODESET);
+                    if (existingNodes.getLength() > 0) {
+                        // we need to remove those? (could be many)... we'll just replace the last guy
+                        element.replaceChild(inserting, existingNodes.item(existingNodes.getLength() - 1));
                     } else {
-                        debug("Loading content XML from string");
-                        contentDoc = dBuilder.parse(new ByteArrayInputStream(xmlEdit.getXml().getBytes()));
+                        element.appendChild(inserting);
                     }
 
-                    for (int i = 0; i < nl.getLength(); i++) {
-                        Node node = nl.item(i);
-                        if (node instanceof Element) {
-                            Element element = (Element) node;
-                            Node inserting = contentDoc.getDocumentElement().cloneNode(true);
-                            srcDoc.adoptNode(inserting);
-                            String recentNs = findRecentNamespaceFromXpath(expression);
-                            // is the root node of inserting content already present?
-                            XPathExpression contentExpr = createContentRootExpression(contentDoc, recentNs, namespace,
-                                    xmlEdit.getAttribute(), xmlEdit.isIgnoreAttributeValue());
-                            NodeList existingNodes = (NodeList) contentExpr.evaluate(element, XPathConstants.NODESET);
-                            if (existingNodes.getLength() > 0) {
-                                // we need to remove those? (could be many)... we'll just replace the last guy
-                                element.replaceChild(inserting, existingNodes.item(existingNodes.getLength() - 1));
-                            } else {
-                                element.appendChild(inserting);
-                            }
-
-                            String contentNs = getNameSpace(contentDoc);
-                            // find most recent NS from inserted node back to root
-                            // node and assign to it
-                            recentNs = findRecentNamespace(srcDoc, inserting);
-                            if (contentNs == null && recentNs != null) {
-                                // content document does not have namespace, let's
-                                // rename it to our namespace
-                                renameNamespaceRecursive(srcDoc, inserting, recentNs);
-                            }
-                        }
+                    String contentNs = getNameSpace(contentDoc);
+                    // find most recent NS from inserted node back to root
+                    // node and assign to it
+                    recentNs = findRecentNamespace(srcDoc, inserting);
+                    if (contentNs == null && recentNs != null) {
+                        // content document does not have namespace, let's
+                        // rename it to our namespace
+                        renameNamespaceRecursive(srcDoc, inserting, recentNs);
                     }
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
         }
-        writeTargetDcoument(srcDoc);
+        return true;
     }
 
     /**
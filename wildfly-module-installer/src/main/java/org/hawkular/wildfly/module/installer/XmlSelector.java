@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.wildfly.module.installer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+
+/**
+ * The {@link XmlEdit#getSelect() select} expression of an edit compiled so it can be matched against elements
+ * while the document is streamed. Only absolute paths of child steps are supported, where each step is an element
+ * name or <code>*</code> followed by predicates that test attributes (<code>@a</code>, <code>@a='v'</code>,
+ * <code>@a!='v'</code>), <code>local-name()='v'</code> or <code>namespace-uri()='v'</code>, optionally combined
+ * with <code>and</code>. That covers the expressions used to install extensions; any other expression is evaluated
+ * as XPath on the whole document.
+ *
+ * Element names are matched the way {@link XmlConfigBuilder} matches them: if the root element of the document
+ * declares a default namespace, names select elements in that namespace, otherwise elements in no namespace.
+ */
+final class XmlSelector {
+
+    private static final Pattern NAME = Pattern.compile("\\*|[\\w][\\w.-]*");
+    private static final Pattern TERM = Pattern.compile("\\G\\s*(?:@([\\w][\\w.-]*)(?:\\s*(!?=)\\s*"
+            + "(?:'([^']*)'|\"([^\"]*)\"))?|(local-name|namespace-uri)\\(\\)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\"))"
+            + "\\s*(?:and\\s+|$)");
+
+    private enum Test {
+        HAS_ATTRIBUTE, ATTRIBUTE_EQUALS, ATTRIBUTE_NOT_EQUALS, LOCAL_NAME, NAMESPACE_URI
+    }
+
+    private static final class Predicate {
+        private final Test test;
+        private final QName attribute;
+        private final String value;
+
+        Predicate(Test test, String attribute, String value) {
+            this.test = test;
+            this.attribute = (attribute != null) ? new QName(attribute) : null;
+            this.value = value;
+        }
+
+        boolean matches(StartElement element) {
+            switch (test) {
+                case HAS_ATTRIBUTE:
+                    return element.getAttributeByName(attribute) != null;
+                case ATTRIBUTE_EQUALS: {
+                    Attribute a = element.getAttributeByName(attribute);
+                    return a != null && value.equals(a.getValue());
+                }
+                case ATTRIBUTE_NOT_EQUALS: {
+                    Attribute a = element.getAttributeByName(attribute);
+                    return a != null && !value.equals(a.getValue());
+                }
+                case LOCAL_NAME:
+                    return value.equals(element.getName().getLocalPart());
+                case NAMESPACE_URI:
+                    return value.equals(element.getName().getNamespaceURI());
+                default:
+                    throw new IllegalStateException("Unknown test: " + test);
+            }
+        }
+    }
+
+    private static final class Step {
+        private final String name; // null means any element
+        private final List<Predicate> predicates;
+
+        Step(String name, List<Predicate> predicates) {
+            this.name = name;
+            this.predicates = predicates;
+        }
+
+        boolean matches(StartElement element, String rootNamespace) {
+            if (name != null) {
+                QName elementName = element.getName();
+                String namespace = (rootNamespace != null) ? rootNamespace : "";
+                if (!name.equals(elementName.getLocalPart()) || !namespace.equals(elementName.getNamespaceURI())) {
+                    return false;
+                }
+            }
+            for (Predicate predicate : predicates) {
+                if (!predicate.matches(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final String expression;
+    private final List<Step> steps;
+
+    private XmlSelector(String expression, List<Step> steps) {
+        this.expression = expression;
+        this.steps = steps;
+    }
+
+    /**
+     * @param expression the select expression of an edit
+     * @return the compiled expression or null if the expression cannot be matched while streaming
+     */
+    static XmlSelector compile(String expression) {
+        if (expression == null || !expression.startsWith("/")) {
+            return null;
+        }
+        List<Step> steps = new ArrayList<>();
+        int pos = 0;
+        int length = expression.length();
+        while (pos < length) {
+            if (expression.charAt(pos) != '/') {
+                return null;
+            }
+            Matcher name = NAME.matcher(expression).region(++pos, length);
+            if (!name.lookingAt()) {
+                return null;
+            }
+            pos = name.end();
+            List<Predicate> predicates = new ArrayList<>(2);
+            while (pos < length && expression.charAt(pos) == '[') {
+                int end = findPredicateEnd(expression, pos + 1);
+                if (end < 0 || !parsePredicate(expression.substring(pos + 1, end), predicates)) {
+                    return null;
+                }
+                pos = end + 1;
+            }
+            steps.add(new Step("*".equals(name.group()) ? null : name.group(), predicates));
+        }
+        return steps.isEmpty() ? null : new XmlSelector(expression, Collections.unmodifiableList(steps));
+    }
+
+    private static int findPredicateEnd(String expression, int from) {
+        char quote = 0;
+        for (int i = from; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ']') {
+                return i;
+            } else if (c == '[' || c == '/') {
+                // nested predicates and paths inside predicates are left to XPath
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean parsePredicate(String predicate, List<Predicate> predicates) {
+        Matcher term = TERM.matcher(predicate);
+        int end = 0;
+        while (end < predicate.length() && term.find()) {
+            String value = (term.group(3) != null) ? term.group(3) : term.group(4);
+            if (term.group(1) != null) {
+                if (term.group(2) == null) {
+                    predicates.add(new Predicate(Test.HAS_ATTRIBUTE, term.group(1), null));
+                } else {
+                    predicates.add(new Predicate("=".equals(term.group(2)) ? Test.ATTRIBUTE_EQUALS
+                            : Test.ATTRIBUTE_NOT_EQUALS, term.group(1), value));
+                }
+            } else {
+                value = (term.group(6) != null) ? term.group(6) : term.group(7);
+                predicates.add(new Predicate("local-name".equals(term.group(5)) ? Test.LOCAL_NAME
+                        : Test.NAMESPACE_URI, null, value));
+            }
+            end = term.end();
+        }
+        // the last term must end the predicate, not an "and"
+        return end > 0 && end == predicate.length() && !predicate.trim().endsWith("and");
+    }
+
+    /**
+     * @return the number of steps, which is the depth of the elements the expression selects (the root is 1)
+     */
+    int getDepth() {
+        return steps.size();
+    }
+
+    /**
+     * @param depth the depth of the element (the root is 1)
+     * @param element the element at that depth whose ancestors matched the previous steps
+     * @param rootNamespace the default namespace the root element declares or null if it declares none
+     * @return true if the element matches the step of the given depth
+     */
+    boolean matches(int depth, StartElement element, String rootNamespace) {
+        return depth <= steps.size() && steps.get(depth - 1).matches(element, rootNamespace);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.wildfly.module.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Extracts a zip archive into a directory. The entries are listed from the central directory of the archive and
+ * extracted in parallel. Entries that would end up outside of the directory are rejected, every extracted file is
+ * verified against the CRC-32 the archive records for it, and files that already exist with the same size and
+ * checksum (e.g. when upgrading a module) are not written again. Entries that are stored without compression are
+ * transferred straight from the archive file to the extracted file.
+ */
+class ZipExtractor {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    private final Logger log = Logger.getLogger(this.getClass());
+    private final int threads;
+
+    ZipExtractor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the maximum number of entries extracted at the same time
+     */
+    ZipExtractor(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param archive the zip archive, copied to a temporary file first unless it is a local file
+     * @param directory where to extract the archive
+     * @return the files of the archive in the directory, in the order of the archive (including those that were
+     *         already up to date)
+     */
+    public List<File> extract(URL archive, File directory) throws IOException {
+        File archiveFile = toLocalFile(archive);
+        File temporary = null;
+        if (archiveFile == null) {
+            temporary = File.createTempFile("hawkular-module", ".zip");
+            try (InputStream in = archive.openStream()) {
+                Files.copy(in, temporary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            archiveFile = temporary;
+        }
+        try (ZipFile zip = new ZipFile(archiveFile);
+                FileChannel archiveChannel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ)) {
+            return extract(zip, new StoredEntries(archiveChannel), directory);
+        } finally {
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+
+    private List<File> extract(ZipFile zip, StoredEntries stored, File directory) throws IOException {
+        List<ZipEntry> entries = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+            ZipEntry entry = e.nextElement();
+            File file = resolve(directory, entry.getName());
+            if (!entry.isDirectory()) {
+                entries.add(entry);
+                files.add(file);
+            }
+        }
+
+        int poolSize = Math.min(threads, entries.size());
+        if (poolSize <= 1) {
+            for (int i = 0; i < entries.size(); i++) {
+                extractEntry(zip, stored, entries.get(i), files.get(i));
+            }
+            return files;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        try {
+            List<Future<?>> futures = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                ZipEntry entry = entries.get(i);
+                File file = files.get(i);
+                futures.add(executor.submit(() -> {
+                    extractEntry(zip, stored, entry, file);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException("Failed to extract [" + zip.getName() + "]", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while extracting [" + zip.getName() + "]", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return files;
+    }
+
+    private void extractEntry(ZipFile zip, StoredEntries stored, ZipEntry entry, File file) throws IOException {
+        if (isUnchanged(entry, file)) {
+            log.debug("Keeping unchanged " + file.getAbsolutePath());
+            return;
+        }
+        log.debug("Writing " + file.getAbsolutePath());
+        File parent = file.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+
+        long dataOffset = stored.getDataOffset(entry);
+        long written;
+        long checksum;
+        if (dataOffset >= 0) {
+            written = transferStored(stored.channel, dataOffset, entry.getSize(), file);
+            checksum = crc(file);
+        } else {
+            CRC32 crc = new CRC32();
+            written = transferInflated(new CheckedInputStream(zip.getInputStream(entry), crc), file);
+            checksum = crc.getValue();
+        }
+        if ((entry.getSize() >= 0 && written != entry.getSize())
+                || (entry.getCrc() >= 0 && checksum != entry.getCrc())) {
+            file.delete();
+            throw new IOException("Extracted [" + file.getAbsolutePath() + "] does not match the checksum of ["
+                    + entry.getName() + "] in [" + zip.getName() + "]");
+        }
+    }
+
+    /**
+     * Copies the data of a stored entry from the archive to the file without going through the zip streams.
+     *
+     * @return the number of bytes written
+     */
+    private static long transferStored(FileChannel archive, long dataOffset, long size, File file) throws IOException {
+        long written = 0;
+        try (FileChannel out = openForWriting(file)) {
+            long transferred;
+            while (written < size
+                    && (transferred = archive.transferTo(dataOffset + written, size - written, out)) > 0) {
+                written += transferred;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Copies the (uncompressed) content of an entry to the file.
+     *
+     * @return the number of bytes written
+     */
+    private static long transferInflated(InputStream content, File file) throws IOException {
+        long written = 0;
+        try (InputStream in = content; FileChannel out = openForWriting(file)) {
+            ReadableByteChannel source = Channels.newChannel(in);
+            long transferred;
+            while ((transferred = out.transferFrom(source, written, BUFFER_SIZE * 16)) > 0) {
+                written += transferred;
+            }
+        }
+        return written;
+    }
+
+    private static FileChannel openForWriting(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return true if the file already has the size and checksum the archive records for the entry
+     */
+    private static boolean isUnchanged(ZipEntry entry, File file) throws IOException {
+        if (entry.getSize() < 0 || entry.getCrc() < 0 || !file.isFile() || file.length() != entry.getSize()) {
+            return false;
+        }
+        return crc(file) == entry.getCrc();
+    }
+
+    private static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @param directory the directory an archive is extracted to
+     * @param name the name of an entry of the archive
+     * @return the file the entry is extracted to
+     * @throws IOException if the entry would be extracted outside of the directory
+     */
+    static File resolve(File directory, String name) throws IOException {
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        Path target = root.resolve(name).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IOException("Archive entry [" + name + "] is outside of [" + root + "]");
+        }
+        return target.toFile();
+    }
+
+    /**
+     * Locates the data of the entries that are stored without compression. {@link ZipEntry} does not tell where an
+     * entry is in the archive, so this reads the offsets of the local headers from the central directory. Zip64
+     * archives and anything that does not look as expected are left to the zip streams.
+     */
+    static class StoredEntries {
+        private final FileChannel channel;
+        private final Map<String, Long> localHeaderOffsets;
+
+        StoredEntries(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.localHeaderOffsets = readLocalHeaderOffsets(channel);
+        }
+
+        /**
+         * @return the offset of the entry's data in the archive, or -1 if the entry is compressed or its data could
+         *         not be located
+         */
+        long getDataOffset(ZipEntry entry) throws IOException {
+            if (entry.getMethod() != ZipEntry.STORED || entry.getSize() < 0) {
+                return -1;
+            }
+            Long headerOffset = localHeaderOffsets.get(entry.getName());
+            if (headerOffset == null) {
+                return -1;
+            }
+            ByteBuffer header = read(channel, headerOffset, LOCAL_HEADER_SIZE);
+            if (header == null || header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                return -1;
+            }
+            int nameLength = header.getShort(26) & 0xFFFF;
+            int extraLength = header.getShort(28) & 0xFFFF;
+            long dataOffset = headerOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+            return (dataOffset + entry.getSize() <= channel.size()) ? dataOffset : -1;
+        }
+
+        private static Map<String, Long> readLocalHeaderOffsets(FileChannel channel) throws IOException {
+            // the end of central directory record is followed by a comment of up to 64K
+            long size = channel.size();
+            int tailSize = (int) Math.min(size, END_SIZE + 0xFFFF);
+            ByteBuffer tail = read(channel, size - tailSize, tailSize);
+            if (tail == null) {
+                return Collections.emptyMap();
+            }
+            int end = tailSize - END_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_SIGNATURE) {
+                end--;
+            }
+            if (end < 0) {
+                return Collections.emptyMap();
+            }
+            int entryCount = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & ZIP64_MARKER;
+            long directoryOffset = tail.getInt(end + 16) & ZIP64_MARKER;
+            if (entryCount == 0xFFFF || directorySize == ZIP64_MARKER || directoryOffset == ZIP64_MARKER
+                    || directoryOffset + directorySize > size) {
+                return Collections.emptyMap();
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            if (directory == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, Long> offsets = new HashMap<>();
+            int position = 0;
+            while (position + CENTRAL_HEADER_SIZE <= directory.limit()
+                    && directory.getInt(position) == CENTRAL_HEADER_SIGNATURE) {
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                long headerOffset = directory.getInt(position + 42) & ZIP64_MARKER;
+                if (position + CENTRAL_HEADER_SIZE + nameLength > directory.limit()) {
+                    break;
+                }
+                byte[] name = new byte[nameLength];
+                directory.position(position + CENTRAL_HEADER_SIZE);
+                directory.get(name);
+                if (headerOffset != ZIP64_MARKER) {
+                    offsets.put(new String(name, StandardCharsets.UTF_8), headerOffset);
+                }
+                position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            }
+            return offsets;
+        }
+
+        /**
+         * @return the bytes at the given position in little-endian order, or null if there are not as many
+         */
+        private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    return null;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static File toLocalFile(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
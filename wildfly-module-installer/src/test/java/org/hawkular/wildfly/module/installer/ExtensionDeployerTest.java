@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -273,6 +274,93 @@ public class ExtensionDeployerTest {
                 + "/x:outbound-socket-binding[@name='hawkular']", doc, 1);
     }
 
+    @Test
+    public void redeployKeepsUnchangedFiles() throws Exception {
+        createModuleZip("module.xml", "subsystem-snippet.xml");
+        DeploymentConfiguration configuration = DeploymentConfiguration.builder()
+                .jbossHome(widlflyHome)
+                .module(moduleZip.toURI().toURL())
+                .build();
+        new ExtensionDeployer().install(configuration);
+        File deployedModuleXml = Paths.get(modulesHome.getAbsolutePath(), "fake-module", "main", "module.xml")
+                .toFile();
+        File deployedSnippet = Paths.get(modulesHome.getAbsolutePath(), "fake-module", "main",
+                "subsystem-snippet.xml").toFile();
+        Assert.assertTrue(deployedModuleXml.setLastModified(0L));
+        FileUtils.writeStringToFile(deployedSnippet, "<changed/>");
+
+        FileUtils.copyFile(getResourceFile("standalone-minimal.xml"), standaloneXml);
+        new ExtensionDeployer().install(configuration);
+        Assert.assertEquals("Unchanged module.xml was not rewritten", 0L, deployedModuleXml.lastModified());
+        Assert.assertEquals("Changed snippet was restored",
+                IOUtils.toString(getClass().getResourceAsStream("/module/subsystem-snippet.xml")),
+                FileUtils.readFileToString(deployedSnippet));
+    }
+
+    @Test(expected = ExtensionDeploymentException.class)
+    public void deployModuleWithEntryOutsideModulesHome() throws Exception {
+        try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(moduleZip))) {
+            zout.putNextEntry(new ZipEntry("fake-module/main/module.xml"));
+            zout.write(IOUtils.toByteArray(getClass().getResourceAsStream("/module/module.xml")));
+            zout.closeEntry();
+            zout.putNextEntry(new ZipEntry("../../../outside.txt"));
+            zout.write("outside".getBytes());
+            zout.closeEntry();
+        }
+        DeploymentConfiguration configuration = DeploymentConfiguration.builder()
+                .jbossHome(widlflyHome)
+                .module(moduleZip.toURI().toURL())
+                .build();
+        try {
+            new ExtensionDeployer().install(configuration);
+        } finally {
+            Assert.assertFalse(new File(modulesHome, "../../../outside.txt").exists());
+        }
+    }
+
+    @Test
+    public void deployToDomainAndHost() throws Exception {
+        createModuleZip("module.xml", "subsystem-snippet.xml", "socket-binding-snippet.xml");
+        DeploymentConfiguration domain = DeploymentConfiguration.builder()
+                .jbossHome(widlflyHome)
+                .module(moduleZip.toURI().toURL())
+                .serverConfig("domain/configuration/domain.xml")
+                .build();
+        DeploymentConfiguration host = DeploymentConfiguration.builder()
+                .jbossHome(widlflyHome)
+                .module(moduleZip.toURI().toURL())
+                .serverConfig("domain/configuration/host.xml")
+                .build();
+        new ExtensionDeployer().install(Arrays.asList(domain, host));
+        File deployedModuleXml = Paths.get(modulesHome.getAbsolutePath(), "fake-module", "main", "module.xml")
+                .toFile();
+        Assert.assertTrue("Deployed module.xml exists", deployedModuleXml.exists());
+
+        Document doc = dBuilder.parse(domainXml);
+        String xmlns = doc.getDocumentElement().getAttribute("xmlns");
+        xpath.setNamespaceContext(new NamespaceContextImpl().mapping("x", xmlns).mapping("foo", "foo"));
+        assertXpath("/x:domain/x:extensions/x:extension[@module='org.hawkular.agent.monitor']", doc, 1);
+        assertXpath("/x:domain/x:profiles/x:profile[@name='default']/foo:subsystem", doc, 1);
+
+        doc = dBuilder.parse(hostXml);
+        xmlns = doc.getDocumentElement().getAttribute("xmlns");
+        xpath.setNamespaceContext(new NamespaceContextImpl().mapping("x", xmlns).mapping("foo", "foo"));
+        assertXpath("/x:host/x:extensions/x:extension[@module='org.hawkular.agent.monitor']", doc, 1);
+        assertXpath("/x:host/x:profile/foo:subsystem", doc, 1);
+        assertXpath("/x:host/x:socket-binding-group[@name='standard-sockets']"
+                + "/x:outbound-socket-binding[@name='hawkular']", doc, 1);
+    }
+
+    @Test(expected = ExtensionDeploymentException.class)
+    public void deploySameTargetTwice() throws Exception {
+        createModuleZip("module.xml");
+        DeploymentConfiguration configuration = DeploymentConfiguration.builder()
+                .jbossHome(widlflyHome)
+                .module(moduleZip.toURI().toURL())
+                .build();
+        new ExtensionDeployer().install(Arrays.asList(configuration, configuration));
+    }
+
     private void assertXpath(String expression, Document doc, int expectedCount) throws Exception {
         XPathExpression expr = xpath.compile(expression);
         NodeList nl = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -30,6 +30,7 @@ import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
@@ -344,6 +345,58 @@ public class XmlConfigBuilderTest {
         assertXpath("/x:server/ns:subsystem[@name='bar']/ns:subsystem[@name='foobar']/ns:child", doc, 2);
     }
 
+    @Test
+    public void testUnselectedContentKeptVerbatim() throws Exception {
+        XmlConfigBuilder builder = new XmlConfigBuilder(getResourceFile("root.xml"), getTempFile());
+        builder.edit(new XmlEdit("/server/subsystem[@name='foo']", "<child attr=\"value3\"/>").withAttribute("attr"));
+        builder.build();
+        Document doc = dBuilder.parse(builder.getTargetFile());
+        assertXpath("/server/subsystem[@name='foo']/child[@attr='value3']", doc, 1);
+        assertXpath("/server/subsystem[@name='foo']/child", doc, 2);
+
+        // the subsystems no edit selects keep the indentation and attribute order of the source
+        String target = FileUtils.readFileToString(builder.getTargetFile(), "UTF-8");
+        Assert.assertTrue(target.contains("\n  <subsystem xmlns=\"foo\" name=\"bar\">\n"
+                + "    <child attr=\"value2\"/>\n"
+                + "  </subsystem>\n"));
+    }
+
+    @Test
+    public void testSelectNeedingWholeDocument() throws Exception {
+        // descendant steps cannot be matched while streaming, the whole document is edited instead
+        XmlConfigBuilder builder = new XmlConfigBuilder(getResourceFile("root.xml"), getTempFile());
+        builder.edit(new XmlEdit("//subsystem[@name='foo']", "<child attr=\"value3\"/>").withAttribute("attr"));
+        builder.edit(new XmlEdit("/server", getResourceURL("content1Append.xml")));
+        builder.build();
+        Document doc = dBuilder.parse(builder.getTargetFile());
+        assertXpath("/server/subsystem[@name='foo']/child[@attr='value3']", doc, 1);
+        assertXpath("/server/subsystem[@name='foobar']/child", doc, 2);
+    }
+
+    @Test
+    public void testFailNoMatch() throws Exception {
+        XmlConfigBuilder builder = new XmlConfigBuilder(getResourceFile("root.xml"), getTempFile());
+        builder.edit(new XmlEdit("/server/subsystem[@name='missing']", getResourceURL("content1.xml")));
+        builder.failNoMatch(true);
+        try {
+            builder.build();
+            Assert.fail("An edit that does not select any element must fail the build");
+        } catch (Exception expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("does not select any element"));
+        }
+
+        // the same when the whole document is edited
+        builder = new XmlConfigBuilder(getResourceFile("root.xml"), getTempFile());
+        builder.edit(new XmlEdit("//subsystem[@name='missing']", getResourceURL("content1.xml")));
+        builder.failNoMatch(true);
+        try {
+            builder.build();
+            Assert.fail("An edit that does not select any element must fail the build");
+        } catch (Exception expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("does not select any element"));
+        }
+    }
+
     @Test(expected = XPathExpressionException.class)
     public void invalidSelect() throws Exception {
         XmlConfigBuilder builder = new XmlConfigBuilder(getResourceFile("rotNS.xml"), getTempFile());
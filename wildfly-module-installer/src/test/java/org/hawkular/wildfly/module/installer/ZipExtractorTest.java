@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.wildfly.module.installer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZipExtractorTest {
+
+    private final File archive = Paths.get("target", "test-extract.zip").toFile();
+    private final File directory = Paths.get("target", "test-extract").toFile();
+
+    @After
+    public void cleanup() throws IOException {
+        archive.delete();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testExtractStoredAndDeflatedEntries() throws Exception {
+        createArchive();
+
+        List<File> files = new ZipExtractor(2).extract(archive.toURI().toURL(), directory);
+
+        Assert.assertEquals(3, files.size());
+        Assert.assertEquals(content("stored"),
+                FileUtils.readFileToString(new File(directory, "a/stored.txt"), "UTF-8"));
+        Assert.assertEquals(content("deflated"),
+                FileUtils.readFileToString(new File(directory, "a/deflated.txt"), "UTF-8"));
+        Assert.assertEquals("", FileUtils.readFileToString(new File(directory, "b/empty.txt"), "UTF-8"));
+    }
+
+    @Test
+    public void testStoredEntriesAreLocated() throws Exception {
+        createArchive();
+
+        try (ZipFile zip = new ZipFile(archive);
+                FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            ZipExtractor.StoredEntries stored = new ZipExtractor.StoredEntries(channel);
+            long dataOffset = stored.getDataOffset(zip.getEntry("a/stored.txt"));
+            byte[] data = new byte[20];
+            channel.read(ByteBuffer.wrap(data), dataOffset);
+            Assert.assertEquals(content("stored").substring(0, 20), new String(data, StandardCharsets.UTF_8));
+            Assert.assertEquals(-1, stored.getDataOffset(zip.getEntry("a/deflated.txt")));
+        }
+    }
+
+    @Test
+    public void testCorruptStoredEntryIsRejected() throws Exception {
+        createArchive();
+        corrupt(content("stored"));
+
+        try {
+            new ZipExtractor(1).extract(archive.toURI().toURL(), directory);
+            Assert.fail("The corrupt entry should have been rejected");
+        } catch (IOException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("a/stored.txt"));
+        }
+        Assert.assertFalse(new File(directory, "a/stored.txt").exists());
+    }
+
+    private void createArchive() throws IOException {
+        archive.getParentFile().mkdirs();
+        try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(archive))) {
+            addStored(zout, "a/stored.txt", content("stored"));
+            ZipEntry deflated = new ZipEntry("a/deflated.txt");
+            zout.putNextEntry(deflated);
+            zout.write(content("deflated").getBytes(StandardCharsets.UTF_8));
+            zout.closeEntry();
+            addStored(zout, "b/empty.txt", "");
+        }
+    }
+
+    private static void addStored(ZipOutputStream zout, String name, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        entry.setExtra(new byte[] { (byte) 0xCA, (byte) 0xFE, 2, 0, 1, 2 }); // shifts the data in the local header
+        zout.putNextEntry(entry);
+        zout.write(bytes);
+        zout.closeEntry();
+    }
+
+    /**
+     * Changes a byte of the given content in the archive without touching the checksum recorded for it.
+     */
+    private void corrupt(String content) throws IOException {
+        byte[] archiveBytes = FileUtils.readFileToByteArray(archive);
+        String raw = new String(archiveBytes, StandardCharsets.ISO_8859_1);
+        int offset = raw.indexOf(content);
+        Assert.assertTrue(offset > 0);
+        try (RandomAccessFile file = new RandomAccessFile(archive, "rw")) {
+            file.seek(offset);
+            file.write('X');
+        }
+    }
+
+    private static String content(String name) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append(name).append(" line ").append(i).append('\n');
+        }
+        return content.toString();
+    }
+}